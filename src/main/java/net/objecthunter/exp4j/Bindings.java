@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Variable values stored in slots instead of a map. The names are fixed when the bindings are created and every
+ * name gets an index, so values can be set by index without any lookup. Bindings also carry the scratch space used
+ * by {@link Expression#evaluate(Bindings)} and {@link Expression#gradient(Bindings, double[])}, which makes repeated
+ * evaluations free of garbage. Use one instance per thread, {@link #Bindings(Bindings)} creates a copy sharing the
+ * same names.
+ */
+public final class Bindings {
+
+    private final Layout layout;
+
+    private final double[] values;
+
+    private final boolean[] set;
+
+    /* number of variables which have not been set yet */
+    private int unset;
+
+    Program.Tape tape;
+
+    /**
+     * Create new bindings for the given variable names
+     * @param names the variable names, their indices are their positions
+     */
+    public Bindings(String... names) {
+        this(Arrays.asList(names));
+    }
+
+    /**
+     * Create new bindings for the given variable names
+     * @param names the variable names, their indices are their positions in iteration order
+     */
+    public Bindings(Collection<String> names) {
+        this.layout = new Layout(names);
+        this.values = new double[layout.names.length];
+        this.set = new boolean[layout.names.length];
+        this.unset = layout.names.length;
+    }
+
+    /**
+     * Create a copy of existing bindings with the same names and values
+     * @param existing the bindings to copy
+     */
+    public Bindings(Bindings existing) {
+        this.layout = existing.layout;
+        this.values = existing.values.clone();
+        this.set = existing.set.clone();
+        this.unset = existing.unset;
+    }
+
+    Object getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return the number of variables
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Get the index of a variable
+     * @param name the name of the variable
+     * @return the index or -1 if there is no variable with that name
+     */
+    public int indexOf(String name) {
+        final Integer index = layout.index.get(name);
+        return index == null ? -1 : index;
+    }
+
+    public String getName(int index) {
+        return layout.names[index];
+    }
+
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(layout.names));
+    }
+
+    public Bindings set(String name, double value) {
+        final int index = indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown variable '" + name + "'");
+        }
+        return set(index, value);
+    }
+
+    public Bindings set(int index, double value) {
+        values[index] = value;
+        if (!set[index]) {
+            set[index] = true;
+            unset--;
+        }
+        return this;
+    }
+
+    public Bindings setAll(Map<String, Double> variables) {
+        for (Map.Entry<String, Double> v : variables.entrySet()) {
+            this.set(v.getKey(), v.getValue());
+        }
+        return this;
+    }
+
+    public double get(String name) {
+        final int index = indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown variable '" + name + "'");
+        }
+        return get(index);
+    }
+
+    public double get(int index) {
+        if (!set[index]) {
+            throw new IllegalArgumentException("No value has been set for the setVariable '" + layout.names[index] + "'.");
+        }
+        return values[index];
+    }
+
+    public boolean isSet(int index) {
+        return set[index];
+    }
+
+    /**
+     * @return true if all the variables have been set
+     */
+    boolean isComplete() {
+        return unset == 0;
+    }
+
+    /**
+     * @return the values of the variables by index, which must not be modified
+     */
+    double[] values() {
+        return values;
+    }
+
+    private static final class Layout {
+
+        private final String[] names;
+
+        private final Map<String, Integer> index = new HashMap<>();
+
+        Layout(Collection<String> names) {
+            this.names = names.toArray(new String[0]);
+            for (int i = 0; i < this.names.length; i++) {
+                if (index.put(this.names[i], i) != null) {
+                    throw new IllegalArgumentException("Duplicate variable '" + this.names[i] + "'");
+                }
+            }
+        }
+    }
+}
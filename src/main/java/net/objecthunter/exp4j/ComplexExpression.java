@@ -0,0 +1,754 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.JumpToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates an {@link Expression} over complex numbers. The real and imaginary parts are kept on two parallel
+ * <code>double[]</code> stacks, so no objects are allocated while evaluating. A variable named
+ * {@link #IMAGINARY_UNIT i} which has no value is the imaginary unit, {@link ExpressionBuilder#buildComplex(String...)}
+ * declares it.
+ * <p>
+ * All builtin operators and functions have complex versions using the principal branches. For real arguments
+ * inside the domain of the real function, like <code>sqrt(2)</code> or <code>cbrt(-8)</code>, the result is the one
+ * of {@link Expression#evaluate()}, outside of it the complex result is used, so <code>sqrt(-1)</code> is
+ * <code>i</code> and <code>log(-1)</code> is <code>i pi</code>. <code>abs</code> is the modulus, <code>signum</code>
+ * the number divided by its modulus, <code>floor</code> and <code>ceil</code> round both parts, and <code>a % b</code>
+ * is <code>a - b * q</code> where <code>q</code> is <code>a / b</code> with both parts truncated towards zero; both
+ * throw an {@link ArithmeticException} if b is zero, like for doubles.
+ * <code>==</code> and <code>!=</code> compare both parts, the ordering operators throw an
+ * {@link ArithmeticException} if an operand is not real. A number is true if it is not zero. Custom functions and
+ * operators can only be applied to real arguments.
+ * <p>
+ * Besides single evaluations, {@link #evaluate(double[][], double[][], double[], double[])} evaluates the
+ * expression for every row of split real and imaginary columns.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class ComplexExpression {
+
+    /**
+     * The name of the variable standing for the imaginary unit if it has no value
+     */
+    public static final String IMAGINARY_UNIT = "i";
+
+    private static final int OP_NUMBER = 0;
+    private static final int OP_VARIABLE = 1;
+    private static final int OP_ADD = 2;
+    private static final int OP_SUBTRACT = 3;
+    private static final int OP_MULTIPLY = 4;
+    private static final int OP_DIVIDE = 5;
+    private static final int OP_MODULO = 6;
+    private static final int OP_POWER = 7;
+    private static final int OP_LESS = 8;
+    private static final int OP_GREATER = 9;
+    private static final int OP_LESS_EQUAL = 10;
+    private static final int OP_GREATER_EQUAL = 11;
+    private static final int OP_EQUAL = 12;
+    private static final int OP_NOT_EQUAL = 13;
+    private static final int OP_AND = 14;
+    private static final int OP_OR = 15;
+    private static final int OP_NEGATE = 16;
+    private static final int OP_IDENTITY = 17;
+    private static final int OP_UNCHECKED_DIVIDE = 18;
+    private static final int OP_FUNCTION = 19;
+    private static final int OP_CUSTOM = 20;
+    private static final int OP_GOTO = 21;
+    private static final int OP_IF_FALSE = 22;
+    private static final int OP_AND_JUMP = 23;
+    private static final int OP_OR_JUMP = 24;
+    private static final int OP_BOOLEAN = 25;
+
+    private static final Map<String, Integer> OPERATOR_CODES = new HashMap<>();
+
+    static {
+        final String[] symbols = {"+", "-", "*", "/", "%", "^", "<", ">", "<=", ">=", "==", "!=", "&&", "||"};
+        for (int i = 0; i < symbols.length; i++) {
+            OPERATOR_CODES.put(symbols[i], OP_ADD + i);
+        }
+    }
+
+    private static final double LN_10 = Math.log(10d);
+
+    private static final double LN_2 = Math.log(2d);
+
+    /* the opcode of every token */
+    private final int[] codes;
+
+    /* the value of a number, the slot of a variable, the number of arguments or the target of a jump */
+    private final double[] operands;
+
+    private final Functions[] builtins;
+
+    private final Function[] functions;
+
+    private final Operator[] operators;
+
+    private final String[] variableNames;
+
+    private final Map<String, Integer> variableIndex = new HashMap<>();
+
+    private final double[] variableRe;
+
+    private final double[] variableIm;
+
+    private final boolean[] variableSet;
+
+    /* the slots of the variables read from the columns */
+    private final String[] columns;
+
+    private final int[] columnSlots;
+
+    private final double[] re;
+
+    private final double[] im;
+
+    private final double[] arguments;
+
+    /**
+     * Create a new evaluator. The values of the variables currently set on the expression are used as initial values.
+     * @param expression the expression to evaluate
+     * @param columns the variables read from the columns passed to
+     * {@link #evaluate(double[][], double[][], double[], double[])}, in the order of the columns
+     */
+    public ComplexExpression(Expression expression, String... columns) {
+        final Token[] tokens = expression.getTokens();
+        this.codes = new int[tokens.length];
+        this.operands = new double[tokens.length];
+        this.builtins = new Functions[tokens.length];
+        this.functions = new Function[tokens.length];
+        this.operators = new Operator[tokens.length];
+        final List<String> names = new ArrayList<>();
+        int depth = 0;
+        int maxDepth = 1;
+        int maxArguments = 2;
+        for (int i = 0; i < tokens.length; i++) {
+            final Token token = tokens[i];
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    codes[i] = OP_NUMBER;
+                    operands[i] = ((NumberToken) token).getValue();
+                    depth++;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final String name = ((VariableToken) token).getName();
+                    Integer slot = variableIndex.get(name);
+                    if (slot == null) {
+                        slot = names.size();
+                        names.add(name);
+                        variableIndex.put(name, slot);
+                    }
+                    codes[i] = OP_VARIABLE;
+                    operands[i] = slot;
+                    depth++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) token).getOperator();
+                    final int numOperands = operator.getNumOperands();
+                    if (!Operators.isBuiltinOperator(operator)) {
+                        codes[i] = OP_CUSTOM;
+                        operators[i] = operator;
+                        operands[i] = numOperands;
+                    } else if (numOperands == 1) {
+                        codes[i] = operator.getSymbol().equals("-") ? OP_NEGATE : OP_IDENTITY;
+                    } else if (operator == Operators.getUncheckedDivision()) {
+                        codes[i] = OP_UNCHECKED_DIVIDE;
+                    } else {
+                        codes[i] = OPERATOR_CODES.get(operator.getSymbol());
+                    }
+                    depth -= numOperands - 1;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final FunctionToken functionToken = (FunctionToken) token;
+                    final int numArguments = functionToken.getDynamicNumberOfArguments();
+                    functions[i] = functionToken.getFunction();
+                    builtins[i] = Functions.of(functions[i]);
+                    codes[i] = builtins[i] != null ? OP_FUNCTION : OP_CUSTOM;
+                    operands[i] = numArguments;
+                    depth -= numArguments - 1;
+                    maxArguments = Math.max(maxArguments, numArguments);
+                    break;
+                case Token.TOKEN_JUMP:
+                    final JumpToken jump = (JumpToken) token;
+                    codes[i] = OP_GOTO + jump.getKind();
+                    operands[i] = jump.getTarget();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected token in the expression");
+            }
+            /* jumps are ignored, they only ever shorten the stack */
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        this.variableNames = names.toArray(new String[0]);
+        this.variableRe = new double[variableNames.length];
+        this.variableIm = new double[variableNames.length];
+        this.variableSet = new boolean[variableNames.length];
+        this.re = new double[maxDepth];
+        this.im = new double[maxDepth];
+        this.arguments = new double[maxArguments];
+        this.columns = columns.clone();
+        this.columnSlots = new int[columns.length];
+        for (int c = 0; c < columns.length; c++) {
+            final Integer slot = variableIndex.get(columns[c]);
+            columnSlots[c] = slot == null ? -1 : slot;
+        }
+        for (Map.Entry<String, Double> variable : expression.getVariableValues().entrySet()) {
+            setVariable(variable.getKey(), variable.getValue());
+        }
+        final Integer unit = variableIndex.get(IMAGINARY_UNIT);
+        if (unit != null && !variableSet[unit]) {
+            setVariable(IMAGINARY_UNIT, 0d, 1d);
+        }
+    }
+
+    public ComplexExpression setVariable(String name, double re, double im) {
+        final Integer slot = variableIndex.get(name);
+        if (slot != null) {
+            variableRe[slot] = re;
+            variableIm[slot] = im;
+            variableSet[slot] = true;
+        }
+        return this;
+    }
+
+    public ComplexExpression setVariable(String name, double value) {
+        return setVariable(name, value, 0d);
+    }
+
+    /**
+     * @return the variables read from the columns, in the order of the columns
+     */
+    public String[] getColumnNames() {
+        return columns.clone();
+    }
+
+    /**
+     * Evaluate the expression
+     * @return the real and the imaginary part of the result
+     */
+    public double[] evaluate() {
+        final double[] result = new double[2];
+        evaluate(result);
+        return result;
+    }
+
+    /**
+     * Evaluate the expression without allocating
+     * @param result the array receiving the real part at index 0 and the imaginary part at index 1
+     */
+    public void evaluate(double[] result) {
+        run();
+        result[0] = re[0];
+        result[1] = im[0];
+    }
+
+    /**
+     * Evaluate the expression for every row of the columns. Variables which are not read from the columns keep their
+     * values.
+     * @param realColumns the real parts of the variables, one column per variable in the order passed to the
+     * constructor
+     * @param imaginaryColumns the imaginary parts of the variables in the same order, or null if all of them are real
+     * @param realResults the array receiving the real parts of the results, one per row
+     * @param imaginaryResults the array receiving the imaginary parts of the results
+     */
+    public void evaluate(double[][] realColumns, double[][] imaginaryColumns, double[] realResults,
+                         double[] imaginaryResults) {
+        final int rows = realResults.length;
+        if (realColumns.length != columns.length || (imaginaryColumns != null && imaginaryColumns.length != columns.length)) {
+            throw new IllegalArgumentException("Expected " + columns.length + " columns");
+        }
+        if (imaginaryResults.length < rows) {
+            throw new IllegalArgumentException("The imaginary results can hold only " + imaginaryResults.length
+                    + " values for " + rows + " rows");
+        }
+        for (int c = 0; c < columns.length; c++) {
+            if (realColumns[c].length < rows || (imaginaryColumns != null && imaginaryColumns[c].length < rows)) {
+                throw new IllegalArgumentException("The column of the variable '" + columns[c] + "' has less than "
+                        + rows + " values");
+            }
+            if (columnSlots[c] >= 0) {
+                variableSet[columnSlots[c]] = true;
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            for (int c = 0; c < columnSlots.length; c++) {
+                final int slot = columnSlots[c];
+                if (slot >= 0) {
+                    variableRe[slot] = realColumns[c][row];
+                    variableIm[slot] = imaginaryColumns == null ? 0d : imaginaryColumns[c][row];
+                }
+            }
+            run();
+            realResults[row] = re[0];
+            imaginaryResults[row] = im[0];
+        }
+    }
+
+    private void run() {
+        final int[] codes = this.codes;
+        final double[] operands = this.operands;
+        final double[] re = this.re;
+        final double[] im = this.im;
+        int top = 0;
+        for (int i = 0; i < codes.length; ) {
+            switch (codes[i]) {
+                case OP_NUMBER:
+                    re[top] = operands[i];
+                    im[top++] = 0d;
+                    break;
+                case OP_VARIABLE:
+                    final int slot = (int) operands[i];
+                    if (!variableSet[slot]) {
+                        throw new IllegalArgumentException("No value has been set for the setVariable '"
+                                + variableNames[slot] + "'.");
+                    }
+                    re[top] = variableRe[slot];
+                    im[top++] = variableIm[slot];
+                    break;
+                case OP_IDENTITY:
+                    break;
+                case OP_NEGATE:
+                    re[top - 1] = -re[top - 1];
+                    /* a real number stays on the upper side of the branch cuts, so -1 is not -1 - 0i */
+                    im[top - 1] = 0d - im[top - 1];
+                    break;
+                case OP_FUNCTION:
+                    top = apply(builtins[i], (int) operands[i], top);
+                    break;
+                case OP_CUSTOM:
+                    top = applyCustom(i, top);
+                    break;
+                case OP_GOTO:
+                    i = (int) operands[i];
+                    continue;
+                case OP_IF_FALSE:
+                    top--;
+                    i = isTrue(top) ? i + 1 : (int) operands[i];
+                    continue;
+                case OP_AND_JUMP:
+                    if (!isTrue(top - 1)) {
+                        setReal(top - 1, 0d);
+                        i = (int) operands[i];
+                    } else {
+                        top--;
+                        i++;
+                    }
+                    continue;
+                case OP_OR_JUMP:
+                    if (isTrue(top - 1)) {
+                        setReal(top - 1, 1d);
+                        i = (int) operands[i];
+                    } else {
+                        top--;
+                        i++;
+                    }
+                    continue;
+                case OP_BOOLEAN:
+                    setReal(top - 1, isTrue(top - 1) ? 1d : 0d);
+                    i = (int) operands[i];
+                    continue;
+                default:
+                    top--;
+                    apply(codes[i], top - 1, top);
+            }
+            i++;
+        }
+        if (top != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+    }
+
+    private boolean isTrue(int p) {
+        return re[p] != 0d || im[p] != 0d;
+    }
+
+    private void setReal(int p, double value) {
+        re[p] = value;
+        im[p] = 0d;
+    }
+
+    private void set(int p, double real, double imaginary) {
+        re[p] = real;
+        im[p] = imaginary;
+    }
+
+    /**
+     * Apply a builtin binary operator to the positions a and b, leaving the result at a
+     */
+    private void apply(int code, int a, int b) {
+        final double ar = re[a];
+        final double ai = im[a];
+        final double br = re[b];
+        final double bi = im[b];
+        final boolean real = ai == 0d && bi == 0d;
+        switch (code) {
+            case OP_ADD:
+                set(a, ar + br, ai + bi);
+                break;
+            case OP_SUBTRACT:
+                set(a, ar - br, ai - bi);
+                break;
+            case OP_MULTIPLY:
+                set(a, ar * br - ai * bi, ar * bi + ai * br);
+                break;
+            case OP_DIVIDE:
+                if (br == 0d && bi == 0d) {
+                    throw new ArithmeticException("Division by zero!");
+                }
+                divide(a, b);
+                break;
+            case OP_UNCHECKED_DIVIDE:
+                divide(a, b);
+                break;
+            case OP_MODULO:
+                if (br == 0d && bi == 0d) {
+                    throw new ArithmeticException("Division by zero!");
+                }
+                if (real) {
+                    setReal(a, ar % br);
+                    break;
+                }
+                divide(a, b);
+                final double qr = truncate(re[a]);
+                final double qi = truncate(im[a]);
+                set(a, ar - (br * qr - bi * qi), ai - (br * qi + bi * qr));
+                break;
+            case OP_POWER:
+                pow(a, b);
+                break;
+            case OP_EQUAL:
+                setReal(a, ar == br && ai == bi ? 1d : 0d);
+                break;
+            case OP_NOT_EQUAL:
+                setReal(a, ar != br || ai != bi ? 1d : 0d);
+                break;
+            case OP_AND:
+                setReal(a, isTrue(a) && isTrue(b) ? 1d : 0d);
+                break;
+            case OP_OR:
+                setReal(a, isTrue(a) || isTrue(b) ? 1d : 0d);
+                break;
+            default:
+                if (!real) {
+                    throw new ArithmeticException("Complex numbers can not be ordered");
+                }
+                final boolean result;
+                switch (code) {
+                    case OP_LESS:
+                        result = ar < br;
+                        break;
+                    case OP_GREATER:
+                        result = ar > br;
+                        break;
+                    case OP_LESS_EQUAL:
+                        result = ar <= br;
+                        break;
+                    default:
+                        result = ar >= br;
+                }
+                setReal(a, result ? 1d : 0d);
+        }
+    }
+
+    private static double truncate(double value) {
+        return value < 0d ? Math.ceil(value) : Math.floor(value);
+    }
+
+    /**
+     * Divide position a by position b using Smith's algorithm, which avoids overflowing intermediates
+     */
+    private void divide(int a, int b) {
+        final double ar = re[a];
+        final double ai = im[a];
+        final double br = re[b];
+        final double bi = im[b];
+        if (bi == 0d) {
+            set(a, ar / br, ai / br);
+        } else if (Math.abs(br) >= Math.abs(bi)) {
+            final double ratio = bi / br;
+            final double denominator = br + bi * ratio;
+            set(a, (ar + ai * ratio) / denominator, (ai - ar * ratio) / denominator);
+        } else {
+            final double ratio = br / bi;
+            final double denominator = br * ratio + bi;
+            set(a, (ar * ratio + ai) / denominator, (ai * ratio - ar) / denominator);
+        }
+    }
+
+    private void multiply(int a, double br, double bi) {
+        final double ar = re[a];
+        final double ai = im[a];
+        set(a, ar * br - ai * bi, ar * bi + ai * br);
+    }
+
+    /**
+     * Raise position a to the power at position b. Real powers which are real use {@link Math#pow(double, double)},
+     * integer exponents square repeatedly, and all other powers are computed as <code>exp(b log(a))</code>.
+     */
+    private void pow(int a, int b) {
+        final double ar = re[a];
+        final double ai = im[a];
+        final double br = re[b];
+        final double bi = im[b];
+        if (ai == 0d && bi == 0d) {
+            final double value = Math.pow(ar, br);
+            if (!Double.isNaN(value) || Double.isNaN(ar) || Double.isNaN(br)) {
+                setReal(a, value);
+                return;
+            }
+        }
+        if (bi == 0d && br == Math.rint(br) && Math.abs(br) <= Integer.MAX_VALUE) {
+            long n = Math.abs((long) br);
+            double baseRe = ar;
+            double baseIm = ai;
+            setReal(a, 1d);
+            while (n != 0) {
+                if ((n & 1) != 0) {
+                    multiply(a, baseRe, baseIm);
+                }
+                n >>>= 1;
+                final double square = baseRe * baseRe - baseIm * baseIm;
+                baseIm = 2 * baseRe * baseIm;
+                baseRe = square;
+            }
+            if (br < 0) {
+                /* 1 / z = conj(z) / |z|^2, divided in two steps so that |z|^2 does not overflow */
+                final double scale = Math.max(Math.abs(re[a]), Math.abs(im[a]));
+                final double r = re[a] / scale;
+                final double i = im[a] / scale;
+                final double norm = (r * r + i * i) * scale;
+                set(a, r / norm, -i / norm);
+            }
+            return;
+        }
+        if (ar == 0d && ai == 0d) {
+            if (br > 0d) {
+                setReal(a, 0d);
+            } else {
+                set(a, Double.NaN, Double.NaN);
+            }
+            return;
+        }
+        log(a);
+        multiply(a, br, bi);
+        exp(a);
+    }
+
+    private void log(int p) {
+        set(p, Math.log(Math.hypot(re[p], im[p])), Math.atan2(im[p], re[p]));
+    }
+
+    private void exp(int p) {
+        final double modulus = Math.exp(re[p]);
+        final double angle = im[p];
+        set(p, modulus * Math.cos(angle), modulus * Math.sin(angle));
+    }
+
+    private void sqrt(int p) {
+        final double a = re[p];
+        final double b = im[p];
+        if (a == 0d && b == 0d) {
+            setReal(p, 0d);
+            return;
+        }
+        final double t = Math.sqrt((Math.hypot(a, b) + Math.abs(a)) / 2d);
+        if (a >= 0d) {
+            set(p, t, b / (2d * t));
+        } else {
+            set(p, Math.abs(b) / (2d * t), Math.copySign(t, b));
+        }
+    }
+
+    /**
+     * Compute the principal arc sine, <code>-i log(i z + sqrt(1 - z^2))</code>
+     */
+    private void asin(int p) {
+        final double a = re[p];
+        final double b = im[p];
+        set(p, 1d - a * a + b * b, -2d * a * b);
+        sqrt(p);
+        set(p, re[p] - b, im[p] + a);
+        log(p);
+        set(p, im[p], -re[p]);
+    }
+
+    /**
+     * Compute the principal arc tangent, <code>i/2 (log(1 - i z) - log(1 + i z))</code>
+     */
+    private void atan(int p) {
+        final double a = re[p];
+        final double b = im[p];
+        final double lr = 0.5d * Math.log((1d + b) * (1d + b) + a * a) - 0.5d * Math.log((1d - b) * (1d - b) + a * a);
+        final double li = Math.atan2(-a, 1d + b) - Math.atan2(a, 1d - b);
+        set(p, -li / 2d, lr / 2d);
+    }
+
+    private int apply(Functions function, int numArguments, int top) {
+        if (top < numArguments) {
+            throw new IllegalArgumentException("Invalid number of arguments available for '"
+                    + function.function.getName() + "' function");
+        }
+        final int p = top - numArguments;
+        switch (function) {
+            case POW:
+                pow(p, p + 1);
+                return p + 1;
+            case IF:
+                final int chosen = isTrue(p) ? p + 1 : p + 2;
+                set(p, re[chosen], im[chosen]);
+                return p + 1;
+            case AVG:
+                double sumRe = 0d;
+                double sumIm = 0d;
+                for (int i = p; i < top; i++) {
+                    sumRe += re[i];
+                    sumIm += im[i];
+                }
+                set(p, sumRe / numArguments, sumIm / numArguments);
+                return p + 1;
+        }
+        final double a = re[p];
+        final double b = im[p];
+        if (b == 0d) {
+            final double value = Functions.apply(function.function, a);
+            if (!Double.isNaN(value) || Double.isNaN(a)) {
+                setReal(p, value);
+                return top;
+            }
+        }
+        switch (function) {
+            case SIN:
+                set(p, Math.sin(a) * Math.cosh(b), Math.cos(a) * Math.sinh(b));
+                break;
+            case COS:
+                set(p, Math.cos(a) * Math.cosh(b), -Math.sin(a) * Math.sinh(b));
+                break;
+            case TAN:
+                final double tan = Math.cos(2d * a) + Math.cosh(2d * b);
+                set(p, Math.sin(2d * a) / tan, Math.sinh(2d * b) / tan);
+                break;
+            case COT:
+                final double cot = Math.cosh(2d * b) - Math.cos(2d * a);
+                set(p, Math.sin(2d * a) / cot, -Math.sinh(2d * b) / cot);
+                break;
+            case SINH:
+                set(p, Math.sinh(a) * Math.cos(b), Math.cosh(a) * Math.sin(b));
+                break;
+            case COSH:
+                set(p, Math.cosh(a) * Math.cos(b), Math.sinh(a) * Math.sin(b));
+                break;
+            case TANH:
+                final double tanh = Math.cosh(2d * a) + Math.cos(2d * b);
+                set(p, Math.sinh(2d * a) / tanh, Math.sin(2d * b) / tanh);
+                break;
+            case ASIN:
+                asin(p);
+                break;
+            case ACOS:
+                asin(p);
+                set(p, Math.PI / 2d - re[p], -im[p]);
+                break;
+            case ATAN:
+                atan(p);
+                break;
+            case LOG:
+                log(p);
+                break;
+            case LOG1P:
+                re[p] += 1d;
+                log(p);
+                break;
+            case LOG10:
+                log(p);
+                set(p, re[p] / LN_10, im[p] / LN_10);
+                break;
+            case LOG2:
+                log(p);
+                set(p, re[p] / LN_2, im[p] / LN_2);
+                break;
+            case EXP:
+                exp(p);
+                break;
+            case EXPM1:
+                exp(p);
+                re[p] -= 1d;
+                break;
+            case SQRT:
+                sqrt(p);
+                break;
+            case CBRT:
+                final double modulus = Math.cbrt(Math.hypot(a, b));
+                final double angle = Math.atan2(b, a) / 3d;
+                set(p, modulus * Math.cos(angle), modulus * Math.sin(angle));
+                break;
+            case ABS:
+                setReal(p, Math.hypot(a, b));
+                break;
+            case SIGNUM:
+                final double norm = Math.hypot(a, b);
+                set(p, a / norm, b / norm);
+                break;
+            case CEIL:
+                set(p, Math.ceil(a), Math.ceil(b));
+                break;
+            case FLOOR:
+                set(p, Math.floor(a), Math.floor(b));
+                break;
+            default:
+                return applyCustom(function.function, null, numArguments, top);
+        }
+        return top;
+    }
+
+    private int applyCustom(int index, int top) {
+        return applyCustom(functions[index], operators[index], (int) operands[index], top);
+    }
+
+    /**
+     * Apply a custom function or operator to real arguments
+     */
+    private int applyCustom(Function function, Operator operator, int numArguments, int top) {
+        final String name = operator != null ? operator.getSymbol() : function.getName();
+        if (top < numArguments) {
+            throw new IllegalArgumentException("Invalid number of arguments available for '" + name + "'");
+        }
+        final int p = top - numArguments;
+        final double[] args = numArguments == arguments.length ? arguments : new double[numArguments];
+        for (int i = 0; i < numArguments; i++) {
+            if (im[p + i] != 0d) {
+                throw new IllegalArgumentException("'" + name + "' can not be applied to complex numbers");
+            }
+            args[i] = re[p + i];
+        }
+        setReal(p, operator != null ? operator.apply(args) : Functions.apply(function, args));
+        return p + 1;
+    }
+}
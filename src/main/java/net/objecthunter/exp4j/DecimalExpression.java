@@ -0,0 +1,605 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.JumpToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates an {@link Expression} in decimal fixed point arithmetic. Every value is a <code>long</code> holding the
+ * number multiplied by 10<sup>scale</sup>, so decimal numbers like 0.1 are exact and no objects are allocated while
+ * evaluating.
+ * <p>
+ * Additions, subtractions, comparisons and modulos are exact; the modulo truncates towards zero like the Java
+ * remainder. Multiplications, divisions and <code>avg</code> are computed exactly and rounded once to the scale using
+ * the rounding mode. Powers with an integer exponent multiply by repeated squaring, rounding every product, and a
+ * negative exponent divides one by the power. <code>abs</code>, <code>signum</code>, <code>floor</code>,
+ * <code>ceil</code> and <code>if</code> are exact as well. All other functions, powers with a fractional exponent
+ * and custom functions and operators are computed in double precision and their results rounded to the scale.
+ * <p>
+ * Results which do not fit into a <code>long</code> and divisions by zero throw an {@link ArithmeticException}.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class DecimalExpression {
+
+    /**
+     * The largest supported scale, 10<sup>18</sup> is the largest power of ten fitting into a <code>long</code>
+     */
+    public static final int MAX_SCALE = 18;
+
+    /* doubles below 2^40 times 10^scale are rounded to the scale without a BigDecimal */
+    private static final double FAST_ROUNDING_LIMIT = 0x1p40;
+
+    private static final double FAST_ROUNDING_MARGIN = 1e-3;
+
+    private static final int OP_NUMBER = 0;
+    private static final int OP_VARIABLE = 1;
+    private static final int OP_ADD = 2;
+    private static final int OP_SUBTRACT = 3;
+    private static final int OP_MULTIPLY = 4;
+    private static final int OP_DIVIDE = 5;
+    private static final int OP_MODULO = 6;
+    private static final int OP_POWER = 7;
+    private static final int OP_LESS = 8;
+    private static final int OP_GREATER = 9;
+    private static final int OP_LESS_EQUAL = 10;
+    private static final int OP_GREATER_EQUAL = 11;
+    private static final int OP_EQUAL = 12;
+    private static final int OP_NOT_EQUAL = 13;
+    private static final int OP_AND = 14;
+    private static final int OP_OR = 15;
+    private static final int OP_NEGATE = 16;
+    private static final int OP_IDENTITY = 17;
+    private static final int OP_ABS = 18;
+    private static final int OP_SIGNUM = 19;
+    private static final int OP_FLOOR = 20;
+    private static final int OP_CEIL = 21;
+    private static final int OP_IF = 22;
+    private static final int OP_AVG = 23;
+    private static final int OP_DOUBLE = 24;
+    private static final int OP_GOTO = 25;
+    private static final int OP_IF_FALSE = 26;
+    private static final int OP_AND_JUMP = 27;
+    private static final int OP_OR_JUMP = 28;
+    private static final int OP_BOOLEAN = 29;
+
+    private static final Map<String, Integer> OPERATOR_CODES = new HashMap<>();
+
+    static {
+        final String[] symbols = {"+", "-", "*", "/", "%", "^", "<", ">", "<=", ">=", "==", "!=", "&&", "||"};
+        for (int i = 0; i < symbols.length; i++) {
+            OPERATOR_CODES.put(symbols[i], OP_ADD + i);
+        }
+    }
+
+    private final int scale;
+
+    private final RoundingMode rounding;
+
+    /* 10^scale, the unscaled value of one */
+    private final long one;
+
+    /* the opcode of every token */
+    private final int[] codes;
+
+    /* the unscaled value of a number, the slot of a variable, the number of arguments or the target of a jump */
+    private final long[] operands;
+
+    /* the functions and operators computed in double precision */
+    private final Function[] functions;
+
+    private final Operator[] operators;
+
+    private final String[] variableNames;
+
+    private final Map<String, Integer> variableIndex = new HashMap<>();
+
+    private final long[] variableValues;
+
+    private final boolean[] variableSet;
+
+    private final long[] stack;
+
+    private final double[] arguments;
+
+    /**
+     * Create a new evaluator. The values of the variables currently set on the expression are rounded to the scale
+     * and used as initial values.
+     * @param expression the expression to evaluate
+     * @param scale the number of decimal digits after the decimal point, between 0 and {@link #MAX_SCALE}
+     * @param rounding how results are rounded to the scale
+     * @throws IllegalArgumentException if the scale is not supported
+     */
+    public DecimalExpression(Expression expression, int scale, RoundingMode rounding) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("The scale has to be between 0 and " + MAX_SCALE);
+        }
+        this.scale = scale;
+        this.rounding = rounding;
+        long one = 1;
+        for (int i = 0; i < scale; i++) {
+            one *= 10;
+        }
+        this.one = one;
+        final Token[] tokens = expression.getTokens();
+        this.codes = new int[tokens.length];
+        this.operands = new long[tokens.length];
+        this.functions = new Function[tokens.length];
+        this.operators = new Operator[tokens.length];
+        final List<String> names = new ArrayList<>();
+        int depth = 0;
+        int maxDepth = 1;
+        int maxArguments = 2;
+        for (int i = 0; i < tokens.length; i++) {
+            final Token token = tokens[i];
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    codes[i] = OP_NUMBER;
+                    operands[i] = toUnscaled(((NumberToken) token).getValue());
+                    depth++;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final String name = ((VariableToken) token).getName();
+                    Integer slot = variableIndex.get(name);
+                    if (slot == null) {
+                        slot = names.size();
+                        names.add(name);
+                        variableIndex.put(name, slot);
+                    }
+                    codes[i] = OP_VARIABLE;
+                    operands[i] = slot;
+                    depth++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) token).getOperator();
+                    final int numOperands = operator.getNumOperands();
+                    if (!Operators.isBuiltinOperator(operator)) {
+                        codes[i] = OP_DOUBLE;
+                        operators[i] = operator;
+                        operands[i] = numOperands;
+                    } else if (numOperands == 1) {
+                        codes[i] = operator.getSymbol().equals("-") ? OP_NEGATE : OP_IDENTITY;
+                    } else {
+                        codes[i] = OPERATOR_CODES.get(operator.getSymbol());
+                    }
+                    depth -= numOperands - 1;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final FunctionToken functionToken = (FunctionToken) token;
+                    final int numArguments = functionToken.getDynamicNumberOfArguments();
+                    codes[i] = code(functionToken.getFunction());
+                    functions[i] = functionToken.getFunction();
+                    operands[i] = numArguments;
+                    depth -= numArguments - 1;
+                    maxArguments = Math.max(maxArguments, numArguments);
+                    break;
+                case Token.TOKEN_JUMP:
+                    final JumpToken jump = (JumpToken) token;
+                    codes[i] = OP_GOTO + jump.getKind();
+                    operands[i] = jump.getTarget();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected token in the expression");
+            }
+            /* jumps are ignored, they only ever shorten the stack */
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        this.variableNames = names.toArray(new String[0]);
+        this.variableValues = new long[variableNames.length];
+        this.variableSet = new boolean[variableNames.length];
+        this.stack = new long[maxDepth];
+        this.arguments = new double[maxArguments];
+        for (Map.Entry<String, Double> variable : expression.getVariableValues().entrySet()) {
+            setVariable(variable.getKey(), variable.getValue());
+        }
+    }
+
+    private static int code(Function function) {
+        final Functions builtin = Functions.of(function);
+        if (builtin == null) {
+            return OP_DOUBLE;
+        }
+        switch (builtin) {
+            case ABS:
+                return OP_ABS;
+            case SIGNUM:
+                return OP_SIGNUM;
+            case FLOOR:
+                return OP_FLOOR;
+            case CEIL:
+                return OP_CEIL;
+            case POW:
+                return OP_POWER;
+            case IF:
+                return OP_IF;
+            case AVG:
+                return OP_AVG;
+            default:
+                return OP_DOUBLE;
+        }
+    }
+
+    /**
+     * @return the number of decimal digits after the decimal point
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Set the value of a variable, rounded to the scale
+     * @param name the name of the variable
+     * @param value the value
+     * @return the DecimalExpression instance
+     * @throws ArithmeticException if the value does not fit into a <code>long</code> at the scale
+     */
+    public DecimalExpression setVariable(String name, BigDecimal value) {
+        return setUnscaledVariable(name, value.setScale(scale, rounding).unscaledValue().longValueExact());
+    }
+
+    /**
+     * Set the value of a variable to the shortest decimal representation of a double, rounded to the scale
+     * @param name the name of the variable
+     * @param value the value
+     * @return the DecimalExpression instance
+     * @throws ArithmeticException if the value is not finite or does not fit into a <code>long</code> at the scale
+     */
+    public DecimalExpression setVariable(String name, double value) {
+        return variableIndex.containsKey(name) ? setUnscaledVariable(name, toUnscaled(value)) : this;
+    }
+
+    /**
+     * Set the value of a variable without allocating
+     * @param name the name of the variable
+     * @param unscaledValue the value multiplied by 10<sup>scale</sup>
+     * @return the DecimalExpression instance
+     */
+    public DecimalExpression setUnscaledVariable(String name, long unscaledValue) {
+        final Integer slot = variableIndex.get(name);
+        if (slot != null) {
+            variableValues[slot] = unscaledValue;
+            variableSet[slot] = true;
+        }
+        return this;
+    }
+
+    public DecimalExpression setVariables(Map<String, BigDecimal> variables) {
+        for (Map.Entry<String, BigDecimal> v : variables.entrySet()) {
+            this.setVariable(v.getKey(), v.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Evaluate the expression
+     * @return the result with the scale of this evaluator
+     * @throws ArithmeticException if a divisor is zero or a result does not fit into a <code>long</code>
+     */
+    public BigDecimal evaluate() {
+        return BigDecimal.valueOf(evaluateUnscaled(), scale);
+    }
+
+    /**
+     * Evaluate the expression without allocating
+     * @return the result multiplied by 10<sup>scale</sup>
+     * @throws ArithmeticException if a divisor is zero or a result does not fit into a <code>long</code>
+     */
+    public long evaluateUnscaled() {
+        final int[] codes = this.codes;
+        final long[] operands = this.operands;
+        final long[] stack = this.stack;
+        int top = 0;
+        for (int i = 0; i < codes.length; ) {
+            switch (codes[i]) {
+                case OP_NUMBER:
+                    stack[top++] = operands[i];
+                    break;
+                case OP_VARIABLE:
+                    final int slot = (int) operands[i];
+                    if (!variableSet[slot]) {
+                        throw new IllegalArgumentException("No value has been set for the setVariable '"
+                                + variableNames[slot] + "'.");
+                    }
+                    stack[top++] = variableValues[slot];
+                    break;
+                case OP_IDENTITY:
+                    break;
+                case OP_NEGATE:
+                    stack[top - 1] = Math.negateExact(stack[top - 1]);
+                    break;
+                case OP_ABS:
+                    stack[top - 1] = stack[top - 1] < 0 ? Math.negateExact(stack[top - 1]) : stack[top - 1];
+                    break;
+                case OP_SIGNUM:
+                    stack[top - 1] = Long.signum(stack[top - 1]) * one;
+                    break;
+                case OP_FLOOR:
+                    stack[top - 1] = Math.floorDiv(stack[top - 1], one) * one;
+                    break;
+                case OP_CEIL:
+                    stack[top - 1] = Math.multiplyExact(-Math.floorDiv(Math.negateExact(stack[top - 1]), one), one);
+                    break;
+                case OP_IF:
+                    top -= 2;
+                    stack[top - 1] = stack[top - 1] != 0 ? stack[top] : stack[top + 1];
+                    break;
+                case OP_AVG:
+                    top = avg((int) operands[i], top);
+                    break;
+                case OP_DOUBLE:
+                    top = applyDouble(i, top);
+                    break;
+                case OP_GOTO:
+                    i = (int) operands[i];
+                    continue;
+                case OP_IF_FALSE:
+                    i = stack[--top] != 0 ? i + 1 : (int) operands[i];
+                    continue;
+                case OP_AND_JUMP:
+                    if (stack[top - 1] == 0) {
+                        i = (int) operands[i];
+                    } else {
+                        top--;
+                        i++;
+                    }
+                    continue;
+                case OP_OR_JUMP:
+                    if (stack[top - 1] != 0) {
+                        stack[top - 1] = one;
+                        i = (int) operands[i];
+                    } else {
+                        top--;
+                        i++;
+                    }
+                    continue;
+                case OP_BOOLEAN:
+                    stack[top - 1] = stack[top - 1] != 0 ? one : 0;
+                    i = (int) operands[i];
+                    continue;
+                default:
+                    top--;
+                    stack[top - 1] = apply(codes[i], stack[top - 1], stack[top]);
+            }
+            i++;
+        }
+        if (top != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        return stack[0];
+    }
+
+    private long apply(int code, long a, long b) {
+        switch (code) {
+            case OP_ADD:
+                return Math.addExact(a, b);
+            case OP_SUBTRACT:
+                return Math.subtractExact(a, b);
+            case OP_MULTIPLY:
+                return multiply(a, b);
+            case OP_DIVIDE:
+                return divide(a, b);
+            case OP_MODULO:
+                if (b == 0) {
+                    throw new ArithmeticException("Division by zero!");
+                }
+                return a % b;
+            case OP_POWER:
+                return pow(a, b);
+            case OP_LESS:
+                return a < b ? one : 0;
+            case OP_GREATER:
+                return a > b ? one : 0;
+            case OP_LESS_EQUAL:
+                return a <= b ? one : 0;
+            case OP_GREATER_EQUAL:
+                return a >= b ? one : 0;
+            case OP_EQUAL:
+                return a == b ? one : 0;
+            case OP_NOT_EQUAL:
+                return a != b ? one : 0;
+            case OP_AND:
+                return a != 0 && b != 0 ? one : 0;
+            default:
+                return a != 0 || b != 0 ? one : 0;
+        }
+    }
+
+    /**
+     * Multiply two unscaled values, rounding the product to the scale
+     */
+    long multiply(long a, long b) {
+        final long product = a * b;
+        if (Math.multiplyHigh(a, b) == product >> 63) {
+            return round(product, one);
+        }
+        /* the exact product needs more than 64 bits, split off the multiple of one in a, since
+           a * b / one = (a / one) * b + (a % one) * b / one and both parts have the sign of the product */
+        final long rest = (a % one) * b;
+        if (Math.multiplyHigh(a % one, b) == rest >> 63) {
+            return round(Math.addExact(Math.multiplyExact(a / one, b), rest / one), rest % one, one, (a ^ b) < 0);
+        }
+        return BigDecimal.valueOf(a, scale).multiply(BigDecimal.valueOf(b, scale))
+                .setScale(scale, rounding).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Divide two unscaled values, rounding the quotient to the scale
+     */
+    long divide(long a, long b) {
+        if (b == 0) {
+            throw new ArithmeticException("Division by zero!");
+        }
+        final long dividend = a * one;
+        if (Math.multiplyHigh(a, one) == dividend >> 63) {
+            return round(dividend, b);
+        }
+        /* split off the multiple of b in a, since a * one / b = (a / b) * one + (a % b) * one / b */
+        final long rest = (a % b) * one;
+        if (Math.multiplyHigh(a % b, one) == rest >> 63) {
+            return round(Math.addExact(Math.multiplyExact(a / b, one), rest / b), rest % b, b, (a ^ b) < 0);
+        }
+        return BigDecimal.valueOf(a, scale).divide(BigDecimal.valueOf(b, scale), scale, rounding)
+                .unscaledValue().longValueExact();
+    }
+
+    /**
+     * Divide two longs, rounding the quotient to an integer using the rounding mode
+     */
+    private long round(long dividend, long divisor) {
+        if (divisor == -1) {
+            return Math.negateExact(dividend);
+        }
+        return round(dividend / divisor, dividend % divisor, divisor, (dividend ^ divisor) < 0);
+    }
+
+    /**
+     * Round a quotient truncated towards zero using its remainder, the sign of the exact quotient and the rounding mode
+     */
+    private long round(long quotient, long remainder, long divisor, boolean negative) {
+        if (remainder == 0) {
+            return quotient;
+        }
+        /* compare twice the remainder to the divisor, the magnitudes are unsigned so that MIN_VALUE works */
+        final long r = Math.abs(remainder);
+        final int half = Long.compareUnsigned(r, Math.abs(divisor) - r);
+        final boolean increment;
+        switch (rounding) {
+            case UP:
+                increment = true;
+                break;
+            case DOWN:
+                increment = false;
+                break;
+            case CEILING:
+                increment = !negative;
+                break;
+            case FLOOR:
+                increment = negative;
+                break;
+            case HALF_UP:
+                increment = half >= 0;
+                break;
+            case HALF_DOWN:
+                increment = half > 0;
+                break;
+            case HALF_EVEN:
+                increment = half > 0 || (half == 0 && (quotient & 1) != 0);
+                break;
+            default:
+                throw new ArithmeticException("Rounding necessary");
+        }
+        return increment ? Math.addExact(quotient, negative ? -1 : 1) : quotient;
+    }
+
+    private long pow(long base, long exponent) {
+        if (exponent % one != 0) {
+            return toUnscaled(Math.pow(toDouble(base), toDouble(exponent)));
+        }
+        long n = Math.abs(exponent / one);
+        long result = one;
+        long square = base;
+        while (n != 0) {
+            if ((n & 1) != 0) {
+                result = multiply(result, square);
+            }
+            n >>>= 1;
+            if (n != 0) {
+                square = multiply(square, square);
+            }
+        }
+        return exponent < 0 ? divide(one, result) : result;
+    }
+
+    private int avg(int numArguments, int top) {
+        final int a = top - numArguments;
+        long sum = 0;
+        for (int i = a; i < top; i++) {
+            sum = Math.addExact(sum, stack[i]);
+        }
+        stack[a] = round(sum, numArguments);
+        return a + 1;
+    }
+
+    /**
+     * Apply a function or operator in double precision and round its result to the scale
+     */
+    private int applyDouble(int index, int top) {
+        final int numArguments = (int) operands[index];
+        final int a = top - numArguments;
+        final double[] args = numArguments == arguments.length ? arguments : new double[numArguments];
+        for (int i = 0; i < numArguments; i++) {
+            args[i] = toDouble(stack[a + i]);
+        }
+        final double value = operators[index] != null ? operators[index].apply(args)
+                : Functions.apply(functions[index], args);
+        stack[a] = toUnscaled(value);
+        return a + 1;
+    }
+
+    private double toDouble(long unscaled) {
+        return (double) unscaled / one;
+    }
+
+    private long toUnscaled(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new ArithmeticException("The value " + value + " is not a decimal number");
+        }
+        final double scaled = value * one;
+        if (Math.abs(scaled) < FAST_ROUNDING_LIMIT && rounding != RoundingMode.UNNECESSARY) {
+            /* below the limit scaled is within 4e-4 of the shortest decimal representation of the value, so unless
+               the fraction is close to 0 or 1/2 both round to the same integer */
+            final double floor = Math.floor(scaled);
+            final double distance = Math.abs(scaled - floor - 0.5);
+            if (distance > FAST_ROUNDING_MARGIN && distance < 0.5 - FAST_ROUNDING_MARGIN) {
+                final boolean up;
+                switch (rounding) {
+                    case UP:
+                        up = value > 0;
+                        break;
+                    case DOWN:
+                        up = value < 0;
+                        break;
+                    case CEILING:
+                        up = true;
+                        break;
+                    case FLOOR:
+                        up = false;
+                        break;
+                    default:
+                        up = scaled - floor > 0.5;
+                }
+                return (long) floor + (up ? 1 : 0);
+            }
+        }
+        return BigDecimal.valueOf(value).setScale(scale, rounding).unscaledValue().longValueExact();
+    }
+}
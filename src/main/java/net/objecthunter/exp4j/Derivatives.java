@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Differentiable;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+
+/**
+ * Derivatives of the builtin functions and the partial derivatives of custom functions and operators, shared by the
+ * automatic differentiation modes
+ */
+final class Derivatives {
+
+    private static final double LN10 = Math.log(10d);
+
+    private static final double LN2 = Math.log(2d);
+
+    /* cube root of the machine epsilon, which balances truncation and rounding errors of central differences */
+    private static final double NUMERIC_STEP = 6.055454452393343e-6;
+
+    private Derivatives() {
+    }
+
+    /**
+     * Get the derivative of a builtin function of one argument
+     * @param function the function
+     * @param x the argument
+     * @return the derivative at x
+     */
+    static double of(Functions function, double x) {
+        switch (function) {
+            case SIN:
+                return Math.cos(x);
+            case COS:
+                return -Math.sin(x);
+            case TAN:
+                return 1d / (Math.cos(x) * Math.cos(x));
+            case COT:
+                return -1d / (Math.sin(x) * Math.sin(x));
+            case LOG:
+                return 1d / x;
+            case LOG1P:
+                return 1d / (1d + x);
+            case LOG10:
+                return 1d / (x * LN10);
+            case LOG2:
+                return 1d / (x * LN2);
+            case ABS:
+                return Math.signum(x);
+            case ACOS:
+                return -1d / Math.sqrt(1d - x * x);
+            case ASIN:
+                return 1d / Math.sqrt(1d - x * x);
+            case ATAN:
+                return 1d / (1d + x * x);
+            case CBRT:
+                return 1d / (3d * Math.cbrt(x) * Math.cbrt(x));
+            case SINH:
+                return Math.cosh(x);
+            case COSH:
+                return Math.sinh(x);
+            case TANH:
+                return 1d - Math.tanh(x) * Math.tanh(x);
+            case SQRT:
+                return 0.5d / Math.sqrt(x);
+            case EXP:
+            case EXPM1:
+                return Math.exp(x);
+            default:
+                /* ceil, floor and signum are piecewise constant */
+                return 0d;
+        }
+    }
+
+    /**
+     * Get the partial derivative of a custom operator, either from its {@link Differentiable} implementation or by
+     * central differences
+     * @param operator the operator
+     * @param argument the index of the operand
+     * @param args the operands, which are restored after a numeric differentiation
+     * @return the partial derivative
+     */
+    static double partial(Operator operator, int argument, double[] args) {
+        if (operator instanceof Differentiable) {
+            return ((Differentiable) operator).derivative(argument, args.clone());
+        }
+        final double x = args[argument];
+        final double h = NUMERIC_STEP * Math.max(1d, Math.abs(x));
+        args[argument] = x + h;
+        final double upper = operator.apply(args.clone());
+        args[argument] = x - h;
+        final double lower = operator.apply(args.clone());
+        args[argument] = x;
+        return (upper - lower) / (2d * h);
+    }
+
+    /**
+     * Get the partial derivative of a custom function, either from its {@link Differentiable} implementation or by
+     * central differences
+     * @param function the function
+     * @param argument the index of the argument
+     * @param args the arguments, which are restored after a numeric differentiation
+     * @return the partial derivative
+     */
+    static double partial(Function function, int argument, double[] args) {
+        if (function instanceof Differentiable) {
+            return ((Differentiable) function).derivative(argument, args.clone());
+        }
+        final double x = args[argument];
+        final double h = NUMERIC_STEP * Math.max(1d, Math.abs(x));
+        args[argument] = x + h;
+        final double upper = Functions.apply(function, args);
+        args[argument] = x - h;
+        final double lower = Functions.apply(function, args);
+        args[argument] = x;
+        return (upper - lower) / (2d * h);
+    }
+
+    /**
+     * Get the partial derivative of x^y with respect to the base
+     * @param x the base
+     * @param y the exponent
+     * @return the partial derivative
+     */
+    static double powBase(double x, double y) {
+        return y == 0d ? 0d : y * Math.pow(x, y - 1d);
+    }
+}
@@ -0,0 +1,927 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.JumpToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates an {@link Expression} in double-double arithmetic. Every intermediate is the unevaluated sum of a high
+ * and a low double, kept on two parallel stacks, which gives about 106 bits of precision at a few times the cost of
+ * plain double arithmetic. This is useful for ill-conditioned formulas, where cancellation destroys the precision
+ * of a double evaluation.
+ * <p>
+ * All builtin operators and the functions <code>sqrt</code>, <code>cbrt</code>, <code>exp</code>,
+ * <code>expm1</code>, <code>log</code>, <code>log1p</code>, <code>log10</code>, <code>log2</code>, <code>pow</code>,
+ * <code>sin</code>, <code>cos</code>, <code>tan</code>, <code>cot</code>, <code>abs</code>, <code>signum</code>,
+ * <code>floor</code>, <code>ceil</code>, <code>avg</code> and <code>if</code> are computed in double-double
+ * precision. The trigonometric functions reduce arguments of 2<sup>20</sup> and more in magnitude by a slower
+ * multi-precision reduction. The other functions and custom functions and operators are computed in double precision
+ * from the high parts of their arguments.
+ * <p>
+ * Numbers in the expression are parsed as doubles and are taken as the shortest decimal representation of that
+ * double, so <code>0.1</code> is one tenth in double-double precision. The values of variables can be set exactly
+ * using {@link #setVariable(String, BigDecimal)}.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class DoubleDoubleExpression {
+
+    private static final int OP_NUMBER = 0;
+    private static final int OP_VARIABLE = 1;
+    private static final int OP_ADD = 2;
+    private static final int OP_SUBTRACT = 3;
+    private static final int OP_MULTIPLY = 4;
+    private static final int OP_DIVIDE = 5;
+    private static final int OP_MODULO = 6;
+    private static final int OP_POWER = 7;
+    private static final int OP_LESS = 8;
+    private static final int OP_GREATER = 9;
+    private static final int OP_LESS_EQUAL = 10;
+    private static final int OP_GREATER_EQUAL = 11;
+    private static final int OP_EQUAL = 12;
+    private static final int OP_NOT_EQUAL = 13;
+    private static final int OP_AND = 14;
+    private static final int OP_OR = 15;
+    private static final int OP_NEGATE = 16;
+    private static final int OP_IDENTITY = 17;
+    private static final int OP_UNCHECKED_DIVIDE = 18;
+    private static final int OP_FUNCTION = 19;
+    private static final int OP_CUSTOM = 20;
+    private static final int OP_GOTO = 21;
+    private static final int OP_IF_FALSE = 22;
+    private static final int OP_AND_JUMP = 23;
+    private static final int OP_OR_JUMP = 24;
+    private static final int OP_BOOLEAN = 25;
+
+    private static final Map<String, Integer> OPERATOR_CODES = new HashMap<>();
+
+    static {
+        final String[] symbols = {"+", "-", "*", "/", "%", "^", "<", ">", "<=", ">=", "==", "!=", "&&", "||"};
+        for (int i = 0; i < symbols.length; i++) {
+            OPERATOR_CODES.put(symbols[i], OP_ADD + i);
+        }
+    }
+
+    /* the high and low parts of constants in double-double precision */
+    private static final double LN2_HI = 6.931471805599452862e-01;
+    private static final double LN2_LO = 2.319046813846299558e-17;
+    private static final double LN10_HI = 2.302585092994045901e+00;
+    private static final double LN10_LO = -2.170756223382249351e-16;
+    private static final double PI_2_HI = 1.570796326794896558e+00;
+    private static final double PI_2_LO = 6.123233995736766036e-17;
+
+    /* the reduced argument of exp is divided by 2^EXP_SQUARINGS and the result squared as often */
+    private static final int EXP_SQUARINGS = 9;
+
+    /* the number of Taylor terms, enough for |r| <= ln(2) / 2^(EXP_SQUARINGS + 1) and for |r| <= pi/4 */
+    private static final int EXP_TERMS = 11;
+
+    private static final int SIN_COS_TERMS = 30;
+
+    /* from this magnitude on the arguments of sin and cos are reduced in multi-precision arithmetic, as the
+       double-double multiples of pi/2 are not exact anymore */
+    private static final double LARGE_ARGUMENT = 1 << 20;
+
+    /* 1/n! in double-double precision */
+    private static final double[] INVERSE_FACTORIAL_HI = new double[SIN_COS_TERMS + 2];
+
+    private static final double[] INVERSE_FACTORIAL_LO = new double[SIN_COS_TERMS + 2];
+
+    static {
+        BigDecimal factorial = BigDecimal.ONE;
+        for (int n = 0; n < INVERSE_FACTORIAL_HI.length; n++) {
+            if (n > 0) {
+                factorial = factorial.multiply(BigDecimal.valueOf(n));
+            }
+            final BigDecimal inverse = BigDecimal.ONE.divide(factorial, new MathContext(40));
+            INVERSE_FACTORIAL_HI[n] = inverse.doubleValue();
+            INVERSE_FACTORIAL_LO[n] = inverse.subtract(new BigDecimal(INVERSE_FACTORIAL_HI[n])).doubleValue();
+        }
+    }
+
+    /* the opcode of every token */
+    private final int[] codes;
+
+    /* the slot of a variable, the number of arguments or the target of a jump */
+    private final int[] operands;
+
+    /* the high and low parts of the numbers */
+    private final double[] numberHi;
+
+    private final double[] numberLo;
+
+    private final Functions[] builtins;
+
+    private final Function[] functions;
+
+    private final Operator[] operators;
+
+    private final String[] variableNames;
+
+    private final Map<String, Integer> variableIndex = new HashMap<>();
+
+    private final double[] variableHi;
+
+    private final double[] variableLo;
+
+    private final boolean[] variableSet;
+
+    private final double[] hi;
+
+    private final double[] lo;
+
+    private final double[] arguments;
+
+    /* the result of the last arithmetic helper */
+    private double rh;
+
+    private double rl;
+
+    /**
+     * Create a new evaluator. The values of the variables currently set on the expression are used as initial values.
+     * @param expression the expression to evaluate
+     */
+    public DoubleDoubleExpression(Expression expression) {
+        final Token[] tokens = expression.getTokens();
+        this.codes = new int[tokens.length];
+        this.operands = new int[tokens.length];
+        this.numberHi = new double[tokens.length];
+        this.numberLo = new double[tokens.length];
+        this.builtins = new Functions[tokens.length];
+        this.functions = new Function[tokens.length];
+        this.operators = new Operator[tokens.length];
+        final List<String> names = new ArrayList<>();
+        int depth = 0;
+        int maxDepth = 1;
+        int maxArguments = 2;
+        for (int i = 0; i < tokens.length; i++) {
+            final Token token = tokens[i];
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    final double value = ((NumberToken) token).getValue();
+                    codes[i] = OP_NUMBER;
+                    numberHi[i] = value;
+                    numberLo[i] = Double.isInfinite(value) || Double.isNaN(value) ? 0d
+                            : BigDecimal.valueOf(value).subtract(new BigDecimal(value)).doubleValue();
+                    depth++;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final String name = ((VariableToken) token).getName();
+                    Integer slot = variableIndex.get(name);
+                    if (slot == null) {
+                        slot = names.size();
+                        names.add(name);
+                        variableIndex.put(name, slot);
+                    }
+                    codes[i] = OP_VARIABLE;
+                    operands[i] = slot;
+                    depth++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) token).getOperator();
+                    final int numOperands = operator.getNumOperands();
+                    if (!Operators.isBuiltinOperator(operator)) {
+                        codes[i] = OP_CUSTOM;
+                        operators[i] = operator;
+                        operands[i] = numOperands;
+                    } else if (numOperands == 1) {
+                        codes[i] = operator.getSymbol().equals("-") ? OP_NEGATE : OP_IDENTITY;
+                    } else if (operator == Operators.getUncheckedDivision()) {
+                        codes[i] = OP_UNCHECKED_DIVIDE;
+                    } else {
+                        codes[i] = OPERATOR_CODES.get(operator.getSymbol());
+                    }
+                    depth -= numOperands - 1;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final FunctionToken functionToken = (FunctionToken) token;
+                    final int numArguments = functionToken.getDynamicNumberOfArguments();
+                    functions[i] = functionToken.getFunction();
+                    builtins[i] = Functions.of(functions[i]);
+                    codes[i] = builtins[i] != null ? OP_FUNCTION : OP_CUSTOM;
+                    operands[i] = numArguments;
+                    depth -= numArguments - 1;
+                    maxArguments = Math.max(maxArguments, numArguments);
+                    break;
+                case Token.TOKEN_JUMP:
+                    final JumpToken jump = (JumpToken) token;
+                    codes[i] = OP_GOTO + jump.getKind();
+                    operands[i] = jump.getTarget();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected token in the expression");
+            }
+            /* jumps are ignored, they only ever shorten the stack */
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        this.variableNames = names.toArray(new String[0]);
+        this.variableHi = new double[variableNames.length];
+        this.variableLo = new double[variableNames.length];
+        this.variableSet = new boolean[variableNames.length];
+        this.hi = new double[maxDepth];
+        this.lo = new double[maxDepth];
+        this.arguments = new double[maxArguments];
+        for (Map.Entry<String, Double> variable : expression.getVariableValues().entrySet()) {
+            setVariable(variable.getKey(), variable.getValue());
+        }
+    }
+
+    public DoubleDoubleExpression setVariable(String name, double value) {
+        return setVariable(name, value, 0d);
+    }
+
+    /**
+     * Set the value of a variable to the sum of two doubles
+     * @param name the name of the variable
+     * @param high the high part of the value
+     * @param low the low part of the value
+     * @return the DoubleDoubleExpression instance
+     */
+    public DoubleDoubleExpression setVariable(String name, double high, double low) {
+        final Integer slot = variableIndex.get(name);
+        if (slot != null) {
+            /* normalize, so that the high part is the value rounded to double */
+            final double s = high + low;
+            variableHi[slot] = s;
+            variableLo[slot] = Double.isInfinite(s) || Double.isNaN(s) ? 0d : low - (s - high);
+            variableSet[slot] = true;
+        }
+        return this;
+    }
+
+    /**
+     * Set the value of a variable, rounded to double-double precision
+     * @param name the name of the variable
+     * @param value the value
+     * @return the DoubleDoubleExpression instance
+     */
+    public DoubleDoubleExpression setVariable(String name, BigDecimal value) {
+        final double high = value.doubleValue();
+        final double low = Double.isInfinite(high) ? 0d : value.subtract(new BigDecimal(high)).doubleValue();
+        return setVariable(name, high, low);
+    }
+
+    public DoubleDoubleExpression setVariables(Map<String, Double> variables) {
+        for (Map.Entry<String, Double> v : variables.entrySet()) {
+            this.setVariable(v.getKey(), v.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Evaluate the expression
+     * @return the result rounded to double
+     */
+    public double evaluate() {
+        run();
+        return hi[0];
+    }
+
+    /**
+     * Evaluate the expression without rounding the result
+     * @param result the array receiving the high part of the result at index 0 and the low part at index 1
+     * @return the result rounded to double
+     */
+    public double evaluate(double[] result) {
+        run();
+        result[0] = hi[0];
+        result[1] = lo[0];
+        return hi[0];
+    }
+
+    /**
+     * Evaluate the expression
+     * @return the exact sum of the high and the low part of the result
+     * @throws NumberFormatException if the result is not finite
+     */
+    public BigDecimal evaluateBigDecimal() {
+        run();
+        return new BigDecimal(hi[0]).add(new BigDecimal(lo[0]));
+    }
+
+    private void run() {
+        final int[] codes = this.codes;
+        final int[] operands = this.operands;
+        final double[] hi = this.hi;
+        final double[] lo = this.lo;
+        int top = 0;
+        for (int i = 0; i < codes.length; ) {
+            switch (codes[i]) {
+                case OP_NUMBER:
+                    hi[top] = numberHi[i];
+                    lo[top++] = numberLo[i];
+                    break;
+                case OP_VARIABLE:
+                    final int slot = operands[i];
+                    if (!variableSet[slot]) {
+                        throw new IllegalArgumentException("No value has been set for the setVariable '"
+                                + variableNames[slot] + "'.");
+                    }
+                    hi[top] = variableHi[slot];
+                    lo[top++] = variableLo[slot];
+                    break;
+                case OP_IDENTITY:
+                    break;
+                case OP_NEGATE:
+                    hi[top - 1] = -hi[top - 1];
+                    lo[top - 1] = -lo[top - 1];
+                    break;
+                case OP_FUNCTION:
+                    top = apply(builtins[i], operands[i], top);
+                    break;
+                case OP_CUSTOM:
+                    top = applyDouble(functions[i], operators[i], operands[i], top);
+                    break;
+                case OP_GOTO:
+                    i = operands[i];
+                    continue;
+                case OP_IF_FALSE:
+                    top--;
+                    i = hi[top] != 0d ? i + 1 : operands[i];
+                    continue;
+                case OP_AND_JUMP:
+                    if (hi[top - 1] == 0d) {
+                        i = operands[i];
+                    } else {
+                        top--;
+                        i++;
+                    }
+                    continue;
+                case OP_OR_JUMP:
+                    if (hi[top - 1] != 0d) {
+                        hi[top - 1] = 1d;
+                        lo[top - 1] = 0d;
+                        i = operands[i];
+                    } else {
+                        top--;
+                        i++;
+                    }
+                    continue;
+                case OP_BOOLEAN:
+                    hi[top - 1] = hi[top - 1] != 0d ? 1d : 0d;
+                    lo[top - 1] = 0d;
+                    i = operands[i];
+                    continue;
+                default:
+                    top--;
+                    apply(codes[i], top - 1, top);
+            }
+            i++;
+        }
+        if (top != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+    }
+
+    /**
+     * Store the last result at a position of the stack. Infinite and NaN results have no low part.
+     */
+    private void store(int p) {
+        hi[p] = rh;
+        lo[p] = Double.isInfinite(rh) || Double.isNaN(rh) ? 0d : rl;
+    }
+
+    private void storeDouble(int p, double value) {
+        hi[p] = value;
+        lo[p] = 0d;
+    }
+
+    /**
+     * Apply a builtin binary operator to the positions a and b, leaving the result at a
+     */
+    private void apply(int code, int a, int b) {
+        final double ah = hi[a];
+        final double al = lo[a];
+        final double bh = hi[b];
+        final double bl = lo[b];
+        switch (code) {
+            case OP_ADD:
+                add(ah, al, bh, bl);
+                break;
+            case OP_SUBTRACT:
+                add(ah, al, -bh, -bl);
+                break;
+            case OP_MULTIPLY:
+                multiply(ah, al, bh, bl);
+                break;
+            case OP_DIVIDE:
+                if (bh == 0d) {
+                    throw new ArithmeticException("Division by zero!");
+                }
+                divide(ah, al, bh, bl);
+                break;
+            case OP_UNCHECKED_DIVIDE:
+                divide(ah, al, bh, bl);
+                break;
+            case OP_MODULO:
+                if (bh == 0d) {
+                    throw new ArithmeticException("Division by zero!");
+                }
+                modulo(ah, al, bh, bl);
+                break;
+            case OP_POWER:
+                pow(ah, al, bh, bl);
+                break;
+            default:
+                final boolean result;
+                switch (code) {
+                    case OP_LESS:
+                        result = ah < bh || (ah == bh && al < bl);
+                        break;
+                    case OP_GREATER:
+                        result = ah > bh || (ah == bh && al > bl);
+                        break;
+                    case OP_LESS_EQUAL:
+                        result = ah < bh || (ah == bh && al <= bl);
+                        break;
+                    case OP_GREATER_EQUAL:
+                        result = ah > bh || (ah == bh && al >= bl);
+                        break;
+                    case OP_EQUAL:
+                        result = ah == bh && al == bl;
+                        break;
+                    case OP_NOT_EQUAL:
+                        result = ah != bh || al != bl;
+                        break;
+                    case OP_AND:
+                        result = ah != 0d && bh != 0d;
+                        break;
+                    default:
+                        result = ah != 0d || bh != 0d;
+                }
+                storeDouble(a, result ? 1d : 0d);
+                return;
+        }
+        store(a);
+    }
+
+    /*
+     * The arithmetic of double-double numbers follows Hida, Li and Bailey, "Library for Double-Double and Quad-Double
+     * Arithmetic". The helpers leave their result in rh and rl.
+     */
+
+    private void add(double ah, double al, double bh, double bl) {
+        double s = ah + bh;
+        if (!Double.isFinite(s)) {
+            rh = s;
+            rl = 0d;
+            return;
+        }
+        double bb = s - ah;
+        double e = (ah - (s - bb)) + (bh - bb);
+        final double t = al + bl;
+        bb = t - al;
+        final double f = (al - (t - bb)) + (bl - bb);
+        e += t;
+        final double h = s + e;
+        e = e - (h - s);
+        e += f;
+        rh = h + e;
+        rl = e - (rh - h);
+    }
+
+    private void multiply(double ah, double al, double bh, double bl) {
+        final double p = ah * bh;
+        if (!Double.isFinite(p)) {
+            rh = p;
+            rl = 0d;
+            return;
+        }
+        final double e = Math.fma(ah, bh, -p) + (ah * bl + al * bh);
+        rh = p + e;
+        rl = e - (rh - p);
+    }
+
+    private void divide(double ah, double al, double bh, double bl) {
+        final double q1 = ah / bh;
+        if (!Double.isFinite(q1)) {
+            rh = q1;
+            rl = 0d;
+            return;
+        }
+        /* three quotient digits, each from the remainder of the previous ones */
+        multiply(q1, 0d, bh, bl);
+        add(ah, al, -rh, -rl);
+        final double remainderHi = rh;
+        final double remainderLo = rl;
+        final double q2 = remainderHi / bh;
+        multiply(q2, 0d, bh, bl);
+        add(remainderHi, remainderLo, -rh, -rl);
+        final double q3 = rh / bh;
+        final double s = q1 + q2;
+        add(s, q2 - (s - q1), q3, 0d);
+    }
+
+    private void modulo(double ah, double al, double bh, double bl) {
+        divide(ah, al, bh, bl);
+        if (rh >= 0d) {
+            floor(rh, rl);
+        } else {
+            ceil(rh, rl);
+        }
+        multiply(rh, rl, bh, bl);
+        add(ah, al, -rh, -rl);
+        /* the quotient may be off by one if it is close to an integer */
+        final double mh = Math.abs(bh);
+        final double ml = bh < 0d ? -bl : bl;
+        if (rh != 0d && (rh < 0d) != (ah < 0d)) {
+            if (ah < 0d) {
+                add(rh, rl, -mh, -ml);
+            } else {
+                add(rh, rl, mh, ml);
+            }
+        }
+    }
+
+    private void floor(double ah, double al) {
+        final double fh = Math.floor(ah);
+        final double fl = fh == ah ? Math.floor(al) : 0d;
+        rh = fh + fl;
+        rl = fl - (rh - fh);
+    }
+
+    private void ceil(double ah, double al) {
+        final double ch = Math.ceil(ah);
+        final double cl = ch == ah ? Math.ceil(al) : 0d;
+        rh = ch + cl;
+        rl = cl - (rh - ch);
+    }
+
+    private void sqrt(double ah, double al) {
+        if (ah <= 0d) {
+            rh = Math.sqrt(ah);
+            rl = 0d;
+            return;
+        }
+        /* one Newton step from the double square root, s + (a - s^2) / 2s */
+        final double s = Math.sqrt(ah);
+        final double p = s * s;
+        add(ah, al, -p, -Math.fma(s, s, -p));
+        final double correction = rh / (2d * s);
+        rh = s + correction;
+        rl = correction - (rh - s);
+    }
+
+    private void cbrt(double ah, double al) {
+        final double c = Math.cbrt(ah);
+        if (ah == 0d || Double.isInfinite(ah) || Double.isNaN(ah)) {
+            rh = c;
+            rl = 0d;
+            return;
+        }
+        /* one Newton step, c - (c^3 - a) / 3c^2 */
+        multiply(c, 0d, c, 0d);
+        multiply(rh, rl, c, 0d);
+        add(rh, rl, -ah, -al);
+        final double correction = -rh / (3d * c * c);
+        rh = c + correction;
+        rl = correction - (rh - c);
+    }
+
+    /**
+     * Compute exp(a) - 1 for a reduced argument by a Taylor series and repeated squaring of 1 + s
+     */
+    private void expm1Reduced(double ah, double al) {
+        final double scale = Math.scalb(1d, -EXP_SQUARINGS);
+        final double xh = ah * scale;
+        final double xl = al * scale;
+        /* s = x (1/1! + x (1/2! + x (1/3! + ...))) by Horner's scheme */
+        rh = INVERSE_FACTORIAL_HI[EXP_TERMS];
+        rl = INVERSE_FACTORIAL_LO[EXP_TERMS];
+        for (int n = EXP_TERMS - 1; n >= 1; n--) {
+            multiply(rh, rl, xh, xl);
+            add(rh, rl, INVERSE_FACTORIAL_HI[n], INVERSE_FACTORIAL_LO[n]);
+        }
+        multiply(rh, rl, xh, xl);
+        for (int i = 0; i < EXP_SQUARINGS; i++) {
+            /* (1 + s)^2 - 1 = 2s + s^2 */
+            final double sh = rh;
+            final double sl = rl;
+            multiply(sh, sl, sh, sl);
+            add(rh, rl, 2d * sh, 2d * sl);
+        }
+    }
+
+    private void exp(double ah, double al) {
+        if (ah > 709.79d) {
+            rh = Double.POSITIVE_INFINITY;
+            rl = 0d;
+            return;
+        } else if (ah < -745.2d) {
+            rh = 0d;
+            rl = 0d;
+            return;
+        } else if (Double.isNaN(ah)) {
+            rh = ah;
+            rl = 0d;
+            return;
+        }
+        final double k = Math.rint(ah / LN2_HI);
+        multiply(k, 0d, LN2_HI, LN2_LO);
+        add(ah, al, -rh, -rl);
+        expm1Reduced(rh, rl);
+        add(rh, rl, 1d, 0d);
+        rh = Math.scalb(rh, (int) k);
+        rl = Math.scalb(rl, (int) k);
+    }
+
+    private void expm1(double ah, double al) {
+        if (Math.abs(ah) < LN2_HI / 2d) {
+            expm1Reduced(ah, al);
+            return;
+        }
+        exp(ah, al);
+        add(rh, rl, -1d, 0d);
+    }
+
+    private void log(double ah, double al) {
+        if (ah <= 0d || Double.isInfinite(ah) || Double.isNaN(ah)) {
+            rh = Math.log(ah);
+            rl = 0d;
+            return;
+        }
+        /* one Newton step from the double logarithm, x + a exp(-x) - 1 */
+        final double x = Math.log(ah);
+        exp(-x, 0d);
+        multiply(rh, rl, ah, al);
+        add(rh, rl, -1d, 0d);
+        add(rh, rl, x, 0d);
+    }
+
+    private void log1p(double ah, double al) {
+        if (Math.abs(ah) >= 0.5d) {
+            add(ah, al, 1d, 0d);
+            log(rh, rl);
+            return;
+        }
+        /* Newton step on exp(x) - 1 = a, x + (a - expm1(x)) / (1 + expm1(x)) */
+        final double x = Math.log1p(ah);
+        expm1(x, 0d);
+        final double eh = rh;
+        final double el = rl;
+        add(ah, al, -eh, -el);
+        final double dh = rh;
+        final double dl = rl;
+        add(eh, el, 1d, 0d);
+        divide(dh, dl, rh, rl);
+        add(rh, rl, x, 0d);
+    }
+
+    private void pow(double ah, double al, double bh, double bl) {
+        if (bl == 0d && bh == Math.rint(bh) && Math.abs(bh) <= Integer.MAX_VALUE) {
+            long n = Math.abs((long) bh);
+            double baseHi = ah;
+            double baseLo = al;
+            double resultHi = 1d;
+            double resultLo = 0d;
+            while (n != 0) {
+                if ((n & 1) != 0) {
+                    multiply(resultHi, resultLo, baseHi, baseLo);
+                    resultHi = rh;
+                    resultLo = rl;
+                }
+                n >>>= 1;
+                if (n != 0) {
+                    multiply(baseHi, baseLo, baseHi, baseLo);
+                    baseHi = rh;
+                    baseLo = rl;
+                }
+            }
+            if (bh < 0d) {
+                divide(1d, 0d, resultHi, resultLo);
+            } else {
+                rh = resultHi;
+                rl = resultLo;
+            }
+            return;
+        }
+        if (ah <= 0d || Double.isInfinite(ah) || Double.isInfinite(bh) || Double.isNaN(ah) || Double.isNaN(bh)) {
+            rh = Math.pow(ah, bh);
+            rl = 0d;
+            return;
+        }
+        log(ah, al);
+        multiply(rh, rl, bh, bl);
+        exp(rh, rl);
+    }
+
+    /**
+     * Compute the sine or cosine of a reduced argument by its Taylor series
+     */
+    private void taylor(double xh, double xl, boolean sine) {
+        multiply(xh, xl, xh, xl);
+        final double x2h = rh;
+        final double x2l = rl;
+        /* the coefficients are (-1)^k / n! for the odd or even n, summed by Horner's scheme in x^2 */
+        int n = sine ? SIN_COS_TERMS + 1 : SIN_COS_TERMS;
+        rh = INVERSE_FACTORIAL_HI[n];
+        rl = INVERSE_FACTORIAL_LO[n];
+        for (n -= 2; n >= 0; n -= 2) {
+            multiply(rh, rl, -x2h, -x2l);
+            add(rh, rl, INVERSE_FACTORIAL_HI[n], INVERSE_FACTORIAL_LO[n]);
+        }
+        if (sine) {
+            multiply(rh, rl, xh, xl);
+        }
+    }
+
+    /**
+     * Compute the sine or the cosine, reducing the argument by multiples of pi/2
+     */
+    private void sinCos(double ah, double al, boolean sine) {
+        if (Double.isInfinite(ah) || Double.isNaN(ah)) {
+            rh = Double.NaN;
+            rl = 0d;
+            return;
+        }
+        final long k;
+        if (Math.abs(ah) < LARGE_ARGUMENT) {
+            final double q = Math.rint(ah / PI_2_HI);
+            multiply(q, 0d, PI_2_HI, PI_2_LO);
+            add(ah, al, -rh, -rl);
+            k = (long) q;
+        } else {
+            k = reduce(ah, al);
+        }
+        /* cos(x) = sin(x + pi/2), and sin(r + q pi/2) is sin(r), cos(r), -sin(r) or -cos(r) */
+        final int quadrant = (int) ((k % 4 + 4 + (sine ? 0 : 1)) % 4);
+        taylor(rh, rl, quadrant % 2 == 0);
+        if (quadrant == 2 || quadrant == 3) {
+            rh = -rh;
+            rl = -rl;
+        }
+    }
+
+    /**
+     * Reduce a large argument by the nearest multiple of pi/2 with pi/2 to 400 digits, which is exact enough for
+     * every finite double
+     * @return the multiple of pi/2 modulo 4
+     */
+    private long reduce(double ah, double al) {
+        final BigDecimal x = new BigDecimal(ah).add(new BigDecimal(al));
+        final MathContext mc = new MathContext(x.precision() - x.scale() + 10);
+        final BigDecimal k = x.divide(LargeArguments.HALF_PI, mc).setScale(0, RoundingMode.HALF_EVEN);
+        final BigDecimal r = x.subtract(k.multiply(LargeArguments.HALF_PI));
+        rh = r.doubleValue();
+        rl = r.subtract(new BigDecimal(rh)).doubleValue();
+        return k.toBigInteger().intValue() & 3;
+    }
+
+    /**
+     * pi/2 for the reduction of large arguments, computed when it is first needed
+     */
+    private static final class LargeArguments {
+
+        private static final MathContext MC = new MathContext(420);
+
+        /* Machin's formula pi = 16 atan(1/5) - 4 atan(1/239) */
+        static final BigDecimal HALF_PI = atanInverse(5).multiply(BigDecimal.valueOf(8))
+                .subtract(atanInverse(239).multiply(BigDecimal.valueOf(2)), MC);
+
+        private static BigDecimal atanInverse(int n) {
+            final BigDecimal n2 = BigDecimal.valueOf((long) n * n);
+            final BigDecimal epsilon = BigDecimal.ONE.movePointLeft(MC.getPrecision());
+            BigDecimal power = BigDecimal.ONE.divide(BigDecimal.valueOf(n), MC);
+            BigDecimal sum = power;
+            for (int k = 1; power.compareTo(epsilon) > 0; k++) {
+                power = power.divide(n2, MC);
+                final BigDecimal term = power.divide(BigDecimal.valueOf(2 * k + 1), MC);
+                sum = k % 2 == 0 ? sum.add(term, MC) : sum.subtract(term, MC);
+            }
+            return sum;
+        }
+    }
+
+    private int apply(Functions function, int numArguments, int top) {
+        if (top < numArguments) {
+            throw new IllegalArgumentException("Invalid number of arguments available for '"
+                    + function.function.getName() + "' function");
+        }
+        final int p = top - numArguments;
+        final double ah = hi[p];
+        final double al = lo[p];
+        switch (function) {
+            case POW:
+                pow(ah, al, hi[p + 1], lo[p + 1]);
+                break;
+            case IF:
+                final int chosen = ah != 0d ? p + 1 : p + 2;
+                hi[p] = hi[chosen];
+                lo[p] = lo[chosen];
+                return p + 1;
+            case AVG:
+                rh = 0d;
+                rl = 0d;
+                for (int i = p; i < top; i++) {
+                    add(rh, rl, hi[i], lo[i]);
+                }
+                divide(rh, rl, numArguments, 0d);
+                break;
+            case SQRT:
+                sqrt(ah, al);
+                break;
+            case CBRT:
+                cbrt(ah, al);
+                break;
+            case EXP:
+                exp(ah, al);
+                break;
+            case EXPM1:
+                expm1(ah, al);
+                break;
+            case LOG:
+                log(ah, al);
+                break;
+            case LOG1P:
+                log1p(ah, al);
+                break;
+            case LOG10:
+                log(ah, al);
+                divide(rh, rl, LN10_HI, LN10_LO);
+                break;
+            case LOG2:
+                log(ah, al);
+                divide(rh, rl, LN2_HI, LN2_LO);
+                break;
+            case SIN:
+                sinCos(ah, al, true);
+                break;
+            case COS:
+                sinCos(ah, al, false);
+                break;
+            case TAN:
+            case COT:
+                sinCos(ah, al, true);
+                final double sh = rh;
+                final double sl = rl;
+                sinCos(ah, al, false);
+                if (function == Functions.TAN) {
+                    divide(sh, sl, rh, rl);
+                } else {
+                    divide(rh, rl, sh, sl);
+                }
+                break;
+            case ABS:
+                rh = ah < 0d ? -ah : ah;
+                rl = ah < 0d ? -al : al;
+                break;
+            case SIGNUM:
+                rh = Math.signum(ah);
+                rl = 0d;
+                break;
+            case FLOOR:
+                floor(ah, al);
+                break;
+            case CEIL:
+                ceil(ah, al);
+                break;
+            default:
+                return applyDouble(function.function, null, numArguments, top);
+        }
+        store(p);
+        return p + 1;
+    }
+
+    /**
+     * Apply a function or operator in double precision to the high parts of its arguments
+     */
+    private int applyDouble(Function function, Operator operator, int numArguments, int top) {
+        final int p = top - numArguments;
+        final double[] args = numArguments == arguments.length ? arguments : new double[numArguments];
+        for (int i = 0; i < numArguments; i++) {
+            args[i] = hi[p + i];
+        }
+        storeDouble(p, operator != null ? operator.apply(args) : Functions.apply(function, args));
+        return p + 1;
+    }
+}
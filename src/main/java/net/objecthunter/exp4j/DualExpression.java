@@ -0,0 +1,378 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.JumpToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates an {@link Expression} together with its partial derivatives with respect to some of its variables in a
+ * single pass, using forward mode automatic differentiation. Every value on the stack carries one tangent per
+ * variable and the builtin operators and functions propagate them using their exact derivatives, so the results are
+ * as precise as the value itself.
+ * <p>
+ * Custom functions and operators implementing {@link net.objecthunter.exp4j.function.Differentiable} supply their
+ * own partial derivatives, the others are differentiated numerically with central differences.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class DualExpression {
+
+    private final Token[] tokens;
+
+    private final int[] slots;
+
+    private final String[] variableNames;
+
+    private final Map<String, Integer> variableIndex = new HashMap<>();
+
+    private final double[] variableValues;
+
+    private final boolean[] variableSet;
+
+    private final int[] seeds;
+
+    private final int numDerivatives;
+
+    private final double[] values;
+
+    private final double[] tangents;
+
+    private final double[] scratch;
+
+    /**
+     * Create a new evaluator. The values of the variables currently set on the expression are used as initial values.
+     * @param expression the expression to evaluate
+     * @param variables the variables to compute the partial derivatives for, in the order they are returned
+     */
+    public DualExpression(Expression expression, String... variables) {
+        this.tokens = expression.getTokens();
+        this.numDerivatives = variables.length;
+        this.slots = new int[tokens.length];
+        final List<String> names = new ArrayList<>();
+        int depth = 0;
+        int maxDepth = 1;
+        int maxArguments = 2;
+        for (int i = 0; i < tokens.length; i++) {
+            final Token token = tokens[i];
+            slots[i] = -1;
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    depth++;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final String name = ((VariableToken) token).getName();
+                    Integer slot = variableIndex.get(name);
+                    if (slot == null) {
+                        slot = names.size();
+                        names.add(name);
+                        variableIndex.put(name, slot);
+                    }
+                    slots[i] = slot;
+                    depth++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    depth -= ((OperatorToken) token).getOperator().getNumOperands() - 1;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final int numArguments = ((FunctionToken) token).getDynamicNumberOfArguments();
+                    depth -= numArguments - 1;
+                    maxArguments = Math.max(maxArguments, numArguments);
+                    break;
+            }
+            /* jumps are ignored, they only ever shorten the stack */
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        this.variableNames = names.toArray(new String[0]);
+        this.variableValues = new double[variableNames.length];
+        this.variableSet = new boolean[variableNames.length];
+        this.seeds = new int[variableNames.length];
+        Arrays.fill(seeds, -1);
+        for (int d = 0; d < variables.length; d++) {
+            final Integer slot = variableIndex.get(variables[d]);
+            if (slot != null) {
+                seeds[slot] = d;
+            }
+        }
+        this.values = new double[maxDepth];
+        this.tangents = new double[maxDepth * numDerivatives];
+        this.scratch = new double[maxArguments];
+        for (Map.Entry<String, Double> variable : expression.getVariableValues().entrySet()) {
+            setVariable(variable.getKey(), variable.getValue());
+        }
+    }
+
+    public DualExpression setVariable(String name, double value) {
+        final Integer slot = variableIndex.get(name);
+        if (slot != null) {
+            variableValues[slot] = value;
+            variableSet[slot] = true;
+        }
+        return this;
+    }
+
+    public DualExpression setVariables(Map<String, Double> variables) {
+        for (Map.Entry<String, Double> v : variables.entrySet()) {
+            this.setVariable(v.getKey(), v.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Evaluate the expression and its partial derivatives
+     * @param derivatives the array receiving the partial derivatives in the order the variables have been passed to
+     * the constructor
+     * @return the value of the expression
+     */
+    public double evaluate(double[] derivatives) {
+        if (derivatives.length < numDerivatives) {
+            throw new IllegalArgumentException("The derivatives array can not hold " + numDerivatives + " values");
+        }
+        final Token[] tokens = this.tokens;
+        final double[] values = this.values;
+        final int n = numDerivatives;
+        int top = 0;
+        for (int i = 0; i < tokens.length; ) {
+            final Token token = tokens[i];
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    values[top] = ((NumberToken) token).getValue();
+                    clear(top++);
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final int slot = slots[i];
+                    if (!variableSet[slot]) {
+                        throw new IllegalArgumentException("No value has been set for the setVariable '"
+                                + variableNames[slot] + "'.");
+                    }
+                    values[top] = variableValues[slot];
+                    clear(top);
+                    if (seeds[slot] >= 0) {
+                        tangents[top * n + seeds[slot]] = 1d;
+                    }
+                    top++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    top = apply(((OperatorToken) token).getOperator(), top);
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final FunctionToken functionToken = (FunctionToken) token;
+                    top = apply(functionToken.getFunction(), functionToken.getDynamicNumberOfArguments(), top);
+                    break;
+                case Token.TOKEN_JUMP:
+                    final JumpToken jump = (JumpToken) token;
+                    if (jump.getKind() == JumpToken.GOTO) {
+                        i = jump.getTarget();
+                        continue;
+                    }
+                    final boolean taken = jump.isTaken(values[top - 1]);
+                    if (jump.pops(taken)) {
+                        top--;
+                    } else {
+                        values[top - 1] = Operators.isTrue(values[top - 1]) ? 1d : 0d;
+                        clear(top - 1);
+                    }
+                    i = taken ? jump.getTarget() : i + 1;
+                    continue;
+            }
+            i++;
+        }
+        if (top != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        System.arraycopy(tangents, 0, derivatives, 0, n);
+        return values[0];
+    }
+
+    private void clear(int position) {
+        Arrays.fill(tangents, position * numDerivatives, (position + 1) * numDerivatives, 0d);
+    }
+
+    /**
+     * Set the tangents of a position to the chain rule applied to the tangents of one or two operands. Operands with
+     * a zero tangent do not contribute, even if their partial derivative is not finite.
+     */
+    private void chain(int target, int left, double leftFactor, int right, double rightFactor) {
+        final int n = numDerivatives;
+        for (int k = 0; k < n; k++) {
+            final double l = tangents[left * n + k];
+            final double r = right < 0 ? 0d : tangents[right * n + k];
+            tangents[target * n + k] = (l == 0d ? 0d : leftFactor * l) + (r == 0d ? 0d : rightFactor * r);
+        }
+    }
+
+    private boolean isConstant(int position) {
+        for (int k = position * numDerivatives; k < (position + 1) * numDerivatives; k++) {
+            if (tangents[k] != 0d) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int apply(Operator operator, int top) {
+        final int numOperands = operator.getNumOperands();
+        if (top < numOperands) {
+            throw new IllegalArgumentException("Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+        }
+        if (!Operators.isBuiltinOperator(operator)) {
+            return applyCustom(operator, null, numOperands, top);
+        }
+        if (numOperands == 1) {
+            final int a = top - 1;
+            if (operator.getSymbol().equals("-")) {
+                values[a] = -values[a];
+                chain(a, a, -1d, -1, 0d);
+            }
+            return top;
+        }
+        final int l = top - 2;
+        final int r = top - 1;
+        final double x = values[l];
+        final double y = values[r];
+        switch (operator.getSymbol()) {
+            case "+":
+                values[l] = x + y;
+                chain(l, l, 1d, r, 1d);
+                break;
+            case "-":
+                values[l] = x - y;
+                chain(l, l, 1d, r, -1d);
+                break;
+            case "*":
+                values[l] = x * y;
+                chain(l, l, y, r, x);
+                break;
+            case "/":
+                values[l] = operator.apply(x, y);
+                chain(l, l, 1d / y, r, -x / (y * y));
+                break;
+            case "%":
+                values[l] = operator.apply(x, y);
+                chain(l, l, 1d, r, -(long) (x / y));
+                break;
+            case "^":
+                pow(l, r);
+                break;
+            default:
+                /* comparisons and logical operators are piecewise constant */
+                values[l] = operator.apply(x, y);
+                clear(l);
+        }
+        return top - 1;
+    }
+
+    private void pow(int l, int r) {
+        final double x = values[l];
+        final double y = values[r];
+        final double value = Math.pow(x, y);
+        /* d(x^y) = y x^(y-1) dx + x^y ln(x) dy, where ln(x) is only needed for a variable exponent */
+        final double dx = Derivatives.powBase(x, y);
+        final double dy = isConstant(r) ? 0d : value * Math.log(x);
+        values[l] = value;
+        chain(l, l, dx, r, dy);
+    }
+
+    private int apply(Function function, int numArguments, int top) {
+        if (top < numArguments) {
+            throw new IllegalArgumentException("Invalid number of arguments available for '" + function.getName() + "' function");
+        }
+        final Functions builtin = Functions.of(function);
+        if (builtin == null) {
+            return applyCustom(null, function, numArguments, top);
+        }
+        if (numArguments == 0) {
+            values[top] = Functions.apply(function);
+            clear(top);
+            return top + 1;
+        }
+        final int a = top - numArguments;
+        final double x = values[a];
+        final double derivative;
+        switch (builtin) {
+            case POW:
+                pow(a, a + 1);
+                return top - 1;
+            case AVG:
+                values[a] = Functions.apply(function, Arrays.copyOfRange(values, a, top));
+                for (int k = 0; k < numDerivatives; k++) {
+                    double tangent = 0d;
+                    for (int i = a; i < top; i++) {
+                        tangent += tangents[i * numDerivatives + k];
+                    }
+                    tangents[a * numDerivatives + k] = tangent / numArguments;
+                }
+                return a + 1;
+            case IF:
+                final int chosen = Operators.isTrue(x) ? a + 1 : a + 2;
+                values[a] = values[chosen];
+                System.arraycopy(tangents, chosen * numDerivatives, tangents, a * numDerivatives, numDerivatives);
+                return a + 1;
+            default:
+                derivative = Derivatives.of(builtin, x);
+        }
+        values[a] = Functions.apply(function, x);
+        chain(a, a, derivative, -1, 0d);
+        return top;
+    }
+
+    /**
+     * Apply a custom operator or function, using its own partial derivatives or central differences
+     */
+    private int applyCustom(Operator operator, Function function, int numArguments, int top) {
+        final int a = top - numArguments;
+        final double[] args = numArguments == scratch.length ? scratch : new double[numArguments];
+        System.arraycopy(values, a, args, 0, numArguments);
+        final double value = operator != null ? operator.apply(args.clone()) : Functions.apply(function, args);
+        final int n = numDerivatives;
+        final double[] result = new double[n];
+        for (int i = 0; i < numArguments; i++) {
+            if (isConstant(a + i)) {
+                continue;
+            }
+            final double partial = operator != null ? Derivatives.partial(operator, i, args)
+                    : Derivatives.partial(function, i, args);
+            for (int k = 0; k < n; k++) {
+                final double tangent = tangents[(a + i) * n + k];
+                if (tangent != 0d) {
+                    result[k] += partial * tangent;
+                }
+            }
+        }
+        if (numArguments == 0) {
+            values[top] = value;
+            clear(top);
+            return top + 1;
+        }
+        values[a] = value;
+        System.arraycopy(result, 0, tangents, a * n, n);
+        return a + 1;
+    }
+}
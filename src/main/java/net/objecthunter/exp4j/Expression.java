@@ -17,18 +17,30 @@ package net.objecthunter.exp4j;
 
 import net.objecthunter.exp4j.exceptions.ParseExpressionException;
 import net.objecthunter.exp4j.exceptions.VariableNotSetException;
+import net.objecthunter.exp4j.ir.Differentiator;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.ir.Nodes;
 import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.optimizer.PartialEvaluation;
+import net.objecthunter.exp4j.optimizer.Simplifier;
 import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.JumpToken;
 import net.objecthunter.exp4j.tokenizer.OperatorToken;
 import net.objecthunter.exp4j.tokenizer.Token;
 import net.objecthunter.exp4j.tokenizer.VariableToken;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -42,6 +54,31 @@ public class Expression {
 
     private final Set<String> userFunctionNames;
 
+    private volatile Program program;
+
+    /* evaluate() profiles which variables keep their values over a window of calls and folds them into a
+       specialized token array, which is dropped as soon as one of them changes; the profile is a countdown and the
+       values at the start of the window, which concurrent evaluations update without locking, only installing a
+       specialization is synchronized */
+    static final int PROFILE_WINDOW = 64;
+
+    /* profiling stops after this many windows in a row without a stable variable */
+    static final int MAX_IDLE_WINDOWS = 8;
+
+    private static final int MAX_PROFILE_WINDOW = 1 << 20;
+
+    private final Object specializationLock = new Object();
+
+    private volatile Map<String, Double> profile = Collections.emptyMap();
+
+    private int window = PROFILE_WINDOW;
+
+    private int countdown = PROFILE_WINDOW;
+
+    private int idleWindows;
+
+    private volatile Specialization specialization;
+
     /**
      * Creates a new expression that is a copy of the existing one.
      * 
@@ -53,20 +90,50 @@ public class Expression {
     	this.userFunctionNames = new HashSet<>(existing.userFunctionNames);
     }
 
-    Expression(final Token[] tokens) {
+    /**
+     * Creates a new expression from an expression tree.
+     *
+     * @param tree the root of the expression tree
+     */
+    public Expression(final Node tree) {
+        this.tokens = Nodes.toRPN(tree);
+        this.userFunctionNames = new HashSet<>();
+        for (Token token : this.tokens) {
+            if (token.getType() == Token.TOKEN_FUNCTION) {
+                this.userFunctionNames.add(((FunctionToken) token).getFunction().getName());
+            }
+        }
+    }
+
+    Expression(final Expression existing, final Token[] tokens) {
         this.tokens = tokens;
+        this.variables.putAll(existing.variables);
+        this.userFunctionNames = existing.userFunctionNames;
+    }
+
+    Expression(final Token[] tokens) {
+        this.tokens = Nodes.link(tokens);
         this.userFunctionNames = Collections.emptySet();
     }
 
     Expression(final Token[] tokens, Set<String> userFunctionNames, Map<String, Double> consts) {
-        this.tokens = tokens;
+        this.tokens = Nodes.link(tokens);
         this.userFunctionNames = userFunctionNames;
         this.variables.putAll(consts);
     }
 
     public Expression setVariable(final String name, final double value) {
         this.checkVariableName(name);
-        this.variables.put(name, value);
+        final Double previous = this.variables.put(name, value);
+        if (previous == null || Double.doubleToLongBits(previous) != Double.doubleToLongBits(value)) {
+            final Specialization current = this.specialization;
+            if (current != null && current.fixed.containsKey(name)) {
+                /* the variable is not as stable as profiled, wait longer before specializing again */
+                this.specialization = null;
+                this.window = Math.min(MAX_PROFILE_WINDOW, this.window * 2);
+                this.countdown = this.window;
+            }
+        }
         return this;
     }
 
@@ -83,6 +150,77 @@ public class Expression {
         return this;
     }
 
+    /**
+     * Get the immutable expression tree of this expression. The tree can be inspected or rewritten using
+     * {@link net.objecthunter.exp4j.ir.NodeVisitor} and {@link NodeTransformer} implementations and then be passed to
+     * {@link #Expression(Node)}.
+     *
+     * @return the root of the expression tree
+     */
+    public Node toTree() {
+        return Nodes.fromRPN(tokens);
+    }
+
+    /**
+     * Apply passes to the expression tree
+     *
+     * @param passes the passes to apply in order
+     * @return a new expression sharing the variable values of this one, or this expression if there are no passes
+     */
+    Expression transform(final List<NodeTransformer> passes) {
+        if (passes.isEmpty()) {
+            return this;
+        }
+        Node tree = toTree();
+        for (NodeTransformer pass : passes) {
+            tree = pass.transform(tree);
+        }
+        return new Expression(this, Nodes.toRPN(tree));
+    }
+
+    /**
+     * Differentiate the expression symbolically. The derivative is built from the expression tree using the known
+     * derivatives of the builtin operators and functions and simplified by a {@link Simplifier}, so it can be
+     * evaluated, compiled or differentiated again like any other expression. The derivative repeats subexpressions
+     * of the expression, like <code>exp(-x)</code> in the derivative of <code>x * exp(-x)</code>. Evaluating the
+     * expression and its derivative one after the other is therefore slower than a {@link DualExpression}, while an
+     * {@link ExpressionSet} of both computes the shared subexpressions once and is about as fast.
+     *
+     * @param variable the name of the variable to differentiate with respect to
+     * @return a new expression for the derivative, sharing the variable values of this one
+     * @throws IllegalArgumentException if an operand of a custom function or operator depends on the variable
+     */
+    public Expression derivative(final String variable) {
+        final Node derivative = new Differentiator(variable).differentiate(toTree());
+        return new Expression(this, Nodes.toRPN(new Simplifier().transform(derivative)));
+    }
+
+    /**
+     * Specialize the expression for fixed values of some of its variables. The fixed variables are replaced by their
+     * values, and every subexpression depending only on them is computed once by a {@link PartialEvaluation}, so
+     * evaluating the specialized expression only computes the parts depending on the remaining variables. This pays
+     * off when most variables stay the same for many evaluations.
+     *
+     * @param fixed the values of the fixed variables, names which are not variables of this expression are ignored
+     * @return a new expression whose variables are the remaining ones, sharing the variable values of this one
+     * @throws IllegalArgumentException if a value is null
+     */
+    public Expression specialize(final Map<String, Double> fixed) {
+        return new Expression(this, Nodes.toRPN(new PartialEvaluation(fixed).transform(toTree())));
+    }
+
+    Map<String, Double> getVariableValues() {
+        return this.variables;
+    }
+
+    Token[] getTokens() {
+        return this.tokens;
+    }
+
+    boolean isSpecialized() {
+        return this.specialization != null;
+    }
+
     public Set<String> getVariableNames() {
         Set<String> variables = new HashSet<>();
         for (Token token : tokens) {
@@ -150,14 +288,177 @@ public class Expression {
         return this;
     }
 
+    /**
+     * Write the compiled form of this expression in a compact, versioned binary format. Functions and operators
+     * are referenced by name together with the {@link net.objecthunter.exp4j.function.MathMode} of the builtin
+     * variants, and the values of the variables currently set are included.
+     *
+     * @param out the output to write to
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if the expression calls a {@link net.objecthunter.exp4j.function.Synthetic}
+     * function created by an optimization pass
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        ExpressionFormat.write(this.tokens, this.variables, out);
+    }
+
+    /**
+     * Read an expression written by {@link #writeTo(DataOutput)} without parsing it again. Function and operator
+     * references are resolved and validated against the given registry, and the builtins which the registry does not
+     * replace are resolved to the variants of the math mode the expression was built with.
+     *
+     * @param in the input to read from
+     * @param registry the registry containing the functions and operators used by the expression
+     * @return the expression
+     * @throws IOException if reading fails or the input is not a serialized expression
+     * @throws IllegalArgumentException if a function or operator is not available in the registry
+     */
+    public static Expression readFrom(DataInput in, FunctionRegistry registry) throws IOException {
+        return ExpressionFormat.read(in, registry);
+    }
+
+    /**
+     * Create bindings for the variables of this expression, in the order of their first occurrence. The values of the
+     * variables currently set are copied.
+     *
+     * @return the bindings
+     */
+    public Bindings bindings() {
+        final Set<String> names = new LinkedHashSet<>();
+        for (Token token : tokens) {
+            if (token.getType() == Token.TOKEN_VARIABLE) {
+                names.add(((VariableToken) token).getName());
+            }
+        }
+        final Bindings bindings = new Bindings(names);
+        for (String name : names) {
+            final Double value = variables.get(name);
+            if (value != null) {
+                bindings.set(name, value);
+            }
+        }
+        return bindings;
+    }
+
+    private Program program(Bindings bindings) {
+        Program p = this.program;
+        if (p == null || !p.accepts(bindings)) {
+            p = new Program(this.tokens, bindings);
+            this.program = p;
+        }
+        return p;
+    }
+
+    /**
+     * Evaluate the expression with variable values from bindings instead of the values set on this expression. The
+     * bindings have to contain all the variables of the expression.
+     *
+     * @param bindings the variable values
+     * @return the result
+     */
+    public double evaluate(Bindings bindings) {
+        return program(bindings).evaluate(bindings);
+    }
+
+    /**
+     * Evaluate the expression and its gradient with respect to all the variables of the bindings using reverse mode
+     * automatic differentiation. The operations are recorded on a tape kept in the bindings, so the gradient costs a
+     * small multiple of one evaluation no matter how many variables there are, and repeated calls with the same
+     * bindings do not allocate.
+     *
+     * @param bindings the variable values
+     * @param gradient the array receiving the partial derivatives, indexed like the bindings
+     * @return the result
+     */
+    public double gradient(Bindings bindings, double[] gradient) {
+        return program(bindings).gradient(bindings, gradient);
+    }
+
     public Future<Double> evaluateAsync(ExecutorService executor) {
-        return executor.submit(this::evaluate);
+        return executor.submit(() -> evaluate());
     }
 
+    /**
+     * Evaluate the expression with the values of the variables set on it. Variables which keep their values over
+     * {@value #PROFILE_WINDOW} or more evaluations are folded into a specialized program computing only the parts
+     * depending on the other variables, with the same results. Setting one of the folded variables to another value
+     * switches back to the full program. Profiling stops after {@value #MAX_IDLE_WINDOWS} windows in a row in which
+     * all variables changed.
+     *
+     * @return the result
+     */
     public double evaluate() {
+        final Specialization current = this.specialization;
+        if (current != null) {
+            return evaluate(current.tokens);
+        }
+        if (--this.countdown <= 0) {
+            this.countdown = this.window;
+            specialize();
+        }
+        return evaluate(this.tokens);
+    }
+
+    /**
+     * Fold the variables which kept their values since the start of the profile window
+     */
+    private void specialize() {
+        final Map<String, Double> start = this.profile;
+        final Map<String, Double> current = new HashMap<>();
+        final Map<String, Double> stable = new HashMap<>();
+        for (String name : getVariableNames()) {
+            final Double value = this.variables.get(name);
+            if (value != null) {
+                current.put(name, value);
+                /* Double.equals compares the bits, so -0.0 and NaN are handled like in setVariable */
+                if (value.equals(start.get(name))) {
+                    stable.put(name, value);
+                }
+            }
+        }
+        this.profile = current;
+        if (stable.isEmpty()) {
+            if (++this.idleWindows >= MAX_IDLE_WINDOWS) {
+                this.window = Integer.MAX_VALUE;
+                this.countdown = Integer.MAX_VALUE;
+            }
+            return;
+        }
+        this.idleWindows = 0;
+        try {
+            final Token[] folded = Nodes.toRPN(new PartialEvaluation(stable, false).transform(toTree()));
+            synchronized (this.specializationLock) {
+                if (this.specialization == null && isCurrent(stable)) {
+                    this.specialization = new Specialization(stable, folded);
+                }
+            }
+        } catch (RuntimeException | StackOverflowError e) {
+            /* an invalid expression fails when it is evaluated, and a custom function nesting too deeply for the
+               tree passes would fail again, so do not try again */
+            this.window = Integer.MAX_VALUE;
+            this.countdown = Integer.MAX_VALUE;
+        }
+    }
+
+    private boolean isCurrent(Map<String, Double> values) {
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            if (!entry.getValue().equals(this.variables.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double evaluate(final Token[] tokens) {
         Deque<Double> output = new ArrayDeque<>();
-        for (Token token : tokens) {
-            token.process(output, this.variables);
+        for (int i = 0; i < tokens.length; ) {
+            final Token token = tokens[i];
+            if (token.getType() == Token.TOKEN_JUMP) {
+                i = ((JumpToken) token).jump(output, i);
+            } else {
+                token.process(output, this.variables);
+                i++;
+            }
         }
         if (output.size() > 1) {
             throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
@@ -165,4 +466,15 @@ public class Expression {
         return output.pop();
     }
 
+    private static final class Specialization {
+
+        private final Map<String, Double> fixed;
+
+        private final Token[] tokens;
+
+        Specialization(Map<String, Double> fixed, Token[] tokens) {
+            this.fixed = fixed;
+            this.tokens = tokens;
+        }
+    }
 }
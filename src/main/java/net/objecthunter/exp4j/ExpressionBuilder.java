@@ -16,11 +16,16 @@
 
 package net.objecthunter.exp4j;
 
+import java.math.RoundingMode;
 import java.util.*;
 
 import net.objecthunter.exp4j.function.Function;
 import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.MathMode;
+import net.objecthunter.exp4j.ir.NodeTransformer;
 import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.optimizer.FmaContraction;
+import net.objecthunter.exp4j.optimizer.Reassociation;
 import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
 
 /**
@@ -41,6 +46,12 @@ public class ExpressionBuilder {
 
     private boolean implicitMultiplication = true;
 
+    private MathMode mathMode = MathMode.DEFAULT;
+
+    private boolean fusedMultiplyAdd;
+
+    private final List<NodeTransformer> passes = new ArrayList<>();
+
     /**
      * Create a new ExpressionBuilder instance and initialize it with a given expression string.
      * @param expression the expression to be parsed
@@ -56,7 +67,9 @@ public class ExpressionBuilder {
     }
 
     /**
-     * Add a {@link net.objecthunter.exp4j.function.Function} implementation available for use in the expression
+     * Add a {@link net.objecthunter.exp4j.function.Function} implementation available for use in the expression. The
+     * builtin functions take precedence over functions with the same name, except for <code>if</code> which a custom
+     * function replaces.
      * @param function the custom {@link net.objecthunter.exp4j.function.Function} implementation that should be available for use in the expression.
      * @return the ExpressionBuilder instance
      */
@@ -168,18 +181,46 @@ public class ExpressionBuilder {
         return this;
     }
 
+    /**
+     * Select the implementation of the transcendental builtin functions and of the power operator. A custom
+     * <code>^</code> operator takes precedence over the one of the math mode. The math mode applies to the expressions
+     * built by {@link #build()}, the other builds evaluate the builtins in their own arithmetic.
+     * @param mathMode the {@link MathMode} to use, {@link MathMode#DEFAULT} unless set
+     * @return the ExpressionBuilder instance
+     */
+    public ExpressionBuilder mathMode(MathMode mathMode) {
+        if (mathMode == null) {
+            throw new IllegalArgumentException("The math mode can not be null");
+        }
+        this.mathMode = mathMode;
+        return this;
+    }
+
+    /**
+     * Contract multiplications whose result is added or subtracted into fused multiply adds, which round once
+     * instead of twice. The contraction applies after the passes, and only to the expressions built by
+     * {@link #build()}. It is off by default, so results are identical to the separate operations.
+     * @param enabled true to contract multiply add patterns
+     * @return the ExpressionBuilder instance
+     * @see FmaContraction
+     */
+    public ExpressionBuilder fusedMultiplyAdd(boolean enabled) {
+        this.fusedMultiplyAdd = enabled;
+        return this;
+    }
+
     /**
      * Add an {@link net.objecthunter.exp4j.operator.Operator} which should be available for use in the expression
      * @param operator the custom {@link net.objecthunter.exp4j.operator.Operator} to add
      * @return the ExpressionBuilder instance
      */
     public ExpressionBuilder operator(Operator operator) {
-        this.checkOperatorSymbol(operator);
+        checkOperatorSymbol(operator);
         this.userOperators.put(operator.getSymbol(), operator);
         return this;
     }
 
-    private void checkOperatorSymbol(Operator op) {
+    static void checkOperatorSymbol(Operator op) {
         String name = op.getSymbol();
         for (char ch : name.toCharArray()) {
             if (!Operator.isAllowedOperatorChar(ch)) {
@@ -212,22 +253,64 @@ public class ExpressionBuilder {
         return this;
     }
 
+    /**
+     * Add a pass rewriting the expression tree when the expression is built. Passes are applied in the order they
+     * have been added. A {@link Reassociation} pass can not be combined with {@link MathMode#STRICT}.
+     * @param pass the {@link net.objecthunter.exp4j.ir.NodeTransformer} to apply
+     * @return the ExpressionBuilder instance
+     */
+    public ExpressionBuilder pass(NodeTransformer pass) {
+        this.passes.add(pass);
+        return this;
+    }
+
     /**
      * Build the {@link Expression} instance using the custom operators and functions set.
      * @return an {@link Expression} instance which can be used to evaluate the result of the expression
      */
     public Expression build() {
+        return build(fusedMultiplyAdd, mathMode);
+    }
+
+    private Expression build(boolean contract, MathMode mathMode) {
         if (expression.length() == 0) {
             throw new IllegalArgumentException("The expression can not be empty");
         }
+        if (mathMode == MathMode.STRICT) {
+            for (NodeTransformer pass : passes) {
+                if (pass instanceof Reassociation) {
+                    throw new IllegalArgumentException("The strict math mode keeps the evaluation order, it can not be "
+                            + "combined with a reassociation pass");
+                }
+            }
+        }
 
         //if user didn't specified specific functions, we use all built ins
-        userFunctions.putAll(allowedFunctions == null ? Functions.ALL : allowedFunctions);
+        final Map<String, Function> functions = new HashMap<>(userFunctions);
+        functions.putAll(allowedFunctions == null ? Functions.ALL : allowedFunctions);
+        /* only a custom 'if' replaces the builtin, e.g. by one which is not lazy */
+        final Function customIf = userFunctions.get(Functions.IF.function.getName());
+        if (customIf != null) {
+            functions.put(customIf.getName(), customIf);
+        }
+
+        /* replace the builtins which are still in place by the variants of the math mode */
+        for (Function variant : mathMode.getFunctions().values()) {
+            final String name = variant.getName();
+            if (functions.get(name) == Functions.ALL.get(name)) {
+                functions.put(name, variant);
+            }
+        }
+        Map<String, Operator> operators = userOperators;
+        if (mathMode.getPowerOperator() != null && !userOperators.containsKey("^")) {
+            operators = new HashMap<>(userOperators);
+            operators.put("^", mathMode.getPowerOperator());
+        }
 
         /* Check if there are duplicate vars/functions */
         Map<String, Double> consts = new HashMap<>();
         for (String variable : variableNames) {
-            if (Functions.isBuiltinFunction(variable) || userFunctions.containsKey(variable)) {
+            if (Functions.isBuiltinFunction(variable) || functions.containsKey(variable)) {
                 throw new IllegalArgumentException(
                         "A variable can not have the same name as a function [" + variable + "]");
             }
@@ -237,8 +320,64 @@ public class ExpressionBuilder {
             }
         }
 
-        return new Expression(ShuntingYard.convertToRPN(this.expression, this.userFunctions, this.userOperators,
-                this.variableNames, this.implicitMultiplication), this.userFunctions.keySet(), consts);
+        List<NodeTransformer> passes = this.passes;
+        if (contract) {
+            passes = new ArrayList<>(this.passes);
+            passes.add(new FmaContraction());
+        }
+        return new Expression(ShuntingYard.convertToRPN(this.expression, functions, operators,
+                this.variableNames, this.implicitMultiplication), functions.keySet(), consts).transform(passes);
+    }
+
+    /**
+     * Build a {@link LongExpression} evaluating the expression in exact 64 bit integer arithmetic, which throws an
+     * {@link ArithmeticException} when a result overflows
+     * @return a {@link LongExpression} instance
+     * @throws IllegalArgumentException if the expression can not be evaluated in integer arithmetic
+     */
+    public LongExpression buildLong() {
+        return buildLong(LongExpression.Overflow.CHECK);
+    }
+
+    /**
+     * Build a {@link LongExpression} evaluating the expression in 64 bit integer arithmetic
+     * @param overflow what happens when a result does not fit into a <code>long</code>
+     * @return a {@link LongExpression} instance
+     * @throws IllegalArgumentException if the expression can not be evaluated in integer arithmetic
+     */
+    public LongExpression buildLong(LongExpression.Overflow overflow) {
+        return new LongExpression(build(false, MathMode.DEFAULT), overflow);
+    }
+
+    /**
+     * Build a {@link DecimalExpression} evaluating the expression in decimal fixed point arithmetic
+     * @param scale the number of decimal digits after the decimal point
+     * @param rounding how results are rounded to the scale
+     * @return a {@link DecimalExpression} instance
+     * @throws IllegalArgumentException if the scale is not supported
+     */
+    public DecimalExpression buildDecimal(int scale, RoundingMode rounding) {
+        return new DecimalExpression(build(false, MathMode.DEFAULT), scale, rounding);
+    }
+
+    /**
+     * Build a {@link ComplexExpression} evaluating the expression over complex numbers. The variable
+     * {@link ComplexExpression#IMAGINARY_UNIT i} is declared and stands for the imaginary unit unless it is set.
+     * @param columns the variables read from columns by
+     * {@link ComplexExpression#evaluate(double[][], double[][], double[], double[])}, in the order of the columns
+     * @return a {@link ComplexExpression} instance
+     */
+    public ComplexExpression buildComplex(String... columns) {
+        this.variableNames.add(ComplexExpression.IMAGINARY_UNIT);
+        return new ComplexExpression(build(false, MathMode.DEFAULT), columns);
+    }
+
+    /**
+     * Build a {@link DoubleDoubleExpression} evaluating the expression with about 106 bits of precision
+     * @return a {@link DoubleDoubleExpression} instance
+     */
+    public DoubleDoubleExpression buildDoubleDouble() {
+        return new DoubleDoubleExpression(build(false, MathMode.DEFAULT));
     }
 
 }
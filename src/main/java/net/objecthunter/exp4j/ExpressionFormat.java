@@ -0,0 +1,430 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.DynamicArgumentFunction;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.FusedMultiplyAdd;
+import net.objecthunter.exp4j.function.MathMode;
+import net.objecthunter.exp4j.function.Synthetic;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.JumpToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary encoding of a compiled {@link Expression}.
+ * <p>
+ * The layout is: a magic number, the format version and the length of the body. The body holds the
+ * {@link MathMode} whose variants replace the builtin functions and the power operator, the constants pool, the
+ * symbol table with the variable names, function names and operator symbols, the preset variable values and
+ * finally the program in reverse polish notation as a sequence of opcodes referencing the pool and the symbol table.
+ * Jumps are stored with their kind and absolute target index.
+ * Counts and indices are unsigned variable length integers and symbols are length prefixed UTF-8. The body is read
+ * with a single call, so decoding does not pay for the per byte overhead of the underlying stream.
+ */
+final class ExpressionFormat {
+
+    static final int MAGIC = 0x45344A42;
+
+    static final int VERSION = 2;
+
+    /* the first version, which did not record the math mode */
+    private static final int VERSION_DEFAULT_MATH = 1;
+
+    static final int OP_NUMBER = 1;
+    static final int OP_VARIABLE = 2;
+    static final int OP_OPERATOR = 3;
+    static final int OP_FUNCTION = 4;
+    static final int OP_JUMP = 5;
+
+    private static final Function FMA = new FusedMultiplyAdd();
+
+    private ExpressionFormat() {
+    }
+
+    static void write(Token[] tokens, Map<String, Double> variables, DataOutput out) throws IOException {
+        final Map<Long, Integer> constantIndex = new HashMap<>();
+        final List<Double> constants = new ArrayList<>();
+        final Map<String, Integer> symbolIndex = new HashMap<>();
+        final List<String> symbols = new ArrayList<>();
+        MathMode mathMode = MathMode.DEFAULT;
+
+        /* collect the pools first, so the program can be written in a single pass afterwards */
+        final int[] operands = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            final Token token = tokens[i];
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    final double value = ((NumberToken) token).getValue();
+                    operands[i] = constantIndex.computeIfAbsent(Double.doubleToLongBits(value), bits -> {
+                        constants.add(value);
+                        return constants.size() - 1;
+                    });
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    operands[i] = symbol(((VariableToken) token).getName(), symbolIndex, symbols);
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) token).getOperator();
+                    mathMode = combine(mathMode, modeOf(operator));
+                    operands[i] = symbol(operator.getSymbol(), symbolIndex, symbols);
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final Function function = ((FunctionToken) token).getFunction();
+                    if (function instanceof Synthetic) {
+                        throw new IllegalArgumentException("Unable to serialize the function '" + function.getName()
+                                + "' created by an optimization pass");
+                    }
+                    mathMode = combine(mathMode, modeOf(function));
+                    operands[i] = symbol(function.getName(), symbolIndex, symbols);
+                    break;
+                case Token.TOKEN_JUMP:
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unable to serialize token of type " + token.getType());
+            }
+        }
+        for (String name : variables.keySet()) {
+            symbol(name, symbolIndex, symbols);
+        }
+
+        final Encoder body = new Encoder(16 * tokens.length);
+        body.writeString(mathMode.name());
+        body.writeVarInt(constants.size());
+        for (double constant : constants) {
+            body.writeDouble(constant);
+        }
+        body.writeVarInt(symbols.size());
+        for (String symbol : symbols) {
+            body.writeString(symbol);
+        }
+        body.writeVarInt(variables.size());
+        for (Map.Entry<String, Double> variable : variables.entrySet()) {
+            body.writeVarInt(symbolIndex.get(variable.getKey()));
+            body.writeDouble(variable.getValue());
+        }
+        body.writeVarInt(tokens.length);
+        for (int i = 0; i < tokens.length; i++) {
+            final Token token = tokens[i];
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    body.writeByte(OP_NUMBER);
+                    body.writeVarInt(operands[i]);
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    body.writeByte(OP_VARIABLE);
+                    body.writeVarInt(operands[i]);
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    body.writeByte(OP_OPERATOR);
+                    body.writeVarInt(operands[i]);
+                    body.writeByte(((OperatorToken) token).getOperator().getNumOperands());
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    body.writeByte(OP_FUNCTION);
+                    body.writeVarInt(operands[i]);
+                    body.writeVarInt(((FunctionToken) token).getDynamicNumberOfArguments());
+                    break;
+                case Token.TOKEN_JUMP:
+                    body.writeByte(OP_JUMP);
+                    body.writeByte(((JumpToken) token).getKind());
+                    body.writeVarInt(((JumpToken) token).getTarget());
+                    break;
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(body.length);
+        out.write(body.buffer, 0, body.length);
+    }
+
+    /* the math mode a function or operator is a variant of, or null for the builtins and custom ones */
+    private static MathMode modeOf(Function function) {
+        for (MathMode mode : MathMode.values()) {
+            if (mode.getFunctions().get(function.getName()) == function) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    private static MathMode modeOf(Operator operator) {
+        for (MathMode mode : MathMode.values()) {
+            if (mode.getPowerOperator() == operator) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    private static MathMode combine(MathMode mathMode, MathMode variant) {
+        if (variant == null || variant == mathMode) {
+            return mathMode;
+        }
+        if (mathMode != MathMode.DEFAULT) {
+            throw new IllegalArgumentException("Unable to serialize an expression mixing the math modes " + mathMode
+                    + " and " + variant);
+        }
+        return variant;
+    }
+
+    private static int symbol(String name, Map<String, Integer> symbolIndex, List<String> symbols) {
+        return symbolIndex.computeIfAbsent(name, n -> {
+            symbols.add(n);
+            return symbols.size() - 1;
+        });
+    }
+
+    static Expression read(DataInput in, FunctionRegistry registry) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Not a serialized expression");
+        }
+        final int version = in.readUnsignedByte();
+        if (version != VERSION && version != VERSION_DEFAULT_MATH) {
+            throw new StreamCorruptedException("Unsupported expression format version " + version);
+        }
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new StreamCorruptedException("Negative body length");
+        }
+        final byte[] data = new byte[length];
+        in.readFully(data);
+        final Decoder body = new Decoder(data);
+
+        MathMode mathMode = MathMode.DEFAULT;
+        if (version != VERSION_DEFAULT_MATH) {
+            final String name = body.readString();
+            try {
+                mathMode = MathMode.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                throw new StreamCorruptedException("Unknown math mode " + name);
+            }
+        }
+
+        final NumberToken[] constants = new NumberToken[body.readVarInt()];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = new NumberToken(body.readDouble());
+        }
+        final String[] symbols = new String[body.readVarInt()];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = body.readString();
+        }
+        final int numVariables = body.readVarInt();
+        final Map<String, Double> variables = new HashMap<>(numVariables * 2);
+        for (int i = 0; i < numVariables; i++) {
+            variables.put(symbols[index(body.readVarInt(), symbols.length)], body.readDouble());
+        }
+
+        /* tokens are immutable once built, so every symbol is resolved only once and its token is shared */
+        final Token[] resolved = new Token[symbols.length];
+        final Token[] tokens = new Token[body.readVarInt()];
+        for (int i = 0; i < tokens.length; i++) {
+            final int opcode = body.readByte();
+            final int ref;
+            switch (opcode) {
+                case OP_NUMBER:
+                    tokens[i] = constants[index(body.readVarInt(), constants.length)];
+                    break;
+                case OP_VARIABLE:
+                    ref = index(body.readVarInt(), symbols.length);
+                    if (resolved[ref] == null) {
+                        resolved[ref] = new VariableToken(symbols[ref]);
+                    }
+                    tokens[i] = resolved[ref];
+                    break;
+                case OP_OPERATOR:
+                    ref = index(body.readVarInt(), symbols.length);
+                    final int numOperands = body.readByte();
+                    tokens[i] = resolved[ref];
+                    if (tokens[i] == null || ((OperatorToken) tokens[i]).getOperator().getNumOperands() != numOperands) {
+                        Operator operator = registry.getOperator(symbols[ref], numOperands);
+                        if (operator == null) {
+                            throw new IllegalArgumentException("Unknown operator '" + symbols[ref] + "' with " + numOperands + " operands");
+                        }
+                        if (operator == Operators.getBuiltinOperator('^', 2) && mathMode.getPowerOperator() != null) {
+                            operator = mathMode.getPowerOperator();
+                        }
+                        tokens[i] = new OperatorToken(operator);
+                        resolved[ref] = tokens[i];
+                    }
+                    break;
+                case OP_FUNCTION:
+                    ref = index(body.readVarInt(), symbols.length);
+                    final int numArguments = body.readVarInt();
+                    Function function = registry.getFunction(symbols[ref]);
+                    if (function == null && symbols[ref].equals(FMA.getName())) {
+                        /* created by the fused multiply add contraction, not by the registry */
+                        function = FMA;
+                    }
+                    if (function == null) {
+                        throw new IllegalArgumentException("Unknown function '" + symbols[ref] + "'");
+                    }
+                    if (function == Functions.ALL.get(symbols[ref])) {
+                        /* the builtin was not replaced by a custom function, use the variant of the math mode */
+                        function = mathMode.getFunctions().getOrDefault(symbols[ref], function);
+                    }
+                    if (function instanceof DynamicArgumentFunction) {
+                        function.validateArguments(numArguments);
+                    } else if (function.getNumberOfArguments() != numArguments) {
+                        throw new IllegalArgumentException("Invalid number of arguments for '" + symbols[ref] + "' function");
+                    }
+                    tokens[i] = new FunctionToken(function, numArguments);
+                    break;
+                case OP_JUMP:
+                    final int kind = body.readByte();
+                    final int target = body.readVarInt();
+                    if (kind > JumpToken.BOOLEAN || target <= i || target > tokens.length) {
+                        throw new StreamCorruptedException("Invalid jump at " + i);
+                    }
+                    tokens[i] = new JumpToken(kind, target);
+                    break;
+                default:
+                    throw new StreamCorruptedException("Unknown opcode " + opcode);
+            }
+        }
+        if (body.pos != length) {
+            throw new StreamCorruptedException("Trailing bytes after the program");
+        }
+        return new Expression(tokens, registry.getFunctions().keySet(), variables);
+    }
+
+    private static int index(int index, int size) throws StreamCorruptedException {
+        if (index >= size) {
+            throw new StreamCorruptedException("Reference " + index + " out of range");
+        }
+        return index;
+    }
+
+    private static final class Encoder {
+
+        private byte[] buffer;
+
+        private int length;
+
+        Encoder(int capacity) {
+            this.buffer = new byte[Math.max(capacity, 64)];
+        }
+
+        private void ensure(int additional) {
+            if (length + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[length++] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        void writeDouble(double value) {
+            ensure(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[length++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+    }
+
+    private static final class Decoder {
+
+        private final byte[] data;
+
+        private int pos;
+
+        Decoder(byte[] data) {
+            this.data = data;
+        }
+
+        private void require(int count) throws EOFException {
+            if (data.length - pos < count) {
+                throw new EOFException("Unexpected end of the serialized expression");
+            }
+        }
+
+        int readByte() throws EOFException {
+            require(1);
+            return data[pos++] & 0xFF;
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new StreamCorruptedException("Negative length or index");
+                    }
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed variable length integer");
+        }
+
+        double readDouble() throws EOFException {
+            require(8);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (data[pos++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString() throws IOException {
+            final int len = readVarInt();
+            require(len);
+            final String value = new String(data, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.ir.Dag;
+import net.objecthunter.exp4j.ir.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates a number of {@link Expression}s over the same variables in one pass. The expressions are merged into a
+ * single {@link Dag}, so subexpressions shared between them are computed once and every variable is loaded once per
+ * evaluation, instead of once per expression through its own variable map. All operations are computed on every
+ * evaluation, including the operands the <code>if</code> function and the short circuit operators skip when an
+ * expression is evaluated on its own, but failures of these operands are not reported. Every operation is computed
+ * exactly once per evaluation, also when one of them fails.
+ * <p>
+ * Instances are not thread safe, use {@link #ExpressionSet(ExpressionSet)} to create a copy per thread.
+ */
+public class ExpressionSet {
+
+    private final Dag dag;
+
+    private final Map<String, Integer> variableIndex;
+
+    /* per variable the node loading it, the dag has exactly one node per variable name */
+    private final int[] variableNodes;
+
+    /* the operator and function nodes in evaluation order */
+    private final int[] program;
+
+    private final int[] roots;
+
+    private final double[] values;
+
+    private final boolean[] variableSet;
+
+    /**
+     * Create a new set evaluating the given expressions. The values of the variables already set on the expressions
+     * are used as initial values.
+     * @param expressions the expressions to evaluate
+     */
+    public ExpressionSet(Expression... expressions) {
+        this(Arrays.asList(expressions));
+    }
+
+    /**
+     * Create a new set evaluating the given expressions. The values of the variables already set on the expressions
+     * are used as initial values.
+     * @param expressions the expressions to evaluate
+     */
+    public ExpressionSet(List<Expression> expressions) {
+        if (expressions.isEmpty()) {
+            throw new IllegalArgumentException("An expression set needs at least one expression");
+        }
+        final List<Node> trees = new ArrayList<>(expressions.size());
+        for (Expression expression : expressions) {
+            trees.add(expression.toTree());
+        }
+        this.dag = Dag.of(trees);
+        final int size = dag.size();
+        this.values = new double[size];
+
+        final List<String> names = dag.getVariableNames();
+        this.variableIndex = new HashMap<>();
+        this.variableNodes = new int[names.size()];
+        this.variableSet = new boolean[names.size()];
+        int numOps = 0;
+        for (int i = 0; i < size; i++) {
+            switch (dag.getKind(i)) {
+                case Dag.KIND_NUMBER:
+                    values[i] = dag.compute(i, values);
+                    break;
+                case Dag.KIND_VARIABLE:
+                    variableNodes[dag.getVariable(i)] = i;
+                    break;
+                default:
+                    numOps++;
+            }
+        }
+        this.program = new int[numOps];
+        numOps = 0;
+        for (int i = 0; i < size; i++) {
+            final int kind = dag.getKind(i);
+            if (kind == Dag.KIND_OPERATOR || kind == Dag.KIND_FUNCTION) {
+                program[numOps++] = i;
+            }
+        }
+        this.roots = new int[dag.getRootCount()];
+        for (int r = 0; r < roots.length; r++) {
+            roots[r] = dag.getRoot(r);
+        }
+        for (int v = 0; v < names.size(); v++) {
+            variableIndex.put(names.get(v), v);
+        }
+        for (Expression expression : expressions) {
+            for (Map.Entry<String, Double> variable : expression.getVariableValues().entrySet()) {
+                final Integer v = variableIndex.get(variable.getKey());
+                if (v != null && !variableSet[v]) {
+                    values[variableNodes[v]] = variable.getValue();
+                    variableSet[v] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a copy of an expression set sharing its compiled program but not its variable values
+     * @param existing the expression set to copy
+     */
+    public ExpressionSet(ExpressionSet existing) {
+        this.dag = existing.dag;
+        this.variableIndex = existing.variableIndex;
+        this.variableNodes = existing.variableNodes;
+        this.program = existing.program;
+        this.roots = existing.roots;
+        this.values = existing.values.clone();
+        this.variableSet = existing.variableSet.clone();
+    }
+
+    public ExpressionSet setVariable(String name, double value) {
+        final Integer v = variableIndex.get(name);
+        if (v != null) {
+            values[variableNodes[v]] = value;
+            variableSet[v] = true;
+        }
+        return this;
+    }
+
+    public ExpressionSet setVariables(Map<String, Double> variables) {
+        for (Map.Entry<String, Double> v : variables.entrySet()) {
+            this.setVariable(v.getKey(), v.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Evaluate all the expressions
+     * @return the results in the order the expressions have been passed to the constructor
+     */
+    public double[] evaluate() {
+        return evaluate(new double[roots.length]);
+    }
+
+    /**
+     * Evaluate all the expressions into an existing array
+     * @param results the array receiving the results in the order the expressions have been passed to the
+     * constructor
+     * @return the results array
+     */
+    public double[] evaluate(double[] results) {
+        if (results.length < roots.length) {
+            throw new IllegalArgumentException("The results array can not hold " + roots.length + " values");
+        }
+        for (int v = 0; v < variableSet.length; v++) {
+            if (!variableSet[v]) {
+                throw new IllegalArgumentException("No value has been set for the setVariable '"
+                        + dag.getVariableNames().get(v) + "'.");
+            }
+        }
+        final Dag dag = this.dag;
+        final double[] values = this.values;
+        final int[] program = this.program;
+        int i = 0;
+        try {
+            for (; i < program.length; i++) {
+                values[program[i]] = dag.compute(program[i], values);
+            }
+        } catch (RuntimeException e) {
+            evaluateGuarded(i, e);
+        }
+        for (int r = 0; r < roots.length; r++) {
+            results[r] = values[roots[r]];
+        }
+        return results;
+    }
+
+    private void evaluateGuarded(int failed, RuntimeException error) {
+        /* an operation failed, which is fine as long as it is an operand an if or a short circuit operator skips;
+           the operations before it succeeded, so only the remaining ones are computed, each of them once */
+        final RuntimeException[] errors = new RuntimeException[values.length];
+        errors[program[failed]] = error;
+        values[program[failed]] = Double.NaN;
+        for (int i = failed + 1; i < program.length; i++) {
+            values[program[i]] = dag.compute(program[i], values, errors);
+        }
+        for (int root : roots) {
+            if (errors[root] != null) {
+                throw errors[root];
+            }
+        }
+    }
+
+    /**
+     * @return the number of expressions in this set
+     */
+    public int size() {
+        return roots.length;
+    }
+
+    /**
+     * @return the names of all the variables used by the expressions
+     */
+    public Set<String> getVariableNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(dag.getVariableNames()));
+    }
+
+    /**
+     * @return the number of operations computed per evaluation after merging the shared subexpressions
+     */
+    public int getOperationCount() {
+        return program.length;
+    }
+}
@@ -0,0 +1,625 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.FusedMultiplyAdd;
+import net.objecthunter.exp4j.function.LinearCombination;
+import net.objecthunter.exp4j.ir.Dag;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.NumberNode;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.ir.VariableNode;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates an {@link Expression} in single precision over columns of <code>float</code> values, one column per
+ * variable and one result per row. Rows are processed in blocks, and every operation runs over a whole block
+ * before the next one starts, so the inner loops are simple enough for the JIT compiler to vectorize. Shared
+ * subexpressions are computed once, and the intermediate columns are reused as soon as they are no longer
+ * needed, so a block stays in the cache.
+ * <p>
+ * The builtin functions are computed in double precision and rounded to float. Both operands of the
+ * <code>if</code> function and the short circuit operators are computed for every row. Divisions and modulos
+ * by zero yield infinities or NaN as in float arithmetic, so they do not throw.
+ * <p>
+ * Instances are not thread safe, use {@link #FloatExpression(FloatExpression)} to create a copy per thread.
+ */
+public class FloatExpression {
+
+    static final int BLOCK_SIZE = 1024;
+
+    private static final int OP_ADD = 0;
+    private static final int OP_SUBTRACT = 1;
+    private static final int OP_MULTIPLY = 2;
+    private static final int OP_DIVIDE = 3;
+    private static final int OP_MODULO = 4;
+    private static final int OP_POWER = 5;
+    private static final int OP_NEGATE = 6;
+    private static final int OP_LESS = 7;
+    private static final int OP_GREATER = 8;
+    private static final int OP_LESS_EQUAL = 9;
+    private static final int OP_GREATER_EQUAL = 10;
+    private static final int OP_EQUAL = 11;
+    private static final int OP_NOT_EQUAL = 12;
+    private static final int OP_AND = 13;
+    private static final int OP_OR = 14;
+    private static final int OP_IF = 15;
+    private static final int OP_AVG = 16;
+    private static final int OP_FUNCTION = 17;
+    private static final int OP_CUSTOM = 18;
+    private static final int OP_LINEAR = 19;
+    private static final int OP_FMA = 20;
+
+    private static final Map<String, Integer> OPERATOR_CODES = new HashMap<>();
+
+    static {
+        final String[] symbols = {"+", "-", "*", "/", "%", "^"};
+        for (int i = 0; i < symbols.length; i++) {
+            OPERATOR_CODES.put(symbols[i], i);
+        }
+        final String[] comparisons = {"<", ">", "<=", ">=", "==", "!=", "&&", "||"};
+        for (int i = 0; i < comparisons.length; i++) {
+            OPERATOR_CODES.put(comparisons[i], OP_LESS + i);
+        }
+    }
+
+    private static final class Instruction {
+
+        final int opcode;
+
+        /* the builtin function for OP_FUNCTION */
+        final Functions builtin;
+
+        /* the custom function or operator for OP_CUSTOM, the linear combination for OP_LINEAR */
+        final Function function;
+
+        final Operator operator;
+
+        final int[] args;
+
+        int target;
+
+        Instruction(int opcode, Functions builtin, Function function, Operator operator, int[] args) {
+            this.opcode = opcode;
+            this.builtin = builtin;
+            this.function = function;
+            this.operator = operator;
+            this.args = args;
+        }
+    }
+
+    private final String[] variables;
+
+    private final Instruction[] program;
+
+    private final int numConstants;
+
+    /* the input columns first, then the constant columns, then the intermediate columns */
+    private final float[][] columns;
+
+    private final int[] offsets;
+
+    private final int result;
+
+    /**
+     * Create a new evaluator. Variables which are not read from columns have to be set on the expression, their
+     * values are used as constants.
+     * @param expression the expression to evaluate
+     * @param variables the variables read from columns, in the order of the columns passed to
+     * {@link #evaluate(float[][], float[])}
+     * @throws IllegalArgumentException if a variable is neither read from a column nor set on the expression
+     */
+    public FloatExpression(Expression expression, String... variables) {
+        this.variables = variables.clone();
+        final Map<String, Integer> inputs = new HashMap<>();
+        for (int i = 0; i < variables.length; i++) {
+            inputs.put(variables[i], i);
+        }
+        final Dag dag = Dag.of(expression.toTree());
+        final Map<String, Double> values = expression.getVariableValues();
+
+        /* the column of every node, results of instructions are referenced as -1 - index until columns are assigned */
+        final int[] sources = new int[dag.size()];
+        final List<Float> constants = new ArrayList<>();
+        final List<Instruction> instructions = new ArrayList<>();
+        for (int i = 0; i < dag.size(); i++) {
+            final int[] children = dag.getChildren(i);
+            final int[] args = new int[children.length];
+            for (int c = 0; c < args.length; c++) {
+                args[c] = sources[children[c]];
+            }
+            final Instruction instruction;
+            switch (dag.getKind(i)) {
+                case Dag.KIND_NUMBER:
+                    sources[i] = variables.length + constants.size();
+                    constants.add((float) ((NumberNode) dag.getNode(i)).getValue());
+                    continue;
+                case Dag.KIND_VARIABLE:
+                    final String name = ((VariableNode) dag.getNode(i)).getName();
+                    final Integer input = inputs.get(name);
+                    if (input != null) {
+                        sources[i] = input;
+                    } else if (values.containsKey(name)) {
+                        sources[i] = variables.length + constants.size();
+                        constants.add(values.get(name).floatValue());
+                    } else {
+                        throw new IllegalArgumentException("No value has been set for the setVariable '" + name + "'.");
+                    }
+                    continue;
+                case Dag.KIND_OPERATOR:
+                    final Operator operator = ((OperatorNode) dag.getNode(i)).getOperator();
+                    if (!Operators.isBuiltinOperator(operator)) {
+                        instruction = new Instruction(OP_CUSTOM, null, null, operator, args);
+                    } else if (args.length == 1) {
+                        if (operator.getSymbol().equals("+")) {
+                            sources[i] = args[0];
+                            continue;
+                        }
+                        instruction = new Instruction(OP_NEGATE, null, null, null, args);
+                    } else {
+                        instruction = new Instruction(OPERATOR_CODES.get(operator.getSymbol()), null, null, null, args);
+                    }
+                    break;
+                default:
+                    final Function function = ((FunctionNode) dag.getNode(i)).getFunction();
+                    final Functions builtin = Functions.of(function);
+                    if (function instanceof LinearCombination) {
+                        instruction = new Instruction(OP_LINEAR, null, function, null, args);
+                    } else if (function instanceof FusedMultiplyAdd) {
+                        instruction = new Instruction(OP_FMA, null, null, null, args);
+                    } else if (builtin == null) {
+                        instruction = new Instruction(OP_CUSTOM, null, function, null, args);
+                    } else if (builtin == Functions.IF) {
+                        instruction = new Instruction(OP_IF, null, null, null, args);
+                    } else if (builtin == Functions.AVG) {
+                        instruction = new Instruction(OP_AVG, null, null, null, args);
+                    } else if (builtin == Functions.POW) {
+                        instruction = new Instruction(OP_POWER, null, null, null, args);
+                    } else {
+                        instruction = new Instruction(OP_FUNCTION, builtin, null, null, args);
+                    }
+            }
+            sources[i] = -1 - instructions.size();
+            instructions.add(instruction);
+        }
+        this.program = instructions.toArray(new Instruction[0]);
+        this.numConstants = constants.size();
+        final int root = sources[dag.getRoot(0)];
+        final int numIntermediate = assignColumns(program, root, variables.length + numConstants);
+
+        this.columns = new float[variables.length + numConstants + numIntermediate][];
+        this.offsets = new int[columns.length];
+        for (int c = 0; c < numConstants; c++) {
+            final float[] column = new float[BLOCK_SIZE];
+            Arrays.fill(column, constants.get(c));
+            columns[variables.length + c] = column;
+        }
+        for (int c = variables.length + numConstants; c < columns.length; c++) {
+            columns[c] = new float[BLOCK_SIZE];
+        }
+        this.result = root < 0 ? program[-1 - root].target : root;
+    }
+
+    /**
+     * Create a copy of an evaluator sharing its compiled program, for use by another thread
+     * @param existing the evaluator to copy
+     */
+    public FloatExpression(FloatExpression existing) {
+        this.variables = existing.variables;
+        this.program = existing.program;
+        this.numConstants = existing.numConstants;
+        this.result = existing.result;
+        this.columns = new float[existing.columns.length][];
+        this.offsets = new int[columns.length];
+        /* constant columns are never written and can be shared */
+        System.arraycopy(existing.columns, variables.length, columns, variables.length, numConstants);
+        for (int c = variables.length + numConstants; c < columns.length; c++) {
+            columns[c] = new float[BLOCK_SIZE];
+        }
+    }
+
+    /**
+     * Assign the intermediate columns to the instructions, reusing a column once the last instruction reading it
+     * has run. An instruction may write to one of its own operands, as all operations work element by element.
+     * @return the number of intermediate columns
+     */
+    private static int assignColumns(Instruction[] program, int root, int base) {
+        final int[] lastUse = new int[program.length];
+        for (int j = 0; j < program.length; j++) {
+            for (int arg : program[j].args) {
+                if (arg < 0) {
+                    lastUse[-1 - arg] = j;
+                }
+            }
+        }
+        if (root < 0) {
+            lastUse[-1 - root] = program.length;
+        }
+        final Deque<Integer> free = new ArrayDeque<>();
+        int count = 0;
+        for (int j = 0; j < program.length; j++) {
+            final int[] args = program[j].args;
+            for (int a = 0; a < args.length; a++) {
+                if (args[a] < 0) {
+                    final Instruction producer = program[-1 - args[a]];
+                    if (lastUse[-1 - args[a]] == j && !free.contains(producer.target)) {
+                        free.push(producer.target);
+                    }
+                    args[a] = producer.target;
+                }
+            }
+            program[j].target = free.isEmpty() ? base + count++ : free.pop();
+        }
+        return count;
+    }
+
+    /**
+     * @return the names of the variables read from columns, in the order of the columns
+     */
+    public String[] getVariableNames() {
+        return variables.clone();
+    }
+
+    /**
+     * Evaluate the expression for a single row
+     * @param values the values of the variables in the order of the columns
+     * @return the result
+     */
+    public float evaluate(float... values) {
+        final float[][] columns = new float[values.length][];
+        for (int c = 0; c < values.length; c++) {
+            columns[c] = new float[]{values[c]};
+        }
+        final float[] results = new float[1];
+        evaluate(columns, results);
+        return results[0];
+    }
+
+    /**
+     * Evaluate the expression for every row of the columns
+     * @param columns the values of the variables, one column per variable in the order passed to the constructor
+     * @param results the array receiving one result per row, its length is the number of rows evaluated
+     */
+    public void evaluate(float[][] columns, float[] results) {
+        if (columns.length != variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " columns but got " + columns.length);
+        }
+        final int rows = results.length;
+        for (int v = 0; v < variables.length; v++) {
+            if (columns[v].length < rows) {
+                throw new IllegalArgumentException("The column of the variable '" + variables[v] + "' has only "
+                        + columns[v].length + " values for " + rows + " rows");
+            }
+            this.columns[v] = columns[v];
+        }
+        try {
+            for (int start = 0; start < rows; start += BLOCK_SIZE) {
+                final int n = Math.min(BLOCK_SIZE, rows - start);
+                for (int v = 0; v < variables.length; v++) {
+                    offsets[v] = start;
+                }
+                for (Instruction instruction : program) {
+                    execute(instruction, n);
+                }
+                System.arraycopy(this.columns[result], offsets[result], results, start, n);
+            }
+        } finally {
+            /* do not keep the caller's data reachable */
+            Arrays.fill(this.columns, 0, variables.length, null);
+        }
+    }
+
+    private void execute(Instruction instruction, int n) {
+        final int[] args = instruction.args;
+        final float[] r = columns[instruction.target];
+        final float[] a = columns[args[0]];
+        final int ao = offsets[args[0]];
+        switch (instruction.opcode) {
+            case OP_NEGATE:
+                for (int i = 0; i < n; i++) {
+                    r[i] = -a[ao + i];
+                }
+                return;
+            case OP_FUNCTION:
+                function(instruction.builtin, a, ao, r, n);
+                return;
+            case OP_IF:
+                final float[] b = columns[args[1]];
+                final int bo = offsets[args[1]];
+                final float[] c = columns[args[2]];
+                final int co = offsets[args[2]];
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] != 0f ? b[bo + i] : c[co + i];
+                }
+                return;
+            case OP_AVG:
+                for (int i = 0; i < n; i++) {
+                    float sum = 0f;
+                    for (int arg : args) {
+                        sum += columns[arg][offsets[arg] + i];
+                    }
+                    r[i] = sum / args.length;
+                }
+                return;
+            case OP_CUSTOM:
+                custom(instruction, r, n);
+                return;
+            case OP_LINEAR:
+                linear(instruction, r, n);
+                return;
+            case OP_FMA:
+                final float[] factor = columns[args[1]];
+                final int factorOffset = offsets[args[1]];
+                final float[] addend = columns[args[2]];
+                final int addendOffset = offsets[args[2]];
+                for (int i = 0; i < n; i++) {
+                    r[i] = Math.fma(a[ao + i], factor[factorOffset + i], addend[addendOffset + i]);
+                }
+                return;
+            default:
+                binary(instruction.opcode, a, ao, columns[args[1]], offsets[args[1]], r, n);
+        }
+    }
+
+    private static void binary(int opcode, float[] a, int ao, float[] b, int bo, float[] r, int n) {
+        switch (opcode) {
+            case OP_ADD:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] + b[bo + i];
+                }
+                break;
+            case OP_SUBTRACT:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] - b[bo + i];
+                }
+                break;
+            case OP_MULTIPLY:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] * b[bo + i];
+                }
+                break;
+            case OP_DIVIDE:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] / b[bo + i];
+                }
+                break;
+            case OP_MODULO:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] % b[bo + i];
+                }
+                break;
+            case OP_POWER:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.pow(a[ao + i], b[bo + i]);
+                }
+                break;
+            case OP_LESS:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] < b[bo + i] ? 1f : 0f;
+                }
+                break;
+            case OP_GREATER:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] > b[bo + i] ? 1f : 0f;
+                }
+                break;
+            case OP_LESS_EQUAL:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] <= b[bo + i] ? 1f : 0f;
+                }
+                break;
+            case OP_GREATER_EQUAL:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] >= b[bo + i] ? 1f : 0f;
+                }
+                break;
+            case OP_EQUAL:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] == b[bo + i] ? 1f : 0f;
+                }
+                break;
+            case OP_NOT_EQUAL:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] != b[bo + i] ? 1f : 0f;
+                }
+                break;
+            case OP_AND:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] != 0f && b[bo + i] != 0f ? 1f : 0f;
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[ao + i] != 0f || b[bo + i] != 0f ? 1f : 0f;
+                }
+        }
+    }
+
+    private static void function(Functions function, float[] a, int ao, float[] r, int n) {
+        switch (function) {
+            case SIN:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.sin(a[ao + i]);
+                }
+                break;
+            case COS:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.cos(a[ao + i]);
+                }
+                break;
+            case TAN:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.tan(a[ao + i]);
+                }
+                break;
+            case COT:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) (1d / Math.tan(a[ao + i]));
+                }
+                break;
+            case LOG:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.log(a[ao + i]);
+                }
+                break;
+            case LOG1P:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.log1p(a[ao + i]);
+                }
+                break;
+            case LOG10:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.log10(a[ao + i]);
+                }
+                break;
+            case LOG2:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) (Math.log(a[ao + i]) / Math.log(2d));
+                }
+                break;
+            case ABS:
+                for (int i = 0; i < n; i++) {
+                    r[i] = Math.abs(a[ao + i]);
+                }
+                break;
+            case ACOS:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.acos(a[ao + i]);
+                }
+                break;
+            case ASIN:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.asin(a[ao + i]);
+                }
+                break;
+            case ATAN:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.atan(a[ao + i]);
+                }
+                break;
+            case CBRT:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.cbrt(a[ao + i]);
+                }
+                break;
+            case CEIL:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.ceil(a[ao + i]);
+                }
+                break;
+            case FLOOR:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.floor(a[ao + i]);
+                }
+                break;
+            case SINH:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.sinh(a[ao + i]);
+                }
+                break;
+            case SQRT:
+                /* the square root of a float computed in double precision is correctly rounded to float */
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.sqrt(a[ao + i]);
+                }
+                break;
+            case TANH:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.tanh(a[ao + i]);
+                }
+                break;
+            case COSH:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.cosh(a[ao + i]);
+                }
+                break;
+            case EXP:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.exp(a[ao + i]);
+                }
+                break;
+            case EXPM1:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (float) Math.expm1(a[ao + i]);
+                }
+                break;
+            case SIGNUM:
+                for (int i = 0; i < n; i++) {
+                    r[i] = Math.signum(a[ao + i]);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Function '" + function.function.getName()
+                        + "' can not be evaluated in single precision");
+        }
+    }
+
+    /**
+     * Compute a linear combination as a matrix-vector product, adding one weighted column after the other, unless the
+     * target is also one of the operands and would be overwritten before it is read
+     */
+    private void linear(Instruction instruction, float[] r, int n) {
+        final LinearCombination combination = (LinearCombination) instruction.function;
+        final int[] args = instruction.args;
+        final float constant = (float) combination.getConstant();
+        for (int arg : args) {
+            if (arg == instruction.target) {
+                final double[] values = new double[args.length];
+                for (int i = 0; i < n; i++) {
+                    for (int a = 0; a < args.length; a++) {
+                        values[a] = columns[args[a]][offsets[args[a]] + i];
+                    }
+                    r[i] = (float) combination.apply(values);
+                }
+                return;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            r[i] = constant;
+        }
+        for (int a = 0; a < args.length; a++) {
+            final float w = (float) combination.getWeight(a);
+            final float[] column = columns[args[a]];
+            final int offset = offsets[args[a]];
+            for (int i = 0; i < n; i++) {
+                r[i] += w * column[offset + i];
+            }
+        }
+    }
+
+    private void custom(Instruction instruction, float[] r, int n) {
+        final int[] args = instruction.args;
+        final double[] values = new double[args.length];
+        for (int i = 0; i < n; i++) {
+            for (int a = 0; a < args.length; a++) {
+                values[a] = columns[args[a]][offsets[args[a]] + i];
+            }
+            r[i] = (float) (instruction.operator != null ? instruction.operator.apply(values)
+                    : Functions.apply(instruction.function, values));
+        }
+    }
+}
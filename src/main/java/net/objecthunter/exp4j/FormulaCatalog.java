@@ -0,0 +1,466 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A catalog of named {@link Expression}s loaded in bulk from files containing one <code>name = expression</code>
+ * definition per line. Empty lines and lines starting with <code>#</code> are ignored.
+ * <p>
+ * All the formulas of a catalog share one {@link FunctionRegistry} and one set of variable names, so nothing is
+ * copied per formula, and they are parsed in parallel. The passes added with {@link #pass(NodeTransformer)} are not
+ * applied while loading but when a formula is requested for the first time. Formulas which can not be parsed are
+ * recorded as {@link Error}s and do not stop the load.
+ */
+public class FormulaCatalog {
+
+    private final FunctionRegistry registry;
+
+    private final Set<String> variableNames = new HashSet<>();
+
+    private final List<NodeTransformer> passes = new ArrayList<>();
+
+    private final Map<String, Entry> formulas = new LinkedHashMap<>();
+
+    private final List<Error> errors = new ArrayList<>();
+
+    private final AtomicInteger compiled = new AtomicInteger();
+
+    private boolean implicitMultiplication = true;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private int linesRead;
+
+    private long readNanos;
+
+    private long parseNanos;
+
+    /**
+     * Create a new catalog using the builtin functions and operators
+     */
+    public FormulaCatalog() {
+        this(new FunctionRegistry());
+    }
+
+    /**
+     * Create a new catalog
+     * @param registry the functions and operators available to the formulas
+     */
+    public FormulaCatalog(FunctionRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Declare variable names used in the formulas
+     * @param variableNames the variable names
+     * @return the FormulaCatalog instance
+     */
+    public FormulaCatalog variables(String... variableNames) {
+        Collections.addAll(this.variableNames, variableNames);
+        return this;
+    }
+
+    /**
+     * Declare variable names used in the formulas
+     * @param variableNames the variable names
+     * @return the FormulaCatalog instance
+     */
+    public FormulaCatalog variables(Set<String> variableNames) {
+        this.variableNames.addAll(variableNames);
+        return this;
+    }
+
+    /**
+     * Add a pass applied to each formula when it is requested for the first time
+     * @param pass the pass to apply
+     * @return the FormulaCatalog instance
+     */
+    public FormulaCatalog pass(NodeTransformer pass) {
+        this.passes.add(pass);
+        return this;
+    }
+
+    public FormulaCatalog implicitMultiplication(boolean enabled) {
+        this.implicitMultiplication = enabled;
+        return this;
+    }
+
+    /**
+     * Set the number of threads used to parse the formulas, by default the number of available processors
+     * @param parallelism the number of threads
+     * @return the FormulaCatalog instance
+     */
+    public FormulaCatalog parallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism has to be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Load the formulas defined in a file. A formula with the same name as an already loaded one is reported as an
+     * error and ignored.
+     * @param file the file to read
+     * @return the FormulaCatalog instance
+     * @throws IOException if the file can not be read
+     */
+    public FormulaCatalog load(Path file) throws IOException {
+        long start = System.nanoTime();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        long read = System.nanoTime();
+        synchronized (this) {
+            this.readNanos += read - start;
+        }
+        return load(lines);
+    }
+
+    /**
+     * Load formulas from lines in the <code>name = expression</code> format
+     * @param lines the lines to parse
+     * @return the FormulaCatalog instance
+     */
+    public synchronized FormulaCatalog load(List<String> lines) {
+        long start = System.nanoTime();
+        final Map<String, Function> functions = registry.getFunctions();
+        final Map<String, Operator> operators = registry.getOperators();
+        final Set<String> variables = new HashSet<>(variableNames);
+        final Map<String, Double> consts = new HashMap<>();
+        for (String variable : variables) {
+            if (functions.containsKey(variable)) {
+                throw new IllegalArgumentException(
+                        "A variable can not have the same name as a function [" + variable + "]");
+            }
+            Double constantValue = Constants.ALL.get(variable);
+            if (constantValue != null) {
+                consts.put(variable, constantValue);
+            }
+        }
+
+        final int numLines = lines.size();
+        final Object[] results = new Object[numLines];
+        final int chunk = Math.max(256, numLines / (parallelism * 8) + 1);
+        final Runnable[] tasks = new Runnable[(numLines + chunk - 1) / chunk];
+        for (int t = 0; t < tasks.length; t++) {
+            final int from = t * chunk;
+            final int to = Math.min(numLines, from + chunk);
+            tasks[t] = () -> {
+                for (int i = from; i < to; i++) {
+                    results[i] = parse(lines.get(i), functions, operators, variables, consts);
+                }
+            };
+        }
+        run(tasks);
+
+        for (int i = 0; i < numLines; i++) {
+            final Object result = results[i];
+            if (result instanceof Entry) {
+                final Entry entry = (Entry) result;
+                if (formulas.containsKey(entry.name)) {
+                    errors.add(new Error(i + 1, entry.name, "Duplicate formula '" + entry.name + "'"));
+                } else {
+                    formulas.put(entry.name, entry);
+                }
+            } else if (result instanceof Error) {
+                final Error error = (Error) result;
+                errors.add(new Error(i + 1, error.getName(), error.getMessage()));
+            }
+        }
+        this.linesRead += numLines;
+        this.parseNanos += System.nanoTime() - start;
+        return this;
+    }
+
+    private void run(Runnable[] tasks) {
+        if (parallelism == 1 || tasks.length < 2) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.length));
+        try {
+            final List<Future<?>> futures = new ArrayList<>(tasks.length);
+            for (Runnable task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading formulas", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to load formulas", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Object parse(String line, Map<String, Function> functions, Map<String, Operator> operators,
+            Set<String> variables, Map<String, Double> consts) {
+        final String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.charAt(0) == '#') {
+            return null;
+        }
+        final int eq = trimmed.indexOf('=');
+        if (eq < 0) {
+            return new Error(0, null, "Missing '=' in formula definition");
+        }
+        final String name = trimmed.substring(0, eq).trim();
+        final String source = trimmed.substring(eq + 1).trim();
+        if (name.isEmpty()) {
+            return new Error(0, null, "Missing formula name");
+        }
+        if (source.isEmpty()) {
+            return new Error(0, name, "Expression can not be empty");
+        }
+        try {
+            return new Entry(name, source, new Expression(ShuntingYard.convertToRPN(source, functions, operators,
+                    variables, implicitMultiplication), functions.keySet(), consts));
+        } catch (RuntimeException e) {
+            return new Error(0, name, e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    /**
+     * Get a formula. The passes of this catalog are applied the first time a formula is requested. Each call returns
+     * a new {@link Expression} instance, so callers can set variables independently of each other.
+     * @param name the name of the formula
+     * @return the expression or null if there is no formula with that name
+     */
+    public Expression get(String name) {
+        final Entry entry;
+        synchronized (this) {
+            entry = formulas.get(name);
+        }
+        if (entry == null) {
+            return null;
+        }
+        return new Expression(entry.compile());
+    }
+
+    /**
+     * Get the source of a formula
+     * @param name the name of the formula
+     * @return the expression string or null if there is no formula with that name
+     */
+    public synchronized String getSource(String name) {
+        final Entry entry = formulas.get(name);
+        return entry == null ? null : entry.source;
+    }
+
+    /**
+     * Get the names of the loaded formulas in the order they have been defined
+     * @return the names of the formulas
+     */
+    public synchronized Set<String> getNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(formulas.keySet()));
+    }
+
+    /**
+     * Get the errors of all the loads
+     * @return the errors in the order they occurred
+     */
+    public synchronized List<Error> getErrors() {
+        return Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+
+    /**
+     * Get the load metrics of this catalog
+     * @return a snapshot of the metrics
+     */
+    public synchronized Metrics getMetrics() {
+        return new Metrics(linesRead, formulas.size(), errors.size(), compiled.get(), readNanos, parseNanos);
+    }
+
+    private final class Entry {
+
+        private final String name;
+
+        private final String source;
+
+        private final Expression parsed;
+
+        private volatile Expression compiled;
+
+        Entry(String name, String source, Expression parsed) {
+            this.name = name;
+            this.source = source;
+            this.parsed = parsed;
+        }
+
+        Expression compile() {
+            Expression result = compiled;
+            if (result == null) {
+                synchronized (this) {
+                    result = compiled;
+                    if (result == null) {
+                        result = parsed.transform(passes);
+                        compiled = result;
+                        FormulaCatalog.this.compiled.incrementAndGet();
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A formula which could not be loaded
+     */
+    public static final class Error {
+
+        private final int line;
+
+        private final String name;
+
+        private final String message;
+
+        Error(int line, String name, String message) {
+            this.line = line;
+            this.name = name;
+            this.message = message;
+        }
+
+        /**
+         * @return the line number of the definition, starting at 1
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * @return the name of the formula or null if the line has no name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the reason the formula could not be loaded
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + (name == null ? "" : " [" + name + "]") + ": " + message;
+        }
+    }
+
+    /**
+     * Load metrics of a {@link FormulaCatalog}
+     */
+    public static final class Metrics {
+
+        private final int linesRead;
+
+        private final int formulasLoaded;
+
+        private final int formulasFailed;
+
+        private final int formulasCompiled;
+
+        private final long readNanos;
+
+        private final long parseNanos;
+
+        Metrics(int linesRead, int formulasLoaded, int formulasFailed, int formulasCompiled, long readNanos,
+                long parseNanos) {
+            this.linesRead = linesRead;
+            this.formulasLoaded = formulasLoaded;
+            this.formulasFailed = formulasFailed;
+            this.formulasCompiled = formulasCompiled;
+            this.readNanos = readNanos;
+            this.parseNanos = parseNanos;
+        }
+
+        /**
+         * @return the number of lines read, including empty lines and comments
+         */
+        public int getLinesRead() {
+            return linesRead;
+        }
+
+        /**
+         * @return the number of formulas in the catalog
+         */
+        public int getFormulasLoaded() {
+            return formulasLoaded;
+        }
+
+        /**
+         * @return the number of formulas which could not be loaded
+         */
+        public int getFormulasFailed() {
+            return formulasFailed;
+        }
+
+        /**
+         * @return the number of formulas the passes have been applied to so far
+         */
+        public int getFormulasCompiled() {
+            return formulasCompiled;
+        }
+
+        /**
+         * @return the time spent reading files in nanoseconds
+         */
+        public long getReadNanos() {
+            return readNanos;
+        }
+
+        /**
+         * @return the wall clock time spent parsing formulas in nanoseconds
+         */
+        public long getParseNanos() {
+            return parseNanos;
+        }
+
+        @Override
+        public String toString() {
+            return linesRead + " lines, " + formulasLoaded + " formulas loaded, " + formulasFailed + " failed, "
+                    + formulasCompiled + " compiled, read in " + readNanos / 1000000 + " ms, parsed in "
+                    + parseNanos / 1000000 + " ms";
+        }
+    }
+}
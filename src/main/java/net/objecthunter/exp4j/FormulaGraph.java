@@ -0,0 +1,507 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A spreadsheet like graph of named formulas. Formulas can reference inputs and other formulas by name, e.g.
+ * <code>margin = revenue - cost</code> and <code>ratio = margin / revenue</code>. The graph is checked for cycles and
+ * ordered into levels, where every formula only depends on inputs and formulas of lower levels. Changing an input
+ * marks the formulas referencing it as dirty and {@link #recompute()} evaluates only those and, if their value changed,
+ * the formulas downstream of them. When an {@link ExecutorService} is set the dirty formulas of a level are evaluated
+ * in parallel.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class FormulaGraph {
+
+    private static final int MIN_PARALLEL_FORMULAS = 64;
+
+    private final FunctionRegistry registry;
+
+    private final Set<String> inputNames = new LinkedHashSet<>();
+
+    private final Map<String, String> sources = new LinkedHashMap<>();
+
+    private final Map<String, Double> inputValues = new HashMap<>();
+
+    private boolean implicitMultiplication = true;
+
+    private ExecutorService executor;
+
+    /* the compiled graph: inputs first, then the formulas in topological order */
+    private boolean built;
+
+    private String[] names;
+
+    private Map<String, Integer> indices;
+
+    private int numInputs;
+
+    private Expression[] expressions;
+
+    private int[][] dependencies;
+
+    private int[][] dependents;
+
+    private int[][] levels;
+
+    private double[] values;
+
+    private boolean[] set;
+
+    private boolean[] dirty;
+
+    private boolean[] changed;
+
+    private int numDirty;
+
+    /**
+     * Create a new graph using the builtin functions and operators
+     */
+    public FormulaGraph() {
+        this(new FunctionRegistry());
+    }
+
+    /**
+     * Create a new graph
+     * @param registry the functions and operators available to the formulas
+     */
+    public FormulaGraph(FunctionRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Declare input names which can be referenced by the formulas
+     * @param inputNames the input names
+     * @return the FormulaGraph instance
+     */
+    public FormulaGraph inputs(String... inputNames) {
+        Collections.addAll(this.inputNames, inputNames);
+        this.built = false;
+        return this;
+    }
+
+    /**
+     * Define a formula. Defining a formula with an existing name replaces it.
+     * @param name the name other formulas can reference this formula by
+     * @param expression the expression string
+     * @return the FormulaGraph instance
+     */
+    public FormulaGraph define(String name, String expression) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Formula name can not be empty");
+        }
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("Expression can not be empty");
+        }
+        this.sources.put(name.trim(), expression);
+        this.built = false;
+        return this;
+    }
+
+    public FormulaGraph implicitMultiplication(boolean enabled) {
+        this.implicitMultiplication = enabled;
+        this.built = false;
+        return this;
+    }
+
+    /**
+     * Set the executor used to evaluate the formulas of a level in parallel. Levels with only a few dirty formulas are
+     * still evaluated on the calling thread. By default everything is evaluated on the calling thread.
+     * @param executor the executor or null to evaluate on the calling thread
+     * @return the FormulaGraph instance
+     */
+    public FormulaGraph executor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Set the value of an input. Nothing is invalidated if the value did not change.
+     * @param name the name of the input
+     * @param value the value
+     * @return the FormulaGraph instance
+     */
+    public FormulaGraph setInput(String name, double value) {
+        build();
+        final Integer index = indices.get(name);
+        if (index == null || index >= numInputs) {
+            throw new IllegalArgumentException("Unknown input '" + name + "'");
+        }
+        final int i = index;
+        inputValues.put(name, value);
+        if (set[i] && Double.doubleToLongBits(values[i]) == Double.doubleToLongBits(value)) {
+            return this;
+        }
+        values[i] = value;
+        set[i] = true;
+        markDependents(i);
+        return this;
+    }
+
+    public FormulaGraph setInputs(Map<String, Double> inputs) {
+        for (Map.Entry<String, Double> input : inputs.entrySet()) {
+            this.setInput(input.getKey(), input.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Get the value of an input or formula, recomputing the dirty formulas first
+     * @param name the name of the input or formula
+     * @return the value
+     */
+    public double getValue(String name) {
+        build();
+        final Integer index = indices.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown input or formula '" + name + "'");
+        }
+        if (index < numInputs) {
+            checkSet(index);
+        } else {
+            recompute();
+        }
+        return values[index];
+    }
+
+    /**
+     * Evaluate the formulas which have been invalidated since the last computation
+     * @return the number of formulas evaluated
+     */
+    public int recompute() {
+        build();
+        int evaluated = 0;
+        int[] work = new int[16];
+        for (int[] level : levels) {
+            if (numDirty == 0) {
+                break;
+            }
+            int n = 0;
+            for (int formula : level) {
+                if (dirty[formula]) {
+                    if (n == work.length) {
+                        work = Arrays.copyOf(work, n * 2);
+                    }
+                    work[n++] = formula;
+                }
+            }
+            if (n == 0) {
+                continue;
+            }
+            if (executor != null && n >= MIN_PARALLEL_FORMULAS) {
+                evaluateParallel(work, n);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    evaluate(work[i]);
+                }
+            }
+            /* only clear the level once all of it has been computed, so a failure leaves it dirty */
+            for (int i = 0; i < n; i++) {
+                final int formula = work[i];
+                dirty[formula] = false;
+                numDirty--;
+                if (changed[formula]) {
+                    markDependents(formula);
+                }
+            }
+            evaluated += n;
+        }
+        return evaluated;
+    }
+
+    private void evaluate(int formula) {
+        final Expression expression = expressions[formula];
+        final int[] references = dependencies[formula];
+        for (int reference : references) {
+            if (reference < numInputs) {
+                checkSet(reference);
+            }
+            expression.setVariable(names[reference], values[reference]);
+        }
+        final double value = expression.evaluate();
+        changed[formula] = !set[formula] || Double.doubleToLongBits(values[formula]) != Double.doubleToLongBits(value);
+        values[formula] = value;
+        set[formula] = true;
+    }
+
+    private void evaluateParallel(final int[] work, final int n) {
+        final int numTasks = Math.min(Runtime.getRuntime().availableProcessors(), n / (MIN_PARALLEL_FORMULAS / 4));
+        final int chunk = (n + numTasks - 1) / numTasks;
+        final List<Future<?>> futures = new ArrayList<>(numTasks);
+        for (int from = 0; from < n; from += chunk) {
+            final int start = from;
+            final int end = Math.min(n, from + chunk);
+            futures.add(executor.submit(() -> {
+                for (int i = start; i < end; i++) {
+                    evaluate(work[i]);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing formulas", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to compute formulas", e.getCause());
+        }
+    }
+
+    private void checkSet(int input) {
+        if (!set[input]) {
+            throw new IllegalArgumentException("No value has been set for the input '" + names[input] + "'.");
+        }
+    }
+
+    private void markDependents(int node) {
+        for (int dependent : dependents[node]) {
+            if (!dirty[dependent]) {
+                dirty[dependent] = true;
+                numDirty++;
+            }
+        }
+    }
+
+    /**
+     * Get the formula names in evaluation order, i.e. every formula comes after all the formulas it references
+     * @return the formula names
+     */
+    public List<String> getEvaluationOrder() {
+        build();
+        return Collections.unmodifiableList(Arrays.asList(names).subList(numInputs, names.length));
+    }
+
+    /**
+     * Get the number of levels of the graph. Formulas referencing only inputs are on the first level, every other
+     * formula is one level above the highest formula it references.
+     * @return the number of levels
+     */
+    public int getLevelCount() {
+        build();
+        return levels.length;
+    }
+
+    /**
+     * @return the number of formulas which will be evaluated at least by the next call to {@link #recompute()}
+     */
+    public int getDirtyCount() {
+        build();
+        return numDirty;
+    }
+
+    private void build() {
+        if (built) {
+            return;
+        }
+        for (String name : sources.keySet()) {
+            if (inputNames.contains(name)) {
+                throw new IllegalArgumentException("The formula '" + name + "' has the same name as an input");
+            }
+        }
+        final Map<String, Function> functions = registry.getFunctions();
+        final Map<String, Operator> operators = registry.getOperators();
+        final Set<String> variables = new HashSet<>(inputNames);
+        variables.addAll(sources.keySet());
+        for (String variable : variables) {
+            if (functions.containsKey(variable)) {
+                throw new IllegalArgumentException(
+                        "A variable can not have the same name as a function [" + variable + "]");
+            }
+        }
+
+        /* parse the formulas and collect the references */
+        final List<String> formulaNames = new ArrayList<>(sources.keySet());
+        final int numFormulas = formulaNames.size();
+        final Map<String, Integer> formulaIndex = new HashMap<>();
+        for (int f = 0; f < numFormulas; f++) {
+            formulaIndex.put(formulaNames.get(f), f);
+        }
+        final Expression[] parsed = new Expression[numFormulas];
+        final List<List<String>> references = new ArrayList<>(numFormulas);
+        final int[] pendingReferences = new int[numFormulas];
+        final List<List<Integer>> referencedBy = new ArrayList<>(numFormulas);
+        for (int f = 0; f < numFormulas; f++) {
+            referencedBy.add(new ArrayList<>());
+        }
+        for (int f = 0; f < numFormulas; f++) {
+            final String name = formulaNames.get(f);
+            try {
+                parsed[f] = new Expression(ShuntingYard.convertToRPN(sources.get(name), functions, operators,
+                        variables, implicitMultiplication), functions.keySet(), Collections.emptyMap());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unable to parse formula '" + name + "': " + e.getMessage(), e);
+            }
+            final List<String> referenced = new ArrayList<>(parsed[f].getVariableNames());
+            Collections.sort(referenced);
+            references.add(referenced);
+            for (String reference : referenced) {
+                final Integer other = formulaIndex.get(reference);
+                if (other != null) {
+                    pendingReferences[f]++;
+                    referencedBy.get(other).add(f);
+                }
+            }
+        }
+
+        /* Kahn's algorithm, level by level */
+        final int[] level = new int[numFormulas];
+        final List<Integer> order = new ArrayList<>(numFormulas);
+        for (int f = 0; f < numFormulas; f++) {
+            if (pendingReferences[f] == 0) {
+                order.add(f);
+            }
+        }
+        int numLevels = order.isEmpty() ? 0 : 1;
+        for (int i = 0; i < order.size(); i++) {
+            final int f = order.get(i);
+            for (int dependent : referencedBy.get(f)) {
+                level[dependent] = Math.max(level[dependent], level[f] + 1);
+                numLevels = Math.max(numLevels, level[dependent] + 1);
+                if (--pendingReferences[dependent] == 0) {
+                    order.add(dependent);
+                }
+            }
+        }
+        if (order.size() < numFormulas) {
+            throw new IllegalArgumentException("Cyclic reference between formulas " + findCycle(formulaNames,
+                    formulaIndex, references, pendingReferences));
+        }
+        order.sort((a, b) -> level[a] != level[b] ? Integer.compare(level[a], level[b]) : Integer.compare(a, b));
+
+        /* lay out the compiled graph */
+        this.numInputs = inputNames.size();
+        final int size = numInputs + numFormulas;
+        this.names = new String[size];
+        this.indices = new HashMap<>();
+        int n = 0;
+        for (String input : inputNames) {
+            names[n] = input;
+            indices.put(input, n++);
+        }
+        for (int f : order) {
+            names[n] = formulaNames.get(f);
+            indices.put(names[n], n++);
+        }
+        this.expressions = new Expression[size];
+        this.dependencies = new int[size][];
+        final int[] numDependents = new int[size];
+        for (int i = 0; i < size; i++) {
+            dependencies[i] = new int[0];
+        }
+        for (int i = numInputs; i < size; i++) {
+            final int f = formulaIndex.get(names[i]);
+            expressions[i] = parsed[f];
+            final List<String> referenced = references.get(f);
+            dependencies[i] = new int[referenced.size()];
+            for (int r = 0; r < referenced.size(); r++) {
+                dependencies[i][r] = indices.get(referenced.get(r));
+                numDependents[dependencies[i][r]]++;
+            }
+        }
+        this.dependents = new int[size][];
+        for (int i = 0; i < size; i++) {
+            dependents[i] = new int[numDependents[i]];
+            numDependents[i] = 0;
+        }
+        for (int i = numInputs; i < size; i++) {
+            for (int reference : dependencies[i]) {
+                dependents[reference][numDependents[reference]++] = i;
+            }
+        }
+        this.levels = new int[numLevels][];
+        int start = numInputs;
+        for (int l = 0; l < numLevels; l++) {
+            int end = start;
+            while (end < size && level[formulaIndex.get(names[end])] == l) {
+                end++;
+            }
+            levels[l] = new int[end - start];
+            for (int i = start; i < end; i++) {
+                levels[l][i - start] = i;
+            }
+            start = end;
+        }
+
+        this.values = new double[size];
+        this.set = new boolean[size];
+        this.dirty = new boolean[size];
+        this.changed = new boolean[size];
+        for (int i = 0; i < numInputs; i++) {
+            Double value = inputValues.get(names[i]);
+            if (value == null) {
+                value = Constants.ALL.get(names[i]);
+            }
+            if (value != null) {
+                values[i] = value;
+                set[i] = true;
+            }
+        }
+        for (int i = numInputs; i < size; i++) {
+            dirty[i] = true;
+        }
+        this.numDirty = numFormulas;
+        this.built = true;
+    }
+
+    private static List<String> findCycle(List<String> formulaNames, Map<String, Integer> formulaIndex,
+            List<List<String>> references, int[] pendingReferences) {
+        /* every formula left over by the topological sort references another left over formula */
+        int current = 0;
+        while (pendingReferences[current] == 0) {
+            current++;
+        }
+        final Map<Integer, Integer> visited = new HashMap<>();
+        final List<String> path = new ArrayList<>();
+        while (!visited.containsKey(current)) {
+            visited.put(current, path.size());
+            path.add(formulaNames.get(current));
+            for (String reference : references.get(current)) {
+                final Integer other = formulaIndex.get(reference);
+                if (other != null && pendingReferences[other] > 0) {
+                    current = other;
+                    break;
+                }
+            }
+        }
+        final List<String> cycle = new ArrayList<>(path.subList(visited.get(current), path.size()));
+        cycle.add(formulaNames.get(current));
+        return cycle;
+    }
+}
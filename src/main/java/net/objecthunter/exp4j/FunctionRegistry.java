@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A set of {@link Function} and {@link Operator} implementations used to resolve references by name, e.g. when
+ * reading a serialized {@link Expression}. A new registry contains all the builtin functions.
+ */
+public class FunctionRegistry {
+
+    private final Map<String, Function> functions;
+
+    private final Map<String, Operator> operators;
+
+    /**
+     * Create a new registry containing the builtin functions
+     */
+    public FunctionRegistry() {
+        this.functions = new HashMap<>(Functions.ALL);
+        this.operators = new HashMap<>();
+    }
+
+    /**
+     * Add a {@link Function} implementation to the registry
+     * @param function the function to add
+     * @return the FunctionRegistry instance
+     */
+    public FunctionRegistry function(Function function) {
+        this.functions.put(function.getName(), function);
+        return this;
+    }
+
+    /**
+     * Add multiple {@link Function} implementations to the registry
+     * @param functions the functions to add
+     * @return the FunctionRegistry instance
+     */
+    public FunctionRegistry functions(Function... functions) {
+        for (Function f : functions) {
+            this.function(f);
+        }
+        return this;
+    }
+
+    /**
+     * Add an {@link Operator} implementation to the registry
+     * @param operator the operator to add
+     * @return the FunctionRegistry instance
+     */
+    public FunctionRegistry operator(Operator operator) {
+        ExpressionBuilder.checkOperatorSymbol(operator);
+        this.operators.put(operator.getSymbol(), operator);
+        return this;
+    }
+
+    /**
+     * Add multiple {@link Operator} implementations to the registry
+     * @param operators the operators to add
+     * @return the FunctionRegistry instance
+     */
+    public FunctionRegistry operators(Operator... operators) {
+        for (Operator o : operators) {
+            this.operator(o);
+        }
+        return this;
+    }
+
+    /**
+     * Look up a function by name
+     * @param name the name of the function
+     * @return the function or null if there is no function with that name
+     */
+    public Function getFunction(String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * Look up an operator by symbol, custom operators take precedence over the builtin ones
+     * @param symbol the symbol of the operator
+     * @param numOperands the number of operands of the operator
+     * @return the operator or null if there is no matching operator
+     */
+    public Operator getOperator(String symbol, int numOperands) {
+        Operator op = operators.get(symbol);
+        if (op != null && op.getNumOperands() == numOperands) {
+            return op;
+        }
+        op = Operators.getBuiltinOperator(symbol, numOperands);
+        if (op != null && op.getNumOperands() == numOperands) {
+            return op;
+        }
+        return null;
+    }
+
+    /**
+     * Get all the functions in this registry
+     * @return an unmodifiable map of the functions by name
+     */
+    public Map<String, Function> getFunctions() {
+        return Collections.unmodifiableMap(functions);
+    }
+
+    /**
+     * Get the custom operators in this registry
+     * @return an unmodifiable map of the operators by symbol
+     */
+    public Map<String, Operator> getOperators() {
+        return Collections.unmodifiableMap(operators);
+    }
+}
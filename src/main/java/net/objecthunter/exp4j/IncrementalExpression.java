@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.ir.Dag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates an {@link Expression} incrementally. The value of every subexpression is cached, setting a variable
+ * marks only the subexpressions depending on it as dirty and {@link #evaluate()} recomputes just those. This pays off
+ * for large expressions when only a few of their variables change between evaluations. Subexpressions calling
+ * functions which are not {@link net.objecthunter.exp4j.function.Function#isPure() pure} are computed on every
+ * evaluation. Operands the <code>if</code> function and the short circuit operators do not use are kept up to date
+ * as well, but their failures are only reported when they are used.
+ */
+public class IncrementalExpression {
+
+    private final Dag dag;
+
+    private final double[] values;
+
+    private final boolean[] dirty;
+
+    private final RuntimeException[] errors;
+
+    private final int[][] parents;
+
+    private final int[][] variableNodes;
+
+    private final int[] impureNodes;
+
+    private final Map<String, Integer> variableIndex = new HashMap<>();
+
+    private final double[] variableValues;
+
+    private final boolean[] variableSet;
+
+    private int[] pending;
+
+    private int numPending;
+
+    /**
+     * Create a new incremental evaluator for an expression. The values of the variables currently set on the
+     * expression are used as initial values.
+     * @param expression the expression to evaluate
+     */
+    public IncrementalExpression(Expression expression) {
+        this.dag = Dag.of(expression.toTree());
+        final int size = dag.size();
+        this.values = new double[size];
+        this.dirty = new boolean[size];
+        this.errors = new RuntimeException[size];
+        this.pending = new int[Math.max(16, size)];
+
+        final int[] numParents = new int[size];
+        for (int i = 0; i < size; i++) {
+            for (int child : dag.getChildren(i)) {
+                numParents[child]++;
+            }
+        }
+        this.parents = new int[size][];
+        for (int i = 0; i < size; i++) {
+            parents[i] = new int[numParents[i]];
+            numParents[i] = 0;
+        }
+        final List<String> names = dag.getVariableNames();
+        final List<List<Integer>> byVariable = new ArrayList<>();
+        for (int v = 0; v < names.size(); v++) {
+            byVariable.add(new ArrayList<>());
+        }
+        final List<Integer> impure = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            for (int child : dag.getChildren(i)) {
+                parents[child][numParents[child]++] = i;
+            }
+            if (dag.getVariable(i) >= 0) {
+                byVariable.get(dag.getVariable(i)).add(i);
+            }
+            if (!dag.isPure(i)) {
+                impure.add(i);
+            }
+        }
+        this.variableNodes = new int[names.size()][];
+        for (int v = 0; v < names.size(); v++) {
+            variableNodes[v] = toArray(byVariable.get(v));
+            variableIndex.put(names.get(v), v);
+        }
+        this.impureNodes = toArray(impure);
+
+        this.variableValues = new double[names.size()];
+        this.variableSet = new boolean[names.size()];
+        final Map<String, Double> initial = expression.getVariableValues();
+        for (int v = 0; v < names.size(); v++) {
+            final Double value = initial.get(names.get(v));
+            if (value != null) {
+                variableValues[v] = value;
+                variableSet[v] = true;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            dirty[i] = true;
+            pending[numPending++] = i;
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Set the value of a variable. Nothing is invalidated if the value did not change.
+     * @param name the name of the variable
+     * @param value the value
+     * @return the IncrementalExpression instance
+     */
+    public IncrementalExpression setVariable(String name, double value) {
+        final Integer index = variableIndex.get(name);
+        if (index == null) {
+            return this;
+        }
+        final int v = index;
+        if (variableSet[v] && Double.doubleToLongBits(variableValues[v]) == Double.doubleToLongBits(value)) {
+            return this;
+        }
+        variableValues[v] = value;
+        variableSet[v] = true;
+        for (int node : variableNodes[v]) {
+            invalidate(node);
+        }
+        return this;
+    }
+
+    public IncrementalExpression setVariables(Map<String, Double> variables) {
+        for (Map.Entry<String, Double> v : variables.entrySet()) {
+            this.setVariable(v.getKey(), v.getValue());
+        }
+        return this;
+    }
+
+    private void invalidate(int node) {
+        if (dirty[node]) {
+            return;
+        }
+        /* depth first walk towards the roots, stopping at nodes which are dirty already */
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = node;
+        dirty[node] = true;
+        while (top > 0) {
+            final int current = stack[--top];
+            if (numPending == pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            pending[numPending++] = current;
+            for (int parent : parents[current]) {
+                if (!dirty[parent]) {
+                    dirty[parent] = true;
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top++] = parent;
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluate the expression, recomputing only the subexpressions invalidated since the last evaluation
+     * @return the result
+     */
+    public double evaluate() {
+        for (int node : impureNodes) {
+            invalidate(node);
+        }
+        /* children have lower indices than their parents, so sorting yields a valid evaluation order */
+        Arrays.sort(pending, 0, numPending);
+        int done = 0;
+        try {
+            for (; done < numPending; done++) {
+                final int node = pending[done];
+                final int variable = dag.getVariable(node);
+                if (variable >= 0) {
+                    if (!variableSet[variable]) {
+                        throw new IllegalArgumentException("No value has been set for the setVariable '"
+                                + dag.getVariableNames().get(variable) + "'.");
+                    }
+                    values[node] = variableValues[variable];
+                } else {
+                    values[node] = dag.compute(node, values, errors);
+                }
+                dirty[node] = false;
+            }
+        } finally {
+            /* keep whatever could not be computed for the next evaluation */
+            System.arraycopy(pending, done, pending, 0, numPending - done);
+            numPending -= done;
+        }
+        final int root = dag.getRoot(0);
+        if (errors[root] != null) {
+            throw errors[root];
+        }
+        return values[root];
+    }
+
+    /**
+     * @return the number of subexpressions which will be recomputed by the next call to {@link #evaluate()}
+     */
+    public int getDirtyCount() {
+        return numPending;
+    }
+}
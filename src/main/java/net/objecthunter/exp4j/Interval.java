@@ -0,0 +1,569 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+/**
+ * A closed interval of doubles, possibly unbounded, and the interval extensions of the builtin operators and
+ * functions. Every operation returns an enclosure of all the values the operation can take for arguments inside the
+ * argument intervals, rounded outwards so that floating point errors can not make the enclosure too narrow. Values
+ * where an operation is undefined, like the logarithm of a negative number, are not part of the enclosure, and an
+ * operation which is undefined on all of its arguments yields {@link #ENTIRE}. Custom functions and operators can
+ * only be evaluated on points, for wider arguments their result is {@link #ENTIRE}.
+ */
+public final class Interval {
+
+    /**
+     * The interval containing all doubles
+     */
+    public static final Interval ENTIRE = new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+    private static final Interval ZERO = new Interval(0d, 0d);
+
+    private static final Interval ONE = new Interval(1d, 1d);
+
+    static final Interval BOOLEAN = new Interval(0d, 1d);
+
+    private static final Interval UNIT = new Interval(-1d, 1d);
+
+    /* the library functions are accurate to one ulp, the hyperbolic ones to 2.5 ulps */
+    private static final int LIBRARY_ULPS = 3;
+
+    private static final double TWO_PI = 2d * Math.PI;
+
+    private static final double HALF_PI = Math.PI / 2d;
+
+    /* slack when locating extrema and poles, as PI itself is rounded */
+    private static final double PERIOD_SLACK = 1e-9;
+
+    private final double lo;
+
+    private final double hi;
+
+    private Interval(double lo, double hi) {
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    /**
+     * Create a new interval. NaN bounds are treated as unbounded.
+     * @param lo the lower bound
+     * @param hi the upper bound
+     * @return the interval
+     */
+    public static Interval of(double lo, double hi) {
+        if (lo > hi) {
+            throw new IllegalArgumentException("The lower bound " + lo + " is greater than the upper bound " + hi);
+        }
+        return new Interval(Double.isNaN(lo) ? Double.NEGATIVE_INFINITY : lo,
+                Double.isNaN(hi) ? Double.POSITIVE_INFINITY : hi);
+    }
+
+    /**
+     * Create an interval containing a single value
+     * @param value the value
+     * @return the interval, or {@link #ENTIRE} for NaN
+     */
+    public static Interval point(double value) {
+        return Double.isNaN(value) ? ENTIRE : new Interval(value, value);
+    }
+
+    public double getLo() {
+        return lo;
+    }
+
+    public double getHi() {
+        return hi;
+    }
+
+    /**
+     * @return true if the interval contains a single value
+     */
+    public boolean isPoint() {
+        return lo == hi;
+    }
+
+    /**
+     * @param value the value to check
+     * @return true if the value lies inside the interval
+     */
+    public boolean contains(double value) {
+        return lo <= value && value <= hi;
+    }
+
+    /**
+     * Get the smallest interval containing this and another interval
+     * @param other the other interval
+     * @return the hull of both intervals
+     */
+    public Interval hull(Interval other) {
+        if (other.lo >= lo && other.hi <= hi) {
+            return this;
+        }
+        return new Interval(Math.min(lo, other.lo), Math.max(hi, other.hi));
+    }
+
+    /**
+     * Get the truth values an interval can take as used by the <code>if</code> function and the logical operators
+     * @param x the interval
+     * @return [1, 1] if the interval does not contain zero, [0, 0] if it contains only zero, [0, 1] otherwise
+     */
+    public static Interval truth(Interval x) {
+        if (!x.contains(0d)) {
+            return ONE;
+        }
+        return x.isPoint() ? ZERO : BOOLEAN;
+    }
+
+    private static Interval bounds(double lo, double hi) {
+        return Double.isNaN(lo) || Double.isNaN(hi) ? ENTIRE : new Interval(lo, hi);
+    }
+
+    private static Interval rounded(double lo, double hi, int ulps) {
+        if (Double.isNaN(lo) || Double.isNaN(hi)) {
+            return ENTIRE;
+        }
+        for (int i = 0; i < ulps; i++) {
+            lo = Math.nextDown(lo);
+            hi = Math.nextUp(hi);
+        }
+        return new Interval(lo, hi);
+    }
+
+    /*
+     * Directed rounding of the basic operations. The rounding error of a sum is computed exactly with the TwoSum
+     * algorithm and the one of a product or quotient with a fused multiply add, so exact results are not widened.
+     * Sums are exact in the subnormal range, products and quotients there are always widened as their error terms
+     * may underflow.
+     */
+
+    private static double round(double result, double error, boolean up, boolean mayUnderflow) {
+        if (mayUnderflow && Math.abs(result) < Double.MIN_NORMAL) {
+            return up ? Math.nextUp(result) : Math.nextDown(result);
+        }
+        if (up) {
+            return error > 0d ? Math.nextUp(result) : result;
+        }
+        return error < 0d ? Math.nextDown(result) : result;
+    }
+
+    private static double add(double a, double b, boolean up) {
+        final double sum = a + b;
+        if (Double.isInfinite(sum)) {
+            /* an overflow is rounded towards the finite values, a sum with an infinite operand is exact */
+            final boolean overflow = !Double.isInfinite(a) && !Double.isInfinite(b);
+            return overflow && (sum > 0d) != up ? Math.copySign(Double.MAX_VALUE, sum) : sum;
+        }
+        final double bb = sum - a;
+        final double error = (a - (sum - bb)) + (b - bb);
+        return round(sum, error, up, false);
+    }
+
+    private static double multiply(double a, double b, boolean up) {
+        if (a == 0d || b == 0d) {
+            /* zero times an infinite bound is NaN, which multiply(Interval, Interval) takes care of */
+            return 0d;
+        }
+        final double product = a * b;
+        if (Double.isInfinite(product)) {
+            final boolean overflow = !Double.isInfinite(a) && !Double.isInfinite(b);
+            return overflow && (product > 0d) != up ? Math.copySign(Double.MAX_VALUE, product) : product;
+        }
+        return round(product, Math.fma(a, b, -product), up, true);
+    }
+
+    private static double divide(double a, double b, boolean up) {
+        final double quotient = a / b;
+        if (Double.isInfinite(quotient) || Double.isInfinite(a) || Double.isInfinite(b)) {
+            final boolean overflow = !Double.isInfinite(a) && !Double.isInfinite(b);
+            if (overflow && (quotient > 0d) != up) {
+                return Math.copySign(Double.MAX_VALUE, quotient);
+            }
+            return quotient == 0d && a != 0d ? round(quotient, 0d, up, true) : quotient;
+        }
+        /* a = quotient * b + remainder, so the error of the quotient is remainder / b */
+        final double remainder = Math.fma(-quotient, b, a);
+        return round(quotient, remainder * Math.signum(b), up, a != 0d);
+    }
+
+    /**
+     * Apply a builtin or custom operator to intervals
+     * @param operator the operator
+     * @param args the operands
+     * @return an enclosure of the result
+     * @throws ArithmeticException if the divisor of a division or modulo is exactly zero
+     */
+    public static Interval apply(Operator operator, Interval... args) {
+        final Interval x = args[0];
+        if (!Operators.isBuiltinOperator(operator)) {
+            return applyCustom(operator, null, args);
+        }
+        if (args.length == 1) {
+            return operator.getSymbol().equals("-") ? new Interval(-x.hi, -x.lo) : x;
+        }
+        final Interval y = args[1];
+        switch (operator.getSymbol()) {
+            case "+":
+                return bounds(add(x.lo, y.lo, false), add(x.hi, y.hi, true));
+            case "-":
+                return bounds(add(x.lo, -y.hi, false), add(x.hi, -y.lo, true));
+            case "*":
+                return multiply(x, y);
+            case "/":
+                if (y.lo == 0d && y.hi == 0d && operator == Operators.getUncheckedDivision()) {
+                    return ENTIRE;
+                }
+                return divide(x, y);
+            case "%":
+                return remainder(x, y);
+            case "^":
+                return pow(x, y);
+            case "<":
+                return decide(x.hi < y.lo, x.lo >= y.hi);
+            case ">":
+                return decide(x.lo > y.hi, x.hi <= y.lo);
+            case "<=":
+                return decide(x.hi <= y.lo, x.lo > y.hi);
+            case ">=":
+                return decide(x.lo >= y.hi, x.hi < y.lo);
+            case "==":
+                return decide(x.isPoint() && y.isPoint() && x.lo == y.lo, x.hi < y.lo || x.lo > y.hi);
+            case "!=":
+                return decide(x.hi < y.lo || x.lo > y.hi, x.isPoint() && y.isPoint() && x.lo == y.lo);
+            case "&&":
+                return and(truth(x), truth(y));
+            case "||":
+                return or(truth(x), truth(y));
+            default:
+                return applyCustom(operator, null, args);
+        }
+    }
+
+    private static Interval decide(boolean alwaysTrue, boolean alwaysFalse) {
+        if (alwaysTrue) {
+            return ONE;
+        }
+        return alwaysFalse ? ZERO : BOOLEAN;
+    }
+
+    static Interval and(Interval left, Interval right) {
+        if (left == ZERO || right == ZERO) {
+            return ZERO;
+        }
+        return left == ONE && right == ONE ? ONE : BOOLEAN;
+    }
+
+    static Interval or(Interval left, Interval right) {
+        if (left == ONE || right == ONE) {
+            return ONE;
+        }
+        return left == ZERO && right == ZERO ? ZERO : BOOLEAN;
+    }
+
+    private static Interval multiply(Interval x, Interval y) {
+        if (x.contains(0d) && isUnbounded(y) || y.contains(0d) && isUnbounded(x)) {
+            /* zero times infinity is NaN, which compares false and so could turn into any value */
+            return ENTIRE;
+        }
+        final double lo = Math.min(Math.min(multiply(x.lo, y.lo, false), multiply(x.lo, y.hi, false)),
+                Math.min(multiply(x.hi, y.lo, false), multiply(x.hi, y.hi, false)));
+        final double hi = Math.max(Math.max(multiply(x.lo, y.lo, true), multiply(x.lo, y.hi, true)),
+                Math.max(multiply(x.hi, y.lo, true), multiply(x.hi, y.hi, true)));
+        return bounds(lo, hi);
+    }
+
+    private static boolean isUnbounded(Interval x) {
+        return Double.isInfinite(x.lo) || Double.isInfinite(x.hi);
+    }
+
+    private static Interval divide(Interval x, Interval y) {
+        if (y.lo == 0d && y.hi == 0d) {
+            throw new ArithmeticException("Division by zero!");
+        }
+        if (y.lo > 0d || y.hi < 0d) {
+            final double lo = Math.min(Math.min(divide(x.lo, y.lo, false), divide(x.lo, y.hi, false)),
+                    Math.min(divide(x.hi, y.lo, false), divide(x.hi, y.hi, false)));
+            final double hi = Math.max(Math.max(divide(x.lo, y.lo, true), divide(x.lo, y.hi, true)),
+                    Math.max(divide(x.hi, y.lo, true), divide(x.hi, y.hi, true)));
+            return bounds(lo, hi);
+        }
+        /* the divisor touches zero from one side, the result is unbounded on one side if the dividend has a sign */
+        if (y.lo == 0d) {
+            if (x.lo >= 0d) {
+                return bounds(divide(x.lo, y.hi, false), Double.POSITIVE_INFINITY);
+            } else if (x.hi <= 0d) {
+                return bounds(Double.NEGATIVE_INFINITY, divide(x.hi, y.hi, true));
+            }
+        } else if (y.hi == 0d) {
+            if (x.lo >= 0d) {
+                return bounds(Double.NEGATIVE_INFINITY, divide(x.lo, y.lo, true));
+            } else if (x.hi <= 0d) {
+                return bounds(divide(x.hi, y.lo, false), Double.POSITIVE_INFINITY);
+            }
+        }
+        return ENTIRE;
+    }
+
+    private static Interval remainder(Interval x, Interval y) {
+        if (y.lo == 0d && y.hi == 0d) {
+            throw new ArithmeticException("Division by zero!");
+        }
+        /* the remainder is exact, has the sign of the dividend and is smaller than the divisor in magnitude */
+        final double min = y.contains(0d) ? 0d : Math.min(Math.abs(y.lo), Math.abs(y.hi));
+        final double max = Math.max(Math.abs(y.lo), Math.abs(y.hi));
+        if ((x.lo >= 0d && x.hi < min) || (x.hi <= 0d && x.lo > -min)) {
+            return x;
+        }
+        return new Interval(x.lo >= 0d ? 0d : Math.max(x.lo, -max), x.hi <= 0d ? 0d : Math.min(x.hi, max));
+    }
+
+    private static Interval pow(Interval x, Interval y) {
+        if (y.isPoint()) {
+            final double n = y.lo;
+            if (n == 0d) {
+                return ONE;
+            }
+            if (n == Math.rint(n) && Math.abs(n) < 0x1p53) {
+                return integerPow(x, n);
+            }
+            /* a negative base with a fractional exponent is undefined */
+            final double lo = Math.max(x.lo, 0d);
+            if (x.hi < lo) {
+                return ENTIRE;
+            }
+            return n > 0d ? rounded(Math.pow(lo, n), Math.pow(x.hi, n), LIBRARY_ULPS)
+                    : rounded(Math.pow(x.hi, n), Math.pow(lo, n), LIBRARY_ULPS);
+        }
+        if (x.lo < 0d) {
+            return ENTIRE;
+        }
+        /* x^y is monotonic in both x and y for x >= 0, so the extremes are at the corners */
+        final double a = Math.pow(x.lo, y.lo);
+        final double b = Math.pow(x.lo, y.hi);
+        final double c = Math.pow(x.hi, y.lo);
+        final double d = Math.pow(x.hi, y.hi);
+        return rounded(Math.min(Math.min(a, b), Math.min(c, d)), Math.max(Math.max(a, b), Math.max(c, d)),
+                LIBRARY_ULPS);
+    }
+
+    private static Interval integerPow(Interval x, double n) {
+        if (n > 0d) {
+            if (n % 2d != 0d || x.lo >= 0d) {
+                return monotonicPow(x.lo, x.hi, n);
+            } else if (x.hi <= 0d) {
+                /* even powers of negative numbers are the powers of their magnitudes */
+                return monotonicPow(-x.hi, -x.lo, n);
+            }
+            return new Interval(0d, monotonicPow(0d, Math.max(-x.lo, x.hi), n).hi);
+        }
+        /* a negative exponent is the reciprocal of a positive one, with a pole at zero */
+        final double lower = Math.pow(x.lo, n);
+        final double upper = Math.pow(x.hi, n);
+        if (x.lo > 0d || x.hi < 0d) {
+            return rounded(Math.min(lower, upper), Math.max(lower, upper), LIBRARY_ULPS);
+        } else if (n % 2d == 0d) {
+            return rounded(Math.min(lower, upper), Double.POSITIVE_INFINITY, LIBRARY_ULPS);
+        }
+        /* odd powers of +0 and -0 go to opposite infinities */
+        return ENTIRE;
+    }
+
+    private static Interval monotonicPow(double lo, double hi, double n) {
+        if (n == 1d) {
+            return new Interval(lo, hi);
+        } else if (n == 2d) {
+            /* squares are common enough to be worth the exact rounding of a product */
+            return bounds(multiply(lo, lo, false), multiply(hi, hi, true));
+        }
+        return rounded(Math.pow(lo, n), Math.pow(hi, n), LIBRARY_ULPS);
+    }
+
+    /**
+     * Apply a builtin or custom function to intervals. The <code>if</code> function yields the hull of both branches
+     * if the condition can be true as well as false.
+     * @param function the function
+     * @param args the arguments
+     * @return an enclosure of the result
+     * @throws ArithmeticException if the function fails for all of its arguments
+     */
+    public static Interval apply(Function function, Interval... args) {
+        final Functions builtin = Functions.of(function);
+        if (builtin == null) {
+            return applyCustom(null, function, args);
+        }
+        if (args.length == 0) {
+            return point(Functions.apply(function));
+        }
+        final Interval x = args[0];
+        switch (builtin) {
+            case SIN:
+                return sin(x, 0d);
+            case COS:
+                return sin(x, HALF_PI);
+            case TAN:
+                return tan(x, function, HALF_PI);
+            case COT:
+                if (x.isPoint()) {
+                    /* fails like the function itself on its poles */
+                    final double cot = Functions.apply(function, x.lo);
+                    return rounded(cot, cot, LIBRARY_ULPS);
+                }
+                return tan(x, function, 0d);
+            case LOG:
+            case LOG10:
+            case LOG2:
+                return increasing(function, Math.max(x.lo, 0d), x.hi);
+            case LOG1P:
+                return increasing(function, Math.max(x.lo, -1d), x.hi);
+            case SQRT:
+                return x.hi < 0d ? ENTIRE : rounded(Math.sqrt(Math.max(x.lo, 0d)), Math.sqrt(x.hi), 1);
+            case ASIN:
+                return increasing(function, Math.max(x.lo, -1d), Math.min(x.hi, 1d));
+            case ACOS:
+                if (x.hi < -1d || x.lo > 1d) {
+                    return ENTIRE;
+                }
+                return rounded(Math.acos(Math.min(x.hi, 1d)), Math.acos(Math.max(x.lo, -1d)), LIBRARY_ULPS);
+            case ATAN:
+            case CBRT:
+            case SINH:
+            case TANH:
+            case EXP:
+            case EXPM1:
+                return increasing(function, x.lo, x.hi);
+            case COSH:
+                if (x.contains(0d)) {
+                    return rounded(1d, Math.max(Math.cosh(x.lo), Math.cosh(x.hi)), LIBRARY_ULPS);
+                }
+                final double a = Math.cosh(x.lo);
+                final double b = Math.cosh(x.hi);
+                return rounded(Math.min(a, b), Math.max(a, b), LIBRARY_ULPS);
+            case ABS:
+                if (x.lo >= 0d) {
+                    return x;
+                } else if (x.hi <= 0d) {
+                    return new Interval(-x.hi, -x.lo);
+                }
+                return new Interval(0d, Math.max(-x.lo, x.hi));
+            case CEIL:
+                return new Interval(Math.ceil(x.lo), Math.ceil(x.hi));
+            case FLOOR:
+                return new Interval(Math.floor(x.lo), Math.floor(x.hi));
+            case SIGNUM:
+                return new Interval(Math.signum(x.lo), Math.signum(x.hi));
+            case POW:
+                return pow(x, args[1]);
+            case AVG:
+                Interval sum = x;
+                for (int i = 1; i < args.length; i++) {
+                    sum = bounds(add(sum.lo, args[i].lo, false), add(sum.hi, args[i].hi, true));
+                }
+                return divide(sum, point(args.length));
+            case IF:
+                final Interval condition = truth(x);
+                if (condition == ONE) {
+                    return args[1];
+                }
+                return condition == ZERO ? args[2] : args[1].hull(args[2]);
+            default:
+                return applyCustom(null, function, args);
+        }
+    }
+
+    private static Interval increasing(Function function, double lo, double hi) {
+        if (hi < lo) {
+            return ENTIRE;
+        }
+        return rounded(Functions.apply(function, lo), Functions.apply(function, hi), LIBRARY_ULPS);
+    }
+
+    /**
+     * Enclose sin(x + shift), which has its maxima at PI/2 + 2 k PI and its minima at -PI/2 + 2 k PI
+     */
+    private static Interval sin(Interval x, double shift) {
+        if (Double.isInfinite(x.lo) || Double.isInfinite(x.hi) || x.hi - x.lo >= TWO_PI) {
+            return UNIT;
+        }
+        final double a = shift == 0d ? Math.sin(x.lo) : Math.cos(x.lo);
+        final double b = shift == 0d ? Math.sin(x.hi) : Math.cos(x.hi);
+        final Interval bounds = rounded(Math.min(a, b), Math.max(a, b), LIBRARY_ULPS);
+        final double lo = containsPeriodic(x, -HALF_PI - shift, TWO_PI) ? -1d : Math.max(bounds.lo, -1d);
+        final double hi = containsPeriodic(x, HALF_PI - shift, TWO_PI) ? 1d : Math.min(bounds.hi, 1d);
+        return new Interval(lo, hi);
+    }
+
+    /**
+     * Enclose tan(x) with its poles at PI/2 + k PI or cot(x) with its poles at k PI, both are monotonic in between
+     */
+    private static Interval tan(Interval x, Function function, double pole) {
+        if (Double.isInfinite(x.lo) || Double.isInfinite(x.hi) || x.hi - x.lo >= Math.PI
+                || containsPeriodic(x, pole, Math.PI)) {
+            return ENTIRE;
+        }
+        final double a = Functions.apply(function, x.lo);
+        final double b = Functions.apply(function, x.hi);
+        return rounded(Math.min(a, b), Math.max(a, b), LIBRARY_ULPS);
+    }
+
+    /**
+     * Check conservatively if an interval contains any of the points offset + k period
+     */
+    private static boolean containsPeriodic(Interval x, double offset, double period) {
+        final double slack = PERIOD_SLACK * Math.max(1d, Math.max(Math.abs(x.lo), Math.abs(x.hi)));
+        final double k = Math.ceil((x.lo - slack - offset) / period);
+        return offset + k * period <= x.hi + slack;
+    }
+
+    private static Interval applyCustom(Operator operator, Function function, Interval... args) {
+        if (function != null && !function.isPure()) {
+            return ENTIRE;
+        }
+        final double[] values = new double[args.length];
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].isPoint()) {
+                return ENTIRE;
+            }
+            values[i] = args[i].lo;
+        }
+        return point(operator != null ? operator.apply(values) : Functions.apply(function, values));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Interval)) {
+            return false;
+        }
+        final Interval other = (Interval) o;
+        return Double.compare(other.lo, lo) == 0 && Double.compare(other.hi, hi) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Double.hashCode(lo) + Double.hashCode(hi);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + lo + ", " + hi + "]";
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.JumpToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates an {@link Expression} over intervals instead of single values. Every variable is set to an
+ * {@link Interval} and the result is an enclosure of all the values the expression takes for variable values inside
+ * these intervals, which can be used to bound an expression or to discard whole regions of a search space without
+ * evaluating any points. If the condition of an <code>if</code> or a short circuit operator can be true as well as
+ * false, both branches are evaluated and the result is their hull.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class IntervalExpression {
+
+    private final Token[] tokens;
+
+    private final int[] slots;
+
+    private final String[] variableNames;
+
+    private final Map<String, Integer> variableIndex = new HashMap<>();
+
+    private final Interval[] variableValues;
+
+    private final Interval[] stack;
+
+    private final Interval[] arguments;
+
+    private static final int FORK_AND = -1;
+
+    private static final int FORK_OR = -2;
+
+    /* the branches being evaluated because their condition is undecided, the innermost one last */
+    private final int[] forkEnd;
+
+    private final int[] forkElse;
+
+    private final Interval[] forkThen;
+
+    /**
+     * Create a new evaluator. The values of the variables currently set on the expression are used as initial
+     * values, each as an interval containing only that value.
+     * @param expression the expression to evaluate
+     */
+    public IntervalExpression(Expression expression) {
+        this.tokens = expression.getTokens();
+        this.slots = new int[tokens.length];
+        final List<String> names = new ArrayList<>();
+        int depth = 0;
+        int maxDepth = 1;
+        int maxArguments = 2;
+        int numJumps = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            final Token token = tokens[i];
+            slots[i] = -1;
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    depth++;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final String name = ((VariableToken) token).getName();
+                    Integer slot = variableIndex.get(name);
+                    if (slot == null) {
+                        slot = names.size();
+                        names.add(name);
+                        variableIndex.put(name, slot);
+                    }
+                    slots[i] = slot;
+                    depth++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    depth -= ((OperatorToken) token).getOperator().getNumOperands() - 1;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final int numArguments = ((FunctionToken) token).getDynamicNumberOfArguments();
+                    depth -= numArguments - 1;
+                    maxArguments = Math.max(maxArguments, numArguments);
+                    break;
+                case Token.TOKEN_JUMP:
+                    numJumps++;
+                    break;
+            }
+            /* jumps are ignored, they only ever shorten the stack */
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        this.variableNames = names.toArray(new String[0]);
+        this.variableValues = new Interval[variableNames.length];
+        this.stack = new Interval[maxDepth];
+        this.arguments = new Interval[maxArguments];
+        this.forkEnd = new int[numJumps];
+        this.forkElse = new int[numJumps];
+        this.forkThen = new Interval[numJumps];
+        for (Map.Entry<String, Double> variable : expression.getVariableValues().entrySet()) {
+            setVariable(variable.getKey(), variable.getValue());
+        }
+    }
+
+    /**
+     * Set a variable to a single value
+     * @param name the name of the variable
+     * @param value the value
+     * @return the IntervalExpression instance
+     */
+    public IntervalExpression setVariable(String name, double value) {
+        return setVariable(name, Interval.point(value));
+    }
+
+    /**
+     * Set a variable to an interval
+     * @param name the name of the variable
+     * @param lo the lower bound
+     * @param hi the upper bound
+     * @return the IntervalExpression instance
+     */
+    public IntervalExpression setVariable(String name, double lo, double hi) {
+        return setVariable(name, Interval.of(lo, hi));
+    }
+
+    /**
+     * Set a variable to an interval
+     * @param name the name of the variable
+     * @param value the interval
+     * @return the IntervalExpression instance
+     */
+    public IntervalExpression setVariable(String name, Interval value) {
+        final Integer slot = variableIndex.get(name);
+        if (slot != null) {
+            variableValues[slot] = value;
+        }
+        return this;
+    }
+
+    public IntervalExpression setVariables(Map<String, Interval> variables) {
+        for (Map.Entry<String, Interval> v : variables.entrySet()) {
+            this.setVariable(v.getKey(), v.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Evaluate the expression
+     * @return an enclosure of the values of the expression
+     * @throws ArithmeticException if an operation fails for all of its operands, like a division by an interval
+     * containing only zero
+     */
+    public Interval evaluate() {
+        final Token[] tokens = this.tokens;
+        final Interval[] stack = this.stack;
+        int top = 0;
+        int forks = 0;
+        for (int i = 0; i < tokens.length; ) {
+            final Token token = tokens[i];
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    stack[top++] = Interval.point(((NumberToken) token).getValue());
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final int slot = slots[i];
+                    if (variableValues[slot] == null) {
+                        throw new IllegalArgumentException("No value has been set for the setVariable '"
+                                + variableNames[slot] + "'.");
+                    }
+                    stack[top++] = variableValues[slot];
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final OperatorToken operatorToken = (OperatorToken) token;
+                    final int numOperands = operatorToken.getOperator().getNumOperands();
+                    top = pop(top, numOperands);
+                    stack[top] = Interval.apply(operatorToken.getOperator(), Arrays.copyOf(arguments, numOperands));
+                    top++;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final FunctionToken functionToken = (FunctionToken) token;
+                    final int numArguments = functionToken.getDynamicNumberOfArguments();
+                    top = pop(top, numArguments);
+                    stack[top] = Interval.apply(functionToken.getFunction(), Arrays.copyOf(arguments, numArguments));
+                    top++;
+                    break;
+                case Token.TOKEN_JUMP:
+                    final JumpToken jump = (JumpToken) token;
+                    final int target = jump.getTarget();
+                    switch (jump.getKind()) {
+                        case JumpToken.GOTO:
+                            if (forks > 0 && forkEnd[forks - 1] == target && forkElse[forks - 1] >= 0) {
+                                final int fork = forks - 1;
+                                if (forkThen[fork] == null) {
+                                    /* the then branch is done, evaluate the else branch as well */
+                                    forkThen[fork] = stack[--top];
+                                    i = forkElse[fork];
+                                    continue;
+                                }
+                                stack[top - 1] = forkThen[fork].hull(stack[top - 1]);
+                                forkThen[fork] = null;
+                                forks--;
+                            }
+                            i = target;
+                            continue;
+                        case JumpToken.IF_FALSE:
+                            final Interval condition = Interval.truth(stack[--top]);
+                            if (condition.isPoint()) {
+                                i = condition.getLo() == 0d ? target : i + 1;
+                                continue;
+                            }
+                            /* the token before the else branch is the jump from the end of the then branch */
+                            forkEnd[forks] = ((JumpToken) tokens[target - 1]).getTarget();
+                            forkElse[forks++] = target;
+                            i++;
+                            continue;
+                        case JumpToken.AND:
+                        case JumpToken.OR:
+                            final Interval left = Interval.truth(stack[top - 1]);
+                            final boolean and = jump.getKind() == JumpToken.AND;
+                            if (left.isPoint() && (left.getLo() == 0d) == and) {
+                                stack[top - 1] = left;
+                                i = target;
+                                continue;
+                            }
+                            top--;
+                            if (!left.isPoint()) {
+                                forkEnd[forks] = target;
+                                forkElse[forks++] = and ? FORK_AND : FORK_OR;
+                            }
+                            i++;
+                            continue;
+                        default:
+                            Interval right = Interval.truth(stack[top - 1]);
+                            if (forks > 0 && forkEnd[forks - 1] == target && forkElse[forks - 1] < 0) {
+                                /* the left operand was undecided */
+                                right = forkElse[--forks] == FORK_AND ? Interval.and(Interval.BOOLEAN, right)
+                                        : Interval.or(Interval.BOOLEAN, right);
+                            }
+                            stack[top - 1] = right;
+                            i = target;
+                            continue;
+                    }
+            }
+            i++;
+        }
+        if (top != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        return stack[0];
+    }
+
+    private int pop(int top, int count) {
+        if (top < count) {
+            throw new IllegalArgumentException("Invalid number of operands available");
+        }
+        top -= count;
+        System.arraycopy(stack, top, arguments, 0, count);
+        return top;
+    }
+}
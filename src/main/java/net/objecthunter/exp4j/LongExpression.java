@@ -0,0 +1,407 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.JumpToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates an {@link Expression} in exact 64 bit integer arithmetic on a primitive <code>long</code> stack. Only
+ * the builtin operators and the builtin functions <code>abs</code>, <code>signum</code>, <code>floor</code>,
+ * <code>ceil</code>, <code>pow</code> and <code>if</code> can be used. Divisions and modulos truncate towards zero
+ * like in Java and throw an {@link ArithmeticException} for a zero divisor, and a negative exponent behaves like a
+ * division of one by the power. Comparisons and logical operators yield 1 or 0.
+ * <p>
+ * Depending on the {@link Overflow} mode a result which does not fit into a <code>long</code> either throws an
+ * {@link ArithmeticException} or wraps around. Numbers in the expression are parsed as doubles, so they have to be
+ * integers smaller than 2<sup>53</sup> in magnitude, as larger ones may have been rounded while parsing; larger
+ * constants can be written as powers.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class LongExpression {
+
+    /**
+     * What happens when the result of an operation does not fit into a <code>long</code>
+     */
+    public enum Overflow {
+        /**
+         * Throw an {@link ArithmeticException}, like {@link Math#addExact(long, long)}
+         */
+        CHECK,
+        /**
+         * Keep the low 64 bits of the result, like the Java operators
+         */
+        WRAP
+    }
+
+    /* doubles below this magnitude are integers only if the parsed number was, 2^53 + 1 already rounds to 2^53 */
+    private static final long MAX_EXACT = 1L << 53;
+
+    private static final int OP_NUMBER = 0;
+    private static final int OP_VARIABLE = 1;
+    private static final int OP_ADD = 2;
+    private static final int OP_SUBTRACT = 3;
+    private static final int OP_MULTIPLY = 4;
+    private static final int OP_DIVIDE = 5;
+    private static final int OP_MODULO = 6;
+    private static final int OP_POWER = 7;
+    private static final int OP_LESS = 8;
+    private static final int OP_GREATER = 9;
+    private static final int OP_LESS_EQUAL = 10;
+    private static final int OP_GREATER_EQUAL = 11;
+    private static final int OP_EQUAL = 12;
+    private static final int OP_NOT_EQUAL = 13;
+    private static final int OP_AND = 14;
+    private static final int OP_OR = 15;
+    private static final int OP_NEGATE = 16;
+    private static final int OP_ABS = 17;
+    private static final int OP_SIGNUM = 18;
+    private static final int OP_IF = 19;
+    private static final int OP_IDENTITY = 20;
+    private static final int OP_GOTO = 21;
+    private static final int OP_IF_FALSE = 22;
+    private static final int OP_AND_JUMP = 23;
+    private static final int OP_OR_JUMP = 24;
+    private static final int OP_BOOLEAN = 25;
+
+    private static final Map<String, Integer> OPERATOR_CODES = new HashMap<>();
+
+    static {
+        final String[] symbols = {"+", "-", "*", "/", "%", "^", "<", ">", "<=", ">=", "==", "!=", "&&", "||"};
+        for (int i = 0; i < symbols.length; i++) {
+            OPERATOR_CODES.put(symbols[i], OP_ADD + i);
+        }
+    }
+
+    private final boolean checked;
+
+    /* the opcode of every token */
+    private final int[] codes;
+
+    /* the value of a number, the slot of a variable or the target of a jump */
+    private final long[] operands;
+
+    private final String[] variableNames;
+
+    private final Map<String, Integer> variableIndex = new HashMap<>();
+
+    private final long[] variableValues;
+
+    private final boolean[] variableSet;
+
+    private final long[] stack;
+
+    /**
+     * Create a new evaluator which throws an {@link ArithmeticException} on overflow. The values of the variables
+     * currently set on the expression are used as initial values, values which are not integers are not copied.
+     * @param expression the expression to evaluate
+     * @throws IllegalArgumentException if the expression uses a number, function or operator which can not be
+     * evaluated in integer arithmetic
+     */
+    public LongExpression(Expression expression) {
+        this(expression, Overflow.CHECK);
+    }
+
+    /**
+     * Create a new evaluator. The values of the variables currently set on the expression are used as initial values,
+     * values which are not integers are not copied.
+     * @param expression the expression to evaluate
+     * @param overflow what happens when a result does not fit into a <code>long</code>
+     * @throws IllegalArgumentException if the expression uses a number, function or operator which can not be
+     * evaluated in integer arithmetic
+     */
+    public LongExpression(Expression expression, Overflow overflow) {
+        final Token[] tokens = expression.getTokens();
+        this.checked = overflow == Overflow.CHECK;
+        this.codes = new int[tokens.length];
+        this.operands = new long[tokens.length];
+        final List<String> names = new ArrayList<>();
+        int depth = 0;
+        int maxDepth = 1;
+        for (int i = 0; i < tokens.length; i++) {
+            final Token token = tokens[i];
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    codes[i] = OP_NUMBER;
+                    operands[i] = toLong(((NumberToken) token).getValue());
+                    depth++;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final String name = ((VariableToken) token).getName();
+                    Integer slot = variableIndex.get(name);
+                    if (slot == null) {
+                        slot = names.size();
+                        names.add(name);
+                        variableIndex.put(name, slot);
+                    }
+                    codes[i] = OP_VARIABLE;
+                    operands[i] = slot;
+                    depth++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) token).getOperator();
+                    codes[i] = code(operator);
+                    depth -= operator.getNumOperands() - 1;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final FunctionToken functionToken = (FunctionToken) token;
+                    codes[i] = code(functionToken.getFunction());
+                    depth -= functionToken.getDynamicNumberOfArguments() - 1;
+                    break;
+                case Token.TOKEN_JUMP:
+                    final JumpToken jump = (JumpToken) token;
+                    codes[i] = OP_GOTO + jump.getKind();
+                    operands[i] = jump.getTarget();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected token in the expression");
+            }
+            /* jumps are ignored, they only ever shorten the stack */
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        this.variableNames = names.toArray(new String[0]);
+        this.variableValues = new long[variableNames.length];
+        this.variableSet = new boolean[variableNames.length];
+        this.stack = new long[maxDepth];
+        for (Map.Entry<String, Double> variable : expression.getVariableValues().entrySet()) {
+            final double value = variable.getValue();
+            if (value == Math.rint(value) && Math.abs(value) < MAX_EXACT) {
+                setVariable(variable.getKey(), (long) value);
+            }
+        }
+    }
+
+    private static long toLong(double value) {
+        if (value != Math.rint(value) || Math.abs(value) >= MAX_EXACT) {
+            throw new IllegalArgumentException("The number " + value + " can not be evaluated exactly as an integer");
+        }
+        return (long) value;
+    }
+
+    private static int code(Operator operator) {
+        if (!Operators.isBuiltinOperator(operator)) {
+            throw new IllegalArgumentException("The operator '" + operator.getSymbol()
+                    + "' can not be evaluated as an integer");
+        }
+        if (operator.getNumOperands() == 1) {
+            return operator.getSymbol().equals("-") ? OP_NEGATE : OP_IDENTITY;
+        }
+        return OPERATOR_CODES.get(operator.getSymbol());
+    }
+
+    private static int code(Function function) {
+        final Functions builtin = Functions.of(function);
+        if (builtin != null) {
+            switch (builtin) {
+                case ABS:
+                    return OP_ABS;
+                case SIGNUM:
+                    return OP_SIGNUM;
+                case FLOOR:
+                case CEIL:
+                    return OP_IDENTITY;
+                case POW:
+                    return OP_POWER;
+                case IF:
+                    return OP_IF;
+            }
+        }
+        throw new IllegalArgumentException("The function '" + function.getName()
+                + "' can not be evaluated as an integer");
+    }
+
+    public LongExpression setVariable(String name, long value) {
+        final Integer slot = variableIndex.get(name);
+        if (slot != null) {
+            variableValues[slot] = value;
+            variableSet[slot] = true;
+        }
+        return this;
+    }
+
+    public LongExpression setVariables(Map<String, Long> variables) {
+        for (Map.Entry<String, Long> v : variables.entrySet()) {
+            this.setVariable(v.getKey(), v.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Evaluate the expression
+     * @return the result
+     * @throws ArithmeticException if a divisor is zero, or a result overflows in {@link Overflow#CHECK} mode
+     */
+    public long evaluate() {
+        final int[] codes = this.codes;
+        final long[] operands = this.operands;
+        final long[] stack = this.stack;
+        final boolean checked = this.checked;
+        int top = 0;
+        for (int i = 0; i < codes.length; ) {
+            switch (codes[i]) {
+                case OP_NUMBER:
+                    stack[top++] = operands[i];
+                    break;
+                case OP_VARIABLE:
+                    final int slot = (int) operands[i];
+                    if (!variableSet[slot]) {
+                        throw new IllegalArgumentException("No value has been set for the setVariable '"
+                                + variableNames[slot] + "'.");
+                    }
+                    stack[top++] = variableValues[slot];
+                    break;
+                case OP_IDENTITY:
+                    break;
+                case OP_NEGATE:
+                    stack[top - 1] = checked ? Math.negateExact(stack[top - 1]) : -stack[top - 1];
+                    break;
+                case OP_ABS:
+                    final long x = stack[top - 1];
+                    if (checked && x == Long.MIN_VALUE) {
+                        throw new ArithmeticException("long overflow");
+                    }
+                    stack[top - 1] = Math.abs(x);
+                    break;
+                case OP_SIGNUM:
+                    stack[top - 1] = Long.signum(stack[top - 1]);
+                    break;
+                case OP_IF:
+                    top -= 2;
+                    stack[top - 1] = stack[top - 1] != 0 ? stack[top] : stack[top + 1];
+                    break;
+                case OP_GOTO:
+                    i = (int) operands[i];
+                    continue;
+                case OP_IF_FALSE:
+                    i = stack[--top] != 0 ? i + 1 : (int) operands[i];
+                    continue;
+                case OP_AND_JUMP:
+                    if (stack[top - 1] == 0) {
+                        i = (int) operands[i];
+                    } else {
+                        top--;
+                        i++;
+                    }
+                    continue;
+                case OP_OR_JUMP:
+                    if (stack[top - 1] != 0) {
+                        stack[top - 1] = 1;
+                        i = (int) operands[i];
+                    } else {
+                        top--;
+                        i++;
+                    }
+                    continue;
+                case OP_BOOLEAN:
+                    stack[top - 1] = stack[top - 1] != 0 ? 1 : 0;
+                    i = (int) operands[i];
+                    continue;
+                default:
+                    top--;
+                    stack[top - 1] = apply(codes[i], stack[top - 1], stack[top], checked);
+            }
+            i++;
+        }
+        if (top != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        return stack[0];
+    }
+
+    private static long apply(int code, long a, long b, boolean checked) {
+        switch (code) {
+            case OP_ADD:
+                return checked ? Math.addExact(a, b) : a + b;
+            case OP_SUBTRACT:
+                return checked ? Math.subtractExact(a, b) : a - b;
+            case OP_MULTIPLY:
+                return checked ? Math.multiplyExact(a, b) : a * b;
+            case OP_DIVIDE:
+                if (b == 0) {
+                    throw new ArithmeticException("Division by zero!");
+                }
+                if (checked && a == Long.MIN_VALUE && b == -1) {
+                    throw new ArithmeticException("long overflow");
+                }
+                return a / b;
+            case OP_MODULO:
+                if (b == 0) {
+                    throw new ArithmeticException("Division by zero!");
+                }
+                return a % b;
+            case OP_POWER:
+                return pow(a, b, checked);
+            case OP_LESS:
+                return a < b ? 1 : 0;
+            case OP_GREATER:
+                return a > b ? 1 : 0;
+            case OP_LESS_EQUAL:
+                return a <= b ? 1 : 0;
+            case OP_GREATER_EQUAL:
+                return a >= b ? 1 : 0;
+            case OP_EQUAL:
+                return a == b ? 1 : 0;
+            case OP_NOT_EQUAL:
+                return a != b ? 1 : 0;
+            case OP_AND:
+                return a != 0 && b != 0 ? 1 : 0;
+            default:
+                return a != 0 || b != 0 ? 1 : 0;
+        }
+    }
+
+    /**
+     * Raise a number to an integer power by repeated squaring. A negative exponent truncates like the division of
+     * one by the power.
+     */
+    static long pow(long base, long exponent, boolean checked) {
+        if (exponent < 0) {
+            if (base == 0) {
+                throw new ArithmeticException("Division by zero!");
+            }
+            if (base == 1 || base == -1) {
+                return (exponent & 1) == 0 ? 1 : base;
+            }
+            return 0;
+        }
+        long result = 1;
+        while (exponent != 0) {
+            if ((exponent & 1) != 0) {
+                result = checked ? Math.multiplyExact(result, base) : result * base;
+            }
+            exponent >>>= 1;
+            /* the last square is not needed and might overflow although the result does not */
+            if (exponent != 0) {
+                base = checked ? Math.multiplyExact(base, base) : base * base;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.FusedMultiplyAdd;
+import net.objecthunter.exp4j.function.LinearCombination;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.function.TwoArgumentFunction;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.JumpToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of an {@link Expression} with their variables resolved to the slots of a {@link Bindings} layout.
+ * Evaluates on a primitive stack and records the reverse mode tape for gradients.
+ */
+final class Program {
+
+    private static final Operator ADDITION = Operators.getBuiltinOperator('+', 2);
+    private static final Operator SUBTRACTION = Operators.getBuiltinOperator('-', 2);
+    private static final Operator MULTIPLICATION = Operators.getBuiltinOperator('*', 2);
+    private static final Operator MODULO = Operators.getBuiltinOperator('%', 2);
+    private static final Operator POWER = Operators.getBuiltinOperator('^', 2);
+    private static final Operator UNARY_MINUS = Operators.getBuiltinOperator('-', 1);
+    private static final Operator UNARY_PLUS = Operators.getBuiltinOperator('+', 1);
+
+    private final Object layout;
+
+    private final Token[] tokens;
+
+    private final int[] slots;
+
+    /* linear combinations of variables by the index of their first argument, or null if there are none */
+    private final Dot[] dots;
+
+    private final int maxDepth;
+
+    Program(Token[] tokens, Bindings bindings) {
+        this.layout = bindings.getLayout();
+        this.tokens = tokens;
+        this.slots = new int[tokens.length];
+        int depth = 0;
+        int maxDepth = 1;
+        for (int i = 0; i < tokens.length; i++) {
+            final Token token = tokens[i];
+            slots[i] = -1;
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    depth++;
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final String name = ((VariableToken) token).getName();
+                    slots[i] = bindings.indexOf(name);
+                    if (slots[i] < 0) {
+                        throw new IllegalArgumentException("The variable '" + name + "' is not bound");
+                    }
+                    depth++;
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    depth -= ((OperatorToken) token).getOperator().getNumOperands() - 1;
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    depth -= ((FunctionToken) token).getDynamicNumberOfArguments() - 1;
+                    break;
+            }
+            /* jumps are ignored, they only ever shorten the stack */
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        this.maxDepth = maxDepth;
+        this.dots = dots(tokens, slots);
+    }
+
+    /**
+     * Find the calls of linear combinations whose arguments are all variables, so they can be computed from the
+     * variable values directly instead of pushing every argument on the stack first
+     */
+    private static Dot[] dots(Token[] tokens, int[] slots) {
+        Dot[] dots = null;
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].getType() != Token.TOKEN_FUNCTION
+                    || !(((FunctionToken) tokens[i]).getFunction() instanceof LinearCombination)) {
+                continue;
+            }
+            final FunctionToken token = (FunctionToken) tokens[i];
+            final int first = i - token.getDynamicNumberOfArguments();
+            boolean variables = first >= 0;
+            for (int j = Math.max(first, 0); j < i && variables; j++) {
+                variables = tokens[j].getType() == Token.TOKEN_VARIABLE;
+            }
+            if (variables) {
+                if (dots == null) {
+                    dots = new Dot[tokens.length];
+                }
+                dots[first] = new Dot((LinearCombination) token.getFunction(), Arrays.copyOfRange(slots, first, i), i + 1);
+            }
+        }
+        return dots;
+    }
+
+    boolean accepts(Bindings bindings) {
+        return bindings.getLayout() == layout;
+    }
+
+    private Tape tape(Bindings bindings) {
+        Tape tape = bindings.tape;
+        if (tape == null) {
+            tape = new Tape();
+            bindings.tape = tape;
+        }
+        tape.ensureCapacity(maxDepth, tokens.length);
+        return tape;
+    }
+
+    private static void checkOperands(int top, int count, String message) {
+        if (top < count) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    double evaluate(Bindings bindings) {
+        final double[] stack = tape(bindings).stack;
+        final Token[] tokens = this.tokens;
+        int top = 0;
+        for (int i = 0; i < tokens.length; ) {
+            final Token token = tokens[i];
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    stack[top++] = ((NumberToken) token).getValue();
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    final Dot dot = dots == null ? null : dots[i];
+                    if (dot != null) {
+                        if (!bindings.isComplete()) {
+                            for (int slot : dot.slots) {
+                                bindings.get(slot);
+                            }
+                        }
+                        stack[top++] = dot.function.apply(bindings.values(), dot.slots);
+                        i = dot.next;
+                        continue;
+                    }
+                    stack[top++] = bindings.get(slots[i]);
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) token).getOperator();
+                    checkOperands(top, operator.getNumOperands(),
+                            "Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                    if (operator.getNumOperands() == 2) {
+                        final double left = stack[top - 2];
+                        final double right = stack[top - 1];
+                        if (operator == ADDITION) {
+                            stack[top - 2] = left + right;
+                        } else if (operator == SUBTRACTION) {
+                            stack[top - 2] = left - right;
+                        } else if (operator == MULTIPLICATION) {
+                            stack[top - 2] = left * right;
+                        } else {
+                            stack[top - 2] = operator.apply(left, right);
+                        }
+                        top--;
+                    } else if (operator == UNARY_MINUS) {
+                        stack[top - 1] = -stack[top - 1];
+                    } else if (operator != UNARY_PLUS) {
+                        stack[top - 1] = operator.apply(stack[top - 1]);
+                    }
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final FunctionToken functionToken = (FunctionToken) token;
+                    final Function function = functionToken.getFunction();
+                    final int numArguments = functionToken.getDynamicNumberOfArguments();
+                    checkOperands(top, numArguments,
+                            "Invalid number of arguments available for '" + function.getName() + "' function");
+                    if (function instanceof OneArgumentFunction) {
+                        stack[top - 1] = ((OneArgumentFunction) function).apply(stack[top - 1]);
+                    } else if (function instanceof TwoArgumentFunction) {
+                        stack[top - 2] = ((TwoArgumentFunction) function).apply(stack[top - 2], stack[top - 1]);
+                        top--;
+                    } else if (function instanceof FusedMultiplyAdd) {
+                        stack[top - 3] = Math.fma(stack[top - 3], stack[top - 2], stack[top - 1]);
+                        top -= 2;
+                    } else {
+                        final double value = Functions.apply(function, Arrays.copyOfRange(stack, top - numArguments, top));
+                        top -= numArguments;
+                        stack[top++] = value;
+                    }
+                    break;
+                case Token.TOKEN_JUMP:
+                    final JumpToken jump = (JumpToken) token;
+                    if (jump.getKind() == JumpToken.GOTO) {
+                        i = jump.getTarget();
+                        continue;
+                    }
+                    final boolean taken = jump.isTaken(stack[top - 1]);
+                    if (jump.pops(taken)) {
+                        top--;
+                    } else {
+                        stack[top - 1] = Operators.isTrue(stack[top - 1]) ? 1d : 0d;
+                    }
+                    i = taken ? jump.getTarget() : i + 1;
+                    continue;
+            }
+            i++;
+        }
+        if (top != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        return stack[0];
+    }
+
+    /**
+     * Evaluate the expression while recording every operation depending on a variable on the tape, then propagate the
+     * adjoints back from the result to the variables
+     */
+    double gradient(Bindings bindings, double[] gradient) {
+        if (gradient.length < bindings.size()) {
+            throw new IllegalArgumentException("The gradient array can not hold " + bindings.size() + " values");
+        }
+        final Tape tape = tape(bindings);
+        tape.clear();
+        final int[] stack = tape.entries;
+        final Token[] tokens = this.tokens;
+        int top = 0;
+        for (int i = 0; i < tokens.length; ) {
+            final Token token = tokens[i];
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    stack[top++] = tape.constant(((NumberToken) token).getValue());
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    stack[top++] = tape.variable(bindings.get(slots[i]), slots[i]);
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final Operator operator = ((OperatorToken) token).getOperator();
+                    checkOperands(top, operator.getNumOperands(),
+                            "Invalid number of operands available for '" + operator.getSymbol() + "' operator");
+                    top = record(tape, operator, stack, top);
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final FunctionToken functionToken = (FunctionToken) token;
+                    final int numArguments = functionToken.getDynamicNumberOfArguments();
+                    checkOperands(top, numArguments,
+                            "Invalid number of arguments available for '" + functionToken.getFunction().getName() + "' function");
+                    top = record(tape, functionToken.getFunction(), numArguments, stack, top);
+                    break;
+                case Token.TOKEN_JUMP:
+                    final JumpToken jump = (JumpToken) token;
+                    if (jump.getKind() == JumpToken.GOTO) {
+                        i = jump.getTarget();
+                        continue;
+                    }
+                    final double condition = tape.value[stack[top - 1]];
+                    final boolean taken = jump.isTaken(condition);
+                    if (jump.pops(taken)) {
+                        top--;
+                    } else {
+                        stack[top - 1] = tape.constant(Operators.isTrue(condition) ? 1d : 0d);
+                    }
+                    i = taken ? jump.getTarget() : i + 1;
+                    continue;
+            }
+            i++;
+        }
+        if (top != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        tape.backPropagate(stack[0], gradient, bindings.size());
+        return tape.value[stack[0]];
+    }
+
+    private static int record(Tape tape, Operator operator, int[] stack, int top) {
+        if (operator.getNumOperands() == 1) {
+            final int a = stack[top - 1];
+            final double x = tape.value[a];
+            if (operator == UNARY_MINUS) {
+                stack[top - 1] = tape.unary(-x, a, -1d);
+            } else if (operator != UNARY_PLUS) {
+                final double value = operator.apply(x);
+                stack[top - 1] = Operators.isBuiltinOperator(operator) ? tape.constant(value)
+                        : tape.unary(value, a, tape.isActive(a) ? Derivatives.partial(operator, 0, new double[]{x}) : 0d);
+            }
+            return top;
+        }
+        final int a = stack[top - 2];
+        final int b = stack[top - 1];
+        final double x = tape.value[a];
+        final double y = tape.value[b];
+        final int entry;
+        if (operator == ADDITION) {
+            entry = tape.binary(x + y, a, 1d, b, 1d);
+        } else if (operator == SUBTRACTION) {
+            entry = tape.binary(x - y, a, 1d, b, -1d);
+        } else if (operator == MULTIPLICATION) {
+            entry = tape.binary(x * y, a, y, b, x);
+        } else if (Operators.isDivision(operator)) {
+            entry = tape.binary(operator.apply(x, y), a, 1d / y, b, -x / (y * y));
+        } else if (operator == MODULO) {
+            entry = tape.binary(operator.apply(x, y), a, 1d, b, -(long) (x / y));
+        } else if (operator == POWER) {
+            entry = pow(tape, a, b);
+        } else if (Operators.isBuiltinOperator(operator)) {
+            /* comparisons and logical operators are piecewise constant */
+            entry = tape.constant(operator.apply(x, y));
+        } else {
+            final double[] args = {x, y};
+            entry = tape.binary(operator.apply(x, y),
+                    a, tape.isActive(a) ? Derivatives.partial(operator, 0, args) : 0d,
+                    b, tape.isActive(b) ? Derivatives.partial(operator, 1, args) : 0d);
+        }
+        stack[top - 2] = entry;
+        return top - 1;
+    }
+
+    private static int pow(Tape tape, int a, int b) {
+        final double x = tape.value[a];
+        final double y = tape.value[b];
+        final double value = Math.pow(x, y);
+        /* ln(x) is only needed for a variable exponent */
+        return tape.binary(value, a, Derivatives.powBase(x, y), b, tape.isActive(b) ? value * Math.log(x) : 0d);
+    }
+
+    private static int record(Tape tape, Function function, int numArguments, int[] stack, int top) {
+        final int first = top - numArguments;
+        final Functions builtin = Functions.of(function);
+        final int entry;
+        if (numArguments == 0) {
+            entry = tape.constant(Functions.apply(function));
+        } else if (builtin == Functions.POW) {
+            entry = pow(tape, stack[first], stack[first + 1]);
+        } else if (builtin == Functions.IF) {
+            /* only reached if the jumps have been removed, the unused branch is simply not referenced */
+            entry = Operators.isTrue(tape.value[stack[first]]) ? stack[first + 1] : stack[first + 2];
+        } else if (builtin != null && numArguments == 1) {
+            final int a = stack[first];
+            final double x = tape.value[a];
+            entry = tape.unary(Functions.apply(function, x), a, tape.isActive(a) ? Derivatives.of(builtin, x) : 0d);
+        } else {
+            final double[] args = new double[numArguments];
+            for (int i = 0; i < numArguments; i++) {
+                args[i] = tape.value[stack[first + i]];
+            }
+            final double value = Functions.apply(function, args);
+            final double[] partials = new double[numArguments];
+            for (int i = 0; i < numArguments; i++) {
+                if (tape.isActive(stack[first + i])) {
+                    partials[i] = builtin == Functions.AVG ? 1d / numArguments : Derivatives.partial(function, i, args);
+                }
+            }
+            entry = tape.nary(value, stack, first, partials);
+        }
+        stack[first] = entry;
+        return first + 1;
+    }
+
+    /**
+     * The scratch space of a {@link Bindings} instance: the evaluation stack and the reverse mode tape. Every entry
+     * of the tape is a value with the indices of the entries it was computed from and the partial derivatives with
+     * respect to them. Only entries depending on a variable are active and reference their operands.
+     */
+    static final class Tape {
+
+        private double[] stack = new double[0];
+
+        private int[] entries = new int[0];
+
+        private double[] value = new double[0];
+
+        private int[] slot = new int[0];
+
+        private boolean[] active = new boolean[0];
+
+        private double[] adjoint = new double[0];
+
+        private int[] argStart = new int[1];
+
+        private int[] args = new int[0];
+
+        private double[] partials = new double[0];
+
+        private int size;
+
+        void ensureCapacity(int depth, int numTokens) {
+            if (stack.length < depth) {
+                stack = new double[depth];
+                entries = new int[depth];
+            }
+            if (value.length < numTokens) {
+                value = new double[numTokens];
+                slot = new int[numTokens];
+                active = new boolean[numTokens];
+                adjoint = new double[numTokens];
+                argStart = new int[numTokens + 1];
+                args = new int[numTokens];
+                partials = new double[numTokens];
+            }
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        boolean isActive(int entry) {
+            return active[entry];
+        }
+
+        private int add(double v, int variable, boolean isActive) {
+            final int entry = size++;
+            value[entry] = v;
+            slot[entry] = variable;
+            active[entry] = isActive;
+            argStart[entry + 1] = argStart[entry];
+            return entry;
+        }
+
+        private void arg(int entry, int operand, double partial) {
+            if (active[operand]) {
+                final int n = argStart[entry + 1]++;
+                args[n] = operand;
+                partials[n] = partial;
+                active[entry] = true;
+            }
+        }
+
+        int constant(double v) {
+            return add(v, -1, false);
+        }
+
+        int variable(double v, int variable) {
+            return add(v, variable, true);
+        }
+
+        int unary(double v, int a, double partial) {
+            final int entry = add(v, -1, false);
+            arg(entry, a, partial);
+            return entry;
+        }
+
+        int binary(double v, int a, double partialA, int b, double partialB) {
+            final int entry = add(v, -1, false);
+            arg(entry, a, partialA);
+            arg(entry, b, partialB);
+            return entry;
+        }
+
+        int nary(double v, int[] operands, int first, double[] operandPartials) {
+            final int entry = add(v, -1, false);
+            for (int i = 0; i < operandPartials.length; i++) {
+                arg(entry, operands[first + i], operandPartials[i]);
+            }
+            return entry;
+        }
+
+        void backPropagate(int root, double[] gradient, int numVariables) {
+            Arrays.fill(gradient, 0, numVariables, 0d);
+            Arrays.fill(adjoint, 0, size, 0d);
+            adjoint[root] = 1d;
+            for (int entry = root; entry >= 0; entry--) {
+                final double a = adjoint[entry];
+                if (a == 0d) {
+                    continue;
+                }
+                if (slot[entry] >= 0) {
+                    gradient[slot[entry]] += a;
+                }
+                for (int n = argStart[entry]; n < argStart[entry + 1]; n++) {
+                    adjoint[args[n]] += partials[n] * a;
+                }
+            }
+        }
+    }
+
+    private static final class Dot {
+
+        private final LinearCombination function;
+
+        private final int[] slots;
+
+        private final int next;
+
+        Dot(LinearCombination function, int[] slots, int next) {
+            this.function = function;
+            this.slots = slots;
+            this.next = next;
+        }
+    }
+}
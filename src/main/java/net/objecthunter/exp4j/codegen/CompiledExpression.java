@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.codegen;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An expression compiled to Java source at build time by the {@link FormulaProcessor}
+ */
+public interface CompiledExpression {
+
+    /**
+     * Get the source of the expression
+     * @return the expression string
+     */
+    String getExpression();
+
+    /**
+     * Get the variables of the expression in the order their values are passed to {@link #evaluate(double...)}
+     * @return an unmodifiable list of the variable names
+     */
+    List<String> getVariableNames();
+
+    /**
+     * Evaluate the expression
+     * @param values the values of the variables in the order of {@link #getVariableNames()}
+     * @return the result
+     */
+    double evaluate(double... values);
+
+    /**
+     * Evaluate the expression
+     * @param variables the values of the variables by name
+     * @return the result
+     */
+    default double evaluate(Map<String, Double> variables) {
+        final List<String> names = getVariableNames();
+        final double[] values = new double[names.size()];
+        for (int i = 0; i < values.length; i++) {
+            final Double value = variables.get(names.get(i));
+            if (value == null) {
+                throw new IllegalArgumentException("No value has been set for the setVariable '" + names.get(i) + "'.");
+            }
+            values[i] = value;
+        }
+        return evaluate(values);
+    }
+}
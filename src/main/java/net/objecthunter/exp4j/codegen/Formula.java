@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.codegen;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a formula which is compiled to Java source by the {@link FormulaProcessor}. The generated class is put in
+ * the package of the annotated type and implements {@link CompiledExpression}. Only the builtin functions and
+ * operators are available, and invalid formulas are reported as compile errors.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+@Repeatable(Formulas.class)
+public @interface Formula {
+
+    /**
+     * @return the simple name of the generated class
+     */
+    String name();
+
+    /**
+     * @return the expression to compile
+     */
+    String expression();
+
+    /**
+     * @return the variables used in the expression, in the order their values are passed to
+     * {@link CompiledExpression#evaluate(double...)}. Names of {@link net.objecthunter.exp4j.Constants} are compiled
+     * to their values and are not passed as arguments.
+     */
+    String[] variables() default {};
+
+    /**
+     * @return false to turn off implicit multiplication
+     */
+    boolean implicitMultiplication() default true;
+
+    /**
+     * @return true to compile multiply add patterns to {@link Math#fma(double, double, double)} calls, see
+     * {@link net.objecthunter.exp4j.ExpressionBuilder#fusedMultiplyAdd(boolean)}
+     */
+    boolean fusedMultiplyAdd() default false;
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.codegen;
+
+import net.objecthunter.exp4j.Constants;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.Nodes;
+import net.objecthunter.exp4j.optimizer.FmaContraction;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotation processor compiling the {@link Formula} declarations to Java classes. The formulas are parsed by the
+ * {@link ShuntingYard} like at runtime and each one is emitted as straight line Java code implementing
+ * {@link CompiledExpression}, so there is no parsing at startup and the JIT can inline the whole computation.
+ * Formulas which can not be parsed are reported as compile errors on the annotated type.
+ */
+public class FormulaProcessor extends AbstractProcessor {
+
+    private final Set<String> generated = new HashSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new HashSet<>(Arrays.asList(Formula.class.getCanonicalName(), Formulas.class.getCanonicalName()));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        final Set<Element> elements = new LinkedHashSet<>();
+        elements.addAll(roundEnv.getElementsAnnotatedWith(Formula.class));
+        elements.addAll(roundEnv.getElementsAnnotatedWith(Formulas.class));
+        for (Element element : elements) {
+            for (Formula formula : element.getAnnotationsByType(Formula.class)) {
+                process(element, formula);
+            }
+        }
+        return true;
+    }
+
+    private void process(Element element, Formula formula) {
+        final String packageName = packageOf(element).getQualifiedName().toString();
+        final String className = packageName.isEmpty() ? formula.name() : packageName + "." + formula.name();
+        if (!SourceVersion.isName(formula.name()) || formula.name().contains(".")) {
+            error(element, "Invalid class name '" + formula.name() + "' for formula '" + formula.expression() + "'");
+            return;
+        }
+        if (!generated.add(className)) {
+            error(element, "Duplicate formula class '" + className + "'");
+            return;
+        }
+        final String source;
+        try {
+            source = generate(packageName, formula);
+        } catch (RuntimeException e) {
+            error(element, "Invalid formula '" + formula.expression() + "': " + e.getMessage());
+            return;
+        }
+        try (Writer writer = processingEnv.getFiler().createSourceFile(className, element).openWriter()) {
+            writer.write(source);
+        } catch (IOException e) {
+            error(element, "Unable to write " + className + ": " + e.getMessage());
+        }
+    }
+
+    private static PackageElement packageOf(Element element) {
+        while (!(element instanceof PackageElement)) {
+            element = element.getEnclosingElement();
+        }
+        return (PackageElement) element;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    static String generate(String packageName, Formula formula) {
+        final Set<String> declared = new LinkedHashSet<>(Arrays.asList(formula.variables()));
+        final Map<String, String> variables = new HashMap<>();
+        final List<String> parameters = new ArrayList<>();
+        for (String name : declared) {
+            if (Functions.isBuiltinFunction(name)) {
+                throw new IllegalArgumentException("A variable can not have the same name as a function [" + name + "]");
+            }
+            final Double constant = Constants.ALL.get(name);
+            if (constant != null) {
+                variables.put(name, JavaSourceGenerator.literal(constant));
+            } else {
+                variables.put(name, "v" + parameters.size());
+                parameters.add(name);
+            }
+        }
+        Node tree = Nodes.fromRPN(ShuntingYard.convertToRPN(formula.expression(), Functions.ALL,
+                Collections.emptyMap(), declared, formula.implicitMultiplication()));
+        if (formula.fusedMultiplyAdd()) {
+            tree = new FmaContraction().transform(tree);
+        }
+
+        final StringBuilder body = new StringBuilder();
+        final String result = new JavaSourceGenerator(body, "        ", variables).generate(tree);
+
+        final StringBuilder src = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            src.append("package ").append(packageName).append(";\n\n");
+        }
+        src.append("@javax.annotation.processing.Generated(\"").append(FormulaProcessor.class.getName()).append("\")\n");
+        src.append("public final class ").append(formula.name())
+                .append(" implements ").append(CompiledExpression.class.getName()).append(" {\n\n");
+        src.append("    public static final String EXPRESSION = ").append(quote(formula.expression())).append(";\n\n");
+        src.append("    private static final java.util.List<String> VARIABLES = java.util.Collections.unmodifiableList(")
+                .append("java.util.Arrays.asList(");
+        for (int i = 0; i < parameters.size(); i++) {
+            src.append(i == 0 ? "" : ", ").append(quote(parameters.get(i)));
+        }
+        src.append("));\n\n");
+        src.append("    @Override\n");
+        src.append("    public String getExpression() {\n");
+        src.append("        return EXPRESSION;\n");
+        src.append("    }\n\n");
+        src.append("    @Override\n");
+        src.append("    public java.util.List<String> getVariableNames() {\n");
+        src.append("        return VARIABLES;\n");
+        src.append("    }\n\n");
+        src.append("    @Override\n");
+        src.append("    public double evaluate(double... values) {\n");
+        src.append("        if (values.length != ").append(parameters.size()).append(") {\n");
+        src.append("            throw new IllegalArgumentException(\"Expected ").append(parameters.size())
+                .append(" values but got \" + values.length);\n");
+        src.append("        }\n");
+        src.append("        return compute(");
+        for (int i = 0; i < parameters.size(); i++) {
+            src.append(i == 0 ? "" : ", ").append("values[").append(i).append(']');
+        }
+        src.append(");\n");
+        src.append("    }\n\n");
+        src.append("    /**\n");
+        src.append("     * Evaluate ").append(formula.expression().replace("*/", "* /")).append('\n');
+        for (int i = 0; i < parameters.size(); i++) {
+            src.append("     * @param v").append(i).append(" the value of '").append(parameters.get(i)).append("'\n");
+        }
+        src.append("     * @return the result\n");
+        src.append("     */\n");
+        src.append("    public static double compute(");
+        for (int i = 0; i < parameters.size(); i++) {
+            src.append(i == 0 ? "" : ", ").append("double v").append(i);
+        }
+        src.append(") {\n");
+        src.append(body);
+        src.append("        return ").append(result).append(";\n");
+        src.append("    }\n");
+        src.append("}\n");
+        return src.toString();
+    }
+
+    private static String quote(String value) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                sb.append('\\').append(ch);
+            } else if (ch < 0x20 || ch > 0x7E) {
+                sb.append(String.format("\\u%04x", (int) ch));
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.codegen;
+
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.FusedMultiplyAdd;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NodeVisitor;
+import net.objecthunter.exp4j.ir.NumberNode;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.ir.VariableNode;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Emits Java statements computing an expression tree. Every operation is assigned to a local variable, so
+ * operations with several steps can use their operands more than once. The generated code reproduces the semantics
+ * of the builtin {@link Operators} and {@link Functions}, including the exceptions they throw.
+ */
+final class JavaSourceGenerator implements NodeVisitor<String> {
+
+    private final StringBuilder code;
+
+    private String indent;
+
+    private final Map<String, String> variables;
+
+    private int locals;
+
+    /**
+     * @param code the buffer the statements are appended to
+     * @param indent the indentation of the statements
+     * @param variables the Java expression to use for each variable, either a parameter name or a literal
+     */
+    JavaSourceGenerator(StringBuilder code, String indent, Map<String, String> variables) {
+        this.code = code;
+        this.indent = indent;
+        this.variables = variables;
+    }
+
+    /**
+     * Emit the statements for a tree
+     * @param root the root of the tree
+     * @return the Java expression holding the result
+     */
+    String generate(Node root) {
+        return root.accept(this);
+    }
+
+    static String literal(double value) {
+        if (Double.isNaN(value)) {
+            return "Double.NaN";
+        } else if (value == Double.POSITIVE_INFINITY) {
+            return "Double.POSITIVE_INFINITY";
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            return "Double.NEGATIVE_INFINITY";
+        } else if (Double.doubleToRawLongBits(value) < 0) {
+            return "(" + value + "d)";
+        }
+        return value + "d";
+    }
+
+    private String local(String expression) {
+        final String name = "t" + locals++;
+        code.append(indent).append("final double ").append(name).append(" = ").append(expression).append(";\n");
+        return name;
+    }
+
+    private void checkNotZero(String value, String message) {
+        code.append(indent).append("if (").append(value).append(" == 0d) {\n")
+                .append(indent).append("    throw new ArithmeticException(\"").append(message).append("\");\n")
+                .append(indent).append("}\n");
+    }
+
+    /**
+     * Emit the statements of a node inside the current block of a branch and assign its value to a result
+     */
+    private void assign(String result, Node node, boolean toBoolean) {
+        final String outer = indent;
+        indent = outer + "    ";
+        final String value = node.accept(this);
+        code.append(indent).append(result).append(" = ")
+                .append(toBoolean ? value + " != 0d ? 1d : 0d" : value).append(";\n");
+        indent = outer;
+    }
+
+    private String declare() {
+        final String name = "t" + locals++;
+        code.append(indent).append("final double ").append(name).append(";\n");
+        return name;
+    }
+
+    @Override
+    public String visit(NumberNode node) {
+        return literal(node.getValue());
+    }
+
+    @Override
+    public String visit(VariableNode node) {
+        final String variable = variables.get(node.getName());
+        if (variable == null) {
+            throw new IllegalArgumentException("Unknown variable '" + node.getName() + "'");
+        }
+        return variable;
+    }
+
+    @Override
+    public String visit(OperatorNode node) {
+        final Operator operator = node.getOperator();
+        if (!Operators.isBuiltinOperator(operator)) {
+            throw new IllegalArgumentException("Operator '" + operator.getSymbol() + "' can not be compiled");
+        }
+        final String left = node.getOperand(0).accept(this);
+        if (Operators.isShortCircuit(operator)) {
+            /* the right operand is only computed in the branch which needs it */
+            final String result = declare();
+            code.append(indent).append("if (").append(left).append(" != 0d) {\n");
+            if (operator.getSymbol().equals("&&")) {
+                assign(result, node.getOperand(1), true);
+                code.append(indent).append("} else {\n")
+                        .append(indent).append("    ").append(result).append(" = 0d;\n");
+            } else {
+                code.append(indent).append("    ").append(result).append(" = 1d;\n")
+                        .append(indent).append("} else {\n");
+                assign(result, node.getOperand(1), true);
+            }
+            code.append(indent).append("}\n");
+            return result;
+        }
+        if (operator.getNumOperands() == 1) {
+            return operator.getSymbol().equals("-") ? local("-" + left) : left;
+        }
+        final String right = node.getOperand(1).accept(this);
+        switch (operator.getSymbol()) {
+            case "+":
+            case "-":
+            case "*":
+                return local(left + " " + operator.getSymbol() + " " + right);
+            case "/":
+            case "%":
+                if (operator != Operators.getUncheckedDivision() && (!(node.getOperand(1) instanceof NumberNode)
+                        || ((NumberNode) node.getOperand(1)).getValue() == 0d)) {
+                    checkNotZero(right, "Division by zero!");
+                }
+                return local(left + " " + operator.getSymbol() + " " + right);
+            case "^":
+                return local("Math.pow(" + left + ", " + right + ")");
+            case "<":
+            case ">":
+            case "<=":
+            case ">=":
+            case "==":
+            case "!=":
+                return local(left + " " + operator.getSymbol() + " " + right + " ? 1d : 0d");
+            default:
+                throw new IllegalArgumentException("Operator '" + operator.getSymbol() + "' can not be compiled");
+        }
+    }
+
+    @Override
+    public String visit(FunctionNode node) {
+        final Functions function = Functions.of(node.getFunction());
+        if (node.getFunction() instanceof FusedMultiplyAdd) {
+            final List<Node> arguments = node.getArguments();
+            return local("Math.fma(" + arguments.get(0).accept(this) + ", " + arguments.get(1).accept(this) + ", "
+                    + arguments.get(2).accept(this) + ")");
+        } else if (function == null) {
+            throw new IllegalArgumentException("Function '" + node.getFunction().getName() + "' can not be compiled");
+        }
+        final List<Node> arguments = node.getArguments();
+        if (function == Functions.IF) {
+            final String condition = arguments.get(0).accept(this);
+            final String result = declare();
+            code.append(indent).append("if (").append(condition).append(" != 0d) {\n");
+            assign(result, arguments.get(1), false);
+            code.append(indent).append("} else {\n");
+            assign(result, arguments.get(2), false);
+            code.append(indent).append("}\n");
+            return result;
+        }
+        final String[] args = new String[arguments.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = arguments.get(i).accept(this);
+        }
+        switch (function) {
+            case COT:
+                checkNotZero(local("Math.tan(" + args[0] + ")"), "Division by zero in cotangent!");
+                return local("1d / Math.tan(" + args[0] + ")");
+            case LOG2:
+                return local("Math.log(" + args[0] + ") / Math.log(2d)");
+            case SIGNUM:
+                return local(args[0] + " > 0 ? 1d : " + args[0] + " < 0 ? -1d : 0d");
+            case POW:
+                return local("Math.pow(" + args[0] + ", " + args[1] + ")");
+            case AVG:
+                final StringBuilder sum = new StringBuilder("(0d");
+                for (String arg : args) {
+                    sum.append(" + ").append(arg);
+                }
+                return local(sum.append(") / ").append(args.length).append('d').toString());
+            default:
+                /* the remaining builtins map directly to the java.lang.Math method of the same name */
+                return local("Math." + node.getFunction().getName() + "(" + args[0] + ")");
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.function;
+
+/**
+ * Polynomial approximations of the elementary functions, used by {@link MathMode#FAST}. They reduce the argument
+ * with a few exact operations and evaluate a short polynomial by Horner's scheme using {@link Math#fma}, without
+ * tables and with a single range check, so the JIT compiler can inline them and overlap the evaluation of
+ * consecutive arguments in loops. {@link Math#fma} is a single instruction on processors supporting fused multiply
+ * add, but very slow on the others. Arguments outside of the supported range and non finite arguments fall back to
+ * {@link Math}.
+ * <p>
+ * The maximum errors, measured against {@link StrictMath}, are
+ * <ul>
+ *     <li>{@link #exp(double)}: relative error below 2e-11</li>
+ *     <li>{@link #log(double)}, {@link #log10(double)}, {@link #log2(double)}: absolute error below 1e-15 for
+ *     results between -1 and 1 and relative error below 1e-15 for the others</li>
+ *     <li>{@link #sin(double)}, {@link #cos(double)}: absolute error below 1e-12 for |x| up to 1e5</li>
+ *     <li>{@link #tan(double)}: relative error below 1e-12 for |x| up to 1e5, except within 1e-5 of a pole</li>
+ *     <li>{@link #pow(double, double)}: relative error below 3e-11 for positive x and |y log(x)| up to 708, the error
+ *     of exp plus |y| times the error of log</li>
+ * </ul>
+ */
+public final class ApproximateMath {
+
+    /* ln(2) split into a high part with trailing zeros, so that k * LN2_HI is exact, and the rest */
+    private static final double LN2_HI = 6.93147180369123816490e-01;
+    private static final double LN2_LO = 1.90821492927058770002e-10;
+    private static final double INV_LN2 = 1.44269504088896338700e+00;
+    private static final double INV_LN10 = 0.43429448190325182765;
+
+    /* pi/2 split into three parts of 33 bits, so that k times each part is exact for |k| < 2^20 */
+    private static final double PIO2_1 = 1.57079632673412561417e+00;
+    private static final double PIO2_2 = 6.07710050630396597660e-11;
+    private static final double PIO2_3 = 2.02226624871116645580e-21;
+    private static final double TWO_OVER_PI = 6.36619772367581382433e-01;
+
+    private static final double SQRT2 = 1.41421356237309514547e+00;
+
+    private static final double EXP_LIMIT = 708d;
+
+    private static final double TRIG_LIMIT = 1e5;
+
+    /* 1/n!, the coefficients of the Taylor series of exp, sin and cos */
+    private static final double F2 = 1d / 2;
+    private static final double F3 = F2 / 3;
+    private static final double F4 = F3 / 4;
+    private static final double F5 = F4 / 5;
+    private static final double F6 = F5 / 6;
+    private static final double F7 = F6 / 7;
+    private static final double F8 = F7 / 8;
+    private static final double F9 = F8 / 9;
+    private static final double F10 = F9 / 10;
+    private static final double F11 = F10 / 11;
+    private static final double F12 = F11 / 12;
+    private static final double F13 = F12 / 13;
+
+    /* 2/n, the coefficients of 2 atanh(s) = 2s + 2s^3/3 + 2s^5/5 + ... */
+    private static final double L3 = 2d / 3;
+    private static final double L5 = 2d / 5;
+    private static final double L7 = 2d / 7;
+    private static final double L9 = 2d / 9;
+    private static final double L11 = 2d / 11;
+    private static final double L13 = 2d / 13;
+    private static final double L15 = 2d / 15;
+    private static final double L17 = 2d / 17;
+
+    private ApproximateMath() {
+    }
+
+    /**
+     * Approximate e<sup>x</sup>
+     * @param x the exponent
+     * @return the power of e
+     */
+    public static double exp(double x) {
+        if (!(Math.abs(x) <= EXP_LIMIT)) {
+            return Math.exp(x);
+        }
+        /* x = k ln(2) + r with |r| <= ln(2)/2, and e^x = 2^k e^r */
+        final double k = Math.rint(x * INV_LN2);
+        final double r = Math.fma(-k, LN2_LO, Math.fma(-k, LN2_HI, x));
+        double p = Math.fma(r, F9, F8);
+        p = Math.fma(r, p, F7);
+        p = Math.fma(r, p, F6);
+        p = Math.fma(r, p, F5);
+        p = Math.fma(r, p, F4);
+        p = Math.fma(r, p, F3);
+        p = Math.fma(r, p, F2);
+        p = Math.fma(r, p, 1d);
+        p = Math.fma(r, p, 1d);
+        return p * Double.longBitsToDouble(((long) k + 1023L) << 52);
+    }
+
+    /**
+     * Approximate the natural logarithm
+     * @param x the argument
+     * @return the logarithm of x
+     */
+    public static double log(double x) {
+        if (!(x >= Double.MIN_NORMAL && x <= Double.MAX_VALUE)) {
+            return Math.log(x);
+        }
+        /* x = 2^e m with sqrt(1/2) <= m < sqrt(2), and log(m) = 2 atanh(s) with s = (m - 1) / (m + 1) */
+        final long bits = Double.doubleToRawLongBits(x);
+        int e = (int) (bits >>> 52) - 1023;
+        double m = Double.longBitsToDouble((bits & 0x000fffffffffffffL) | 0x3ff0000000000000L);
+        if (m > SQRT2) {
+            m *= 0.5d;
+            e++;
+        }
+        final double s = (m - 1d) / (m + 1d);
+        final double z = s * s;
+        /* enough terms for an absolute error near 1e-16 at |s| = 0.17, which pow multiplies by y */
+        double p = Math.fma(z, L17, L15);
+        p = Math.fma(z, p, L13);
+        p = Math.fma(z, p, L11);
+        p = Math.fma(z, p, L9);
+        p = Math.fma(z, p, L7);
+        p = Math.fma(z, p, L5);
+        p = Math.fma(z, p, L3);
+        p = Math.fma(z, p, 2d);
+        return Math.fma(e, LN2_HI, Math.fma(s, p, e * LN2_LO));
+    }
+
+    /**
+     * Approximate the base 10 logarithm
+     * @param x the argument
+     * @return the logarithm of x
+     */
+    public static double log10(double x) {
+        return log(x) * INV_LN10;
+    }
+
+    /**
+     * Approximate the base 2 logarithm
+     * @param x the argument
+     * @return the logarithm of x
+     */
+    public static double log2(double x) {
+        return log(x) * INV_LN2;
+    }
+
+    /**
+     * Approximate x<sup>y</sup> as e<sup>y log(x)</sup> for positive x
+     * @param x the base
+     * @param y the exponent
+     * @return the power
+     */
+    public static double pow(double x, double y) {
+        if (!(x > 0d && x <= Double.MAX_VALUE && Math.abs(y) <= Double.MAX_VALUE)) {
+            return Math.pow(x, y);
+        }
+        return exp(y * log(x));
+    }
+
+    private static double sinPolynomial(double r) {
+        final double z = r * r;
+        double p = Math.fma(z, F13, -F11);
+        p = Math.fma(z, p, F9);
+        p = Math.fma(z, p, -F7);
+        p = Math.fma(z, p, F5);
+        p = Math.fma(z, p, -F3);
+        return Math.fma(r * z, p, r);
+    }
+
+    private static double cosPolynomial(double r) {
+        final double z = r * r;
+        double p = Math.fma(z, F12, -F10);
+        p = Math.fma(z, p, F8);
+        p = Math.fma(z, p, -F6);
+        p = Math.fma(z, p, F4);
+        p = Math.fma(z, p, -F2);
+        return Math.fma(z, p, 1d);
+    }
+
+    /**
+     * Approximate the sine
+     * @param x the angle in radians
+     * @return the sine
+     */
+    public static double sin(double x) {
+        if (!(Math.abs(x) <= TRIG_LIMIT)) {
+            return Math.sin(x);
+        }
+        final double k = Math.rint(x * TWO_OVER_PI);
+        final double r = Math.fma(-k, PIO2_3, Math.fma(-k, PIO2_2, Math.fma(-k, PIO2_1, x)));
+        switch ((int) k & 3) {
+            case 0:
+                return sinPolynomial(r);
+            case 1:
+                return cosPolynomial(r);
+            case 2:
+                return -sinPolynomial(r);
+            default:
+                return -cosPolynomial(r);
+        }
+    }
+
+    /**
+     * Approximate the cosine
+     * @param x the angle in radians
+     * @return the cosine
+     */
+    public static double cos(double x) {
+        if (!(Math.abs(x) <= TRIG_LIMIT)) {
+            return Math.cos(x);
+        }
+        final double k = Math.rint(x * TWO_OVER_PI);
+        final double r = Math.fma(-k, PIO2_3, Math.fma(-k, PIO2_2, Math.fma(-k, PIO2_1, x)));
+        switch ((int) k & 3) {
+            case 0:
+                return cosPolynomial(r);
+            case 1:
+                return -sinPolynomial(r);
+            case 2:
+                return -cosPolynomial(r);
+            default:
+                return sinPolynomial(r);
+        }
+    }
+
+    /**
+     * Approximate the tangent
+     * @param x the angle in radians
+     * @return the tangent
+     */
+    public static double tan(double x) {
+        if (!(Math.abs(x) <= TRIG_LIMIT)) {
+            return Math.tan(x);
+        }
+        final double k = Math.rint(x * TWO_OVER_PI);
+        final double r = Math.fma(-k, PIO2_3, Math.fma(-k, PIO2_2, Math.fma(-k, PIO2_1, x)));
+        if (((int) k & 1) == 0) {
+            return sinPolynomial(r) / cosPolynomial(r);
+        }
+        return -cosPolynomial(r) / sinPolynomial(r);
+    }
+}
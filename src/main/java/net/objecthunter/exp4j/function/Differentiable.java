@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.function;
+
+/**
+ * Implemented by custom {@link Function}s and {@link net.objecthunter.exp4j.operator.Operator}s which can compute
+ * their partial derivatives. Functions and operators which do not implement it are differentiated numerically by
+ * {@link net.objecthunter.exp4j.DualExpression}.
+ */
+public interface Differentiable {
+
+    /**
+     * Compute the partial derivative with respect to one argument
+     * @param argument the index of the argument
+     * @param args the arguments the function is applied to
+     * @return the partial derivative at the given arguments
+     */
+    double derivative(int argument, double... args);
+}
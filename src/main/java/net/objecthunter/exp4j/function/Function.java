@@ -56,6 +56,16 @@ public abstract class Function {
         return numberOfArguments;
     }
 
+    /**
+     * Check if this function is pure, i.e. it always returns the same result for the same arguments and has no side
+     * effects. Results of pure functions may be cached or shared between several calls, override this method to
+     * return false for functions like random number generators.
+     * @return true if the function is pure, false otherwise
+     */
+    public boolean isPure() {
+        return true;
+    }
+
     public void validateArguments(int count) {
         if (this.numberOfArguments > count) {
             throw new ParseExpressionException("Not enough arguments for '" + this.name + "'");
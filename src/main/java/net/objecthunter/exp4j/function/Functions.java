@@ -16,6 +16,7 @@
 package net.objecthunter.exp4j.function;
 
 import net.objecthunter.exp4j.exceptions.VariableNotSetException;
+import net.objecthunter.exp4j.operator.Operators;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -185,6 +186,17 @@ public enum Functions {
             }
             return sum / args.length;
         }
+    }),
+    /**
+     * <code>if(condition, then, else)</code>. Expressions only evaluate the argument selected by the condition, see
+     * {@link net.objecthunter.exp4j.tokenizer.JumpToken}. Like the names of the other builtins <code>if</code> can
+     * not be the name of a variable. Unlike the other builtins it is replaced by a custom function named <code>if</code>.
+     */
+    IF(new DynamicArgumentFunction("if", 3, 3) {
+        @Override
+        public double apply(double... args) {
+            return Operators.isTrue(args[0]) ? args[1] : args[2];
+        }
     });
 
     Functions(Function function) {
@@ -207,4 +219,37 @@ public enum Functions {
     public static boolean isBuiltinFunction(String name) {
         return ALL.get(name) != null;
     }
+
+    /**
+     * Get the builtin function constant for a function instance
+     * @param function the function to look up
+     * @return the constant or null if the function is not a builtin function
+     */
+    public static Functions of(Function function) {
+        for (Functions functions : Functions.values()) {
+            if (functions.function == function) {
+                return functions;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Call a function of any kind with its arguments in an array
+     * @param function the function to call
+     * @param args the arguments, the array is not modified
+     * @return the result of the function
+     */
+    public static double apply(Function function, double... args) {
+        if (function instanceof OneArgumentFunction) {
+            return ((OneArgumentFunction) function).apply(args[0]);
+        } else if (function instanceof TwoArgumentFunction) {
+            return ((TwoArgumentFunction) function).apply(args[0], args[1]);
+        } else if (function instanceof ZeroArgumentFunction) {
+            return ((ZeroArgumentFunction) function).apply();
+        } else if (function instanceof PredefinedArgumentFunction) {
+            return ((PredefinedArgumentFunction) function).apply(args.clone());
+        }
+        return ((DynamicArgumentFunction) function).apply(args.clone());
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.function;
+
+/**
+ * The fused multiply add <code>a * b + c</code> computed with a single rounding by {@link Math#fma(double, double,
+ * double)}. It is created by {@link net.objecthunter.exp4j.optimizer.FmaContraction}, and the evaluators call
+ * {@link #apply(double, double, double)} directly instead of passing the arguments in an array.
+ */
+public final class FusedMultiplyAdd extends DynamicArgumentFunction implements Differentiable {
+
+    /**
+     * Create a new instance
+     */
+    public FusedMultiplyAdd() {
+        super("fma", 3, 3);
+    }
+
+    /**
+     * @param a the first factor
+     * @param b the second factor
+     * @param c the addend
+     * @return <code>a * b + c</code> rounded once
+     */
+    public double apply(double a, double b, double c) {
+        return Math.fma(a, b, c);
+    }
+
+    @Override
+    public double apply(double... args) {
+        return Math.fma(args[0], args[1], args[2]);
+    }
+
+    @Override
+    public double derivative(int argument, double... args) {
+        switch (argument) {
+            case 0:
+                return args[1];
+            case 1:
+                return args[0];
+            default:
+                return 1d;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.function;
+
+/**
+ * A constant plus a weighted sum of the arguments, <code>c + w<sub>0</sub> a<sub>0</sub> + ... +
+ * w<sub>n-1</sub> a<sub>n-1</sub></code>, computed as a dot product over a packed weight array. It is created by
+ * {@link net.objecthunter.exp4j.optimizer.LinearCombinationDetection}, and the evaluators read the arguments of a
+ * call directly from the variable values when they are all variables. The products are summed in four independent
+ * partial sums, so the result may be rounded differently than the sum from left to right.
+ */
+public final class LinearCombination extends DynamicArgumentFunction implements Differentiable, Synthetic {
+
+    /* number of rows processed together by the batch kernel, so the partial results stay in the cache */
+    private static final int BLOCK_SIZE = 1024;
+
+    private final double[] weights;
+
+    private final double constant;
+
+    /**
+     * Create a new instance
+     * @param weights the weights of the arguments, which are copied
+     * @param constant the constant added to the weighted sum
+     */
+    public LinearCombination(double[] weights, double constant) {
+        super("dot", weights.length, weights.length);
+        if (weights.length == 0) {
+            throw new IllegalArgumentException("A linear combination needs at least one weight");
+        }
+        this.weights = weights.clone();
+        this.constant = constant;
+    }
+
+    /**
+     * @return the number of weighted arguments
+     */
+    public int size() {
+        return weights.length;
+    }
+
+    /**
+     * @param index the index of an argument
+     * @return the weight of the argument
+     */
+    public double getWeight(int index) {
+        return weights[index];
+    }
+
+    /**
+     * @return the constant added to the weighted sum
+     */
+    public double getConstant() {
+        return constant;
+    }
+
+    @Override
+    public double apply(double... args) {
+        final double[] w = this.weights;
+        double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+        int i = 0;
+        for (; i + 3 < w.length; i += 4) {
+            s0 += w[i] * args[i];
+            s1 += w[i + 1] * args[i + 1];
+            s2 += w[i + 2] * args[i + 2];
+            s3 += w[i + 3] * args[i + 3];
+        }
+        for (; i < w.length; i++) {
+            s0 += w[i] * args[i];
+        }
+        return constant + ((s0 + s1) + (s2 + s3));
+    }
+
+    /**
+     * Compute the linear combination of values gathered from an array
+     * @param values the array holding the values of the arguments
+     * @param indices the index of every argument in the values
+     * @return the result
+     */
+    public double apply(double[] values, int[] indices) {
+        final double[] w = this.weights;
+        double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+        int i = 0;
+        for (; i + 3 < w.length; i += 4) {
+            s0 += w[i] * values[indices[i]];
+            s1 += w[i + 1] * values[indices[i + 1]];
+            s2 += w[i + 2] * values[indices[i + 2]];
+            s3 += w[i + 3] * values[indices[i + 3]];
+        }
+        for (; i < w.length; i++) {
+            s0 += w[i] * values[indices[i]];
+        }
+        return constant + ((s0 + s1) + (s2 + s3));
+    }
+
+    /**
+     * Compute the linear combination for every row of a matrix stored by columns, i.e. the product of the matrix
+     * with the weight vector plus the constant. The columns are added one at a time over blocks of rows, so the inner
+     * loop is simple enough for the JIT compiler to vectorize.
+     * @param columns the values of the arguments, one column per argument
+     * @param results the array receiving one result per row, its length is the number of rows
+     */
+    public void apply(double[][] columns, double[] results) {
+        if (columns.length != weights.length) {
+            throw new IllegalArgumentException("Expected " + weights.length + " columns but got " + columns.length);
+        }
+        final int rows = results.length;
+        for (double[] column : columns) {
+            if (column.length < rows) {
+                throw new IllegalArgumentException("A column has only " + column.length + " values for " + rows
+                        + " rows");
+            }
+        }
+        for (int start = 0; start < rows; start += BLOCK_SIZE) {
+            final int end = Math.min(rows, start + BLOCK_SIZE);
+            for (int r = start; r < end; r++) {
+                results[r] = constant;
+            }
+            for (int c = 0; c < columns.length; c++) {
+                final double w = weights[c];
+                final double[] column = columns[c];
+                for (int r = start; r < end; r++) {
+                    results[r] += w * column[r];
+                }
+            }
+        }
+    }
+
+    @Override
+    public double derivative(int argument, double... args) {
+        return weights[argument];
+    }
+}
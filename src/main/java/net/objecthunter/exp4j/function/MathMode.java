@@ -0,0 +1,443 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.function;
+
+import net.objecthunter.exp4j.operator.Operator;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Selects the implementation of the transcendental builtin functions and of the power operator used by expressions
+ * built with {@link net.objecthunter.exp4j.ExpressionBuilder#mathMode(MathMode)}. The variants of {@link #STRICT}
+ * and {@link #FAST} replace the builtins like custom functions with the same names, so the specialized evaluators
+ * call them as custom functions, and {@link net.objecthunter.exp4j.Expression#derivative(String)} can not
+ * differentiate them symbolically. They are {@link Differentiable}, so automatic differentiation works in all modes.
+ */
+public enum MathMode {
+
+    /**
+     * Use {@link StrictMath}, whose results are the same on every platform, and keep the left to right evaluation
+     * order of sums and products by refusing {@link net.objecthunter.exp4j.optimizer.Reassociation} passes
+     */
+    STRICT,
+
+    /**
+     * Use {@link Math}, which may use faster platform specific implementations within 1 ulp of the exact result
+     */
+    DEFAULT,
+
+    /**
+     * Use the polynomial approximations of {@link ApproximateMath} for <code>sin</code>, <code>cos</code>,
+     * <code>tan</code>, <code>cot</code>, <code>exp</code>, <code>log</code>, <code>log10</code>, <code>log2</code>,
+     * <code>pow</code> and the power operator, trading a documented error for throughput, and {@link Math} for the
+     * other functions
+     */
+    FAST;
+
+    private static final double LN2 = Math.log(2d);
+
+    private static final double LN10 = Math.log(10d);
+
+    private static final Map<MathMode, Map<String, Function>> FUNCTIONS = new HashMap<>();
+
+    private static final Map<MathMode, Operator> POWER_OPERATORS = new HashMap<>();
+
+    static {
+        final Map<String, Function> strict = new HashMap<>();
+        strict.put("sin", new Unary("sin") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.sin(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return StrictMath.cos(x);
+            }
+        });
+        strict.put("cos", new Unary("cos") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.cos(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return -StrictMath.sin(x);
+            }
+        });
+        strict.put("tan", new Unary("tan") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.tan(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d + StrictMath.tan(x) * StrictMath.tan(x);
+            }
+        });
+        strict.put("log", new Unary("log") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.log(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d / x;
+            }
+        });
+        strict.put("log1p", new Unary("log1p") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.log1p(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d / (1d + x);
+            }
+        });
+        strict.put("acos", new Unary("acos") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.acos(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return -1d / StrictMath.sqrt(1d - x * x);
+            }
+        });
+        strict.put("asin", new Unary("asin") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.asin(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d / StrictMath.sqrt(1d - x * x);
+            }
+        });
+        strict.put("atan", new Unary("atan") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.atan(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d / (1d + x * x);
+            }
+        });
+        strict.put("cbrt", new Unary("cbrt") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.cbrt(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d / (3d * StrictMath.cbrt(x) * StrictMath.cbrt(x));
+            }
+        });
+        strict.put("sinh", new Unary("sinh") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.sinh(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return StrictMath.cosh(x);
+            }
+        });
+        strict.put("tanh", new Unary("tanh") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.tanh(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d - StrictMath.tanh(x) * StrictMath.tanh(x);
+            }
+        });
+        strict.put("cosh", new Unary("cosh") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.cosh(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return StrictMath.sinh(x);
+            }
+        });
+        strict.put("exp", new Unary("exp") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.exp(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return StrictMath.exp(x);
+            }
+        });
+        strict.put("expm1", new Unary("expm1") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.expm1(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return StrictMath.exp(x);
+            }
+        });
+        strict.put("log10", new Unary("log10") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.log10(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d / (x * LN10);
+            }
+        });
+        strict.put("log2", new Unary("log2") {
+            @Override
+            public double apply(double x) {
+                return StrictMath.log(x) / LN2;
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d / (x * LN2);
+            }
+        });
+        strict.put("cot", new Cotangent(STRICT));
+        strict.put("pow", new Power(STRICT));
+        FUNCTIONS.put(STRICT, Collections.unmodifiableMap(strict));
+        POWER_OPERATORS.put(STRICT, new PowerOperator(STRICT));
+
+        final Map<String, Function> fast = new HashMap<>();
+        fast.put("sin", new Unary("sin") {
+            @Override
+            public double apply(double x) {
+                return ApproximateMath.sin(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return ApproximateMath.cos(x);
+            }
+        });
+        fast.put("cos", new Unary("cos") {
+            @Override
+            public double apply(double x) {
+                return ApproximateMath.cos(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return -ApproximateMath.sin(x);
+            }
+        });
+        fast.put("tan", new Unary("tan") {
+            @Override
+            public double apply(double x) {
+                return ApproximateMath.tan(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d + ApproximateMath.tan(x) * ApproximateMath.tan(x);
+            }
+        });
+        fast.put("exp", new Unary("exp") {
+            @Override
+            public double apply(double x) {
+                return ApproximateMath.exp(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return ApproximateMath.exp(x);
+            }
+        });
+        fast.put("log", new Unary("log") {
+            @Override
+            public double apply(double x) {
+                return ApproximateMath.log(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d / x;
+            }
+        });
+        fast.put("log10", new Unary("log10") {
+            @Override
+            public double apply(double x) {
+                return ApproximateMath.log10(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d / (x * LN10);
+            }
+        });
+        fast.put("log2", new Unary("log2") {
+            @Override
+            public double apply(double x) {
+                return ApproximateMath.log2(x);
+            }
+
+            @Override
+            double derivative(double x) {
+                return 1d / (x * LN2);
+            }
+        });
+        fast.put("cot", new Cotangent(FAST));
+        fast.put("pow", new Power(FAST));
+        FUNCTIONS.put(FAST, Collections.unmodifiableMap(fast));
+        POWER_OPERATORS.put(FAST, new PowerOperator(FAST));
+
+        FUNCTIONS.put(DEFAULT, Collections.emptyMap());
+    }
+
+    /**
+     * Get the functions replacing the builtin functions with the same names in this mode
+     * @return an unmodifiable map from the names of the builtin functions to their replacements, which is empty for
+     * {@link #DEFAULT}
+     */
+    public Map<String, Function> getFunctions() {
+        return FUNCTIONS.get(this);
+    }
+
+    /**
+     * Get the operator replacing the builtin power operator <code>^</code> in this mode
+     * @return the power operator or null for {@link #DEFAULT}
+     */
+    public Operator getPowerOperator() {
+        return POWER_OPERATORS.get(this);
+    }
+
+    private double tan(double x) {
+        return this == STRICT ? StrictMath.tan(x) : ApproximateMath.tan(x);
+    }
+
+    private double log(double x) {
+        return this == STRICT ? StrictMath.log(x) : ApproximateMath.log(x);
+    }
+
+    private double pow(double base, double exponent) {
+        return this == STRICT ? StrictMath.pow(base, exponent) : ApproximateMath.pow(base, exponent);
+    }
+
+    private double powerDerivative(int argument, double base, double exponent) {
+        if (argument == 0) {
+            return exponent == 0d ? 0d : exponent * pow(base, exponent - 1d);
+        }
+        return pow(base, exponent) * log(base);
+    }
+
+    private abstract static class Unary extends OneArgumentFunction implements Differentiable {
+
+        Unary(String name) {
+            super(name);
+        }
+
+        abstract double derivative(double x);
+
+        @Override
+        public double derivative(int argument, double... args) {
+            return derivative(args[0]);
+        }
+    }
+
+    private static final class Cotangent extends OneArgumentFunction implements Differentiable {
+
+        private final MathMode mode;
+
+        Cotangent(MathMode mode) {
+            super("cot");
+            this.mode = mode;
+        }
+
+        @Override
+        public double apply(double arg) {
+            final double tan = mode.tan(arg);
+            if (tan == 0d) {
+                throw new ArithmeticException("Division by zero in cotangent!");
+            }
+            return 1d / tan;
+        }
+
+        @Override
+        public double derivative(int argument, double... args) {
+            final double cot = apply(args[0]);
+            return -1d - cot * cot;
+        }
+    }
+
+    private static final class Power extends TwoArgumentFunction implements Differentiable {
+
+        private final MathMode mode;
+
+        Power(MathMode mode) {
+            super("pow");
+            this.mode = mode;
+        }
+
+        @Override
+        public double apply(double base, double exponent) {
+            return mode.pow(base, exponent);
+        }
+
+        @Override
+        public double derivative(int argument, double... args) {
+            return mode.powerDerivative(argument, args[0], args[1]);
+        }
+    }
+
+    private static final class PowerOperator extends Operator implements Differentiable {
+
+        private final MathMode mode;
+
+        PowerOperator(MathMode mode) {
+            super("^", 2, false, Operator.PRECEDENCE_POWER);
+            this.mode = mode;
+        }
+
+        @Override
+        public double apply(double... args) {
+            return mode.pow(args[0], args[1]);
+        }
+
+        @Override
+        public double derivative(int argument, double... args) {
+            return mode.powerDerivative(argument, args[0], args[1]);
+        }
+    }
+}
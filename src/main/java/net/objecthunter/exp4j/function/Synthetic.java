@@ -0,0 +1,24 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.function;
+
+/**
+ * Implemented by the {@link Function}s which optimization passes create to hold data their name does not describe,
+ * like the weights of a linear combination or the coefficients of a polynomial. They can not be looked up by name,
+ * so {@link net.objecthunter.exp4j.Expression#writeTo(java.io.DataOutput)} refuses expressions calling them.
+ */
+public interface Synthetic {
+}
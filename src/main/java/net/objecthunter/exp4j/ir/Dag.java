@@ -0,0 +1,361 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ir;
+
+import net.objecthunter.exp4j.function.DynamicArgumentFunction;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.function.PredefinedArgumentFunction;
+import net.objecthunter.exp4j.function.TwoArgumentFunction;
+import net.objecthunter.exp4j.function.ZeroArgumentFunction;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One or more expression trees flattened into a directed acyclic graph. Every node gets an index, children always
+ * have a lower index than their parents, and structurally equal pure subtrees are stored only once. Evaluators keep
+ * one value per node in a <code>double[]</code> and compute the nodes in index order.
+ */
+public final class Dag {
+
+    public static final int KIND_NUMBER = 0;
+    public static final int KIND_VARIABLE = 1;
+    public static final int KIND_OPERATOR = 2;
+    public static final int KIND_FUNCTION = 3;
+
+    private static final Operator ADDITION = Operators.getBuiltinOperator('+', 2);
+    private static final Operator SUBTRACTION = Operators.getBuiltinOperator('-', 2);
+    private static final Operator MULTIPLICATION = Operators.getBuiltinOperator('*', 2);
+    private static final Operator UNARY_MINUS = Operators.getBuiltinOperator('-', 1);
+    private static final Operator UNARY_PLUS = Operators.getBuiltinOperator('+', 1);
+
+    private final Node[] nodes;
+
+    private final int[] kinds;
+
+    private final int[][] children;
+
+    private final boolean[] pure;
+
+    private final boolean[] lazy;
+
+    private final int[] roots;
+
+    private final String[] variableNames;
+
+    private final int[] variables;
+
+    private Dag(List<Node> nodes, List<int[]> children, List<Boolean> pure, int[] roots, Map<String, Integer> variables) {
+        final int size = nodes.size();
+        this.nodes = nodes.toArray(new Node[0]);
+        this.kinds = new int[size];
+        this.children = children.toArray(new int[0][]);
+        this.pure = new boolean[size];
+        this.lazy = new boolean[size];
+        this.roots = roots;
+        this.variableNames = variables.keySet().toArray(new String[0]);
+        this.variables = new int[size];
+        for (int i = 0; i < size; i++) {
+            final Node node = this.nodes[i];
+            this.pure[i] = pure.get(i);
+            this.lazy[i] = Nodes.isLazy(node);
+            this.variables[i] = -1;
+            if (node instanceof NumberNode) {
+                kinds[i] = KIND_NUMBER;
+            } else if (node instanceof VariableNode) {
+                kinds[i] = KIND_VARIABLE;
+                this.variables[i] = variables.get(((VariableNode) node).getName());
+            } else if (node instanceof OperatorNode) {
+                kinds[i] = KIND_OPERATOR;
+            } else {
+                kinds[i] = KIND_FUNCTION;
+            }
+        }
+    }
+
+    /**
+     * Flatten expression trees into a graph
+     * @param roots the roots of the trees
+     * @return the graph
+     */
+    public static Dag of(Node... roots) {
+        return of(Arrays.asList(roots));
+    }
+
+    /**
+     * Flatten expression trees into a graph
+     * @param roots the roots of the trees
+     * @return the graph
+     */
+    public static Dag of(List<Node> roots) {
+        final List<Node> nodes = new ArrayList<>();
+        final List<int[]> children = new ArrayList<>();
+        final List<Boolean> pure = new ArrayList<>();
+        final Map<Node, Integer> shared = new HashMap<>();
+        final Map<Node, Integer> visited = new IdentityHashMap<>();
+        final Map<String, Integer> variables = new LinkedHashMap<>();
+        final int[] rootIndices = new int[roots.size()];
+
+        for (int r = 0; r < rootIndices.length; r++) {
+            /* iterative post order traversal, so deep chains do not exhaust the call stack */
+            final List<Node> stack = new ArrayList<>();
+            final List<Integer> next = new ArrayList<>();
+            final List<int[]> indices = new ArrayList<>();
+            stack.add(roots.get(r));
+            next.add(0);
+            indices.add(new int[roots.get(r).getChildren().size()]);
+            int index = -1;
+            while (!stack.isEmpty()) {
+                final int top = stack.size() - 1;
+                final Node node = stack.get(top);
+                final List<Node> nodeChildren = node.getChildren();
+                final int child = next.get(top);
+                if (child < nodeChildren.size()) {
+                    next.set(top, child + 1);
+                    final Node childNode = nodeChildren.get(child);
+                    final Integer known = visited.get(childNode);
+                    if (known != null) {
+                        indices.get(top)[child] = known;
+                    } else {
+                        stack.add(childNode);
+                        next.add(0);
+                        indices.add(new int[childNode.getChildren().size()]);
+                    }
+                    continue;
+                }
+                stack.remove(top);
+                next.remove(top);
+                final int[] childIndices = indices.remove(top);
+
+                boolean isPure = !(node instanceof FunctionNode) || ((FunctionNode) node).getFunction().isPure();
+                for (int c : childIndices) {
+                    isPure &= pure.get(c);
+                }
+                Integer existing = isPure ? shared.get(node) : null;
+                if (existing == null) {
+                    existing = nodes.size();
+                    nodes.add(node);
+                    children.add(childIndices);
+                    pure.add(isPure);
+                    if (isPure) {
+                        shared.put(node, existing);
+                    }
+                    if (node instanceof VariableNode) {
+                        variables.putIfAbsent(((VariableNode) node).getName(), variables.size());
+                    }
+                }
+                if (isPure) {
+                    visited.put(node, existing);
+                }
+                index = existing;
+                if (!stack.isEmpty()) {
+                    final int parent = stack.size() - 1;
+                    indices.get(parent)[next.get(parent) - 1] = index;
+                }
+            }
+            rootIndices[r] = index;
+        }
+        return new Dag(nodes, children, pure, rootIndices, variables);
+    }
+
+    /**
+     * @return the number of nodes in the graph
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the node
+     */
+    public Node getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the kind of the node, one of the <code>KIND_</code> constants
+     */
+    public int getKind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the indices of the children of the node, which must not be modified
+     */
+    public int[] getChildren(int index) {
+        return children[index];
+    }
+
+    /**
+     * @param index the index of a node
+     * @return false if the subtree of the node calls a function which is not pure
+     */
+    public boolean isPure(int index) {
+        return pure[index];
+    }
+
+    /**
+     * @param index the index of a node
+     * @return true if the node is an <code>if</code> or a short circuit operator, which does not use all of its
+     * children
+     */
+    public boolean isLazy(int index) {
+        return lazy[index];
+    }
+
+    /**
+     * @return the number of trees in the graph
+     */
+    public int getRootCount() {
+        return roots.length;
+    }
+
+    /**
+     * @param tree the index of a tree
+     * @return the index of the root node of that tree
+     */
+    public int getRoot(int tree) {
+        return roots[tree];
+    }
+
+    /**
+     * @return the distinct variable names of the graph in the order of their first occurrence
+     */
+    public List<String> getVariableNames() {
+        return Collections.unmodifiableList(Arrays.asList(variableNames));
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the index of the variable read by the node in {@link #getVariableNames()}, or -1 if the node is not
+     * a variable
+     */
+    public int getVariable(int index) {
+        return variables[index];
+    }
+
+    /**
+     * Compute the value of a number, operator or function node from the values of its children
+     * @param index the index of the node
+     * @param values the values of the nodes, which have to be set for all the children of the node
+     * @return the value of the node
+     */
+    public double compute(int index, double[] values) {
+        final int[] args = children[index];
+        switch (kinds[index]) {
+            case KIND_NUMBER:
+                return ((NumberNode) nodes[index]).getValue();
+            case KIND_VARIABLE:
+                return values[index];
+            case KIND_OPERATOR:
+                final Operator operator = ((OperatorNode) nodes[index]).getOperator();
+                if (args.length == 2) {
+                    final double left = values[args[0]];
+                    final double right = values[args[1]];
+                    if (operator == ADDITION) {
+                        return left + right;
+                    } else if (operator == SUBTRACTION) {
+                        return left - right;
+                    } else if (operator == MULTIPLICATION) {
+                        return left * right;
+                    }
+                    return operator.apply(left, right);
+                }
+                if (operator == UNARY_MINUS) {
+                    return -values[args[0]];
+                } else if (operator == UNARY_PLUS) {
+                    return values[args[0]];
+                }
+                return operator.apply(values[args[0]]);
+            default:
+                return apply(((FunctionNode) nodes[index]).getFunction(), args, values);
+        }
+    }
+
+    private static double apply(Function function, int[] args, double[] values) {
+        if (function instanceof OneArgumentFunction) {
+            return ((OneArgumentFunction) function).apply(values[args[0]]);
+        } else if (function instanceof TwoArgumentFunction) {
+            return ((TwoArgumentFunction) function).apply(values[args[0]], values[args[1]]);
+        } else if (function instanceof ZeroArgumentFunction) {
+            return ((ZeroArgumentFunction) function).apply();
+        }
+        final double[] arguments = new double[args.length];
+        for (int i = 0; i < args.length; i++) {
+            arguments[i] = values[args[i]];
+        }
+        if (function instanceof PredefinedArgumentFunction) {
+            return ((PredefinedArgumentFunction) function).apply(arguments);
+        }
+        return ((DynamicArgumentFunction) function).apply(arguments);
+    }
+
+    /**
+     * Compute the value of a node like {@link #compute(int, double[])}, but record failures instead of throwing them.
+     * Evaluators computing every node, including the operands lazy nodes would skip, use this so that a failure only
+     * surfaces when the value of the failing node is actually used.
+     * @param index the index of the node
+     * @param values the values of the nodes, which have to be set for all the children of the node
+     * @param errors the failures of the nodes, set to the failure of this node or null
+     * @return the value of the node or NaN if it failed
+     */
+    public double compute(int index, double[] values, RuntimeException[] errors) {
+        final int[] args = children[index];
+        errors[index] = null;
+        if (lazy[index]) {
+            if ((errors[index] = errors[args[0]]) != null) {
+                return Double.NaN;
+            }
+            final boolean condition = Operators.isTrue(values[args[0]]);
+            final int chosen;
+            if (kinds[index] == KIND_FUNCTION) {
+                chosen = condition ? args[1] : args[2];
+            } else if (condition == (((OperatorNode) nodes[index]).getOperator() == Operators.getBuiltinOperator("||", 2))) {
+                return condition ? 1d : 0d;
+            } else {
+                chosen = args[1];
+            }
+            if ((errors[index] = errors[chosen]) != null) {
+                return Double.NaN;
+            }
+            return kinds[index] == KIND_FUNCTION ? values[chosen] : Operators.isTrue(values[chosen]) ? 1d : 0d;
+        }
+        for (int child : args) {
+            if (errors[child] != null) {
+                errors[index] = errors[child];
+                return Double.NaN;
+            }
+        }
+        try {
+            return compute(index, values);
+        } catch (RuntimeException e) {
+            errors[index] = e;
+            return Double.NaN;
+        }
+    }
+}
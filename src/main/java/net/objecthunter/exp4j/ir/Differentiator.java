@@ -0,0 +1,282 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ir;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Builds the tree of the derivative of an expression tree with respect to one variable, using the known derivatives
+ * of the builtin operators and functions. Terms which are trivially zero are left out, but the result is not
+ * simplified any further, see {@link net.objecthunter.exp4j.optimizer.Simplifier}. Comparisons, the logical operators
+ * and the functions <code>ceil</code>, <code>floor</code> and <code>signum</code> are treated as piecewise constant,
+ * and the derivative of <code>if</code> is the derivative of the branch it takes. Custom functions and operators can
+ * only be differentiated if their operands do not depend on the variable.
+ */
+public final class Differentiator implements NodeVisitor<Node> {
+
+    private static final Operator ADDITION = Operators.getBuiltinOperator('+', 2);
+    private static final Operator SUBTRACTION = Operators.getBuiltinOperator('-', 2);
+    private static final Operator MULTIPLICATION = Operators.getBuiltinOperator('*', 2);
+    private static final Operator DIVISION = Operators.getBuiltinOperator('/', 2);
+    private static final Operator MODULO = Operators.getBuiltinOperator('%', 2);
+    private static final Operator POWER = Operators.getBuiltinOperator('^', 2);
+    private static final Operator UNARY_MINUS = Operators.getBuiltinOperator('-', 1);
+    private static final Operator UNARY_PLUS = Operators.getBuiltinOperator('+', 1);
+
+    private static final NumberNode ZERO = new NumberNode(0d);
+    private static final NumberNode ONE = new NumberNode(1d);
+    private static final NumberNode TWO = new NumberNode(2d);
+
+    private final String variable;
+
+    /* derivatives of the subtrees visited so far, so shared subtrees are only differentiated once */
+    private final Map<Node, Node> derivatives = new IdentityHashMap<>();
+
+    private final Map<Node, Boolean> dependent = new IdentityHashMap<>();
+
+    /**
+     * Create a new instance
+     * @param variable the name of the variable to differentiate with respect to
+     */
+    public Differentiator(String variable) {
+        if (variable == null || variable.isEmpty()) {
+            throw new IllegalArgumentException("The variable name can not be empty");
+        }
+        this.variable = variable;
+    }
+
+    /**
+     * Differentiate a tree
+     * @param root the root of the tree
+     * @return the root of the derivative's tree
+     * @throws IllegalArgumentException if an operand of a custom function or operator depends on the variable
+     */
+    public Node differentiate(Node root) {
+        /* children first, so differentiating a node only looks up the derivatives of its operands */
+        for (Node node : Nodes.postOrder(root, derivatives::containsKey)) {
+            derivative(node);
+        }
+        return derivative(root);
+    }
+
+    private Node derivative(Node node) {
+        Node derivative = derivatives.get(node);
+        if (derivative == null) {
+            derivative = dependsOnVariable(node) ? node.accept(this) : ZERO;
+            derivatives.put(node, derivative);
+        }
+        return derivative;
+    }
+
+    private boolean dependsOnVariable(Node node) {
+        Boolean depends = dependent.get(node);
+        if (depends == null) {
+            depends = node instanceof VariableNode && ((VariableNode) node).getName().equals(variable);
+            for (Node child : node.getChildren()) {
+                depends |= dependsOnVariable(child);
+            }
+            dependent.put(node, depends);
+        }
+        return depends;
+    }
+
+    @Override
+    public Node visit(NumberNode node) {
+        return ZERO;
+    }
+
+    @Override
+    public Node visit(VariableNode node) {
+        return node.getName().equals(variable) ? ONE : ZERO;
+    }
+
+    @Override
+    public Node visit(OperatorNode node) {
+        final Operator operator = node.getOperator();
+        if (!Operators.isBuiltinOperator(operator)) {
+            throw new IllegalArgumentException("The operator '" + operator.getSymbol()
+                    + "' can not be differentiated symbolically");
+        }
+        final Node a = node.getOperand(0);
+        if (operator == UNARY_MINUS) {
+            return negate(derivative(a));
+        } else if (operator == UNARY_PLUS) {
+            return derivative(a);
+        }
+        final Node b = node.getOperand(1);
+        if (operator == ADDITION) {
+            return plus(derivative(a), derivative(b));
+        } else if (operator == SUBTRACTION) {
+            return minus(derivative(a), derivative(b));
+        } else if (operator == MULTIPLICATION) {
+            return plus(times(derivative(a), b), times(a, derivative(b)));
+        } else if (Operators.isDivision(operator)) {
+            /* (a / b)' = a' / b - a b' / b^2 */
+            final Node left = divide(derivative(a), b);
+            if (!dependsOnVariable(b)) {
+                return left;
+            }
+            return minus(left, divide(times(a, derivative(b)), new OperatorNode(POWER, b, TWO)));
+        } else if (operator == MODULO) {
+            /* a % b = a - trunc(a / b) b, the truncated quotient being piecewise constant */
+            final Node quotient = new OperatorNode(DIVISION, a, b);
+            final Node truncated = times(call(Functions.SIGNUM, quotient),
+                    call(Functions.FLOOR, call(Functions.ABS, quotient)));
+            return minus(derivative(a), times(truncated, derivative(b)));
+        } else if (operator == POWER) {
+            return power(node, a, b);
+        }
+        /* comparisons and logical operators are piecewise constant */
+        return ZERO;
+    }
+
+    private Node power(Node node, Node a, Node b) {
+        if (!dependsOnVariable(b)) {
+            /* (a^c)' = c a^(c-1) a' */
+            final Node exponent = b instanceof NumberNode ? new NumberNode(((NumberNode) b).getValue() - 1d)
+                    : new OperatorNode(SUBTRACTION, b, ONE);
+            return times(times(b, new OperatorNode(POWER, a, exponent)), derivative(a));
+        }
+        /* (a^b)' = a^b (b' ln(a) + b a' / a) */
+        final Node log = call(Functions.LOG, a);
+        final Node inner = plus(times(derivative(b), log), divide(times(b, derivative(a)), a));
+        return times(node, inner);
+    }
+
+    @Override
+    public Node visit(FunctionNode node) {
+        final Function function = node.getFunction();
+        final Functions builtin = Functions.of(function);
+        if (builtin == null) {
+            throw new IllegalArgumentException("The function '" + function.getName()
+                    + "' can not be differentiated symbolically");
+        }
+        final Node[] args = node.getArguments().toArray(new Node[0]);
+        if (args.length == 0) {
+            return ZERO;
+        }
+        final Node x = args[0];
+        switch (builtin) {
+            case POW:
+                return power(node, x, args[1]);
+            case AVG:
+                Node sum = ZERO;
+                for (Node arg : args) {
+                    sum = plus(sum, derivative(arg));
+                }
+                return divide(sum, new NumberNode(args.length));
+            case IF:
+                return new FunctionNode(function, x, derivative(args[1]), derivative(args[2]));
+            default:
+                return times(derivative(builtin, x), derivative(x));
+        }
+    }
+
+    private static Node derivative(Functions function, Node x) {
+        switch (function) {
+            case SIN:
+                return call(Functions.COS, x);
+            case COS:
+                return negate(call(Functions.SIN, x));
+            case TAN:
+                return new OperatorNode(DIVISION, ONE, square(call(Functions.COS, x)));
+            case COT:
+                return negate(new OperatorNode(DIVISION, ONE, square(call(Functions.SIN, x))));
+            case LOG:
+                return new OperatorNode(DIVISION, ONE, x);
+            case LOG1P:
+                return new OperatorNode(DIVISION, ONE, new OperatorNode(ADDITION, ONE, x));
+            case LOG10:
+                return new OperatorNode(DIVISION, ONE, new OperatorNode(MULTIPLICATION, x, new NumberNode(Math.log(10d))));
+            case LOG2:
+                return new OperatorNode(DIVISION, ONE, new OperatorNode(MULTIPLICATION, x, new NumberNode(Math.log(2d))));
+            case ABS:
+                return call(Functions.SIGNUM, x);
+            case ACOS:
+                return negate(new OperatorNode(DIVISION, ONE, call(Functions.SQRT, new OperatorNode(SUBTRACTION, ONE, square(x)))));
+            case ASIN:
+                return new OperatorNode(DIVISION, ONE, call(Functions.SQRT, new OperatorNode(SUBTRACTION, ONE, square(x))));
+            case ATAN:
+                return new OperatorNode(DIVISION, ONE, new OperatorNode(ADDITION, ONE, square(x)));
+            case CBRT:
+                return new OperatorNode(DIVISION, ONE, new OperatorNode(MULTIPLICATION, new NumberNode(3d),
+                        square(call(Functions.CBRT, x))));
+            case SINH:
+                return call(Functions.COSH, x);
+            case COSH:
+                return call(Functions.SINH, x);
+            case TANH:
+                return new OperatorNode(SUBTRACTION, ONE, square(call(Functions.TANH, x)));
+            case SQRT:
+                return new OperatorNode(DIVISION, new NumberNode(0.5d), call(Functions.SQRT, x));
+            case EXP:
+            case EXPM1:
+                return call(Functions.EXP, x);
+            default:
+                /* ceil, floor and signum are piecewise constant */
+                return ZERO;
+        }
+    }
+
+    private static Node call(Functions function, Node... args) {
+        return new FunctionNode(function.function, args);
+    }
+
+    private static Node square(Node x) {
+        return new OperatorNode(POWER, x, TWO);
+    }
+
+    private static boolean is(Node node, double value) {
+        return node instanceof NumberNode && ((NumberNode) node).getValue() == value;
+    }
+
+    private static Node negate(Node a) {
+        return is(a, 0d) ? ZERO : new OperatorNode(UNARY_MINUS, a);
+    }
+
+    private static Node plus(Node a, Node b) {
+        if (is(a, 0d)) {
+            return b;
+        }
+        return is(b, 0d) ? a : new OperatorNode(ADDITION, a, b);
+    }
+
+    private static Node minus(Node a, Node b) {
+        if (is(a, 0d)) {
+            return negate(b);
+        }
+        return is(b, 0d) ? a : new OperatorNode(SUBTRACTION, a, b);
+    }
+
+    private static Node times(Node a, Node b) {
+        if (is(a, 0d) || is(b, 0d)) {
+            return ZERO;
+        } else if (is(a, 1d)) {
+            return b;
+        }
+        return is(b, 1d) ? a : new OperatorNode(MULTIPLICATION, a, b);
+    }
+
+    private static Node divide(Node a, Node b) {
+        return is(a, 0d) ? ZERO : new OperatorNode(DIVISION, a, b);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ir;
+
+import net.objecthunter.exp4j.function.DynamicArgumentFunction;
+import net.objecthunter.exp4j.function.Function;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link Function} call in the expression tree
+ */
+public final class FunctionNode extends Node {
+
+    private final Function function;
+
+    private final List<Node> arguments;
+
+    /**
+     * Create a new instance
+     * @param function the function to call
+     * @param arguments the arguments passed to the function
+     */
+    public FunctionNode(Function function, Node... arguments) {
+        this(function, Collections.unmodifiableList(Arrays.asList(arguments.clone())));
+    }
+
+    private FunctionNode(Function function, List<Node> arguments) {
+        super(31 * System.identityHashCode(function) + arguments.hashCode());
+        if (function instanceof DynamicArgumentFunction) {
+            function.validateArguments(arguments.size());
+        } else if (function.getNumberOfArguments() != arguments.size()) {
+            throw new IllegalArgumentException("Invalid number of arguments for '" + function.getName() + "' function");
+        }
+        this.function = function;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Get the function called by this node
+     * @return the function
+     */
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * Get the arguments passed to the function
+     * @return an unmodifiable list of the arguments
+     */
+    public List<Node> getArguments() {
+        return arguments;
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public List<Node> getChildren() {
+        return arguments;
+    }
+
+    @Override
+    public Node withChildren(List<Node> children) {
+        if (sameNodes(children, arguments)) {
+            return this;
+        }
+        return new FunctionNode(function, children.toArray(new Node[0]));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FunctionNode) || o.hashCode() != hashCode()) {
+            return false;
+        }
+        return sameTrees(this, (Node) o);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(function.getName()).append('(');
+        for (int i = 0; i < arguments.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(arguments.get(i));
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ir;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Immutable node of the expression tree. The tree is the intermediate representation used by analysis and
+ * rewriting passes, it can be obtained from any {@link net.objecthunter.exp4j.Expression} and turned back into one.
+ */
+public abstract class Node {
+
+    private final int hash;
+
+    Node(int hash) {
+        this.hash = hash;
+    }
+
+    /**
+     * Dispatch to the matching visit method of the given visitor
+     * @param visitor the visitor
+     * @param <T> the result type of the visitor
+     * @return the result of the visit
+     */
+    public abstract <T> T accept(NodeVisitor<T> visitor);
+
+    /**
+     * Get the direct children of this node in evaluation order
+     * @return an unmodifiable list of the children, empty for leaves
+     */
+    public abstract List<Node> getChildren();
+
+    /**
+     * Create a node of the same kind with different children
+     * @param children the new children, which have to match the arity of this node
+     * @return the new node, or this node if the children are the same
+     */
+    public abstract Node withChildren(List<Node> children);
+
+    static boolean sameNodes(List<Node> a, List<Node> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* compares two trees with an explicit stack, so deep trees do not exhaust the call stack */
+    static boolean sameTrees(Node a, Node b) {
+        final Deque<Node> pending = new ArrayDeque<>();
+        pending.push(b);
+        pending.push(a);
+        while (!pending.isEmpty()) {
+            final Node x = pending.pop();
+            final Node y = pending.pop();
+            if (x == y) {
+                continue;
+            }
+            if (x.hash != y.hash || x.getClass() != y.getClass()) {
+                return false;
+            }
+            if (x instanceof OperatorNode) {
+                if (((OperatorNode) x).getOperator() != ((OperatorNode) y).getOperator()) {
+                    return false;
+                }
+            } else if (x instanceof FunctionNode) {
+                if (((FunctionNode) x).getFunction() != ((FunctionNode) y).getFunction()) {
+                    return false;
+                }
+            } else if (!x.equals(y)) {
+                return false;
+            }
+            final List<Node> xs = x.getChildren();
+            final List<Node> ys = y.getChildren();
+            if (xs.size() != ys.size()) {
+                return false;
+            }
+            for (int i = xs.size() - 1; i >= 0; i--) {
+                pending.push(ys.get(i));
+                pending.push(xs.get(i));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public final int hashCode() {
+        return hash;
+    }
+}
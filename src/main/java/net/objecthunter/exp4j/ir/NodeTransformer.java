@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ir;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for passes rewriting an expression tree. The default implementation rebuilds the tree bottom up and
+ * returns the original nodes wherever nothing changed, so subclasses only override the visit methods they care about.
+ * Transformers can be registered with {@link net.objecthunter.exp4j.ExpressionBuilder#pass(NodeTransformer)} to
+ * be applied when an expression is built.
+ * <p>
+ * Deep trees, like long chains of additions, do not exhaust the call stack: {@link #transform(Node)} walks the tree
+ * without recursion first and transforms every subtree reached through {@value #MAX_RECURSION} nested visits ahead,
+ * bottom up, so {@link #transformChildren(Node)} finds its result instead of descending further. Visit methods have
+ * to depend only on the node they are given, as subtrees may be visited ahead even when their parent is replaced.
+ */
+public abstract class NodeTransformer implements NodeVisitor<Node> {
+
+    /**
+     * The number of nested visits after which subtrees are transformed ahead
+     */
+    public static final int MAX_RECURSION = 64;
+
+    /* the subtrees transformed ahead by the running transformation, or null */
+    private Map<Node, Node> ahead;
+
+    /**
+     * Apply this transformation to a tree
+     * @param root the root of the tree
+     * @return the root of the transformed tree
+     */
+    public Node transform(Node root) {
+        final Map<Node, Node> previous = this.ahead;
+        this.ahead = new IdentityHashMap<>();
+        try {
+            final Map<Node, Integer> depths = new IdentityHashMap<>();
+            /* iterative post order traversal, the depth of a node is the number of nested visits transforming it
+               takes, nodes reaching the limit are transformed right away and count as leaves for their parents */
+            final List<Node> stack = new ArrayList<>();
+            final List<Integer> next = new ArrayList<>();
+            stack.add(root);
+            next.add(0);
+            while (!stack.isEmpty()) {
+                final int top = stack.size() - 1;
+                final Node node = stack.get(top);
+                final List<Node> children = node.getChildren();
+                final int child = next.get(top);
+                if (child < children.size()) {
+                    next.set(top, child + 1);
+                    if (!depths.containsKey(children.get(child))) {
+                        stack.add(children.get(child));
+                        next.add(0);
+                    }
+                    continue;
+                }
+                stack.remove(top);
+                next.remove(top);
+                int depth = 0;
+                for (Node c : children) {
+                    depth = Math.max(depth, depths.get(c) + 1);
+                }
+                if (depth >= MAX_RECURSION) {
+                    ahead.put(node, node.accept(this));
+                    depth = 0;
+                }
+                depths.put(node, depth);
+            }
+            final Node result = ahead.get(root);
+            return result != null ? result : root.accept(this);
+        } finally {
+            this.ahead = previous;
+        }
+    }
+
+    @Override
+    public Node visit(NumberNode node) {
+        return node;
+    }
+
+    @Override
+    public Node visit(VariableNode node) {
+        return node;
+    }
+
+    @Override
+    public Node visit(OperatorNode node) {
+        return transformChildren(node);
+    }
+
+    @Override
+    public Node visit(FunctionNode node) {
+        return transformChildren(node);
+    }
+
+    /**
+     * Transform the children of a node and rebuild it if any of them changed
+     * @param node the node
+     * @return the node with transformed children
+     */
+    protected Node transformChildren(Node node) {
+        List<Node> children = node.getChildren();
+        List<Node> transformed = new ArrayList<>(children.size());
+        for (Node child : children) {
+            final Node done = ahead == null ? null : ahead.get(child);
+            transformed.add(done != null ? done : child.accept(this));
+        }
+        return node.withChildren(transformed);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ir;
+
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operators;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.JumpToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Conversion between the reverse polish notation produced by the
+ * {@link net.objecthunter.exp4j.shuntingyard.ShuntingYard} and the expression tree
+ */
+public final class Nodes {
+
+    private Nodes() {
+    }
+
+    /**
+     * Build the expression tree from a token array in reverse polish notation
+     * @param tokens the tokens to convert
+     * @return the root of the tree
+     */
+    public static Node fromRPN(Token[] tokens) {
+        final Deque<Node> stack = new ArrayDeque<>();
+        for (Token token : tokens) {
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    stack.push(new NumberNode(((NumberToken) token).getValue()));
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    stack.push(new VariableNode(((VariableToken) token).getName()));
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    final OperatorToken operatorToken = (OperatorToken) token;
+                    final Node[] operands = pop(stack, operatorToken.getOperator().getNumOperands(),
+                            "Invalid number of operands available for '" + operatorToken.getOperator().getSymbol() + "' operator");
+                    stack.push(new OperatorNode(operatorToken.getOperator(), operands));
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    final FunctionToken functionToken = (FunctionToken) token;
+                    final Node[] arguments = pop(stack, functionToken.getDynamicNumberOfArguments(),
+                            "Invalid number of arguments available for '" + functionToken.getFunction().getName() + "' function");
+                    stack.push(new FunctionNode(functionToken.getFunction(), arguments));
+                    break;
+                case Token.TOKEN_JUMP:
+                    /* jumps only skip work, the tree is fully described by the other tokens */
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected token in reverse polish notation");
+            }
+        }
+        if (stack.size() != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an invalid number of arguments for a function.");
+        }
+        return stack.pop();
+    }
+
+    private static Node[] pop(Deque<Node> stack, int count, String message) {
+        if (stack.size() < count) {
+            throw new IllegalArgumentException(message);
+        }
+        final Node[] nodes = new Node[count];
+        for (int i = count - 1; i >= 0; i--) {
+            nodes[i] = stack.pop();
+        }
+        return nodes;
+    }
+
+    /**
+     * Convert an expression tree to a token array in reverse polish notation. Jumps are inserted around the operands
+     * of the <code>if</code> function and the short circuit operators, see {@link JumpToken}.
+     * @param root the root of the tree
+     * @return the tokens in the order expected by {@link net.objecthunter.exp4j.Expression}
+     */
+    public static Token[] toRPN(Node root) {
+        final List<Token> output = new ArrayList<>();
+        /* iterative post order traversal, so deep chains do not exhaust the call stack */
+        final Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(root));
+        while (!frames.isEmpty()) {
+            final Frame frame = frames.peek();
+            final List<Node> children = frame.node.getChildren();
+            if (frame.jumps != null && frame.next > 0 && frame.numJumps < frame.next) {
+                /* placeholder after every operand of a lazy node, patched once the node is complete */
+                frame.jumps[frame.numJumps++] = output.size();
+                output.add(null);
+            }
+            if (frame.next < children.size()) {
+                frames.push(new Frame(children.get(frame.next++)));
+                continue;
+            }
+            frames.pop();
+            output.add(frame.node.accept(TOKENS));
+            if (frame.jumps != null) {
+                final int[] jumps = frame.jumps;
+                final int end = output.size();
+                if (frame.node instanceof FunctionNode) {
+                    output.set(jumps[0], new JumpToken(JumpToken.IF_FALSE, jumps[1] + 1));
+                    output.set(jumps[1], new JumpToken(JumpToken.GOTO, end));
+                    output.set(jumps[2], new JumpToken(JumpToken.GOTO, end));
+                } else {
+                    final boolean and = ((OperatorNode) frame.node).getOperator() == Operators.getBuiltinOperator("&&", 2);
+                    output.set(jumps[0], new JumpToken(and ? JumpToken.AND : JumpToken.OR, end));
+                    output.set(jumps[1], new JumpToken(JumpToken.BOOLEAN, end));
+                }
+            }
+        }
+        return output.toArray(new Token[0]);
+    }
+
+    /**
+     * List the nodes of a tree without recursion, children before their parents. A subtree shared by several parents
+     * is listed once.
+     * @param root the root of the tree
+     * @param done nodes for which this returns true are neither listed nor descended into
+     * @return the nodes in post order
+     */
+    public static List<Node> postOrder(Node root, Predicate<Node> done) {
+        final List<Node> order = new ArrayList<>();
+        if (done.test(root)) {
+            return order;
+        }
+        final Map<Node, Boolean> seen = new IdentityHashMap<>();
+        final List<Node> stack = new ArrayList<>();
+        final List<Integer> next = new ArrayList<>();
+        stack.add(root);
+        next.add(0);
+        seen.put(root, true);
+        while (!stack.isEmpty()) {
+            final int top = stack.size() - 1;
+            final List<Node> children = stack.get(top).getChildren();
+            final int child = next.get(top);
+            if (child < children.size()) {
+                next.set(top, child + 1);
+                final Node node = children.get(child);
+                if (!done.test(node) && seen.put(node, true) == null) {
+                    stack.add(node);
+                    next.add(0);
+                }
+                continue;
+            }
+            order.add(stack.remove(top));
+            next.remove(top);
+        }
+        return order;
+    }
+
+    /**
+     * Check if a node only evaluates some of its children, i.e. it is a call of the builtin <code>if</code> function
+     * or a short circuit operator
+     * @param node the node to check
+     * @return true if the node is evaluated lazily
+     */
+    public static boolean isLazy(Node node) {
+        if (node instanceof FunctionNode) {
+            return ((FunctionNode) node).getFunction() == Functions.IF.function;
+        }
+        return node instanceof OperatorNode && Operators.isShortCircuit(((OperatorNode) node).getOperator());
+    }
+
+    /**
+     * Insert the jumps for lazy evaluation into a token array produced by the
+     * {@link net.objecthunter.exp4j.shuntingyard.ShuntingYard}
+     * @param tokens the tokens in reverse polish notation
+     * @return the tokens themselves if there is nothing to evaluate lazily or they contain jumps already, else the
+     * tokens with the jumps
+     */
+    public static Token[] link(Token[] tokens) {
+        boolean lazy = false;
+        for (Token token : tokens) {
+            if (token.getType() == Token.TOKEN_JUMP) {
+                return tokens;
+            } else if (token.getType() == Token.TOKEN_FUNCTION) {
+                lazy |= ((FunctionToken) token).getFunction() == Functions.IF.function;
+            } else if (token.getType() == Token.TOKEN_OPERATOR) {
+                lazy |= Operators.isShortCircuit(((OperatorToken) token).getOperator());
+            }
+        }
+        return lazy ? toRPN(fromRPN(tokens)) : tokens;
+    }
+
+    private static final class Frame {
+
+        private final Node node;
+
+        private final int[] jumps;
+
+        private int next;
+
+        private int numJumps;
+
+        Frame(Node node) {
+            this.node = node;
+            this.jumps = isLazy(node) ? new int[node.getChildren().size()] : null;
+        }
+    }
+
+    private static final NodeVisitor<Token> TOKENS = new NodeVisitor<Token>() {
+        @Override
+        public Token visit(NumberNode node) {
+            return new NumberToken(node.getValue());
+        }
+
+        @Override
+        public Token visit(VariableNode node) {
+            return new VariableToken(node.getName());
+        }
+
+        @Override
+        public Token visit(OperatorNode node) {
+            return new OperatorToken(node.getOperator());
+        }
+
+        @Override
+        public Token visit(FunctionNode node) {
+            return new FunctionToken(node.getFunction(), node.getArguments().size());
+        }
+    };
+}
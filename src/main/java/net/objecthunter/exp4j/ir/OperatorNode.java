@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ir;
+
+import net.objecthunter.exp4j.operator.Operator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An {@link Operator} applied to its operands in the expression tree
+ */
+public final class OperatorNode extends Node {
+
+    private final Operator operator;
+
+    private final List<Node> operands;
+
+    /**
+     * Create a new instance
+     * @param operator the operator
+     * @param operands the operands, one for unary and two for binary operators
+     */
+    public OperatorNode(Operator operator, Node... operands) {
+        this(operator, Collections.unmodifiableList(Arrays.asList(operands.clone())));
+    }
+
+    private OperatorNode(Operator operator, List<Node> operands) {
+        super(31 * System.identityHashCode(operator) + operands.hashCode());
+        if (operands.size() != operator.getNumOperands()) {
+            throw new IllegalArgumentException("Invalid number of operands for '" + operator.getSymbol() + "' operator");
+        }
+        this.operator = operator;
+        this.operands = operands;
+    }
+
+    /**
+     * Get the operator of this node
+     * @return the operator
+     */
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * Get an operand of this node
+     * @param index the index of the operand, 0 being the left hand side
+     * @return the operand
+     */
+    public Node getOperand(int index) {
+        return operands.get(index);
+    }
+
+    @Override
+    public <T> T accept(NodeVisitor<T> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public List<Node> getChildren() {
+        return operands;
+    }
+
+    @Override
+    public Node withChildren(List<Node> children) {
+        if (sameNodes(children, operands)) {
+            return this;
+        }
+        return new OperatorNode(operator, children.toArray(new Node[0]));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof OperatorNode) || o.hashCode() != hashCode()) {
+            return false;
+        }
+        return sameTrees(this, (Node) o);
+    }
+
+    @Override
+    public String toString() {
+        if (operands.size() == 2) {
+            return "(" + operands.get(0) + " " + operator.getSymbol() + " " + operands.get(1) + ")";
+        }
+        if (operator.isLeftAssociative()) {
+            return "(" + operands.get(0) + ")" + operator.getSymbol();
+        }
+        return operator.getSymbol() + "(" + operands.get(0) + ")";
+    }
+}
@@ -51,6 +51,22 @@ public abstract class Operator {
      * The precedence value for the unary plus operation
      */
     public static final int PRECEDENCE_UNARY_PLUS = PRECEDENCE_UNARY_MINUS;
+    /**
+     * The precedence value for the comparison operations &lt;, &gt;, &lt;= and &gt;=
+     */
+    public static final int PRECEDENCE_COMPARISON = 250;
+    /**
+     * The precedence value for the equality operations == and !=
+     */
+    public static final int PRECEDENCE_EQUALITY = 200;
+    /**
+     * The precedence value for the logical and operation
+     */
+    public static final int PRECEDENCE_AND = 150;
+    /**
+     * The precedence value for the logical or operation
+     */
+    public static final int PRECEDENCE_OR = 100;
 
     /**
      * The set of allowed operator chars
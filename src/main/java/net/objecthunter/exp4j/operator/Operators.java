@@ -24,8 +24,17 @@ public abstract class Operators {
     private static final int INDEX_MODULO = 5;
     private static final int INDEX_UNARYMINUS = 6;
     private static final int INDEX_UNARYPLUS = 7;
+    private static final int INDEX_LESS = 8;
+    private static final int INDEX_GREATER = 9;
+    private static final int INDEX_LESS_EQUAL = 10;
+    private static final int INDEX_GREATER_EQUAL = 11;
+    private static final int INDEX_EQUAL = 12;
+    private static final int INDEX_NOT_EQUAL = 13;
+    private static final int INDEX_AND = 14;
+    private static final int INDEX_OR = 15;
+    private static final int INDEX_UNCHECKED_DIVISION = 16;
 
-    private static final Operator[] builtinOperators = new Operator[8];
+    private static final Operator[] builtinOperators = new Operator[17];
 
     static {
         builtinOperators[INDEX_ADDITION]= new Operator("+", 2, true, Operator.PRECEDENCE_ADDITION) {
@@ -67,6 +76,13 @@ public abstract class Operators {
                 return args[0] / args[1];
             }
         };
+        /* not reachable through getBuiltinOperator, only optimizer passes put it into expressions */
+        builtinOperators[INDEX_UNCHECKED_DIVISION]= new Operator("/", 2, true, Operator.PRECEDENCE_DIVISION) {
+            @Override
+            public double apply(final double... args) {
+                return args[0] / args[1];
+            }
+        };
         builtinOperators[INDEX_POWER]= new Operator("^", 2, false, Operator.PRECEDENCE_POWER) {
             @Override
             public double apply(final double... args) {
@@ -82,6 +98,108 @@ public abstract class Operators {
                 return args[0] % args[1];
             }
         };
+        builtinOperators[INDEX_LESS]= new Operator("<", 2, true, Operator.PRECEDENCE_COMPARISON) {
+            @Override
+            public double apply(final double... args) {
+                return args[0] < args[1] ? 1d : 0d;
+            }
+        };
+        builtinOperators[INDEX_GREATER]= new Operator(">", 2, true, Operator.PRECEDENCE_COMPARISON) {
+            @Override
+            public double apply(final double... args) {
+                return args[0] > args[1] ? 1d : 0d;
+            }
+        };
+        builtinOperators[INDEX_LESS_EQUAL]= new Operator("<=", 2, true, Operator.PRECEDENCE_COMPARISON) {
+            @Override
+            public double apply(final double... args) {
+                return args[0] <= args[1] ? 1d : 0d;
+            }
+        };
+        builtinOperators[INDEX_GREATER_EQUAL]= new Operator(">=", 2, true, Operator.PRECEDENCE_COMPARISON) {
+            @Override
+            public double apply(final double... args) {
+                return args[0] >= args[1] ? 1d : 0d;
+            }
+        };
+        builtinOperators[INDEX_EQUAL]= new Operator("==", 2, true, Operator.PRECEDENCE_EQUALITY) {
+            @Override
+            public double apply(final double... args) {
+                return args[0] == args[1] ? 1d : 0d;
+            }
+        };
+        builtinOperators[INDEX_NOT_EQUAL]= new Operator("!=", 2, true, Operator.PRECEDENCE_EQUALITY) {
+            @Override
+            public double apply(final double... args) {
+                return args[0] != args[1] ? 1d : 0d;
+            }
+        };
+        /* evaluated lazily through jumps, apply is only used when both operands are known anyway */
+        builtinOperators[INDEX_AND]= new Operator("&&", 2, true, Operator.PRECEDENCE_AND) {
+            @Override
+            public double apply(final double... args) {
+                return isTrue(args[0]) && isTrue(args[1]) ? 1d : 0d;
+            }
+        };
+        builtinOperators[INDEX_OR]= new Operator("||", 2, true, Operator.PRECEDENCE_OR) {
+            @Override
+            public double apply(final double... args) {
+                return isTrue(args[0]) || isTrue(args[1]) ? 1d : 0d;
+            }
+        };
+    }
+
+    /**
+     * Check the truth value of an operand of the logical operators and the if function. Every value except zero,
+     * including NaN, is true.
+     * @param value the value to check
+     * @return true if the value is not zero
+     */
+    public static boolean isTrue(final double value) {
+        return value != 0d;
+    }
+
+    /**
+     * Check if an operator is the builtin short circuit <code>&amp;&amp;</code> or <code>||</code> operator, which
+     * only evaluates its right operand when the left one does not decide the result
+     * @param operator the operator to check
+     * @return true if the operator is evaluated lazily
+     */
+    public static boolean isShortCircuit(final Operator operator) {
+        return operator == builtinOperators[INDEX_AND] || operator == builtinOperators[INDEX_OR];
+    }
+
+    /**
+     * Check if an operator is one of the builtin operators
+     * @param operator the operator to check
+     * @return true if the operator is a builtin operator, false otherwise
+     */
+    public static boolean isBuiltinOperator(final Operator operator) {
+        for (Operator builtin : builtinOperators) {
+            if (builtin == operator) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if an operator is the builtin division, with or without the check for a zero divisor
+     * @param operator the operator to check
+     * @return true if the operator is a division
+     */
+    public static boolean isDivision(final Operator operator) {
+        return operator == builtinOperators[INDEX_DIVISION] || operator == builtinOperators[INDEX_UNCHECKED_DIVISION];
+    }
+
+    /**
+     * Get the division which does not throw an {@link ArithmeticException} for a zero divisor. It is used in place
+     * of the builtin division by {@link net.objecthunter.exp4j.optimizer.DivisionCheckElimination} where the divisor
+     * can not be zero, and has the same symbol, so it is parsed and deserialized as the checked division.
+     * @return the unchecked division operator
+     */
+    public static Operator getUncheckedDivision() {
+        return builtinOperators[INDEX_UNCHECKED_DIVISION];
     }
 
     public static Operator getBuiltinOperator(final char symbol, final int numArguments) {
@@ -108,6 +226,41 @@ public abstract class Operators {
                 return builtinOperators[INDEX_POWER];
             case '%' :
                 return builtinOperators[INDEX_MODULO];
+            case '<' :
+                return builtinOperators[INDEX_LESS];
+            case '>' :
+                return builtinOperators[INDEX_GREATER];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get a builtin operator by its symbol, including the two character comparison and logical operators
+     * @param symbol the symbol of the operator
+     * @param numArguments the number of operands
+     * @return the operator or null if there is no such builtin operator
+     */
+    public static Operator getBuiltinOperator(final String symbol, final int numArguments) {
+        if (symbol.length() == 1) {
+            return getBuiltinOperator(symbol.charAt(0), numArguments);
+        }
+        if (numArguments != 2) {
+            return null;
+        }
+        switch (symbol) {
+            case "<=" :
+                return builtinOperators[INDEX_LESS_EQUAL];
+            case ">=" :
+                return builtinOperators[INDEX_GREATER_EQUAL];
+            case "==" :
+                return builtinOperators[INDEX_EQUAL];
+            case "!=" :
+                return builtinOperators[INDEX_NOT_EQUAL];
+            case "&&" :
+                return builtinOperators[INDEX_AND];
+            case "||" :
+                return builtinOperators[INDEX_OR];
             default:
                 return null;
         }
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.Bindings;
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.Interval;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.function.Synthetic;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.ir.NumberNode;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.ir.VariableNode;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replaces expensive subexpressions of a single variable by piecewise polynomial approximations. The domain of the
+ * variable is split into equally sized pieces and the subexpression is interpolated at the Chebyshev nodes of every
+ * piece by a polynomial of degree {@link #DEGREE}, which is evaluated by Horner's scheme with a few fused multiply
+ * adds. The number of pieces is doubled until the absolute error, checked against the subexpression on a grid of
+ * points several times denser than the interpolation nodes, is within the given bound. Subexpressions which can not
+ * be approximated well enough with {@link #MAX_PIECES} pieces, which fail or are not finite somewhere in the domain,
+ * are left alone.
+ * <p>
+ * Only subexpressions calling functions or the power operator are approximated, and only if all the functions they
+ * call are {@link net.objecthunter.exp4j.function.Function#isPure() pure}, so that sampling them gives the values
+ * they have when the expression is evaluated. The largest such subexpressions are replaced. The approximations
+ * throw an {@link IllegalArgumentException} for arguments outside of the domain of their variable.
+ */
+public class ChebyshevApproximation extends NodeTransformer {
+
+    /**
+     * The degree of the polynomial approximating each piece
+     */
+    public static final int DEGREE = 8;
+
+    /**
+     * The largest number of pieces the domain of a variable is split into
+     */
+    public static final int MAX_PIECES = 1024;
+
+    /* number of points the error is checked at between two interpolation nodes */
+    private static final int CHECKS_PER_NODE = 4;
+
+    private static final double[][] CHEBYSHEV = chebyshevPolynomials(DEGREE);
+
+    private final Map<String, Interval> domains;
+
+    private final double maxError;
+
+    /**
+     * Create a new instance
+     * @param domains the domains of the variables, which must hold whenever the expression is evaluated; only
+     * subexpressions of variables with a finite domain are approximated
+     * @param maxError the largest absolute error allowed
+     */
+    public ChebyshevApproximation(Map<String, Interval> domains, double maxError) {
+        if (!(maxError > 0d)) {
+            throw new IllegalArgumentException("The error bound has to be positive");
+        }
+        this.domains = new HashMap<>(domains);
+        this.maxError = maxError;
+    }
+
+    /**
+     * Create a new instance approximating subexpressions of a single variable
+     * @param variable the name of the variable
+     * @param lo the lower bound of the domain of the variable
+     * @param hi the upper bound of the domain of the variable
+     * @param maxError the largest absolute error allowed
+     */
+    public ChebyshevApproximation(String variable, double lo, double hi, double maxError) {
+        this(Collections.singletonMap(variable, Interval.of(lo, hi)), maxError);
+    }
+
+    @Override
+    public Node visit(OperatorNode node) {
+        final Node approximation = approximate(node);
+        return approximation != null ? approximation : transformChildren(node);
+    }
+
+    @Override
+    public Node visit(FunctionNode node) {
+        final Node approximation = approximate(node);
+        return approximation != null ? approximation : transformChildren(node);
+    }
+
+    private Node approximate(Node node) {
+        final Candidate candidate = new Candidate();
+        candidate.inspect(node);
+        if (!candidate.pure || !candidate.expensive || candidate.variable == null || candidate.multipleVariables) {
+            return null;
+        }
+        final Interval domain = domains.get(candidate.variable);
+        if (domain == null || domain.isPoint() || Double.isInfinite(domain.getLo())
+                || Double.isInfinite(domain.getHi())) {
+            return null;
+        }
+        final Expression expression = new Expression(node);
+        final Bindings bindings = expression.bindings();
+        try {
+            for (int pieces = 1; pieces <= MAX_PIECES; pieces *= 2) {
+                final double[] coefficients = fit(expression, bindings, domain, pieces);
+                if (coefficients != null) {
+                    return new FunctionNode(new Approximation(domain.getLo(), domain.getHi(), pieces, coefficients),
+                            new VariableNode(candidate.variable));
+                }
+            }
+        } catch (RuntimeException e) {
+            /* the subexpression fails somewhere in the domain */
+        }
+        return null;
+    }
+
+    /**
+     * Interpolate every piece and check the error
+     * @return the monomial coefficients of the pieces, or null if the error is too large
+     */
+    private double[] fit(Expression expression, Bindings bindings, Interval domain, int pieces) {
+        final int n = DEGREE + 1;
+        final double width = (domain.getHi() - domain.getLo()) / pieces;
+        final double[] coefficients = new double[pieces * n];
+        final double[] values = new double[n];
+        for (int p = 0; p < pieces; p++) {
+            final double lo = domain.getLo() + p * width;
+            for (int j = 0; j < n; j++) {
+                values[j] = sample(expression, bindings, lo + (node(j) + 1d) * 0.5d * width);
+            }
+            /* Chebyshev coefficients by the discrete cosine transform, then monomial coefficients in [-1, 1] */
+            for (int k = 0; k < n; k++) {
+                double sum = 0d;
+                for (int j = 0; j < n; j++) {
+                    sum += values[j] * Math.cos(Math.PI * k * (j + 0.5d) / n);
+                }
+                final double a = (k == 0 ? 1d : 2d) * sum / n;
+                for (int i = 0; i <= k; i++) {
+                    coefficients[p * n + i] += a * CHEBYSHEV[k][i];
+                }
+            }
+            final int checks = CHECKS_PER_NODE * n;
+            for (int c = 0; c <= checks; c++) {
+                final double u = -1d + 2d * c / checks;
+                final double expected = sample(expression, bindings, lo + (u + 1d) * 0.5d * width);
+                if (!(Math.abs(horner(coefficients, p * n, u) - expected) <= maxError)) {
+                    return null;
+                }
+            }
+        }
+        return coefficients;
+    }
+
+    private static double node(int j) {
+        return Math.cos(Math.PI * (j + 0.5d) / (DEGREE + 1));
+    }
+
+    private static double sample(Expression expression, Bindings bindings, double x) {
+        bindings.set(0, x);
+        final double value = expression.evaluate(bindings);
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new ArithmeticException("The subexpression is not finite at " + x);
+        }
+        return value;
+    }
+
+    private static double horner(double[] coefficients, int offset, double u) {
+        double result = coefficients[offset + DEGREE];
+        for (int i = DEGREE - 1; i >= 0; i--) {
+            result = Math.fma(result, u, coefficients[offset + i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the monomial coefficients of the Chebyshev polynomials T_0 to T_degree
+     */
+    private static double[][] chebyshevPolynomials(int degree) {
+        final double[][] t = new double[degree + 1][degree + 1];
+        t[0][0] = 1d;
+        t[1][1] = 1d;
+        for (int k = 2; k <= degree; k++) {
+            /* T_k = 2 u T_(k-1) - T_(k-2) */
+            for (int i = 0; i <= k; i++) {
+                t[k][i] = (i > 0 ? 2d * t[k - 1][i - 1] : 0d) - t[k - 2][i];
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Finds out whether a subexpression is worth approximating and which variable it depends on
+     */
+    private static final class Candidate {
+
+        private String variable;
+
+        private boolean multipleVariables;
+
+        private boolean pure = true;
+
+        private boolean expensive;
+
+        void inspect(Node root) {
+            /* an explicit stack, so deep subtrees do not exhaust the call stack; the last operands are inspected
+            first, which finds a second variable early in long sums */
+            final Deque<Node> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty() && pure && !multipleVariables) {
+                final Node node = pending.pop();
+                if (node instanceof NumberNode) {
+                    continue;
+                } else if (node instanceof VariableNode) {
+                    final String name = ((VariableNode) node).getName();
+                    if (variable == null) {
+                        variable = name;
+                    } else if (!variable.equals(name)) {
+                        multipleVariables = true;
+                    }
+                    continue;
+                } else if (node instanceof FunctionNode) {
+                    final FunctionNode call = (FunctionNode) node;
+                    final Functions builtin = Functions.of(call.getFunction());
+                    pure &= call.getFunction().isPure();
+                    expensive |= builtin != Functions.ABS && builtin != Functions.SIGNUM && builtin != Functions.FLOOR
+                            && builtin != Functions.CEIL && builtin != Functions.IF;
+                } else {
+                    final OperatorNode operation = (OperatorNode) node;
+                    expensive |= operation.getOperator() == Operators.getBuiltinOperator('^', 2)
+                            || !Operators.isBuiltinOperator(operation.getOperator());
+                }
+                for (Node child : node.getChildren()) {
+                    pending.push(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * The piecewise polynomial replacing a subexpression
+     */
+    private static final class Approximation extends OneArgumentFunction implements Synthetic {
+
+        private final double lo;
+
+        private final double hi;
+
+        private final double scale;
+
+        private final int pieces;
+
+        private final double[] coefficients;
+
+        Approximation(double lo, double hi, int pieces, double[] coefficients) {
+            super("chebyshev");
+            this.lo = lo;
+            this.hi = hi;
+            this.scale = pieces / (hi - lo);
+            this.pieces = pieces;
+            this.coefficients = coefficients;
+        }
+
+        @Override
+        public double apply(double x) {
+            if (!(x >= lo && x <= hi)) {
+                throw new IllegalArgumentException("The argument " + x + " is outside of the approximated domain ["
+                        + lo + ", " + hi + "]");
+            }
+            final double t = (x - lo) * scale;
+            final int piece = Math.min((int) t, pieces - 1);
+            return horner(coefficients, piece * (DEGREE + 1), 2d * (t - piece) - 1d);
+        }
+    }
+}
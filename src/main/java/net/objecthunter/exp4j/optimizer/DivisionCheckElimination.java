@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.Interval;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.ir.Nodes;
+import net.objecthunter.exp4j.ir.NumberNode;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.ir.VariableNode;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces divisions whose divisor can never be zero by {@link Operators#getUncheckedDivision()}, which skips the
+ * check for a zero divisor. The ranges of the divisors are computed with {@link Interval} arithmetic from the ranges
+ * of the variables, variables without a range are unbounded. Even then divisors like <code>x^2 + 1</code> or
+ * <code>exp(x)</code> are known to be nonzero.
+ */
+public class DivisionCheckElimination extends NodeTransformer {
+
+    private final Map<String, Interval> ranges;
+
+    private final Map<Node, Interval> computed = new IdentityHashMap<>();
+
+    /**
+     * Create a new instance treating all variables as unbounded
+     */
+    public DivisionCheckElimination() {
+        this(Collections.emptyMap());
+    }
+
+    /**
+     * Create a new instance
+     * @param ranges the ranges of the variables, which must hold whenever the expression is evaluated
+     */
+    public DivisionCheckElimination(Map<String, Interval> ranges) {
+        this.ranges = new HashMap<>(ranges);
+    }
+
+    @Override
+    public Node transform(Node root) {
+        try {
+            return super.transform(root);
+        } finally {
+            computed.clear();
+        }
+    }
+
+    @Override
+    public Node visit(OperatorNode node) {
+        final Node transformed = transformChildren(node);
+        if (node.getOperator() != Operators.getBuiltinOperator('/', 2) || range(node.getOperand(1)).contains(0d)) {
+            return transformed;
+        }
+        return new OperatorNode(Operators.getUncheckedDivision(), transformed.getChildren().toArray(new Node[0]));
+    }
+
+    private Interval range(Node node) {
+        Interval range = computed.get(node);
+        if (range == null) {
+            /* children first, so computing a node only looks up the ranges of its children */
+            for (Node n : Nodes.postOrder(node, computed::containsKey)) {
+                try {
+                    range = compute(n);
+                } catch (ArithmeticException e) {
+                    /* the node always fails, which does not matter if it is in a branch which is never taken */
+                    range = Interval.ENTIRE;
+                }
+                computed.put(n, range);
+            }
+        }
+        return range;
+    }
+
+    private Interval compute(Node node) {
+        if (node instanceof NumberNode) {
+            return Interval.point(((NumberNode) node).getValue());
+        } else if (node instanceof VariableNode) {
+            final Interval range = ranges.get(((VariableNode) node).getName());
+            return range == null ? Interval.ENTIRE : range;
+        }
+        final List<Node> children = node.getChildren();
+        if (node instanceof FunctionNode && Functions.of(((FunctionNode) node).getFunction()) == Functions.IF) {
+            /* only the branches which can be taken */
+            final Interval condition = Interval.truth(range(children.get(0)));
+            if (condition.isPoint()) {
+                return range(children.get(condition.getLo() != 0d ? 1 : 2));
+            }
+            return range(children.get(1)).hull(range(children.get(2)));
+        }
+        final Interval[] args = new Interval[children.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = range(children.get(i));
+        }
+        if (node instanceof OperatorNode) {
+            final Operator operator = ((OperatorNode) node).getOperator();
+            return Interval.apply(operator, args);
+        }
+        return Interval.apply(((FunctionNode) node).getFunction(), args);
+    }
+}
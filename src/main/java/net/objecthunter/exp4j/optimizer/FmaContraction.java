@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.function.FusedMultiplyAdd;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+/**
+ * Contracts products added to or subtracted from another operand, <code>a*b + c</code>, <code>c + a*b</code>,
+ * <code>a*b - c</code> and <code>c - a*b</code>, into {@link FusedMultiplyAdd} calls, which round once instead of
+ * twice and take a single instruction on processors with fused multiply add support. When both operands of a sum are
+ * products, the left one is fused. Negating an operand is exact, so <code>a*b - c</code> becomes
+ * <code>fma(a, b, -c)</code> and <code>c - a*b</code> becomes <code>fma(-a, b, c)</code>.
+ * <p>
+ * The results differ from the separately rounded operations, which is why
+ * {@link net.objecthunter.exp4j.ExpressionBuilder#fusedMultiplyAdd(boolean)} is off by default. On platforms without
+ * hardware support {@link Math#fma(double, double, double)} is emulated and much slower. The calls are custom
+ * functions for {@link net.objecthunter.exp4j.Expression#derivative(String)}, so symbolic differentiation has to
+ * happen before this pass.
+ */
+public class FmaContraction extends NodeTransformer {
+
+    private static final Operator ADDITION = Operators.getBuiltinOperator('+', 2);
+    private static final Operator SUBTRACTION = Operators.getBuiltinOperator('-', 2);
+    private static final Operator MULTIPLICATION = Operators.getBuiltinOperator('*', 2);
+    private static final Operator UNARY_MINUS = Operators.getBuiltinOperator('-', 1);
+
+    private static final FusedMultiplyAdd FMA = new FusedMultiplyAdd();
+
+    @Override
+    public Node visit(OperatorNode node) {
+        final Node transformed = transformChildren(node);
+        final Operator operator = node.getOperator();
+        if (operator != ADDITION && operator != SUBTRACTION) {
+            return transformed;
+        }
+        final OperatorNode sum = (OperatorNode) transformed;
+        final Node left = sum.getOperand(0);
+        final Node right = sum.getOperand(1);
+        if (isProduct(left)) {
+            final OperatorNode product = (OperatorNode) left;
+            final Node addend = operator == ADDITION ? right : new OperatorNode(UNARY_MINUS, right);
+            return new FunctionNode(FMA, product.getOperand(0), product.getOperand(1), addend);
+        } else if (isProduct(right)) {
+            final OperatorNode product = (OperatorNode) right;
+            final Node factor = operator == ADDITION ? product.getOperand(0)
+                    : new OperatorNode(UNARY_MINUS, product.getOperand(0));
+            return new FunctionNode(FMA, factor, product.getOperand(1), left);
+        }
+        return transformed;
+    }
+
+    private static boolean isProduct(Node node) {
+        return node instanceof OperatorNode && ((OperatorNode) node).getOperator() == MULTIPLICATION;
+    }
+}
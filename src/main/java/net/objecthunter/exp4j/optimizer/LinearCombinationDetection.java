@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.function.LinearCombination;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.ir.NumberNode;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.ir.VariableNode;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs the terms of sums which are variables times constant weights, like
+ * <code>w1*f1 + w2*f2 + ... + w5000*f5000 + b</code>, into a single {@link LinearCombination} call, which the
+ * evaluators compute as a dot product of a packed weight array with the variable values instead of pushing every
+ * operand on the stack. Terms which are not linear are kept and added to the result of the call. The weights of a
+ * variable occurring in several terms are added, and the sums are reassociated, so the results may be rounded
+ * differently. Like {@link Simplifier} the rewriting assumes finite values.
+ */
+public class LinearCombinationDetection extends NodeTransformer {
+
+    private static final Operator ADDITION = Operators.getBuiltinOperator('+', 2);
+    private static final Operator SUBTRACTION = Operators.getBuiltinOperator('-', 2);
+    private static final Operator MULTIPLICATION = Operators.getBuiltinOperator('*', 2);
+    private static final Operator UNARY_MINUS = Operators.getBuiltinOperator('-', 1);
+    private static final Operator UNARY_PLUS = Operators.getBuiltinOperator('+', 1);
+
+    @Override
+    public Node visit(OperatorNode node) {
+        final Operator operator = node.getOperator();
+        if (operator != ADDITION && operator != SUBTRACTION) {
+            final Linear linear = linear(node);
+            if (linear != null && linear.weights.size() >= 2) {
+                return linear.toNode();
+            }
+            return transformChildren(node);
+        }
+        final List<Node> terms = new ArrayList<>();
+        final List<Boolean> negated = new ArrayList<>();
+        flatten(node, terms, negated);
+        final Linear packed = new Linear();
+        final List<Node> transformed = new ArrayList<>(terms.size());
+        final List<Node> rest = new ArrayList<>();
+        final List<Boolean> restNegated = new ArrayList<>();
+        boolean changed = false;
+        for (int i = 0; i < terms.size(); i++) {
+            final Linear linear = linear(terms.get(i));
+            if (linear != null) {
+                packed.add(linear, negated.get(i) ? -1d : 1d);
+                transformed.add(terms.get(i));
+            } else {
+                final Node term = terms.get(i).accept(this);
+                changed |= term != terms.get(i);
+                transformed.add(term);
+                rest.add(term);
+                restNegated.add(negated.get(i));
+            }
+        }
+        if (packed.weights.size() < 2) {
+            /* nothing worth packing, keep the sum unless one of its terms changed */
+            if (!changed) {
+                return node;
+            }
+            Node result = transformed.get(0);
+            for (int i = 1; i < transformed.size(); i++) {
+                result = new OperatorNode(negated.get(i) ? SUBTRACTION : ADDITION, result, transformed.get(i));
+            }
+            return result;
+        }
+        Node result = packed.toNode();
+        for (int i = 0; i < rest.size(); i++) {
+            result = new OperatorNode(restNegated.get(i) ? SUBTRACTION : ADDITION, result, rest.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Collect the terms of a chain of additions and subtractions in evaluation order without recursion, so very long
+     * sums do not exhaust the call stack
+     */
+    private static void flatten(Node root, List<Node> terms, List<Boolean> negated) {
+        final Deque<Node> nodes = new ArrayDeque<>();
+        final Deque<Boolean> signs = new ArrayDeque<>();
+        nodes.push(root);
+        signs.push(false);
+        while (!nodes.isEmpty()) {
+            final Node node = nodes.pop();
+            final boolean negative = signs.pop();
+            if (node instanceof OperatorNode) {
+                final OperatorNode operation = (OperatorNode) node;
+                final Operator operator = operation.getOperator();
+                if (operator == ADDITION || operator == SUBTRACTION) {
+                    nodes.push(operation.getOperand(1));
+                    signs.push(negative != (operator == SUBTRACTION));
+                    nodes.push(operation.getOperand(0));
+                    signs.push(negative);
+                    continue;
+                }
+            }
+            terms.add(node);
+            negated.add(negative);
+        }
+    }
+
+    /**
+     * @return the weights and the constant of a linear subtree, or null if it is not linear
+     */
+    private static Linear linear(Node node) {
+        if (node instanceof NumberNode) {
+            final Linear linear = new Linear();
+            linear.constant = ((NumberNode) node).getValue();
+            return linear;
+        } else if (node instanceof VariableNode) {
+            final Linear linear = new Linear();
+            linear.weights.put(((VariableNode) node).getName(), 1d);
+            return linear;
+        } else if (!(node instanceof OperatorNode)) {
+            return null;
+        }
+        final OperatorNode operation = (OperatorNode) node;
+        final Operator operator = operation.getOperator();
+        if (operator == ADDITION || operator == SUBTRACTION) {
+            final List<Node> terms = new ArrayList<>();
+            final List<Boolean> negated = new ArrayList<>();
+            flatten(node, terms, negated);
+            final Linear sum = new Linear();
+            for (int i = 0; i < terms.size(); i++) {
+                final Linear term = linear(terms.get(i));
+                if (term == null) {
+                    return null;
+                }
+                sum.add(term, negated.get(i) ? -1d : 1d);
+            }
+            return sum;
+        }
+        final Linear left = linear(operation.getOperand(0));
+        if (left == null) {
+            return null;
+        } else if (operator == UNARY_MINUS) {
+            return left.scale(-1d);
+        } else if (operator == UNARY_PLUS) {
+            return left;
+        } else if (operator.getNumOperands() != 2) {
+            return null;
+        }
+        final Linear right = linear(operation.getOperand(1));
+        if (right == null) {
+            return null;
+        } else if (operator == MULTIPLICATION && left.weights.isEmpty()) {
+            return right.scale(left.constant);
+        } else if (operator == MULTIPLICATION && right.weights.isEmpty()) {
+            return left.scale(right.constant);
+        } else if (Operators.isDivision(operator) && right.weights.isEmpty() && right.constant != 0d) {
+            return left.scale(1d / right.constant);
+        }
+        return null;
+    }
+
+    private static final class Linear {
+
+        private final Map<String, Double> weights = new LinkedHashMap<>();
+
+        private double constant;
+
+        void add(Linear other, double sign) {
+            for (Map.Entry<String, Double> term : other.weights.entrySet()) {
+                weights.merge(term.getKey(), sign * term.getValue(), Double::sum);
+            }
+            constant += sign * other.constant;
+        }
+
+        Linear scale(double factor) {
+            weights.replaceAll((name, weight) -> weight * factor);
+            constant *= factor;
+            return this;
+        }
+
+        Node toNode() {
+            weights.values().removeIf(weight -> weight == 0d);
+            if (weights.isEmpty()) {
+                return new NumberNode(constant);
+            }
+            final double[] w = new double[weights.size()];
+            final Node[] variables = new Node[w.length];
+            int i = 0;
+            for (Map.Entry<String, Double> term : weights.entrySet()) {
+                w[i] = term.getValue();
+                variables[i++] = new VariableNode(term.getKey());
+            }
+            return new FunctionNode(new LinearCombination(w, constant), variables);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.ir.NumberNode;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.ir.VariableNode;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Specializes an expression tree for fixed values of some of its variables. The fixed variables are replaced by their
+ * values, calls of {@link net.objecthunter.exp4j.function.Function#isPure() pure} custom functions and custom
+ * operators whose operands became constant are folded, and the result is simplified by a {@link Simplifier}, which
+ * folds the builtins. Every subtree depending only on fixed variables is thereby computed once, when the pass is
+ * applied, instead of on every evaluation. Calls which fail on their constant operands are kept, so they still fail
+ * when the expression is evaluated. The simplifications assume finite values like those of the {@link Simplifier},
+ * except that <code>x * 0</code> and <code>x ^ 0</code> are kept, so a failure or a NaN value of x is not lost.
+ * <p>
+ * Without simplification only builtin operations whose operands are all constant are folded, together with
+ * conditionals and short circuit operators whose constant condition decides the result. Custom functions and
+ * operators are always kept, as they may not be pure even if they claim to be. The specialized tree computes the
+ * remaining operations in the same order, so its results are identical to those of the original tree.
+ */
+public class PartialEvaluation extends NodeTransformer {
+
+    private static final Operator AND = Operators.getBuiltinOperator("&&", 2);
+    private static final Operator OR = Operators.getBuiltinOperator("||", 2);
+
+    private final Map<String, Double> fixed;
+
+    private final boolean simplify;
+
+    /**
+     * Create a new instance simplifying the specialized tree
+     * @param fixed the values of the fixed variables, which are copied
+     * @throws IllegalArgumentException if a value is null
+     */
+    public PartialEvaluation(Map<String, Double> fixed) {
+        this(fixed, true);
+    }
+
+    /**
+     * Create a new instance
+     * @param fixed the values of the fixed variables, which are copied
+     * @param simplify false to only fold constant operations, so the results do not change
+     * @throws IllegalArgumentException if a value is null
+     */
+    public PartialEvaluation(Map<String, Double> fixed, boolean simplify) {
+        for (Map.Entry<String, Double> entry : fixed.entrySet()) {
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException("The value of the variable '" + entry.getKey() + "' can not be null");
+            }
+        }
+        this.fixed = new HashMap<>(fixed);
+        this.simplify = simplify;
+    }
+
+    @Override
+    public Node transform(Node root) {
+        final Node specialized = super.transform(root);
+        return simplify ? new Simplifier(false).transform(specialized) : specialized;
+    }
+
+    @Override
+    public Node visit(VariableNode node) {
+        final Double value = fixed.get(node.getName());
+        return value == null ? node : new NumberNode(value);
+    }
+
+    @Override
+    public Node visit(OperatorNode node) {
+        final OperatorNode transformed = (OperatorNode) transformChildren(node);
+        final Operator operator = transformed.getOperator();
+        if (!simplify && (operator == AND || operator == OR) && transformed.getOperand(0) instanceof NumberNode) {
+            /* the right operand is not evaluated if the left one decides the result */
+            final boolean left = Operators.isTrue(((NumberNode) transformed.getOperand(0)).getValue());
+            if (left == (operator == OR)) {
+                return new NumberNode(left ? 1d : 0d);
+            }
+        }
+        if (simplify == Operators.isBuiltinOperator(operator) || !isConstant(transformed.getChildren())) {
+            return transformed;
+        }
+        try {
+            return new NumberNode(transformed.getOperator().apply(values(transformed.getChildren())));
+        } catch (RuntimeException e) {
+            return transformed;
+        }
+    }
+
+    @Override
+    public Node visit(FunctionNode node) {
+        final FunctionNode transformed = (FunctionNode) transformChildren(node);
+        final Functions builtin = Functions.of(transformed.getFunction());
+        if (!simplify && builtin == Functions.IF && transformed.getArguments().get(0) instanceof NumberNode) {
+            final List<Node> args = transformed.getArguments();
+            return Operators.isTrue(((NumberNode) args.get(0)).getValue()) ? args.get(1) : args.get(2);
+        }
+        if (simplify == (builtin != null) || !transformed.getFunction().isPure()
+                || !isConstant(transformed.getArguments())) {
+            return transformed;
+        }
+        try {
+            return new NumberNode(Functions.apply(transformed.getFunction(), values(transformed.getArguments())));
+        } catch (RuntimeException e) {
+            return transformed;
+        }
+    }
+
+    private static boolean isConstant(List<Node> nodes) {
+        for (Node node : nodes) {
+            if (!(node instanceof NumberNode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double[] values(List<Node> nodes) {
+        final double[] values = new double[nodes.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((NumberNode) nodes.get(i)).getValue();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.function.Differentiable;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.function.Synthetic;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NumberNode;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.ir.VariableNode;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.Arrays;
+
+/**
+ * Recognizes polynomials and rational functions of one variable with constant coefficients, like
+ * <code>a0 + a1*x + a2*x^2 + ... + a12*x^12</code> or <code>(x^2 - 1) / (2x^3 + x + 1)</code>, and replaces them by a
+ * single call evaluating the expanded polynomials with fused multiply adds, so the powers are not computed by
+ * {@link Math#pow} and no intermediate results are pushed on the stack. Sums, differences, products, divisions by
+ * constants and powers with constant nonnegative integer exponents of polynomials are expanded up to
+ * {@link #MAX_DEGREE}, and the largest such subexpressions with at least two operations are replaced. Expanding
+ * changes the rounding of the results, and like {@link Simplifier} the rewriting assumes finite values.
+ * <p>
+ * The replacements are {@link Differentiable}, but they are custom functions for
+ * {@link net.objecthunter.exp4j.Expression#derivative(String)}, so symbolic differentiation has to happen before
+ * this pass.
+ */
+public class PolynomialEvaluation extends NodeTransformer {
+
+    /**
+     * The schemes polynomials can be evaluated with
+     */
+    public enum Scheme {
+        /**
+         * Horner's scheme, one fused multiply add per coefficient in a single dependency chain
+         */
+        HORNER,
+        /**
+         * The first level of Estrin's scheme, which splits p(x) into E(x<sup>2</sup>) + x O(x<sup>2</sup>) and
+         * evaluates the even and odd parts by two independent Horner chains, so the processor can overlap them
+         */
+        ESTRIN
+    }
+
+    /**
+     * The highest degree of the expanded polynomials
+     */
+    public static final int MAX_DEGREE = 64;
+
+    /* the deepest subtree recognized as a whole, deeper ones only have their subtrees rewritten */
+    private static final int MAX_DEPTH = 256;
+
+    private static final Operator ADDITION = Operators.getBuiltinOperator('+', 2);
+    private static final Operator SUBTRACTION = Operators.getBuiltinOperator('-', 2);
+    private static final Operator MULTIPLICATION = Operators.getBuiltinOperator('*', 2);
+    private static final Operator DIVISION = Operators.getBuiltinOperator('/', 2);
+    private static final Operator POWER = Operators.getBuiltinOperator('^', 2);
+    private static final Operator UNARY_MINUS = Operators.getBuiltinOperator('-', 1);
+    private static final Operator UNARY_PLUS = Operators.getBuiltinOperator('+', 1);
+
+    private final Scheme scheme;
+
+    /**
+     * Create a new instance evaluating polynomials with Horner's scheme
+     */
+    public PolynomialEvaluation() {
+        this(Scheme.HORNER);
+    }
+
+    /**
+     * Create a new instance
+     * @param scheme the scheme to evaluate the polynomials with
+     */
+    public PolynomialEvaluation(Scheme scheme) {
+        if (scheme == null) {
+            throw new IllegalArgumentException("The scheme can not be null");
+        }
+        this.scheme = scheme;
+    }
+
+    @Override
+    public Node visit(OperatorNode node) {
+        final Node rewritten = rewrite(node);
+        return rewritten != null ? rewritten : transformChildren(node);
+    }
+
+    private Node rewrite(OperatorNode node) {
+        final Recognizer recognizer = new Recognizer();
+        final double[] polynomial = recognizer.polynomial(node);
+        if (polynomial != null) {
+            if (polynomial.length < 2 || recognizer.operations < 2) {
+                /* constants are left to the simplifier, and single operations are as cheap as a call */
+                return null;
+            }
+            return new FunctionNode(new Polynomial(polynomial, scheme), new VariableNode(recognizer.variable));
+        }
+        if (!Operators.isDivision(node.getOperator())) {
+            return null;
+        }
+        final Recognizer numerator = new Recognizer();
+        final double[] p = numerator.polynomial(node.getOperand(0));
+        final Recognizer denominator = new Recognizer();
+        final double[] q = denominator.polynomial(node.getOperand(1));
+        if (p == null || q == null || q.length < 2
+                || (numerator.variable != null && !numerator.variable.equals(denominator.variable))) {
+            return null;
+        }
+        return new FunctionNode(new Rational(p, q, scheme, node.getOperator() == DIVISION),
+                new VariableNode(denominator.variable));
+    }
+
+    /**
+     * Expands a subtree into the coefficients of a polynomial in a single variable
+     */
+    private static final class Recognizer {
+
+        private String variable;
+
+        private int operations;
+
+        private int depth;
+
+        /**
+         * @return the coefficients, lowest degree first and without trailing zeros, or null if the subtree is not a
+         * polynomial
+         */
+        double[] polynomial(Node node) {
+            if (depth == MAX_DEPTH) {
+                return null;
+            }
+            depth++;
+            try {
+                return expand(node);
+            } finally {
+                depth--;
+            }
+        }
+
+        private double[] expand(Node node) {
+            if (node instanceof NumberNode) {
+                return trim(new double[]{((NumberNode) node).getValue()});
+            } else if (node instanceof VariableNode) {
+                final String name = ((VariableNode) node).getName();
+                if (variable != null && !variable.equals(name)) {
+                    return null;
+                }
+                variable = name;
+                return new double[]{0d, 1d};
+            } else if (!(node instanceof OperatorNode)) {
+                return null;
+            }
+            final OperatorNode operation = (OperatorNode) node;
+            final Operator operator = operation.getOperator();
+            operations++;
+            if (operator == POWER) {
+                final Node exponent = operation.getOperand(1);
+                if (!(exponent instanceof NumberNode)) {
+                    return null;
+                }
+                final double n = ((NumberNode) exponent).getValue();
+                if (!(n >= 0d && n <= MAX_DEGREE && n == Math.rint(n))) {
+                    return null;
+                }
+                final double[] base = polynomial(operation.getOperand(0));
+                return base == null ? null : power(base, (int) n);
+            }
+            final double[] left = polynomial(operation.getOperand(0));
+            if (left == null) {
+                return null;
+            }
+            if (operator == UNARY_MINUS) {
+                return scale(left, -1d);
+            } else if (operator == UNARY_PLUS) {
+                return left;
+            }
+            final double[] right = operator.getNumOperands() == 2 ? polynomial(operation.getOperand(1)) : null;
+            if (right == null) {
+                return null;
+            } else if (operator == ADDITION) {
+                return add(left, right, 1d);
+            } else if (operator == SUBTRACTION) {
+                return add(left, right, -1d);
+            } else if (operator == MULTIPLICATION) {
+                return multiply(left, right);
+            } else if (Operators.isDivision(operator) && right.length == 1 && right[0] != 0d) {
+                return scale(left, 1d / right[0]);
+            }
+            return null;
+        }
+    }
+
+    private static double[] trim(double[] coefficients) {
+        int length = coefficients.length;
+        while (length > 1 && coefficients[length - 1] == 0d) {
+            length--;
+        }
+        return length == coefficients.length ? coefficients : Arrays.copyOf(coefficients, length);
+    }
+
+    private static double[] add(double[] a, double[] b, double sign) {
+        final double[] sum = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; i++) {
+            sum[i] += sign * b[i];
+        }
+        return trim(sum);
+    }
+
+    private static double[] scale(double[] a, double factor) {
+        final double[] scaled = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            scaled[i] = a[i] * factor;
+        }
+        return trim(scaled);
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        if (a.length + b.length - 2 > MAX_DEGREE) {
+            return null;
+        }
+        final double[] product = new double[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++) {
+            for (int j = 0; j < b.length; j++) {
+                product[i + j] += a[i] * b[j];
+            }
+        }
+        return trim(product);
+    }
+
+    private static double[] power(double[] base, int n) {
+        double[] result = {1d};
+        for (int i = 0; i < n && result != null; i++) {
+            result = multiply(result, base);
+        }
+        return result;
+    }
+
+    private static double[] derivative(double[] coefficients) {
+        if (coefficients.length == 1) {
+            return new double[]{0d};
+        }
+        final double[] derivative = new double[coefficients.length - 1];
+        for (int i = 1; i < coefficients.length; i++) {
+            derivative[i - 1] = i * coefficients[i];
+        }
+        return derivative;
+    }
+
+    static double evaluate(double[] c, Scheme scheme, double x) {
+        int i = c.length - 1;
+        if (scheme == Scheme.HORNER || i < 3) {
+            double result = c[i];
+            while (--i >= 0) {
+                result = Math.fma(result, x, c[i]);
+            }
+            return result;
+        }
+        /* two chains over x^2, the one ending at c[0] collects the even and the other the odd coefficients */
+        final double x2 = x * x;
+        double a = c[i];
+        double b = c[i - 1];
+        i -= 2;
+        while (i >= 1) {
+            a = Math.fma(a, x2, c[i]);
+            b = Math.fma(b, x2, c[i - 1]);
+            i -= 2;
+        }
+        if (i == 0) {
+            /* odd number of coefficients, a ends at an even index */
+            a = Math.fma(a, x2, c[0]);
+            return Math.fma(b, x, a);
+        }
+        return Math.fma(a, x, b);
+    }
+
+    /**
+     * A polynomial replacing a subexpression
+     */
+    private static final class Polynomial extends OneArgumentFunction implements Differentiable, Synthetic {
+
+        private final double[] coefficients;
+
+        private final double[] derivative;
+
+        private final Scheme scheme;
+
+        Polynomial(double[] coefficients, Scheme scheme) {
+            super("polynomial");
+            this.coefficients = coefficients;
+            this.derivative = PolynomialEvaluation.derivative(coefficients);
+            this.scheme = scheme;
+        }
+
+        @Override
+        public double apply(double x) {
+            return evaluate(coefficients, scheme, x);
+        }
+
+        @Override
+        public double derivative(int argument, double... args) {
+            return evaluate(derivative, scheme, args[0]);
+        }
+    }
+
+    /**
+     * A quotient of polynomials replacing a subexpression
+     */
+    private static final class Rational extends OneArgumentFunction implements Differentiable, Synthetic {
+
+        private final double[] numerator;
+
+        private final double[] denominator;
+
+        private final double[] numeratorDerivative;
+
+        private final double[] denominatorDerivative;
+
+        private final Scheme scheme;
+
+        private final boolean checked;
+
+        Rational(double[] numerator, double[] denominator, Scheme scheme, boolean checked) {
+            super("rational");
+            this.numerator = numerator;
+            this.denominator = denominator;
+            this.numeratorDerivative = PolynomialEvaluation.derivative(numerator);
+            this.denominatorDerivative = PolynomialEvaluation.derivative(denominator);
+            this.scheme = scheme;
+            this.checked = checked;
+        }
+
+        @Override
+        public double apply(double x) {
+            final double q = evaluate(denominator, scheme, x);
+            if (checked && q == 0d) {
+                throw new ArithmeticException("Division by zero!");
+            }
+            return evaluate(numerator, scheme, x) / q;
+        }
+
+        @Override
+        public double derivative(int argument, double... args) {
+            final double x = args[0];
+            final double p = evaluate(numerator, scheme, x);
+            final double q = evaluate(denominator, scheme, x);
+            return (evaluate(numeratorDerivative, scheme, x) * q - p * evaluate(denominatorDerivative, scheme, x))
+                    / (q * q);
+        }
+    }
+}
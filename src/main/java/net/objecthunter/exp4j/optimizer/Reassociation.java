@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.function.Differentiable;
+import net.objecthunter.exp4j.function.DynamicArgumentFunction;
+import net.objecthunter.exp4j.function.Synthetic;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Reassociates chains of three or more additions and subtractions or of three or more multiplications. The parser
+ * produces left deep trees for chains like <code>a + b + c + d</code>, so every operation waits for the result of the
+ * previous one, and the rounding errors of a sum of n terms grow with n. The balanced trees built by this pass have a
+ * height logarithmic in the number of terms, which lets the processor overlap the independent operations, and
+ * evaluate sums by pairwise summation, whose error grows with log n. Sums can instead be replaced by a single call
+ * computing a compensated sum, which is accurate to about one rounding no matter how many terms there are.
+ * <p>
+ * Reassociating changes the rounding of the results, so the pass is opt-in, and
+ * {@link net.objecthunter.exp4j.ExpressionBuilder} refuses to apply it together with
+ * {@link net.objecthunter.exp4j.function.MathMode#STRICT}, which keeps the left to right evaluation order of the
+ * expression. The compensated sums are custom functions for
+ * {@link net.objecthunter.exp4j.Expression#derivative(String)}, so symbolic differentiation has to happen before
+ * this pass.
+ */
+public class Reassociation extends NodeTransformer {
+
+    /**
+     * How chains of additions and subtractions are evaluated
+     */
+    public enum Summation {
+        /**
+         * A balanced tree of additions and subtractions, i.e. pairwise summation
+         */
+        PAIRWISE,
+        /**
+         * A single call adding the terms in order with the Kahan-Babuska compensation of the rounding errors
+         */
+        COMPENSATED
+    }
+
+    private static final Operator ADDITION = Operators.getBuiltinOperator('+', 2);
+    private static final Operator SUBTRACTION = Operators.getBuiltinOperator('-', 2);
+    private static final Operator MULTIPLICATION = Operators.getBuiltinOperator('*', 2);
+    private static final Operator UNARY_MINUS = Operators.getBuiltinOperator('-', 1);
+
+    private final Summation summation;
+
+    /**
+     * Create a new instance building balanced trees for sums and products
+     */
+    public Reassociation() {
+        this(Summation.PAIRWISE);
+    }
+
+    /**
+     * Create a new instance
+     * @param summation how sums are evaluated, products are always turned into balanced trees
+     */
+    public Reassociation(Summation summation) {
+        if (summation == null) {
+            throw new IllegalArgumentException("The summation can not be null");
+        }
+        this.summation = summation;
+    }
+
+    @Override
+    public Node visit(OperatorNode node) {
+        final Operator operator = node.getOperator();
+        final boolean sum = operator == ADDITION || operator == SUBTRACTION;
+        if (!sum && operator != MULTIPLICATION) {
+            return transformChildren(node);
+        }
+        final List<Term> terms = flatten(node, sum);
+        if (terms.size() < 3) {
+            return transformChildren(node);
+        }
+        for (Term term : terms) {
+            term.node = term.node.accept(this);
+        }
+        if (sum && summation == Summation.COMPENSATED) {
+            final Node[] arguments = new Node[terms.size()];
+            for (int i = 0; i < arguments.length; i++) {
+                final Term term = terms.get(i);
+                arguments[i] = term.negated ? new OperatorNode(UNARY_MINUS, term.node) : term.node;
+            }
+            return new FunctionNode(new CompensatedSum(arguments.length), arguments);
+        }
+        final Term root = balance(terms, 0, terms.size(), sum ? ADDITION : MULTIPLICATION);
+        return root.negated ? new OperatorNode(UNARY_MINUS, root.node) : root.node;
+    }
+
+    /**
+     * Collect the operands of a chain of additions and subtractions or of multiplications in evaluation order without
+     * recursion, so very long chains do not exhaust the call stack
+     */
+    private static List<Term> flatten(Node root, boolean sum) {
+        final List<Term> terms = new ArrayList<>();
+        final Deque<Term> pending = new ArrayDeque<>();
+        pending.push(new Term(root, false));
+        while (!pending.isEmpty()) {
+            final Term term = pending.pop();
+            if (term.node instanceof OperatorNode) {
+                final OperatorNode operation = (OperatorNode) term.node;
+                final Operator operator = operation.getOperator();
+                if (sum ? operator == ADDITION || operator == SUBTRACTION : operator == MULTIPLICATION) {
+                    pending.push(new Term(operation.getOperand(1), term.negated != (operator == SUBTRACTION)));
+                    pending.push(new Term(operation.getOperand(0), term.negated));
+                    continue;
+                }
+            }
+            terms.add(term);
+        }
+        return terms;
+    }
+
+    /**
+     * Combine a range of terms in a balanced tree. The terms of products are never negated. A sum whose terms are
+     * all negated is returned as a negated sum, so a subtraction can absorb the negation further up the tree.
+     */
+    private static Term balance(List<Term> terms, int from, int to, Operator operator) {
+        if (to - from == 1) {
+            return terms.get(from);
+        }
+        final int middle = (from + to) >>> 1;
+        final Term left = balance(terms, from, middle, operator);
+        final Term right = balance(terms, middle, to, operator);
+        if (left.negated == right.negated) {
+            return new Term(new OperatorNode(operator, left.node, right.node), left.negated);
+        } else if (right.negated) {
+            return new Term(new OperatorNode(SUBTRACTION, left.node, right.node), false);
+        }
+        return new Term(new OperatorNode(SUBTRACTION, right.node, left.node), false);
+    }
+
+    private static final class Term {
+
+        private Node node;
+
+        private final boolean negated;
+
+        Term(Node node, boolean negated) {
+            this.node = node;
+            this.negated = negated;
+        }
+    }
+
+    /**
+     * The sum of the arguments with Neumaier's variant of Kahan summation, which also compensates the rounding when a
+     * term is larger than the running sum
+     */
+    private static final class CompensatedSum extends DynamicArgumentFunction implements Differentiable, Synthetic {
+
+        CompensatedSum(int numArguments) {
+            super("sum", numArguments, numArguments);
+        }
+
+        @Override
+        public double apply(double... args) {
+            double sum = args[0];
+            double compensation = 0d;
+            for (int i = 1; i < args.length; i++) {
+                final double term = args[i];
+                final double next = sum + term;
+                if (Math.abs(sum) >= Math.abs(term)) {
+                    compensation += (sum - next) + term;
+                } else {
+                    compensation += (term - next) + sum;
+                }
+                sum = next;
+            }
+            /* the compensation is NaN once the sum overflowed, the plain sum is the right result then */
+            return Double.isFinite(sum) ? sum + compensation : sum;
+        }
+
+        @Override
+        public double derivative(int argument, double... args) {
+            return 1d;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.ir.NumberNode;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Algebraic simplification of expression trees. Builtin operators and functions with constant operands are folded,
+ * conditionals with a constant condition are replaced by the branch they take, and the identities
+ * <code>x + 0 = x</code>, <code>x - 0 = x</code>, <code>0 - x = -x</code>, <code>x * 1 = x</code>,
+ * <code>x * 0 = 0</code>, <code>x / 1 = x</code>, <code>x ^ 1 = x</code>, <code>x ^ 0 = 1</code> and
+ * <code>--x = x</code> are applied. Constant factors are moved to the left of a product and multiplied together.
+ * Like most algebraic simplifications these assume finite values: <code>x * 0</code> is 0 even where x is infinite
+ * or NaN. Operations which fail on their constant operands, like a division by zero, are not folded so that they
+ * still fail when the expression is evaluated.
+ */
+public class Simplifier extends NodeTransformer {
+
+    private static final Operator ADDITION = Operators.getBuiltinOperator('+', 2);
+    private static final Operator SUBTRACTION = Operators.getBuiltinOperator('-', 2);
+    private static final Operator MULTIPLICATION = Operators.getBuiltinOperator('*', 2);
+    private static final Operator POWER = Operators.getBuiltinOperator('^', 2);
+    private static final Operator UNARY_MINUS = Operators.getBuiltinOperator('-', 1);
+    private static final Operator UNARY_PLUS = Operators.getBuiltinOperator('+', 1);
+    private static final Operator AND = Operators.getBuiltinOperator("&&", 2);
+    private static final Operator OR = Operators.getBuiltinOperator("||", 2);
+
+    /* simplified subtrees, so shared subtrees are only simplified once */
+    private final Map<Node, Node> simplified = new IdentityHashMap<>();
+
+    private final boolean annihilate;
+
+    /**
+     * Create a new instance
+     */
+    public Simplifier() {
+        this(true);
+    }
+
+    /**
+     * Create a new instance
+     * @param annihilate false to keep <code>x * 0</code> and <code>x ^ 0</code>, so x is still evaluated and its
+     * failures and NaN values are not lost
+     */
+    Simplifier(boolean annihilate) {
+        this.annihilate = annihilate;
+    }
+
+    @Override
+    public Node transform(Node root) {
+        try {
+            return super.transform(root);
+        } finally {
+            simplified.clear();
+        }
+    }
+
+    @Override
+    public Node visit(OperatorNode node) {
+        Node result = simplified.get(node);
+        if (result == null) {
+            result = simplify((OperatorNode) transformChildren(node));
+            simplified.put(node, result);
+        }
+        return result;
+    }
+
+    @Override
+    public Node visit(FunctionNode node) {
+        Node result = simplified.get(node);
+        if (result == null) {
+            result = simplify((FunctionNode) transformChildren(node));
+            simplified.put(node, result);
+        }
+        return result;
+    }
+
+    private Node simplify(OperatorNode node) {
+        final Operator operator = node.getOperator();
+        if (!Operators.isBuiltinOperator(operator)) {
+            return node;
+        }
+        final List<Node> operands = node.getChildren();
+        if (isConstant(operands)) {
+            try {
+                return new NumberNode(operator.apply(values(operands)));
+            } catch (ArithmeticException e) {
+                return node;
+            }
+        }
+        final Node a = operands.get(0);
+        if (operator == UNARY_PLUS) {
+            return a;
+        } else if (operator == UNARY_MINUS) {
+            return negate(a);
+        }
+        final Node b = operands.get(1);
+        if (operator == ADDITION) {
+            if (is(a, 0d)) {
+                return b;
+            } else if (is(b, 0d)) {
+                return a;
+            } else if (isNegation(b)) {
+                return new OperatorNode(SUBTRACTION, a, b.getChildren().get(0));
+            }
+        } else if (operator == SUBTRACTION) {
+            if (is(a, 0d)) {
+                return negate(b);
+            } else if (is(b, 0d)) {
+                return a;
+            } else if (isNegation(b)) {
+                return new OperatorNode(ADDITION, a, b.getChildren().get(0));
+            }
+        } else if (operator == MULTIPLICATION) {
+            return multiply(node, a, b);
+        } else if (Operators.isDivision(operator)) {
+            if (is(b, 1d)) {
+                return a;
+            } else if (is(a, 0d)) {
+                /* keep the division by zero check */
+                return node;
+            }
+        } else if (operator == POWER) {
+            return power(node, a, b);
+        } else if (operator == AND && a instanceof NumberNode && !Operators.isTrue(((NumberNode) a).getValue())) {
+            return new NumberNode(0d);
+        } else if (operator == OR && a instanceof NumberNode && Operators.isTrue(((NumberNode) a).getValue())) {
+            return new NumberNode(1d);
+        }
+        return node;
+    }
+
+    private Node multiply(Node node, Node a, Node b) {
+        if (b instanceof NumberNode) {
+            /* constants go to the left, multiplication is commutative */
+            final Node swap = a;
+            a = b;
+            b = swap;
+            node = new OperatorNode(MULTIPLICATION, a, b);
+        }
+        if (!(a instanceof NumberNode)) {
+            return node;
+        }
+        final double factor = ((NumberNode) a).getValue();
+        if (factor == 0d && annihilate) {
+            return a;
+        } else if (factor == 1d) {
+            return b;
+        } else if (factor == -1d) {
+            return negate(b);
+        }
+        if (b instanceof OperatorNode && ((OperatorNode) b).getOperator() == MULTIPLICATION
+                && ((OperatorNode) b).getOperand(0) instanceof NumberNode) {
+            final double inner = ((NumberNode) ((OperatorNode) b).getOperand(0)).getValue();
+            return new OperatorNode(MULTIPLICATION, new NumberNode(factor * inner), ((OperatorNode) b).getOperand(1));
+        }
+        return node;
+    }
+
+    private Node power(Node node, Node a, Node b) {
+        if (is(b, 0d) && annihilate) {
+            return new NumberNode(1d);
+        } else if (is(b, 1d)) {
+            return a;
+        }
+        return node;
+    }
+
+    private Node simplify(FunctionNode node) {
+        final Functions builtin = Functions.of(node.getFunction());
+        if (builtin == null) {
+            return node;
+        }
+        final List<Node> args = node.getChildren();
+        if (builtin == Functions.IF && args.get(0) instanceof NumberNode) {
+            return Operators.isTrue(((NumberNode) args.get(0)).getValue()) ? args.get(1) : args.get(2);
+        } else if (!args.isEmpty() && isConstant(args)) {
+            try {
+                return new NumberNode(Functions.apply(node.getFunction(), values(args)));
+            } catch (ArithmeticException e) {
+                return node;
+            }
+        } else if (builtin == Functions.POW) {
+            return power(node, args.get(0), args.get(1));
+        }
+        return node;
+    }
+
+    private static Node negate(Node a) {
+        if (a instanceof NumberNode) {
+            return new NumberNode(-((NumberNode) a).getValue());
+        } else if (isNegation(a)) {
+            return a.getChildren().get(0);
+        }
+        return new OperatorNode(UNARY_MINUS, a);
+    }
+
+    private static boolean isNegation(Node node) {
+        return node instanceof OperatorNode && ((OperatorNode) node).getOperator() == UNARY_MINUS;
+    }
+
+    private static boolean is(Node node, double value) {
+        return node instanceof NumberNode && ((NumberNode) node).getValue() == value;
+    }
+
+    private static boolean isConstant(List<Node> nodes) {
+        for (Node node : nodes) {
+            if (!(node instanceof NumberNode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double[] values(List<Node> nodes) {
+        final double[] values = new double[nodes.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((NumberNode) nodes.get(i)).getValue();
+        }
+        return values;
+    }
+}
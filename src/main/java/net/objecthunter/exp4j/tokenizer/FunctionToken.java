@@ -30,9 +30,18 @@ public class FunctionToken extends Token {
     private int dynamicNumberOfArguments;
 
     public FunctionToken(Function function) {
+        this(function, 1);
+    }
+
+    /**
+     * Create a new instance with a known number of arguments
+     * @param function the function
+     * @param numberOfArguments the number of arguments the function is called with
+     */
+    public FunctionToken(Function function, int numberOfArguments) {
         super(Token.TOKEN_FUNCTION);
         this.function = function;
-        this.dynamicNumberOfArguments = 1;
+        this.dynamicNumberOfArguments = numberOfArguments;
     }
 
     public Function getFunction() {
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.tokenizer;
+
+import net.objecthunter.exp4j.operator.Operators;
+
+import java.util.Deque;
+
+/**
+ * A jump in the reverse polish notation of an expression, used to skip the operands which do not have to be evaluated
+ * by the <code>if</code> function and the <code>&amp;&amp;</code> and <code>||</code> operators. The original tokens
+ * are kept, so the program is still valid when the jumps are ignored:
+ * <pre>
+ * if(c, a, b)  =&gt;  c IF_FALSE(L) a GOTO(END) L: b GOTO(END) if END:
+ * a &amp;&amp; b       =&gt;  a AND(END) b BOOLEAN(END) &amp;&amp; END:
+ * a || b       =&gt;  a OR(END) b BOOLEAN(END) || END:
+ * </pre>
+ * Targets are indices into the token array.
+ */
+public class JumpToken extends Token {
+
+    /**
+     * Jump unconditionally
+     */
+    public static final int GOTO = 0;
+    /**
+     * Pop the top of the stack and jump if it is false
+     */
+    public static final int IF_FALSE = 1;
+    /**
+     * Jump with 0 on the stack if the top of the stack is false, else pop it and continue
+     */
+    public static final int AND = 2;
+    /**
+     * Jump with 1 on the stack if the top of the stack is true, else pop it and continue
+     */
+    public static final int OR = 3;
+    /**
+     * Replace the top of the stack with its truth value as 1 or 0 and jump
+     */
+    public static final int BOOLEAN = 4;
+
+    private final int kind;
+
+    private final int target;
+
+    /**
+     * Create a new instance
+     * @param kind the kind of jump, one of {@link #GOTO}, {@link #IF_FALSE}, {@link #AND}, {@link #OR} or
+     * {@link #BOOLEAN}
+     * @param target the index of the token to continue at
+     */
+    public JumpToken(int kind, int target) {
+        super(Token.TOKEN_JUMP);
+        if (kind < GOTO || kind > BOOLEAN) {
+            throw new IllegalArgumentException("Unknown jump kind " + kind);
+        }
+        this.kind = kind;
+        this.target = target;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Check if the jump is taken, for evaluators using their own stack
+     * @param top the value on top of the stack, ignored by {@link #GOTO}
+     * @return true if evaluation continues at the target
+     */
+    public boolean isTaken(double top) {
+        switch (kind) {
+            case IF_FALSE:
+            case AND:
+                return !Operators.isTrue(top);
+            case OR:
+                return Operators.isTrue(top);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Check what the jump does to the top of the stack, for evaluators using their own stack. If it is neither popped
+     * nor a {@link #GOTO}, the top is replaced with its truth value as 1 or 0.
+     * @param taken whether the jump is taken
+     * @return true if the top of the stack is popped
+     */
+    public boolean pops(boolean taken) {
+        return kind == IF_FALSE || (!taken && (kind == AND || kind == OR));
+    }
+
+    /**
+     * Execute the jump
+     * @param output the operand stack
+     * @param index the index of this token
+     * @return the index of the next token to process
+     */
+    public int jump(Deque<Double> output, int index) {
+        if (kind == GOTO) {
+            return target;
+        }
+        if (output.isEmpty()) {
+            throw new IllegalArgumentException("Missing condition for jump");
+        }
+        switch (kind) {
+            case IF_FALSE:
+                return Operators.isTrue(output.pop()) ? index + 1 : target;
+            case AND:
+                if (!Operators.isTrue(output.peek())) {
+                    output.pop();
+                    output.push(0d);
+                    return target;
+                }
+                output.pop();
+                return index + 1;
+            case OR:
+                if (Operators.isTrue(output.peek())) {
+                    output.pop();
+                    output.push(1d);
+                    return target;
+                }
+                output.pop();
+                return index + 1;
+            default:
+                output.push(Operators.isTrue(output.pop()) ? 1d : 0d);
+                return target;
+        }
+    }
+}
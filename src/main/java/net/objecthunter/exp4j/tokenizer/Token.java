@@ -30,6 +30,7 @@ public abstract class Token {
     public static final short TOKEN_PARENTHESES_CLOSE = 5;
     public static final short TOKEN_VARIABLE = 6;
     public static final short TOKEN_SEPARATOR = 7;
+    public static final short TOKEN_JUMP = 8;
 
     private final int type;
 
@@ -234,6 +234,8 @@ public class Tokenizer {
 
             }
             op = Operators.getBuiltinOperator(symbol.charAt(0), argc);
+        } else if (op == null) {
+            op = Operators.getBuiltinOperator(symbol, 2);
         }
         return op;
     }
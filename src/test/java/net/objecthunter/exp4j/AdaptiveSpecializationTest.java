@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.operator.Operator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdaptiveSpecializationTest {
+
+    private static final String FORMULA = "notional * exp(-r * t) * S + (k1 * k2 + sin(k3)) * sqrt(S) - log(k1 + k4) / t";
+
+    private static Expression build() {
+        return new ExpressionBuilder(FORMULA).variables("notional", "r", "t", "S", "k1", "k2", "k3", "k4").build()
+                .setVariable("notional", 1e6).setVariable("r", 0.03).setVariable("k1", 0.7)
+                .setVariable("k2", 1.3).setVariable("k3", 0.2).setVariable("k4", 2.5);
+    }
+
+    private static void assertSame(double expected, double actual) {
+        assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    @Test
+    public void testStableVariablesAreFolded() {
+        Expression adaptive = build();
+        Random rnd = new Random(1);
+        for (int i = 0; i < 3 * Expression.PROFILE_WINDOW; i++) {
+            double s = rnd.nextDouble() * 100;
+            double t = rnd.nextDouble() + 0.1;
+            double expected = build().setVariable("S", s).setVariable("t", t).evaluate();
+            assertSame(expected, adaptive.setVariable("S", s).setVariable("t", t).evaluate());
+        }
+        assertTrue(adaptive.isSpecialized());
+    }
+
+    @Test
+    public void testChangeFallsBack() {
+        Expression adaptive = build().setVariable("S", 50).setVariable("t", 1);
+        /* setting the initial values counts as a change in the first window */
+        for (int i = 0; i < 2 * Expression.PROFILE_WINDOW; i++) {
+            adaptive.setVariable("S", 50 + i).evaluate();
+        }
+        assertTrue(adaptive.isSpecialized());
+        adaptive.setVariable("k3", 0.2);
+        assertTrue(adaptive.isSpecialized());
+        adaptive.setVariable("k3", 0.4);
+        assertFalse(adaptive.isSpecialized());
+        assertSame(build().setVariable("k3", 0.4).setVariable("S", 50).setVariable("t", 1).evaluate(),
+                adaptive.setVariable("S", 50).evaluate());
+
+        /* the window doubled, one window is not enough anymore */
+        for (int i = 0; i < Expression.PROFILE_WINDOW; i++) {
+            adaptive.evaluate();
+        }
+        assertFalse(adaptive.isSpecialized());
+        for (int i = 0; i < Expression.PROFILE_WINDOW; i++) {
+            adaptive.evaluate();
+        }
+        assertTrue(adaptive.isSpecialized());
+    }
+
+    @Test
+    public void testProfilingStopsWithoutStableVariables() {
+        Expression adaptive = new ExpressionBuilder("a + b").variables("a", "b").build();
+        final int n = Expression.MAX_IDLE_WINDOWS * Expression.PROFILE_WINDOW;
+        for (int i = 0; i < n; i++) {
+            assertEquals(3d * i, adaptive.setVariable("a", i).setVariable("b", 2 * i).evaluate(), 0d);
+        }
+        /* the variables are stable now, but the profile gave up */
+        for (int i = 0; i < 4 * Expression.PROFILE_WINDOW; i++) {
+            assertEquals(3d * (n - 1), adaptive.evaluate(), 0d);
+        }
+        assertFalse(adaptive.isSpecialized());
+    }
+
+    @Test
+    public void testNonFiniteValuesArePreserved() {
+        Expression adaptive = new ExpressionBuilder("(a - 1) * x + 0 * b").variables("a", "b", "x").build()
+                .setVariable("a", 1).setVariable("b", Double.POSITIVE_INFINITY);
+        for (int i = 0; i < 2 * Expression.PROFILE_WINDOW; i++) {
+            assertTrue(Double.isNaN(adaptive.setVariable("x", i).evaluate()));
+        }
+        assertTrue(adaptive.isSpecialized());
+    }
+
+    @Test
+    public void testFailuresArePreserved() {
+        Expression adaptive = new ExpressionBuilder("x / (a - 1)").variables("a", "x").build().setVariable("a", 1);
+        for (int i = 0; i < 2 * Expression.PROFILE_WINDOW; i++) {
+            try {
+                adaptive.setVariable("x", i).evaluate();
+                fail("Division by zero not detected");
+            } catch (ArithmeticException e) {
+                assertEquals("Division by zero!", e.getMessage());
+            }
+        }
+        assertTrue(adaptive.isSpecialized());
+    }
+
+    @Test
+    public void testUnsetVariablesStillFail() {
+        Expression adaptive = new ExpressionBuilder("a * x + y").variables("a", "x", "y").build().setVariable("a", 2);
+        for (int i = 0; i < 2 * Expression.PROFILE_WINDOW; i++) {
+            try {
+                adaptive.setVariable("x", i).evaluate();
+                fail("Unset variable not detected");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("'y'"));
+            }
+        }
+        assertTrue(adaptive.isSpecialized());
+        assertEquals(7d, adaptive.setVariable("x", 3).setVariable("y", 1).evaluate(), 0d);
+    }
+
+    @Test
+    public void testConditionsStayLazy() {
+        Expression adaptive = new ExpressionBuilder("if(a > 0, x, 1 / b) + (a > 0 || 1 / b > 0)")
+                .variables("a", "b", "x").build().setVariable("a", 1).setVariable("b", 0);
+        for (int i = 0; i < 2 * Expression.PROFILE_WINDOW; i++) {
+            assertEquals(i + 1d, adaptive.setVariable("x", i).evaluate(), 0d);
+        }
+        assertTrue(adaptive.isSpecialized());
+    }
+
+    @Test
+    public void testImpureCallsAreKept() {
+        /* both claim to be pure, but return another value on every call */
+        final int[] calls = new int[1];
+        Function next = new OneArgumentFunction("next") {
+            @Override
+            public double apply(double arg) {
+                return arg * ++calls[0];
+            }
+        };
+        Operator counter = new Operator("#", 1, true, Operator.PRECEDENCE_POWER + 1) {
+            @Override
+            public double apply(double... args) {
+                return args[0] * ++calls[0];
+            }
+        };
+        Expression adaptive = new ExpressionBuilder("x + next(k) - k#").function(next).operator(counter)
+                .variables("k", "x").build().setVariable("k", 1);
+        for (int i = 0; i < 3 * Expression.PROFILE_WINDOW; i++) {
+            /* next(k) is called before k#, so their difference is always -1 */
+            assertEquals(i - 1d, adaptive.setVariable("x", i).evaluate(), 0d);
+        }
+        assertTrue(adaptive.isSpecialized());
+        assertEquals(6 * Expression.PROFILE_WINDOW, calls[0]);
+    }
+
+    @Test
+    public void testDeepExpression() {
+        StringBuilder sb = new StringBuilder("c*f0");
+        List<String> names = new ArrayList<>();
+        names.add("c");
+        names.add("f0");
+        for (int i = 1; i < 20000; i++) {
+            sb.append("+c*f").append(i);
+            names.add("f" + i);
+        }
+        Expression adaptive = new ExpressionBuilder(sb.toString()).variables(names.toArray(new String[0])).build();
+        for (String name : names) {
+            adaptive.setVariable(name, 1);
+        }
+        for (int i = 0; i < 2 * Expression.PROFILE_WINDOW; i++) {
+            assertEquals(20000d, adaptive.evaluate(), 0d);
+        }
+        assertTrue(adaptive.isSpecialized());
+    }
+
+    @Test
+    public void testConcurrentEvaluation() throws Exception {
+        Expression adaptive = build().setVariable("S", 50).setVariable("t", 1);
+        double expected = build().setVariable("S", 50).setVariable("t", 1).evaluate();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Double>> results = new ArrayList<>();
+            for (int i = 0; i < 20 * Expression.PROFILE_WINDOW; i++) {
+                results.add(adaptive.evaluateAsync(executor));
+            }
+            for (Future<Double> result : results) {
+                assertSame(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(adaptive.isSpecialized());
+    }
+}
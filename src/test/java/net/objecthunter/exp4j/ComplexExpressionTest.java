@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ComplexExpressionTest {
+
+    private static final double EPSILON = 1e-12;
+
+    private static double[] evaluate(String formula, double zRe, double zIm, double wRe, double wIm) {
+        return new ExpressionBuilder(formula).variables("z", "w").buildComplex()
+                .setVariable("z", zRe, zIm)
+                .setVariable("w", wRe, wIm)
+                .evaluate();
+    }
+
+    private static void assertComplex(double re, double im, double[] actual) {
+        assertEquals("real part", re, actual[0], EPSILON * Math.max(1, Math.abs(re)));
+        assertEquals("imaginary part", im, actual[1], EPSILON * Math.max(1, Math.abs(im)));
+    }
+
+    @Test
+    public void testArithmetic() {
+        assertComplex(-1, 0, evaluate("i^2", 0, 0, 0, 0));
+        assertComplex(-1, 0, evaluate("i * i", 0, 0, 0, 0));
+        assertComplex(5, 5, evaluate("z * w", 1, 2, 3, -1));
+        assertComplex(0.1, 0.7, evaluate("z / w", 1, 2, 3, -1));
+        assertComplex(4, 1, evaluate("z + w", 1, 2, 3, -1));
+        assertComplex(-2, 3, evaluate("z - w", 1, 2, 3, -1));
+        assertComplex(-1, -2, evaluate("-z", 1, 2, 3, -1));
+        assertComplex(3, 4, evaluate("(2 + i)^2", 0, 0, 0, 0));
+        assertComplex(0.12, -0.16, evaluate("(2 + i)^-2", 0, 0, 0, 0));
+        assertComplex(-1, 0, evaluate("exp(i * z)", Math.PI, 0, 0, 0));
+        assertComplex(-1, 0, evaluate("z^(i * w)", Math.E, 0, Math.PI, 0));
+    }
+
+    @Test
+    public void testModulo() {
+        /* (7 + 5i) / (2 + i) = 3.8 + 0.6i truncates to 3, so the remainder is 7 + 5i - 3 (2 + i) */
+        assertComplex(1, 2, evaluate("z % w", 7, 5, 2, 1));
+        assertComplex(-1, 0, evaluate("z % w", -7, 0, 2, 0));
+    }
+
+    @Test
+    public void testPrincipalValues() {
+        assertComplex(0, 2, evaluate("sqrt(z)", -4, 0, 0, 0));
+        assertComplex(0, Math.PI, evaluate("log(z)", -1, 0, 0, 0));
+        assertComplex(0, 1, evaluate("sqrt(-1)", 0, 0, 0, 0));
+        assertComplex(0, Math.PI, evaluate("log(-1)", 0, 0, 0, 0));
+        assertComplex(0, 2, evaluate("sqrt(-z)", 4, 0, 0, 0));
+        assertComplex(0, Math.PI, evaluate("log(-(2 - z))", 1, 0, 0, 0));
+        assertComplex(-2, 0, evaluate("cbrt(z)", -8, 0, 0, 0));
+        assertComplex(5, 0, evaluate("abs(z)", 3, 4, 0, 0));
+        assertComplex(0.6, 0.8, evaluate("signum(z)", 3, 4, 0, 0));
+        assertComplex(1, -2, evaluate("floor(z)", 1.5, -1.5, 0, 0));
+        assertComplex(2, -1, evaluate("ceil(z)", 1.5, -1.5, 0, 0));
+        assertComplex(Math.PI / 2, Math.log(2 + Math.sqrt(3)), evaluate("asin(z)", 2, 0, 0, 0));
+        assertComplex(2, 0.5, evaluate("avg(z, w)", 1, 2, 3, -1));
+    }
+
+    @Test
+    public void testIdentities() {
+        String[] identities = {"sin(z)^2 + cos(z)^2", "cosh(z)^2 - sinh(z)^2", "tan(z) * cos(z) / sin(z)",
+                "cot(z) * tan(z)", "tanh(z) * cosh(z) / sinh(z)", "exp(log(z)) / z", "sqrt(z)^2 / z", "cbrt(z)^3 / z",
+                "sin(asin(z)) / z", "cos(acos(z)) / z", "tan(atan(z)) / z", "10^log10(z) / z", "2^log2(z) / z",
+                "(expm1(z) + 1) / exp(z)", "exp(log1p(z)) / (1 + z)", "pow(z, w) / exp(w * log(z))",
+                "z^w / exp(w * log(z))"};
+        Random rnd = new Random(1);
+        for (String identity : identities) {
+            for (int n = 0; n < 50; n++) {
+                double[] value = evaluate(identity, rnd.nextDouble() * 2 - 1, rnd.nextDouble() * 2 - 1,
+                        rnd.nextDouble() * 2 - 1, rnd.nextDouble() * 2 - 1);
+                assertEquals(identity, 1, value[0], 1e-9);
+                assertEquals(identity, 0, value[1], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsRealExpression() {
+        Random rnd = new Random(2);
+        for (String name : Functions.ALL.keySet()) {
+            Function function = Functions.ALL.get(name);
+            String formula;
+            if (name.equals("if")) {
+                formula = "if(x - 0.5, x * y, y)";
+            } else if (function.getNumberOfArguments() == 2) {
+                formula = name + "(x, y)";
+            } else if (name.equals("avg")) {
+                formula = "avg(x, y, x * y)";
+            } else {
+                formula = name + "(x) + " + name + "(y)";
+            }
+            formula += " + x % y - x / y + (x < y) + (x >= y && y != 1)";
+            Expression e = new ExpressionBuilder(formula).variables("x", "y").build();
+            ComplexExpression c = new ComplexExpression(e);
+            for (int n = 0; n < 50; n++) {
+                double x = 0.1 + rnd.nextDouble() * 0.8;
+                double y = 0.1 + rnd.nextDouble() * 3;
+                double expected = e.setVariable("x", x).setVariable("y", y).evaluate();
+                if (Double.isNaN(expected)) {
+                    /* outside of the domain of the real function */
+                    continue;
+                }
+                double[] actual = c.setVariable("x", x).setVariable("y", y).evaluate();
+                assertEquals(formula, expected, actual[0], 0d);
+                assertEquals(formula, 0d, actual[1], 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testConditionals() {
+        assertComplex(2, 0, evaluate("if(z, 2, 1 / 0)", 0, 1, 0, 0));
+        assertComplex(1, 0, evaluate("z == w", 1, 2, 1, 2));
+        assertComplex(0, 0, evaluate("z != w", 1, 2, 1, 2));
+        assertComplex(1, 0, evaluate("z || 1 / 0", 0, 1, 0, 0));
+        assertComplex(0, 0, evaluate("w && 1 / 0", 0, 1, 0, 0));
+    }
+
+    @Test
+    public void testBatch() {
+        ComplexExpression c = new ExpressionBuilder("z * z + w").variables("z", "w").buildComplex("z", "w");
+        Random rnd = new Random(3);
+        int rows = 100;
+        double[][] re = new double[2][rows];
+        double[][] im = new double[2][rows];
+        for (int v = 0; v < 2; v++) {
+            for (int row = 0; row < rows; row++) {
+                re[v][row] = rnd.nextGaussian();
+                im[v][row] = rnd.nextGaussian();
+            }
+        }
+        double[] resultRe = new double[rows];
+        double[] resultIm = new double[rows];
+        c.evaluate(re, im, resultRe, resultIm);
+        double[] single = new double[2];
+        for (int row = 0; row < rows; row++) {
+            c.setVariable("z", re[0][row], im[0][row]).setVariable("w", re[1][row], im[1][row]).evaluate(single);
+            assertEquals(single[0], resultRe[row], 0d);
+            assertEquals(single[1], resultIm[row], 0d);
+        }
+        c.evaluate(re, null, resultRe, resultIm);
+        assertEquals(re[0][0] * re[0][0] + re[1][0], resultRe[0], EPSILON);
+        assertEquals(0d, resultIm[0], 0d);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testOrdering() {
+        evaluate("z < w", 1, 1, 2, 0);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() {
+        evaluate("z / w", 1, 1, 0, 0);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testRealModuloByZero() {
+        evaluate("z % w", 1, 0, 0, 0);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testModuloByZero() {
+        evaluate("z % w", 1, 1, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCustomFunction() {
+        new ExpressionBuilder("twice(z)").variables("z").function(new OneArgumentFunction("twice") {
+            @Override
+            public double apply(double arg) {
+                return 2 * arg;
+            }
+        }).buildComplex().setVariable("z", 1, 1).evaluate();
+    }
+}
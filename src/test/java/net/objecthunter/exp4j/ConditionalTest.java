@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.exceptions.ParseExpressionException;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.function.TwoArgumentFunction;
+import net.objecthunter.exp4j.ir.Nodes;
+import net.objecthunter.exp4j.tokenizer.JumpToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConditionalTest {
+
+    private static double eval(String expression, double x, double y) {
+        return new ExpressionBuilder(expression)
+                .variables("x", "y")
+                .build()
+                .setVariable("x", x)
+                .setVariable("y", y)
+                .evaluate();
+    }
+
+    @Test
+    public void testComparisons() {
+        assertEquals(1d, eval("x < y", 1, 2), 0d);
+        assertEquals(0d, eval("x > y", 1, 2), 0d);
+        assertEquals(1d, eval("x <= y", 2, 2), 0d);
+        assertEquals(1d, eval("x >= y", 2, 2), 0d);
+        assertEquals(1d, eval("x == y", 2, 2), 0d);
+        assertEquals(0d, eval("x != y", 2, 2), 0d);
+        assertEquals(1d, eval("x<-y", -3, 2), 0d);
+        assertEquals(1d, eval("x>=-y", -2, 2), 0d);
+    }
+
+    @Test
+    public void testPrecedence() {
+        assertEquals(1d, eval("x + 1 < y * 2", 2, 2), 0d);
+        assertEquals(1d, eval("x < y == y < 5", 1, 2), 0d);
+        assertEquals(1d, eval("x < y && y < 5 || x > 10", 1, 2), 0d);
+        assertEquals(1d, eval("x > 10 || x < y && y < 5", 1, 2), 0d);
+        assertEquals(0d, eval("(x > 10 || x < y) && y > 5", 1, 2), 0d);
+    }
+
+    @Test
+    public void testLogicalResultsAreBooleans() {
+        assertEquals(1d, eval("x && y", 3, 4), 0d);
+        assertEquals(0d, eval("x && y", 3, 0), 0d);
+        assertEquals(1d, eval("x || y", 0, -4), 0d);
+        assertEquals(0d, eval("x || y", 0, 0), 0d);
+    }
+
+    @Test
+    public void testIf() {
+        assertEquals(5d, eval("if(x > y, x, y)", 5, 2), 0d);
+        assertEquals(7d, eval("if(x > y, x, y)", 5, 7), 0d);
+        assertEquals(3d, eval("2 * if(x, if(y, 1, 2), 3) - 1", 1, 0), 0d);
+        assertEquals(11d, eval("if(x, 1, 2) + if(y, 10, 20)", 1, 1), 0d);
+    }
+
+    @Test
+    public void testUnusedOperandsAreNotEvaluated() {
+        final int[] calls = new int[1];
+        Expression e = new ExpressionBuilder("if(x > 0, 1 / x, expensive(x)) + (x != 0 || expensive(x)) + (x != 0 && 1 / x)")
+                .function(new OneArgumentFunction("expensive") {
+                    @Override
+                    public double apply(double arg) {
+                        calls[0]++;
+                        return arg;
+                    }
+                })
+                .variables("x")
+                .build();
+        assertEquals(2.5, e.setVariable("x", 2).evaluate(), 0d);
+        assertEquals(0, calls[0]);
+        assertEquals(0d, e.setVariable("x", 0).evaluate(), 0d);
+        assertEquals(2, calls[0]);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testUsedOperandsFail() {
+        eval("if(x == 0, 1 / x, 0)", 0, 0);
+    }
+
+    @Test
+    public void testJumpsAreInserted() {
+        Token[] tokens = Nodes.toRPN(new ExpressionBuilder("if(x, y, 1)").variables("x", "y").build().toTree());
+        /* x IF_FALSE(5) y GOTO(7) 1 GOTO(7) if */
+        assertEquals(7, tokens.length);
+        assertEquals(JumpToken.IF_FALSE, ((JumpToken) tokens[1]).getKind());
+        assertEquals(4, ((JumpToken) tokens[1]).getTarget());
+        assertEquals(7, ((JumpToken) tokens[3]).getTarget());
+        assertEquals(7, ((JumpToken) tokens[5]).getTarget());
+        assertEquals(Token.TOKEN_FUNCTION, tokens[6].getType());
+    }
+
+    @Test
+    public void testTreeRoundTrip() {
+        Expression e = new ExpressionBuilder("if(x < 1 && y > 2, x, -y)").variables("x", "y").build();
+        Expression copy = new Expression(e.toTree());
+        assertEquals(e.toTree(), copy.toTree());
+        assertEquals(0d, copy.setVariable("x", 0).setVariable("y", 3).evaluate(), 0d);
+        assertEquals(-1d, copy.setVariable("y", 1).evaluate(), 0d);
+        copy.validate();
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        Expression e = new ExpressionBuilder("if(x != 0, 1 / x, 0) + (x || y)").variables("x", "y").build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        e.writeTo(new DataOutputStream(bytes));
+        Expression read = Expression.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                new FunctionRegistry());
+        assertEquals(1d, read.setVariable("x", 0).setVariable("y", 1).evaluate(), 0d);
+        assertEquals(1.5, read.setVariable("x", 2).evaluate(), 0d);
+    }
+
+    @Test
+    public void testSharedEvaluators() {
+        Expression e = new ExpressionBuilder("if(x != 0, 1 / x, 5)").variables("x").build();
+        ExpressionSet set = new ExpressionSet(e, new ExpressionBuilder("x * 2").variables("x").build());
+        set.setVariable("x", 0);
+        double[] results = set.evaluate();
+        assertEquals(5d, results[0], 0d);
+        assertEquals(0d, results[1], 0d);
+
+        IncrementalExpression inc = new IncrementalExpression(e).setVariable("x", 0);
+        assertEquals(5d, inc.evaluate(), 0d);
+        assertEquals(0.5, inc.setVariable("x", 2).evaluate(), 0d);
+        assertTrue(inc.getDirtyCount() == 0);
+    }
+
+    @Test(expected = ParseExpressionException.class)
+    public void testIfArguments() {
+        new ExpressionBuilder("if(1, 2)").build();
+    }
+
+    @Test
+    public void testCustomIfReplacesBuiltin() {
+        Expression e = new ExpressionBuilder("if(x, 2) + 1").variables("x")
+                .function(new TwoArgumentFunction("if") {
+                    @Override
+                    public double apply(double arg1, double arg2) {
+                        return arg1 * arg2;
+                    }
+                })
+                .build()
+                .setVariable("x", 3);
+        assertEquals(7d, e.evaluate(), 0d);
+        assertFalse(Nodes.isLazy(e.toTree().getChildren().get(0)));
+    }
+
+    @Test
+    public void testCustomSinDoesNotReplaceBuiltin() {
+        Expression e = new ExpressionBuilder("if(x, sin(x), 0)").variables("x")
+                .function(new OneArgumentFunction("sin") {
+                    @Override
+                    public double apply(double arg) {
+                        return -arg;
+                    }
+                })
+                .build()
+                .setVariable("x", 3);
+        assertEquals(Math.sin(3), e.evaluate(), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIfIsNotAVariable() {
+        new ExpressionBuilder("if + 1").variables("if").build();
+    }
+}
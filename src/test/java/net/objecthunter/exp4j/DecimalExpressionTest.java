@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DecimalExpressionTest {
+
+    private static DecimalExpression build(String formula, int scale, RoundingMode rounding) {
+        return new ExpressionBuilder(formula).variables("x", "y").buildDecimal(scale, rounding);
+    }
+
+    private static BigDecimal evaluate(String formula, String x, String y) {
+        return build(formula, 2, RoundingMode.HALF_EVEN)
+                .setVariable("x", new BigDecimal(x))
+                .setVariable("y", new BigDecimal(y))
+                .evaluate();
+    }
+
+    @Test
+    public void testDecimalNumbersAreExact() {
+        assertEquals(new BigDecimal("0.30"), evaluate("0.1 + 0.2", "0", "0"));
+        assertEquals(new BigDecimal("0.30"), evaluate("x + y", "0.1", "0.2"));
+        assertEquals(new BigDecimal("0.00"), evaluate("x + y - 0.3", "0.1", "0.2"));
+        assertEquals(new BigDecimal("1.00"), evaluate("x + y == 0.3", "0.1", "0.2"));
+    }
+
+    @Test
+    public void testSameAsBigDecimal() {
+        Random rnd = new Random(1);
+        for (RoundingMode rounding : RoundingMode.values()) {
+            if (rounding == RoundingMode.UNNECESSARY) {
+                continue;
+            }
+            DecimalExpression product = build("x * y", 4, rounding);
+            DecimalExpression quotient = build("x / y", 4, rounding);
+            DecimalExpression sum = build("x + y - x % y", 4, rounding);
+            for (int i = 0; i < 2000; i++) {
+                /* small and large magnitudes, the large ones need more than 64 bits for the exact product */
+                long bound = i % 2 == 0 ? 1000000L : 100000000000L;
+                BigDecimal x = BigDecimal.valueOf(rnd.nextLong() % bound, 4);
+                BigDecimal y = BigDecimal.valueOf(rnd.nextLong() % bound, 4);
+                if (y.signum() == 0) {
+                    continue;
+                }
+                assertEquals(x.multiply(y).setScale(4, rounding),
+                        product.setVariable("x", x).setVariable("y", y).evaluate());
+                assertEquals(x.divide(y, 4, rounding),
+                        quotient.setVariable("x", x).setVariable("y", y).evaluate());
+                assertEquals(x.add(y).subtract(x.remainder(y)),
+                        sum.setVariable("x", x).setVariable("y", y).evaluate());
+            }
+        }
+    }
+
+    @Test
+    public void testLargeOperandsSameAsBigDecimal() {
+        Random rnd = new Random(2);
+        for (RoundingMode rounding : RoundingMode.values()) {
+            if (rounding == RoundingMode.UNNECESSARY) {
+                continue;
+            }
+            DecimalExpression product = build("x * y", 4, rounding);
+            DecimalExpression quotient = build("x / y", 4, rounding);
+            for (int i = 0; i < 2000; i++) {
+                /* a dividend times 10^4 needs more than 64 bits, and so do most products */
+                BigDecimal x = BigDecimal.valueOf(rnd.nextLong(), 4);
+                BigDecimal y = BigDecimal.valueOf(rnd.nextLong() >> rnd.nextInt(64), 4);
+                if (y.signum() == 0) {
+                    continue;
+                }
+                assertSameOrOverflow(x.multiply(y).setScale(4, rounding), product.setVariable("x", x).setVariable("y", y));
+                assertSameOrOverflow(x.divide(y, 4, rounding), quotient.setVariable("x", x).setVariable("y", y));
+            }
+        }
+    }
+
+    private static void assertSameOrOverflow(BigDecimal expected, DecimalExpression e) {
+        if (expected.unscaledValue().bitLength() < 64) {
+            assertEquals(expected, e.evaluate());
+        } else {
+            try {
+                e.evaluate();
+                fail("Overflow not detected for " + expected);
+            } catch (ArithmeticException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testDoublesRoundedLikeBigDecimal() {
+        Random rnd = new Random(3);
+        for (RoundingMode rounding : RoundingMode.values()) {
+            if (rounding == RoundingMode.UNNECESSARY) {
+                continue;
+            }
+            DecimalExpression e = build("x", 4, rounding);
+            for (int i = 0; i < 20000; i++) {
+                /* random doubles, and decimals with four to six digits which are close to a tie or exact */
+                double value = i % 2 == 0 ? (rnd.nextDouble() - 0.5) * Math.pow(10, rnd.nextInt(14) - 4)
+                        : (rnd.nextInt(2000001) - 1000000) / Math.pow(10, 4 + rnd.nextInt(3));
+                assertEquals(rounding + " " + value, BigDecimal.valueOf(value).setScale(4, rounding),
+                        e.setVariable("x", value).evaluate());
+            }
+        }
+    }
+
+    @Test
+    public void testRoundingModes() {
+        String[] values = {"2.5", "-2.5", "1.5", "2.4", "-2.6"};
+        for (RoundingMode rounding : RoundingMode.values()) {
+            if (rounding == RoundingMode.UNNECESSARY) {
+                continue;
+            }
+            DecimalExpression e = build("x / 10", 0, rounding);
+            for (String value : values) {
+                BigDecimal x = new BigDecimal(value).scaleByPowerOfTen(1);
+                assertEquals(rounding + " " + value, new BigDecimal(value).setScale(0, rounding),
+                        e.setVariable("x", x).evaluate());
+            }
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testRoundingUnnecessary() {
+        build("x / 3", 2, RoundingMode.UNNECESSARY).setVariable("x", 1).evaluate();
+    }
+
+    @Test
+    public void testExactFunctions() {
+        assertEquals(new BigDecimal("-3.00"), evaluate("floor(x)", "-2.01", "0"));
+        assertEquals(new BigDecimal("-2.00"), evaluate("ceil(x)", "-2.99", "0"));
+        assertEquals(new BigDecimal("3.00"), evaluate("ceil(x)", "2.01", "0"));
+        assertEquals(new BigDecimal("2.01"), evaluate("abs(x)", "-2.01", "0"));
+        assertEquals(new BigDecimal("-1.00"), evaluate("signum(x)", "-2.01", "0"));
+        assertEquals(new BigDecimal("0.67"), evaluate("avg(x, y, 0)", "1", "1"));
+        assertEquals(new BigDecimal("1.21"), evaluate("x^2", "1.1", "0"));
+        assertEquals(new BigDecimal("1.21"), evaluate("pow(x, y)", "1.1", "2"));
+        assertEquals(new BigDecimal("0.25"), evaluate("x^-2", "2", "0"));
+        assertEquals(new BigDecimal("5.00"), evaluate("if(x, 1 / x, y)", "0", "5"));
+    }
+
+    @Test
+    public void testDoubleFallback() {
+        assertEquals(new BigDecimal("1.41"), evaluate("sqrt(x)", "2", "0"));
+        assertEquals(new BigDecimal("1.41"), evaluate("x ^ y", "2", "0.5"));
+        assertEquals(new BigDecimal("0.69"), evaluate("log(x)", "2", "0"));
+    }
+
+    @Test
+    public void testCompoundInterest() {
+        DecimalExpression e = new ExpressionBuilder("principal * (1 + rate / 12) ^ months")
+                .variables("principal", "rate", "months")
+                .buildDecimal(10, RoundingMode.HALF_EVEN);
+        e.setVariable("principal", new BigDecimal("10000")).setVariable("rate", new BigDecimal("0.05"))
+                .setVariable("months", 12);
+        BigDecimal expected = new BigDecimal("10000").multiply(
+                BigDecimal.ONE.add(new BigDecimal("0.05").divide(new BigDecimal(12), 10, RoundingMode.HALF_EVEN)).pow(12));
+        assertEquals(expected.setScale(2, RoundingMode.HALF_EVEN), e.evaluate().setScale(2, RoundingMode.HALF_EVEN));
+    }
+
+    @Test
+    public void testUnscaled() {
+        DecimalExpression e = build("x * y", 2, RoundingMode.HALF_UP);
+        assertEquals(2, e.getScale());
+        assertEquals(151L, e.setUnscaledVariable("x", 123).setUnscaledVariable("y", 123).evaluateUnscaled());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() {
+        evaluate("x / y", "1", "0");
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testOverflow() {
+        build("x * y", 6, RoundingMode.HALF_UP).setVariable("x", 1e9).setVariable("y", 1e9).evaluate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidScale() {
+        build("x", 19, RoundingMode.HALF_UP);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DoubleDoubleExpressionTest {
+
+    private static final MathContext MC = new MathContext(60);
+
+    /* the relative error allowed, about 2^-100 */
+    private static final double TOLERANCE = 1e-30;
+
+    private static BigDecimal evaluate(String formula, BigDecimal x) {
+        return new ExpressionBuilder(formula).variables("x").buildDoubleDouble().setVariable("x", x).evaluateBigDecimal();
+    }
+
+    private static void assertClose(String message, BigDecimal expected, BigDecimal actual) {
+        assertClose(message, expected, actual, 1e-300);
+    }
+
+    /**
+     * Check the relative error, or the absolute error close to a zero of a function
+     */
+    private static void assertClose(String message, BigDecimal expected, BigDecimal actual, double absolute) {
+        BigDecimal error = expected.subtract(actual).abs();
+        BigDecimal bound = expected.abs().multiply(BigDecimal.valueOf(TOLERANCE)).max(BigDecimal.valueOf(absolute));
+        assertTrue(message + ": expected " + expected.round(new MathContext(35)) + " but was "
+                + actual.round(new MathContext(35)), error.compareTo(bound) <= 0);
+    }
+
+    private static BigDecimal exp(BigDecimal x) {
+        BigDecimal sum = BigDecimal.ONE;
+        BigDecimal term = BigDecimal.ONE;
+        for (int n = 1; n < 200; n++) {
+            term = term.multiply(x, MC).divide(BigDecimal.valueOf(n), MC);
+            sum = sum.add(term, MC);
+        }
+        return sum;
+    }
+
+    private static BigDecimal log(BigDecimal x) {
+        BigDecimal y = new BigDecimal(Math.log(x.doubleValue()));
+        for (int i = 0; i < 4; i++) {
+            y = y.add(x.multiply(exp(y.negate()), MC), MC).subtract(BigDecimal.ONE, MC);
+        }
+        return y;
+    }
+
+    private static BigDecimal sin(BigDecimal x) {
+        BigDecimal sum = x;
+        BigDecimal term = x;
+        BigDecimal x2 = x.multiply(x, MC).negate();
+        for (int n = 2; n < 200; n += 2) {
+            term = term.multiply(x2, MC).divide(BigDecimal.valueOf((long) n * (n + 1)), MC);
+            sum = sum.add(term, MC);
+        }
+        return sum;
+    }
+
+    private static BigDecimal cos(BigDecimal x) {
+        BigDecimal sum = BigDecimal.ONE;
+        BigDecimal term = BigDecimal.ONE;
+        BigDecimal x2 = x.multiply(x, MC).negate();
+        for (int n = 1; n < 200; n += 2) {
+            term = term.multiply(x2, MC).divide(BigDecimal.valueOf((long) n * (n + 1)), MC);
+            sum = sum.add(term, MC);
+        }
+        return sum;
+    }
+
+    @Test
+    public void testCancellation() {
+        BigDecimal tiny = new BigDecimal(Math.scalb(1d, -70));
+        assertEquals(0, tiny.compareTo(evaluate("(1 + x) - 1", tiny)));
+        assertEquals(0, BigDecimal.ONE.compareTo(evaluate("(x + 1e10) - x - 9999999999", new BigDecimal("1e20"))));
+        /* a double evaluation of the same formula yields 0 */
+        assertEquals(0d, new ExpressionBuilder("(1 + x) - 1").variables("x").build().setVariable("x", 1e-20).evaluate(), 0d);
+    }
+
+    @Test
+    public void testArithmetic() {
+        Random rnd = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            BigDecimal x = new BigDecimal(rnd.nextDouble() * 10 - 5).add(new BigDecimal(rnd.nextDouble() * 1e-17));
+            BigDecimal third = BigDecimal.ONE.divide(new BigDecimal(3), MC);
+            assertClose("x * x + x / 3", x.multiply(x).add(x.multiply(third, MC)), evaluate("x * x + x / 3", x));
+            assertClose("x^7", x.pow(7), evaluate("x^7", x));
+            assertClose("x^-3", BigDecimal.ONE.divide(x.pow(3), MC), evaluate("x^-3", x));
+            assertClose("0.1 * x", new BigDecimal("0.1").multiply(x), evaluate("0.1 * x", x));
+            assertClose("sqrt(x^2 + 1)", x.multiply(x).add(BigDecimal.ONE).sqrt(MC), evaluate("sqrt(x^2 + 1)", x));
+            assertClose("cbrt(x)^3", x, evaluate("cbrt(x)^3", x));
+        }
+    }
+
+    @Test
+    public void testModulo() {
+        assertEquals(0, new BigDecimal("0.5").compareTo(evaluate("x % 1.5", new BigDecimal("3.5"))));
+        assertEquals(0, new BigDecimal("-0.5").compareTo(evaluate("x % 1.5", new BigDecimal("-3.5"))));
+        BigDecimal x = new BigDecimal("1e20").add(new BigDecimal("0.25"));
+        assertEquals(0, new BigDecimal("0.25").compareTo(evaluate("x % 1", x)));
+    }
+
+    @Test
+    public void testTranscendentalFunctions() {
+        Random rnd = new Random(2);
+        for (int i = 0; i < 200; i++) {
+            BigDecimal x = new BigDecimal(rnd.nextDouble() * 20 - 10);
+            BigDecimal positive = x.abs().add(new BigDecimal("0.001"));
+            assertClose("exp " + x, exp(x), evaluate("exp(x)", x));
+            assertClose("expm1 " + x, exp(x).subtract(BigDecimal.ONE), evaluate("expm1(x)", x));
+            assertClose("log " + positive, log(positive), evaluate("log(x)", positive));
+            assertClose("log10 " + positive, log(positive).divide(log(BigDecimal.TEN), MC), evaluate("log10(x)", positive));
+            assertClose("log2 " + positive, log(positive).divide(log(new BigDecimal(2)), MC), evaluate("log2(x)", positive));
+            assertClose("sin " + x, sin(x), evaluate("sin(x)", x), 1e-31);
+            assertClose("cos " + x, cos(x), evaluate("cos(x)", x), 1e-31);
+            BigDecimal tan = sin(x).divide(cos(x), MC);
+            /* the error of the reduced argument is amplified by the derivative 1 + tan^2 */
+            assertClose("tan " + x, tan, evaluate("tan(x)", x), 1e-31 * (1 + Math.pow(tan.doubleValue(), 2)));
+            assertClose("pow " + positive, exp(x.multiply(log(positive))), new ExpressionBuilder("pow(y, x)")
+                    .variables("x", "y")
+                    .buildDoubleDouble()
+                    .setVariable("x", x)
+                    .setVariable("y", positive)
+                    .evaluateBigDecimal());
+        }
+        BigDecimal small = new BigDecimal("1e-10");
+        assertClose("expm1 small", exp(small).subtract(BigDecimal.ONE), evaluate("expm1(x)", small));
+        assertClose("log1p small", log(BigDecimal.ONE.add(small)), evaluate("log1p(x)", small));
+    }
+
+    @Test
+    public void testSameAsDoubleForOtherFunctions() {
+        Expression e = new ExpressionBuilder("asin(x) + atan(x) + sinh(x) + abs(-x) + floor(x * 10) + signum(x) + avg(x, 2)")
+                .variables("x")
+                .build();
+        DoubleDoubleExpression dd = new DoubleDoubleExpression(e);
+        Random rnd = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            double x = rnd.nextDouble();
+            assertEquals(e.setVariable("x", x).evaluate(), dd.setVariable("x", x).evaluate(), 1e-14);
+        }
+    }
+
+    @Test
+    public void testConditionals() {
+        assertEquals(0, BigDecimal.ONE.compareTo(evaluate("x > 1 && x < 2", new BigDecimal("1.5"))));
+        /* the comparisons use both parts */
+        assertEquals(1d, new ExpressionBuilder("1 + x > 1").variables("x").buildDoubleDouble().setVariable("x", 1e-20).evaluate(), 0d);
+        assertEquals(2d, new ExpressionBuilder("if(x, 2, 1 / x)").variables("x").buildDoubleDouble().setVariable("x", 1).evaluate(), 0d);
+        double[] result = new double[2];
+        new ExpressionBuilder("1 / 3").buildDoubleDouble().evaluate(result);
+        assertEquals(1d / 3, result[0], 0d);
+        assertTrue(result[1] != 0d);
+    }
+
+    @Test
+    public void testSpecialValues() {
+        DoubleDoubleExpression e = new ExpressionBuilder("x * 2 + 1").variables("x").buildDoubleDouble();
+        assertEquals(Double.POSITIVE_INFINITY, e.setVariable("x", Double.POSITIVE_INFINITY).evaluate(), 0d);
+        assertTrue(Double.isNaN(e.setVariable("x", Double.NaN).evaluate()));
+        assertEquals(Double.POSITIVE_INFINITY, new ExpressionBuilder("exp(1000)").buildDoubleDouble().evaluate(), 0d);
+        assertTrue(Double.isNaN(new ExpressionBuilder("log(-1)").buildDoubleDouble().evaluate()));
+    }
+
+    @Test
+    public void testLargeTrigonometricArguments() {
+        double[] arguments = {1e15, -1e18, 1e22, 1e300, Math.scalb(1d, 20), 123456789.5};
+        for (double x : arguments) {
+            BigDecimal sin = evaluate("sin(x)", new BigDecimal(x));
+            BigDecimal cos = evaluate("cos(x)", new BigDecimal(x));
+            /* StrictMath reduces exactly as well and is correctly rounded within one ulp */
+            assertEquals("sin " + x, StrictMath.sin(x), sin.doubleValue(), Math.ulp(StrictMath.sin(x)));
+            assertEquals("cos " + x, StrictMath.cos(x), cos.doubleValue(), Math.ulp(StrictMath.cos(x)));
+            assertClose("sin^2 + cos^2 " + x, BigDecimal.ONE, sin.multiply(sin).add(cos.multiply(cos)), 1e-30);
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() {
+        new ExpressionBuilder("1 / x").variables("x").buildDoubleDouble().setVariable("x", 0).evaluate();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testModuloByZero() {
+        new ExpressionBuilder("1 % x").variables("x").buildDoubleDouble().setVariable("x", 0).evaluate();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Differentiable;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.function.TwoArgumentFunction;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class DualExpressionTest {
+
+    /**
+     * Compare the derivatives of an expression to central differences of {@link Expression#evaluate()}
+     */
+    private static void assertDerivatives(String formula, double x, double y) {
+        Expression e = new ExpressionBuilder(formula).variables("x", "y").build();
+        DualExpression dual = new DualExpression(e, "x", "y").setVariable("x", x).setVariable("y", y);
+        double[] derivatives = new double[2];
+        double value = dual.evaluate(derivatives);
+        assertEquals(formula, e.setVariable("x", x).setVariable("y", y).evaluate(), value, 0d);
+
+        double h = 1e-6;
+        double dx = (e.setVariable("x", x + h).evaluate() - e.setVariable("x", x - h).evaluate()) / (2 * h);
+        e.setVariable("x", x);
+        double dy = (e.setVariable("y", y + h).evaluate() - e.setVariable("y", y - h).evaluate()) / (2 * h);
+        assertEquals(formula + " d/dx", dx, derivatives[0], 1e-5 * Math.max(1, Math.abs(dx)));
+        assertEquals(formula + " d/dy", dy, derivatives[1], 1e-5 * Math.max(1, Math.abs(dy)));
+    }
+
+    @Test
+    public void testOperators() {
+        assertDerivatives("x + y", 1.5, 2);
+        assertDerivatives("x - y", 1.5, 2);
+        assertDerivatives("x * y", 1.5, 2);
+        assertDerivatives("x / y", 1.5, 2);
+        assertDerivatives("x % y", 5.5, 2);
+        assertDerivatives("x ^ y", 1.5, 2);
+        assertDerivatives("-x * +y", 1.5, 2);
+        assertDerivatives("x ^ 3", -1.5, 2);
+        assertDerivatives("(x < y) * x", 1.5, 2);
+    }
+
+    @Test
+    public void testFunctions() {
+        Random rnd = new Random(2);
+        for (String name : Functions.ALL.keySet()) {
+            Function function = Functions.ALL.get(name);
+            String formula;
+            if (name.equals("if")) {
+                formula = "if(x - 0.5, x * y, y)";
+            } else if (function.getNumberOfArguments() == 2) {
+                formula = name + "(x, y)";
+            } else if (name.equals("avg")) {
+                formula = "avg(x, y, x * y)";
+            } else {
+                formula = name + "(x * y)";
+            }
+            for (int i = 0; i < 5; i++) {
+                /* stay inside the domains of asin, acos and away from the steps of floor and ceil */
+                assertDerivatives(formula, 0.1 + rnd.nextDouble() * 0.4, 0.55 + rnd.nextDouble() * 0.4);
+            }
+        }
+    }
+
+    @Test
+    public void testChainRule() {
+        assertDerivatives("sin(x)^2 * exp(-y) + log(x * y + 1) / sqrt(x^2 + y^2)", 0.7, 1.3);
+        assertDerivatives("if(x > y && y > 0, x^y, cos(x) * y)", 2.5, 1.5);
+        assertDerivatives("if(x > y && y > 0, x^y, cos(x) * y)", 0.5, 1.5);
+    }
+
+    @Test
+    public void testExactDerivatives() {
+        Expression e = new ExpressionBuilder("3x^2 + 2y").variables("x", "y").build();
+        double[] derivatives = new double[1];
+        double value = new DualExpression(e, "x").setVariable("x", 2).setVariable("y", 1).evaluate(derivatives);
+        assertEquals(14d, value, 0d);
+        assertEquals(12d, derivatives[0], 0d);
+    }
+
+    @Test
+    public void testConstantBaseOfPower() {
+        Expression e = new ExpressionBuilder("(-2)^x").variables("x").build();
+        double[] derivatives = new double[1];
+        new DualExpression(e, "x").setVariable("x", 2).evaluate(derivatives);
+        /* ln(-2) is NaN, so there is no derivative */
+        assertEquals(Double.NaN, derivatives[0], 0d);
+        e = new ExpressionBuilder("x^2").variables("x").build();
+        new DualExpression(e, "x").setVariable("x", -2).evaluate(derivatives);
+        assertEquals(-4d, derivatives[0], 0d);
+    }
+
+    @Test
+    public void testCustomFunctions() {
+        class Hypot extends TwoArgumentFunction implements Differentiable {
+            Hypot() {
+                super("hypot");
+            }
+
+            @Override
+            public double apply(double a, double b) {
+                return Math.hypot(a, b);
+            }
+
+            @Override
+            public double derivative(int argument, double... args) {
+                return args[argument] / Math.hypot(args[0], args[1]);
+            }
+        }
+        Function cube = new OneArgumentFunction("cube") {
+            @Override
+            public double apply(double arg) {
+                return arg * arg * arg;
+            }
+        };
+        Expression e = new ExpressionBuilder("hypot(x, y) + cube(x)")
+                .functions(new Hypot(), cube)
+                .variables("x", "y")
+                .build();
+        double[] derivatives = new double[2];
+        double value = new DualExpression(e, "x", "y").setVariable("x", 3).setVariable("y", 4).evaluate(derivatives);
+        assertEquals(32d, value, 0d);
+        assertEquals(0.6 + 27, derivatives[0], 1e-8);
+        assertEquals(0.8, derivatives[1], 0d);
+    }
+
+    @Test
+    public void testUnknownVariablesHaveNoDerivative() {
+        Expression e = new ExpressionBuilder("2 pi r").variables("pi", "r").build();
+        double[] derivatives = new double[2];
+        double value = new DualExpression(e, "r", "z").setVariable("r", 1).evaluate(derivatives);
+        assertEquals(2 * Math.PI, value, 0d);
+        assertEquals(2 * Math.PI, derivatives[0], 0d);
+        assertEquals(0d, derivatives[1], 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableNotSet() {
+        new DualExpression(new ExpressionBuilder("x").variables("x").build(), "x").evaluate(new double[1]);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() {
+        new DualExpression(new ExpressionBuilder("1 / x").variables("x").build(), "x")
+                .setVariable("x", 0)
+                .evaluate(new double[1]);
+    }
+}
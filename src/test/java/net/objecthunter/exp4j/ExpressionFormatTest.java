@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.MathMode;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.optimizer.ChebyshevApproximation;
+import net.objecthunter.exp4j.optimizer.LinearCombinationDetection;
+import net.objecthunter.exp4j.optimizer.PolynomialEvaluation;
+import net.objecthunter.exp4j.optimizer.Reassociation;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExpressionFormatTest {
+
+    private static final Function TRIPLE = new OneArgumentFunction("triple") {
+        @Override
+        public double apply(double arg) {
+            return 3 * arg;
+        }
+    };
+
+    private static final Operator FACTORIAL = new Operator("!", 1, true, Operator.PRECEDENCE_POWER + 1) {
+        @Override
+        public double apply(double... args) {
+            double result = 1;
+            for (int i = 2; i <= (int) args[0]; i++) {
+                result *= i;
+            }
+            return result;
+        }
+    };
+
+    private static byte[] write(Expression e) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        e.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static Expression read(byte[] data, FunctionRegistry registry) throws IOException {
+        return Expression.readFrom(new DataInputStream(new ByteArrayInputStream(data)), registry);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Expression e = new ExpressionBuilder("2*sin(x) - avg(x, y, 3.5)^-1 + pi")
+                .variables("x", "y", "pi")
+                .build();
+        Expression copy = read(write(e), new FunctionRegistry())
+                .setVariable("x", 0.3)
+                .setVariable("y", 1.7);
+        e.setVariable("x", 0.3).setVariable("y", 1.7);
+        assertEquals(e.evaluate(), copy.evaluate(), 0d);
+        assertEquals(e.getVariableNames(), copy.getVariableNames());
+    }
+
+    @Test
+    public void testCustomFunctionsAndOperators() throws Exception {
+        Expression e = new ExpressionBuilder("triple(x)! + triple(2)")
+                .function(TRIPLE)
+                .operator(FACTORIAL)
+                .variables("x")
+                .build()
+                .setVariable("x", 1);
+        Expression copy = read(write(e), new FunctionRegistry().function(TRIPLE).operator(FACTORIAL));
+        assertEquals(12d, copy.evaluate(), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFunction() throws Exception {
+        Expression e = new ExpressionBuilder("triple(4)")
+                .function(TRIPLE)
+                .build();
+        read(write(e), new FunctionRegistry());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFunctionWithDifferentArity() throws Exception {
+        Expression e = new ExpressionBuilder("triple(4)")
+                .function(TRIPLE)
+                .build();
+        read(write(e), new FunctionRegistry().function(new Function("triple", 2) {
+        }));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testInvalidMagic() throws Exception {
+        read(new byte[]{1, 2, 3, 4, 5}, new FunctionRegistry());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testUnsupportedVersion() throws Exception {
+        byte[] data = write(new ExpressionBuilder("1+2").build());
+        data[4] = 99;
+        read(data, new FunctionRegistry());
+    }
+
+    @Test
+    public void testCompactEncoding() throws Exception {
+        StringBuilder sb = new StringBuilder("x");
+        for (int i = 0; i < 100; i++) {
+            sb.append("+x*2");
+        }
+        byte[] data = write(new ExpressionBuilder(sb.toString()).variables("x").build());
+        /* one pooled constant and one symbol for each of 'x', '+' and '*' */
+        assertTrue(data.length < 4 * 301);
+        Expression copy = read(data, new FunctionRegistry()).setVariable("x", 1);
+        assertEquals(201d, copy.evaluate(), 0d);
+    }
+
+    @Test
+    public void testFusedMultiplyAdd() throws Exception {
+        Expression e = new ExpressionBuilder("x * y + 0.1").variables("x", "y").fusedMultiplyAdd(true).build()
+                .setVariable("x", 0.1).setVariable("y", 3);
+        assertTrue(e.toTree().toString().startsWith("fma("));
+        Expression copy = read(write(e), new FunctionRegistry());
+        assertEquals(Math.fma(0.1, 3, 0.1), copy.evaluate(), 0d);
+        assertEquals(e.toTree().toString(), copy.toTree().toString());
+    }
+
+    @Test
+    public void testSyntheticFunctionsAreRefused() throws Exception {
+        NodeTransformer[] passes = {
+                new LinearCombinationDetection(),
+                new Reassociation(Reassociation.Summation.COMPENSATED),
+                new PolynomialEvaluation(),
+                new ChebyshevApproximation("x", 0, 1, 1e-6)
+        };
+        String[] formulas = {"2*x + 3*y - z + 1", "x + y + z + 1", "3*x^3 - 2*x^2 + x", "sin(x) * exp(x)"};
+        String[] names = {"dot", "sum", "polynomial", "chebyshev"};
+        for (int i = 0; i < passes.length; i++) {
+            Expression e = new ExpressionBuilder(formulas[i]).variables("x", "y", "z").pass(passes[i]).build();
+            assertTrue(e.toTree().toString(), e.toTree().toString().contains(names[i] + "("));
+            try {
+                write(e);
+                fail(names[i]);
+            } catch (IllegalArgumentException expected) {
+                assertTrue(expected.getMessage().contains("'" + names[i] + "'"));
+            }
+        }
+    }
+
+    @Test
+    public void testMathMode() throws Exception {
+        for (MathMode mode : MathMode.values()) {
+            Expression e = new ExpressionBuilder("sin(x) + y^2.5 + pow(y, x)").variables("x", "y").mathMode(mode).build()
+                    .setVariable("x", 0.7).setVariable("y", 1.3);
+            Expression copy = read(write(e), new FunctionRegistry());
+            assertEquals(mode.toString(), Double.doubleToLongBits(e.evaluate()), Double.doubleToLongBits(copy.evaluate()));
+        }
+        /* custom functions in the registry are kept */
+        Expression e = new ExpressionBuilder("sin(x)").variables("x").mathMode(MathMode.FAST).build().setVariable("x", 1);
+        Expression copy = read(write(e), new FunctionRegistry().function(new OneArgumentFunction("sin") {
+            @Override
+            public double apply(double arg) {
+                return 2 * arg;
+            }
+        }));
+        assertEquals(2d, copy.evaluate(), 0d);
+    }
+
+    @Test
+    public void testFirstVersion() throws Exception {
+        byte[] data = write(new ExpressionBuilder("x + 2").variables("x").build().setVariable("x", 1));
+        /* the first version had no math mode, which is written as the length prefixed name after the header */
+        int skipped = 1 + MathMode.DEFAULT.name().length();
+        byte[] first = new byte[data.length - skipped];
+        System.arraycopy(data, 0, first, 0, 9);
+        System.arraycopy(data, 9 + skipped, first, 9, data.length - 9 - skipped);
+        first[4] = 1;
+        first[8] -= skipped;
+        assertEquals(3d, read(first, new FunctionRegistry()).evaluate(), 0d);
+        assertTrue(Arrays.equals(data, write(read(data, new FunctionRegistry()))));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ExpressionSetTest {
+
+    @Test
+    public void testSameResultsAsEvaluate() {
+        String[] formulas = {
+                "sin(x) * y + cos(z)",
+                "sin(x) * y - log(z + 1)",
+                "avg(x, y, z) ^ 2",
+                "sqrt(x^2 + y^2) / (z + 1)",
+                "-x + 3"
+        };
+        List<Expression> expressions = new ArrayList<>();
+        for (String formula : formulas) {
+            expressions.add(new ExpressionBuilder(formula).variables("x", "y", "z").build());
+        }
+        ExpressionSet set = new ExpressionSet(expressions);
+        assertEquals(formulas.length, set.size());
+        Random rnd = new Random(11);
+        double[] results = new double[formulas.length];
+        for (int i = 0; i < 100; i++) {
+            double x = rnd.nextDouble(), y = rnd.nextDouble(), z = rnd.nextDouble();
+            set.setVariable("x", x).setVariable("y", y).setVariable("z", z).evaluate(results);
+            for (int e = 0; e < formulas.length; e++) {
+                double expected = expressions.get(e).setVariable("x", x).setVariable("y", y).setVariable("z", z)
+                        .evaluate();
+                assertEquals(expected, results[e], 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testSharedSubexpressions() {
+        ExpressionSet set = new ExpressionSet(
+                new ExpressionBuilder("sin(x) * y + 1").variables("x", "y").build(),
+                new ExpressionBuilder("sin(x) * y + 2").variables("x", "y").build(),
+                new ExpressionBuilder("sin(x)").variables("x").build());
+        /* sin, the product and the two sums */
+        assertEquals(4, set.getOperationCount());
+        set.setVariable("x", 0).setVariable("y", 5);
+        assertArrayEquals(new double[]{1, 2, 0}, set.evaluate(), 0d);
+    }
+
+    @Test
+    public void testConstantsAndPresetVariables() {
+        ExpressionSet set = new ExpressionSet(
+                new ExpressionBuilder("2 pi r").variables("pi", "r").build().setVariable("r", 1),
+                new ExpressionBuilder("r + 1").variables("r").build());
+        assertArrayEquals(new double[]{2 * Math.PI, 2}, set.evaluate(), 0d);
+    }
+
+    @Test
+    public void testCopiesAreIndependent() {
+        ExpressionSet set = new ExpressionSet(new ExpressionBuilder("x * 2").variables("x").build());
+        ExpressionSet copy = new ExpressionSet(set);
+        set.setVariable("x", 1);
+        copy.setVariable("x", 2);
+        assertEquals(2d, set.evaluate()[0], 0d);
+        assertEquals(4d, copy.evaluate()[0], 0d);
+    }
+
+    @Test
+    public void testFailuresDoNotRepeatCalls() {
+        final int[] calls = new int[1];
+        Function count = new OneArgumentFunction("count") {
+            @Override
+            public double apply(double arg) {
+                calls[0]++;
+                return arg;
+            }
+        };
+        ExpressionSet set = new ExpressionSet(
+                new ExpressionBuilder("count(x) + if(y != 0, x / y, 0)").function(count).variables("x", "y").build(),
+                new ExpressionBuilder("count(x + 1) * 2").function(count).variables("x").build());
+        set.setVariable("x", 1).setVariable("y", 2);
+        assertArrayEquals(new double[]{1.5, 4}, set.evaluate(), 0d);
+        assertEquals(2, calls[0]);
+        /* the skipped division fails, the operations after it are computed without repeating the others */
+        set.setVariable("y", 0);
+        assertArrayEquals(new double[]{1, 4}, set.evaluate(), 0d);
+        assertEquals(4, calls[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableNotSet() {
+        new ExpressionSet(new ExpressionBuilder("x * 2").variables("x").build()).evaluate();
+    }
+}
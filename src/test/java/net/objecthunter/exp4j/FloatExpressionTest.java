@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.operator.Operator;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FloatExpressionTest {
+
+    private static float[][] columns(int rows, long seed) {
+        Random rnd = new Random(seed);
+        float[][] columns = new float[2][rows];
+        for (int i = 0; i < rows; i++) {
+            columns[0][i] = 0.1f + rnd.nextFloat() * 0.8f;
+            columns[1][i] = 0.1f + rnd.nextFloat() * 3f;
+        }
+        return columns;
+    }
+
+    /**
+     * Compare the batch results to a double precision evaluation of every row
+     */
+    private static void assertSameAsDouble(Expression e, int rows) {
+        float[][] columns = columns(rows, rows);
+        float[] results = new float[rows];
+        new FloatExpression(e, "x", "y").evaluate(columns, results);
+        for (int i = 0; i < rows; i++) {
+            double expected = e.setVariable("x", columns[0][i]).setVariable("y", columns[1][i]).evaluate();
+            assertEquals("row " + i, expected, results[i], 1e-5 * Math.max(1, Math.abs(expected)));
+        }
+    }
+
+    private static void assertSameAsDouble(String formula) {
+        assertSameAsDouble(new ExpressionBuilder(formula).variables("x", "y").build(), 100);
+    }
+
+    @Test
+    public void testOperators() {
+        assertSameAsDouble("x + y");
+        assertSameAsDouble("x - y * 2");
+        assertSameAsDouble("x / y");
+        assertSameAsDouble("y % x");
+        assertSameAsDouble("x ^ y");
+        assertSameAsDouble("-x + +y");
+        assertSameAsDouble("(x < y) + (x > y) * 2 + (x <= 0.5) * 4 + (y >= 1) * 8 + (x == x) * 16 + (x != y) * 32");
+        assertSameAsDouble("(x > 0.5 && y > 1) + (x > 0.5 || y > 1) * 2");
+    }
+
+    @Test
+    public void testFunctions() {
+        for (String name : Functions.ALL.keySet()) {
+            Function function = Functions.ALL.get(name);
+            String formula;
+            if (name.equals("if")) {
+                formula = "if(x - 0.5, x * y, y)";
+            } else if (function.getNumberOfArguments() == 2) {
+                formula = name + "(x, y)";
+            } else if (name.equals("avg")) {
+                formula = "avg(x, y, x * y)";
+            } else {
+                formula = name + "(x)";
+            }
+            assertSameAsDouble(formula);
+        }
+    }
+
+    @Test
+    public void testManyBlocks() {
+        Expression e = new ExpressionBuilder("sin(x) * (x + y) + (x + y)^2 - sqrt(x * y) / (1 + x)")
+                .variables("x", "y")
+                .build();
+        assertSameAsDouble(e, FloatExpression.BLOCK_SIZE * 3 + 17);
+    }
+
+    @Test
+    public void testConstantsAndLeaves() {
+        Expression e = new ExpressionBuilder("2 pi r").variables("r").withPi().build();
+        assertEquals((float) (2 * Math.PI), new FloatExpression(e, "r").evaluate(1f), 1e-6f);
+        e = new ExpressionBuilder("+x").variables("x").build();
+        assertEquals(3f, new FloatExpression(e, "x").evaluate(3f), 0f);
+        e = new ExpressionBuilder("y").variables("y").build().setVariable("y", 2);
+        assertEquals(2f, new FloatExpression(e).evaluate(), 0f);
+    }
+
+    @Test
+    public void testCustomFunctionAndOperator() {
+        Function twice = new OneArgumentFunction("twice") {
+            @Override
+            public double apply(double x) {
+                return 2 * x;
+            }
+        };
+        Operator factorial = new Operator("!", 1, true, Operator.PRECEDENCE_POWER + 1) {
+            @Override
+            public double apply(double... args) {
+                double result = 1;
+                for (int i = 2; i <= args[0]; i++) {
+                    result *= i;
+                }
+                return result;
+            }
+        };
+        Expression e = new ExpressionBuilder("twice(x) + y!").variables("x", "y").function(twice).operator(factorial)
+                .build();
+        assertEquals(26f, new FloatExpression(e, "x", "y").evaluate(1f, 4f), 0f);
+    }
+
+    @Test
+    public void testDivisionByZero() {
+        Expression e = new ExpressionBuilder("if(x != 0, 1 / x, 0) + 1 / y").variables("x", "y").build();
+        FloatExpression f = new FloatExpression(e, "x", "y");
+        assertEquals(Float.POSITIVE_INFINITY, f.evaluate(0f, 0f), 0f);
+        assertEquals(1.5f, f.evaluate(2f, 1f), 0f);
+    }
+
+    @Test
+    public void testCopy() {
+        Expression e = new ExpressionBuilder("x * y + 1").variables("x", "y").build();
+        FloatExpression f = new FloatExpression(e, "x", "y");
+        FloatExpression copy = new FloatExpression(f);
+        assertEquals(7f, copy.evaluate(2f, 3f), 0f);
+        assertEquals(7f, f.evaluate(3f, 2f), 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableNotSet() {
+        new FloatExpression(new ExpressionBuilder("x + y").variables("x", "y").build(), "x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShortColumn() {
+        Expression e = new ExpressionBuilder("x + y").variables("x", "y").build();
+        new FloatExpression(e, "x", "y").evaluate(new float[][]{new float[10], new float[5]}, new float[10]);
+    }
+}
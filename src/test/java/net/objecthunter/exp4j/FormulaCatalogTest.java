@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NodeTransformer;
+import net.objecthunter.exp4j.ir.NumberNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FormulaCatalogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLoadFile() throws Exception {
+        Path file = folder.newFile("formulas.txt").toPath();
+        Files.write(file, Arrays.asList(
+                "# margins",
+                "margin = revenue - cost",
+                "",
+                "ratio = (revenue - cost) / revenue",
+                "scaled=triple(ratio)"), StandardCharsets.UTF_8);
+        FormulaCatalog catalog = new FormulaCatalog(new FunctionRegistry().function(new OneArgumentFunction("triple") {
+            @Override
+            public double apply(double arg) {
+                return 3 * arg;
+            }
+        }))
+                .variables("revenue", "cost", "ratio")
+                .load(file);
+
+        assertEquals(Arrays.asList("margin", "ratio", "scaled"), new ArrayList<>(catalog.getNames()));
+        assertTrue(catalog.getErrors().isEmpty());
+        assertEquals(6d, catalog.get("margin").setVariable("revenue", 10).setVariable("cost", 4).evaluate(), 0d);
+        assertEquals(0.6, catalog.get("ratio").setVariable("revenue", 10).setVariable("cost", 4).evaluate(), 0d);
+        assertEquals(1.5, catalog.get("scaled").setVariable("ratio", 0.5).evaluate(), 0d);
+        assertEquals("revenue - cost", catalog.getSource("margin"));
+        assertNull(catalog.get("unknown"));
+
+        FormulaCatalog.Metrics metrics = catalog.getMetrics();
+        assertEquals(5, metrics.getLinesRead());
+        assertEquals(3, metrics.getFormulasLoaded());
+        assertEquals(0, metrics.getFormulasFailed());
+    }
+
+    @Test
+    public void testErrorsDoNotStopTheLoad() {
+        FormulaCatalog catalog = new FormulaCatalog()
+                .variables("x")
+                .load(Arrays.asList(
+                        "a = x + 1",
+                        "b = x + unknown",
+                        "no definition",
+                        "c = (x",
+                        "a = 2 * x",
+                        "d = ",
+                        "e = 3 * x"));
+        assertEquals(2, catalog.getMetrics().getFormulasLoaded());
+        List<FormulaCatalog.Error> errors = catalog.getErrors();
+        assertEquals(5, errors.size());
+        assertEquals(2, errors.get(0).getLine());
+        assertEquals("b", errors.get(0).getName());
+        assertEquals(3, errors.get(1).getLine());
+        assertNull(errors.get(1).getName());
+        assertEquals("c", errors.get(2).getName());
+        assertEquals(5, errors.get(3).getLine());
+        assertEquals("d", errors.get(4).getName());
+        assertEquals(2d, catalog.get("a").setVariable("x", 1).evaluate(), 0d);
+    }
+
+    @Test
+    public void testConstants() {
+        FormulaCatalog catalog = new FormulaCatalog()
+                .variables("x", "pi")
+                .load(Arrays.asList("circle = 2 pi x"));
+        assertEquals(2 * Math.PI, catalog.get("circle").setVariable("x", 1).evaluate(), 0d);
+    }
+
+    @Test
+    public void testParallelLoad() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            lines.add("f" + i + " = x * " + i + " + sin(y)");
+        }
+        FormulaCatalog catalog = new FormulaCatalog()
+                .variables("x", "y")
+                .parallelism(4)
+                .load(lines);
+        assertEquals(20000, catalog.getMetrics().getFormulasLoaded());
+        for (int i = 0; i < 20000; i += 997) {
+            assertEquals(2d * i, catalog.get("f" + i).setVariable("x", 2).setVariable("y", 0).evaluate(), 0d);
+        }
+    }
+
+    @Test
+    public void testLazyPasses() {
+        final AtomicInteger applied = new AtomicInteger();
+        FormulaCatalog catalog = new FormulaCatalog()
+                .variables("x")
+                .pass(new NodeTransformer() {
+                    @Override
+                    public Node transform(Node root) {
+                        applied.incrementAndGet();
+                        return new NumberNode(42);
+                    }
+                })
+                .load(Arrays.asList("a = x", "b = 2 * x"));
+        assertEquals(0, applied.get());
+        assertEquals(42d, catalog.get("a").evaluate(), 0d);
+        assertEquals(42d, catalog.get("a").evaluate(), 0d);
+        assertEquals(1, applied.get());
+        assertEquals(1, catalog.getMetrics().getFormulasCompiled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableNamedLikeFunction() {
+        new FormulaCatalog().variables("sin").load(Arrays.asList("a = sin"));
+    }
+}
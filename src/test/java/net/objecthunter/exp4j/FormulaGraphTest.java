@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FormulaGraphTest {
+
+    @Test
+    public void testReferences() {
+        FormulaGraph graph = new FormulaGraph()
+                .inputs("revenue", "cost")
+                .define("ratio", "margin / revenue")
+                .define("margin", "revenue - cost")
+                .setInput("revenue", 200)
+                .setInput("cost", 150);
+        assertEquals(50d, graph.getValue("margin"), 0d);
+        assertEquals(0.25d, graph.getValue("ratio"), 0d);
+        assertEquals(Arrays.asList("margin", "ratio"), graph.getEvaluationOrder());
+        assertEquals(2, graph.getLevelCount());
+    }
+
+    @Test
+    public void testOnlyAffectedFormulasAreRecomputed() {
+        FormulaGraph graph = new FormulaGraph()
+                .inputs("a", "b")
+                .define("x", "a * 2")
+                .define("y", "b * 2")
+                .define("z", "x + y")
+                .define("w", "y - 1")
+                .setInput("a", 1)
+                .setInput("b", 2);
+        assertEquals(4, graph.recompute());
+        assertEquals(0, graph.recompute());
+
+        graph.setInput("a", 1);
+        assertEquals(0, graph.getDirtyCount());
+
+        graph.setInput("a", 3);
+        assertEquals(2, graph.recompute());
+        assertEquals(10d, graph.getValue("z"), 0d);
+
+        graph.setInput("b", 5);
+        assertEquals(3, graph.recompute());
+        assertEquals(9d, graph.getValue("w"), 0d);
+    }
+
+    @Test
+    public void testUnchangedValuesStopPropagation() {
+        FormulaGraph graph = new FormulaGraph()
+                .inputs("a")
+                .define("s", "signum(a)")
+                .define("t", "s * 10")
+                .setInput("a", 1);
+        assertEquals(2, graph.recompute());
+        graph.setInput("a", 5);
+        assertEquals(1, graph.recompute());
+        assertEquals(10d, graph.getValue("t"), 0d);
+    }
+
+    @Test
+    public void testRedefinition() {
+        FormulaGraph graph = new FormulaGraph()
+                .inputs("a")
+                .define("x", "a + 1")
+                .define("y", "x * 2")
+                .setInput("a", 1);
+        assertEquals(4d, graph.getValue("y"), 0d);
+        graph.define("x", "a + 2");
+        assertEquals(6d, graph.getValue("y"), 0d);
+    }
+
+    @Test
+    public void testCycle() {
+        FormulaGraph graph = new FormulaGraph()
+                .inputs("a")
+                .define("x", "a + y")
+                .define("y", "z * 2")
+                .define("z", "x - 1")
+                .define("w", "a");
+        try {
+            graph.recompute();
+            fail("Cycle not detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Cyclic reference between formulas [x, y, z, x]", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSelfReference() {
+        new FormulaGraph().define("x", "x + 1").recompute();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownReference() {
+        new FormulaGraph().inputs("a").define("x", "a + b").recompute();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInputNotSet() {
+        new FormulaGraph().inputs("a").define("x", "a + 1").getValue("x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFormulaNamedLikeInput() {
+        new FormulaGraph().inputs("a").define("a", "1").recompute();
+    }
+
+    @Test
+    public void testParallelLevels() throws Exception {
+        final int width = 500;
+        FormulaGraph graph = new FormulaGraph().inputs("x");
+        StringBuilder sum = new StringBuilder("0");
+        for (int i = 0; i < width; i++) {
+            graph.define("f" + i, "x * " + i);
+            graph.define("g" + i, "f" + i + " + 1");
+            sum.append(" + g").append(i);
+        }
+        graph.define("total", sum.toString());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            graph.executor(executor).setInput("x", 2);
+            assertEquals(3, graph.getLevelCount());
+            assertEquals(width * (double) (width - 1) + width, graph.getValue("total"), 0d);
+            graph.setInput("x", 3);
+            /* f0 stays 0, so g0 is not recomputed */
+            assertEquals(2 * width, graph.recompute());
+            assertEquals(3 * width * (double) (width - 1) / 2 + width, graph.getValue("total"), 0d);
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(graph.getEvaluationOrder().indexOf("total") == 2 * width);
+    }
+}
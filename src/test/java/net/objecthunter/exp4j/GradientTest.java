@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class GradientTest {
+
+    private static final String[] FORMULAS = {
+            "x + y * 2 - x / y",
+            "x % y + x ^ y",
+            "-x * +y",
+            "sin(x)^2 * exp(-y) + log(x * y + 1) / sqrt(x^2 + y^2)",
+            "pow(x, y) + avg(x, y, x * y) + atan(x) * cbrt(y)",
+            "if(x > y && y > 0, x^y, cos(x) * y)",
+            "(x < y) * x + (x >= 1 || y == 2) * y"
+    };
+
+    @Test
+    public void testSameResultsAsForwardMode() {
+        Random rnd = new Random(4);
+        double[] gradient = new double[2];
+        double[] derivatives = new double[2];
+        for (String formula : FORMULAS) {
+            Expression e = new ExpressionBuilder(formula).variables("x", "y").build();
+            Bindings bindings = new Bindings("x", "y");
+            DualExpression dual = new DualExpression(e, "x", "y");
+            for (int i = 0; i < 20; i++) {
+                double x = 0.1 + rnd.nextDouble() * 3;
+                double y = 0.1 + rnd.nextDouble() * 3;
+                bindings.set(0, x).set(1, y);
+                double value = e.gradient(bindings, gradient);
+                double expected = dual.setVariable("x", x).setVariable("y", y).evaluate(derivatives);
+                assertEquals(formula, expected, value, 0d);
+                assertEquals(formula, e.setVariable("x", x).setVariable("y", y).evaluate(), e.evaluate(bindings), 0d);
+                assertEquals(formula + " d/dx", derivatives[0], gradient[0], 1e-12 * Math.max(1, Math.abs(derivatives[0])));
+                assertEquals(formula + " d/dy", derivatives[1], gradient[1], 1e-12 * Math.max(1, Math.abs(derivatives[1])));
+            }
+        }
+    }
+
+    @Test
+    public void testManyVariables() {
+        int n = 500;
+        String[] names = new String[n];
+        StringBuilder formula = new StringBuilder("0");
+        for (int i = 0; i < n; i++) {
+            names[i] = "p" + i;
+            formula.append(" + (p").append(i).append(" - ").append(i).append(")^2");
+        }
+        Expression e = new ExpressionBuilder(formula.toString()).variables(names).build();
+        Bindings bindings = e.bindings();
+        assertEquals(Arrays.asList(names), bindings.getNames());
+        for (int i = 0; i < n; i++) {
+            bindings.set(i, 2 * i);
+        }
+        double[] gradient = new double[n];
+        double value = e.gradient(bindings, gradient);
+        double expected = 0;
+        for (int i = 0; i < n; i++) {
+            expected += (double) i * i;
+            assertEquals(2d * i, gradient[i], 0d);
+        }
+        assertEquals(expected, value, 0d);
+        /* the tape is reused */
+        bindings.set(1, 1);
+        e.gradient(bindings, gradient);
+        assertEquals(0d, gradient[1], 0d);
+    }
+
+    @Test
+    public void testRepeatedVariablesAndUnusedBindings() {
+        Expression e = new ExpressionBuilder("x * x * x + 2").variables("x").build();
+        Bindings bindings = new Bindings("a", "x", "b").set("x", 2).set("a", 1).set("b", 1);
+        double[] gradient = {7, 7, 7};
+        assertEquals(10d, e.gradient(bindings, gradient), 0d);
+        assertEquals(0d, gradient[0], 0d);
+        assertEquals(12d, gradient[1], 0d);
+        assertEquals(0d, gradient[2], 0d);
+    }
+
+    @Test
+    public void testCustomFunction() {
+        Expression e = new ExpressionBuilder("cube(x * y)")
+                .function(new OneArgumentFunction("cube") {
+                    @Override
+                    public double apply(double arg) {
+                        return arg * arg * arg;
+                    }
+                })
+                .variables("x", "y")
+                .build();
+        double[] gradient = new double[2];
+        e.gradient(new Bindings("x", "y").set(0, 1).set(1, 2), gradient);
+        assertEquals(24d, gradient[0], 1e-8);
+        assertEquals(12d, gradient[1], 1e-8);
+    }
+
+    @Test
+    public void testBindingsCopiesAreIndependent() {
+        Expression e = new ExpressionBuilder("2 pi r").variables("pi", "r").build();
+        Bindings bindings = e.bindings().set("r", 1);
+        Bindings copy = new Bindings(bindings).set("r", 2);
+        assertEquals(2 * Math.PI, e.evaluate(bindings), 0d);
+        assertEquals(4 * Math.PI, e.evaluate(copy), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableNotBound() {
+        new ExpressionBuilder("x + y").variables("x", "y").build().evaluate(new Bindings("x").set(0, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableNotSet() {
+        new ExpressionBuilder("x + y").variables("x", "y").build().evaluate(new Bindings("x", "y").set(0, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateNames() {
+        new Bindings("x", "x");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.ZeroArgumentFunction;
+import net.objecthunter.exp4j.ir.Dag;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IncrementalExpressionTest {
+
+    @Test
+    public void testSameResultsAsEvaluate() {
+        Expression e = new ExpressionBuilder("sin(a) * b + log(c + a) - avg(a, b, c, d) ^ 2 / (d + 1)")
+                .variables("a", "b", "c", "d")
+                .build();
+        IncrementalExpression inc = new IncrementalExpression(e);
+        Random rnd = new Random(3);
+        String[] names = {"a", "b", "c", "d"};
+        for (String name : names) {
+            double value = rnd.nextDouble();
+            e.setVariable(name, value);
+            inc.setVariable(name, value);
+        }
+        for (int i = 0; i < 1000; i++) {
+            String name = names[rnd.nextInt(names.length)];
+            double value = rnd.nextDouble();
+            e.setVariable(name, value);
+            inc.setVariable(name, value);
+            assertEquals(e.evaluate(), inc.evaluate(), 0d);
+        }
+    }
+
+    @Test
+    public void testOnlyDependentNodesAreRecomputed() {
+        Expression e = new ExpressionBuilder("(a + 1) * (b + 2) + sin(c)")
+                .variables("a", "b", "c")
+                .build()
+                .setVariable("a", 1)
+                .setVariable("b", 2)
+                .setVariable("c", 0);
+        IncrementalExpression inc = new IncrementalExpression(e);
+        assertEquals(8d, inc.evaluate(), 0d);
+        assertEquals(0, inc.getDirtyCount());
+
+        inc.setVariable("b", 2);
+        assertEquals(0, inc.getDirtyCount());
+
+        /* b, b + 2, the product and the sum */
+        inc.setVariable("b", 3);
+        assertEquals(4, inc.getDirtyCount());
+        assertEquals(10d, inc.evaluate(), 0d);
+        assertEquals(0, inc.getDirtyCount());
+    }
+
+    @Test
+    public void testConstantsAreSet() {
+        Expression e = new ExpressionBuilder("2 pi r").variables("pi", "r").build();
+        IncrementalExpression inc = new IncrementalExpression(e).setVariable("r", 1);
+        assertEquals(2 * Math.PI, inc.evaluate(), 0d);
+    }
+
+    @Test
+    public void testImpureFunctionsAreAlwaysRecomputed() {
+        final int[] calls = new int[1];
+        Expression e = new ExpressionBuilder("x + counter()")
+                .function(new ZeroArgumentFunction("counter") {
+                    @Override
+                    public double apply() {
+                        return ++calls[0];
+                    }
+
+                    @Override
+                    public boolean isPure() {
+                        return false;
+                    }
+                })
+                .variables("x")
+                .build();
+        IncrementalExpression inc = new IncrementalExpression(new Expression(e.toTree())).setVariable("x", 10);
+        assertEquals(11d, inc.evaluate(), 0d);
+        assertEquals(12d, inc.evaluate(), 0d);
+    }
+
+    @Test
+    public void testRecoversAfterException() {
+        Expression e = new ExpressionBuilder("1 + a / b").variables("a", "b").build();
+        IncrementalExpression inc = new IncrementalExpression(e).setVariable("a", 1).setVariable("b", 0);
+        try {
+            inc.evaluate();
+        } catch (ArithmeticException expected) {
+            // division by zero
+        }
+        inc.setVariable("b", 2);
+        assertEquals(1.5, inc.evaluate(), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableNotSet() {
+        new IncrementalExpression(new ExpressionBuilder("x + 1").variables("x").build()).evaluate();
+    }
+
+    @Test
+    public void testCommonSubexpressionsAreShared() {
+        Dag dag = Dag.of(new ExpressionBuilder("sin(x + 1) * sin(x + 1)").variables("x").build().toTree());
+        /* x, 1, x + 1, sin and the product */
+        assertEquals(5, dag.size());
+    }
+}
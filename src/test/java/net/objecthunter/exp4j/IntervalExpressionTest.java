@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntervalExpressionTest {
+
+    /**
+     * Check that the values of an expression at random points of a box lie inside the enclosure of the box
+     */
+    private static void assertEncloses(String formula, double xLo, double xHi, double yLo, double yHi) {
+        Expression e = new ExpressionBuilder(formula).variables("x", "y").build();
+        Interval enclosure = new IntervalExpression(e).setVariable("x", xLo, xHi).setVariable("y", yLo, yHi).evaluate();
+        Random rnd = new Random(formula.hashCode());
+        for (int i = 0; i < 200; i++) {
+            double x = i == 0 ? xLo : i == 1 ? xHi : xLo + rnd.nextDouble() * (xHi - xLo);
+            double y = i == 0 ? yLo : i == 1 ? yHi : yLo + rnd.nextDouble() * (yHi - yLo);
+            double value;
+            try {
+                value = e.setVariable("x", x).setVariable("y", y).evaluate();
+            } catch (ArithmeticException ex) {
+                continue;
+            }
+            if (!Double.isNaN(value)) {
+                assertTrue(formula + " at " + x + ", " + y + " = " + value + " not in " + enclosure,
+                        enclosure.contains(value));
+            }
+        }
+    }
+
+    private static Interval evaluate(String formula, double xLo, double xHi) {
+        Expression e = new ExpressionBuilder(formula).variables("x").build();
+        return new IntervalExpression(e).setVariable("x", xLo, xHi).evaluate();
+    }
+
+    @Test
+    public void testOperators() {
+        String[] formulas = {"x + y", "x - y", "x * y", "x / y", "x % y", "x ^ y", "-x * +y", "x ^ 3", "x ^ 2",
+                "x ^ -2", "x ^ -3", "x ^ 0.5", "x < y", "x > y", "x <= y", "x >= y", "x == y", "x != y",
+                "x && y", "x || y"};
+        Random rnd = new Random(4);
+        for (String formula : formulas) {
+            for (int i = 0; i < 20; i++) {
+                double x = rnd.nextDouble() * 8 - 4;
+                double y = rnd.nextDouble() * 8 - 4;
+                assertEncloses(formula, x, x + rnd.nextDouble() * 3, y, y + rnd.nextDouble() * 3);
+            }
+        }
+    }
+
+    @Test
+    public void testFunctions() {
+        Random rnd = new Random(5);
+        for (String name : Functions.ALL.keySet()) {
+            Function function = Functions.ALL.get(name);
+            String formula;
+            if (name.equals("if")) {
+                formula = "if(x, y, x * y)";
+            } else if (function.getNumberOfArguments() == 2) {
+                formula = name + "(x, y)";
+            } else if (name.equals("avg")) {
+                formula = "avg(x, y, x * y)";
+            } else {
+                formula = name + "(x) + " + name + "(y)";
+            }
+            for (int i = 0; i < 20; i++) {
+                double x = rnd.nextDouble() * 10 - 5;
+                double y = rnd.nextDouble() * 10 - 5;
+                assertEncloses(formula, x, x + rnd.nextDouble() * 4, y, y + rnd.nextDouble() * 0.1);
+            }
+        }
+    }
+
+    @Test
+    public void testTightBounds() {
+        assertEquals(Interval.of(-1, 1), evaluate("sin(x)", 0, 5));
+        assertEquals(Interval.of(0, 9), evaluate("abs(x) ^ 2", -3, 2));
+        assertEquals(Interval.of(0, 9), evaluate("x ^ 2", -3, 2));
+        /* every occurrence of x varies independently, so a product is wider than the power */
+        assertEquals(Interval.of(-27, 18), evaluate("x * x * x", -3, 2));
+        assertEquals(8d, evaluate("x ^ 3", -3, 2).getHi(), 1e-14);
+        /* exact results are not widened, inexact ones are rounded outwards */
+        assertEquals(Interval.of(2, 3), evaluate("x + 1", 1, 2));
+        Interval sum = evaluate("x + 0.1", 2, 2);
+        assertTrue(sum.getLo() < sum.getHi() && sum.contains(2 + 0.1));
+        assertEquals(Interval.ENTIRE, evaluate("1 / x", -1, 1));
+        assertEquals(Double.POSITIVE_INFINITY, evaluate("1 / x", 0, 1).getHi(), 0d);
+        assertEquals(Interval.ENTIRE, evaluate("tan(x)", 1, 2));
+    }
+
+    @Test
+    public void testZeroTimesUnbounded() {
+        /* zero times infinity is NaN */
+        assertEquals(Interval.ENTIRE, evaluate("x * 0", 0, Double.POSITIVE_INFINITY));
+        assertEquals(Interval.ENTIRE, evaluate("sqrt(x) * 0", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+        assertEquals(Interval.of(0, 0), evaluate("x * 0", -1, 1));
+    }
+
+    @Test
+    public void testPointsAreEnclosed() {
+        Expression e = new ExpressionBuilder("log(x) * exp(-x) + sqrt(x) / 3").variables("x").build();
+        double value = e.setVariable("x", 2.5).evaluate();
+        Interval enclosure = new IntervalExpression(e).evaluate();
+        assertTrue(enclosure.contains(value));
+        assertTrue(enclosure.getHi() - enclosure.getLo() < 1e-14);
+    }
+
+    @Test
+    public void testDecidedConditionSkipsBranch() {
+        assertEquals(Interval.point(0), evaluate("if(x > 2, 1 / (x - x), 0)", 0, 1));
+        assertEquals(Interval.point(0), evaluate("x > 2 && 1 / (x - x)", 0, 1));
+        assertEquals(Interval.point(1), evaluate("x < 2 || 1 / (x - x)", 0, 1));
+    }
+
+    @Test
+    public void testUndecidedConditionTakesHull() {
+        Interval result = evaluate("if(x > 1, 10, -10)", 0, 2);
+        assertEquals(Interval.of(-10, 10), result);
+        assertEquals(Interval.of(0, 1), evaluate("x > 1 && x > 0", 0, 2));
+        assertEquals(Interval.point(1), evaluate("x > 1 || x >= 0", 0, 2));
+        assertEquals(Interval.of(-1, 4), evaluate("if(x > 1, if(x > -1, 4, 5), -1) + 0 * x", 0, 2));
+        /* branches are evaluated on the whole box, the inner condition does not know that x > 1 */
+        assertEquals(Interval.of(-1, 5), evaluate("if(x > 1, if(x < 0.5, 5, 4), -1)", 0, 2));
+    }
+
+    @Test
+    public void testPruning() {
+        /* the minimum of (x - 3)^2 + 1 can not lie in [-2, 1], its values there are at least 5 */
+        Expression e = new ExpressionBuilder("(x - 3)^2 + 1").variables("x").build();
+        Interval box = new IntervalExpression(e).setVariable("x", -2, 1).evaluate();
+        assertTrue(box.getLo() > 4.99);
+        assertFalse(box.contains(1d));
+    }
+
+    @Test
+    public void testConstants() {
+        Expression e = new ExpressionBuilder("2 pi r").variables("r").withPi().build();
+        Interval circumference = new IntervalExpression(e).setVariable("r", 1, 2).evaluate();
+        assertTrue(circumference.contains(2 * Math.PI) && circumference.contains(4 * Math.PI));
+    }
+
+    @Test
+    public void testCustomFunction() {
+        Function f = new OneArgumentFunction("f") {
+            @Override
+            public double apply(double x) {
+                return x * x;
+            }
+        };
+        Expression e = new ExpressionBuilder("f(x) + f(2)").variables("x").function(f).build();
+        assertEquals(Interval.ENTIRE, new IntervalExpression(e).setVariable("x", 0, 1).evaluate());
+        assertTrue(new IntervalExpression(e).setVariable("x", 1).evaluate().contains(5d));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() {
+        evaluate("x / (x - x)", 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableNotSet() {
+        new IntervalExpression(new ExpressionBuilder("x + y").variables("x", "y").build())
+                .setVariable("x", 0, 1).evaluate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidInterval() {
+        Interval.of(2, 1);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LongExpressionTest {
+
+    private static LongExpression build(String formula) {
+        return new ExpressionBuilder(formula).variables("x", "y").buildLong();
+    }
+
+    private static long evaluate(String formula, long x, long y) {
+        return build(formula).setVariable("x", x).setVariable("y", y).evaluate();
+    }
+
+    @Test
+    public void testSameAsDoubleForSmallValues() {
+        String[] formulas = {"x + y", "x - y * 3", "x * y - x", "-x + +y", "2 x^2 - 3x + 1", "abs(x - y) + signum(y)",
+                "pow(x, 3) - floor(y) * ceil(x)", "(x < y) + (x > y) * 2 + (x <= y) * 4 + (x >= y) * 8 + (x == y) * 16 + (x != y) * 32",
+                "(x > 0 && y > 0) + (x > 0 || y > 0) * 2", "if(x - y, x, y * 2)"};
+        Random rnd = new Random(1);
+        for (String formula : formulas) {
+            Expression e = new ExpressionBuilder(formula).variables("x", "y").build();
+            LongExpression l = new LongExpression(e);
+            for (int i = 0; i < 100; i++) {
+                long x = rnd.nextInt(201) - 100;
+                long y = rnd.nextInt(201) - 100;
+                double expected = e.setVariable("x", x).setVariable("y", y).evaluate();
+                assertEquals(formula, (long) expected, l.setVariable("x", x).setVariable("y", y).evaluate());
+            }
+        }
+    }
+
+    @Test
+    public void testIntegerDivision() {
+        assertEquals(3L, evaluate("x / y", 7, 2));
+        assertEquals(-3L, evaluate("x / y", -7, 2));
+        assertEquals(1L, evaluate("x % y", 7, 2));
+        assertEquals(-1L, evaluate("x % y", -7, 2));
+        assertEquals(0L, evaluate("x ^ -y", 2, 1));
+        assertEquals(-1L, evaluate("x ^ -y", -1, 3));
+        assertEquals(1L, evaluate("x ^ -y", -1, 2));
+    }
+
+    @Test
+    public void testExactAbove2Pow53() {
+        long x = (1L << 53) + 1;
+        assertEquals(x + 2, evaluate("x + y", x, 2));
+        assertEquals(Long.MAX_VALUE, evaluate("x - 1 + x", 1L << 62, 0));
+        assertEquals(1L << 62, evaluate("2^62", 0, 0));
+        assertEquals(Long.MIN_VALUE, evaluate("-x - x", 1L << 62, 0));
+    }
+
+    @Test
+    public void testRoundedNumbersAreRejected() {
+        assertEquals((1L << 53) - 1, evaluate("9007199254740991 + x", 0, 0));
+        /* 2^53 + 1 is parsed as 2^53 */
+        String[] formulas = {"9007199254740993 + x", "x < 9007199254740993", "9007199254740992 + x"};
+        for (LongExpression.Overflow overflow : LongExpression.Overflow.values()) {
+            for (String formula : formulas) {
+                try {
+                    new ExpressionBuilder(formula).variables("x").buildLong(overflow);
+                    fail(formula);
+                } catch (IllegalArgumentException e) {
+                    assertTrue(e.getMessage().contains("can not be evaluated exactly"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOverflowIsDetected() {
+        String[] formulas = {"x + y", "x * y", "-x - y", "2^x", "x^2", "abs(-x - 1)", "(-x - 1) / -1"};
+        for (String formula : formulas) {
+            try {
+                evaluate(formula, Long.MAX_VALUE, 2);
+                fail(formula);
+            } catch (ArithmeticException e) {
+                assertEquals("long overflow", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testOverflowWraps() {
+        LongExpression e = new ExpressionBuilder("x * y + 1").variables("x", "y").buildLong(LongExpression.Overflow.WRAP);
+        assertEquals(Long.MAX_VALUE * 3 + 1, e.setVariable("x", Long.MAX_VALUE).setVariable("y", 3).evaluate());
+        e = new ExpressionBuilder("x^y").variables("x", "y").buildLong(LongExpression.Overflow.WRAP);
+        assertEquals(0L, e.setVariable("x", 2).setVariable("y", 64).evaluate());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() {
+        evaluate("x / y", 1, 0);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testModuloByZero() {
+        evaluate("x % y", 1, 0);
+    }
+
+    @Test
+    public void testShortCircuit() {
+        assertEquals(0L, evaluate("y != 0 && x / y > 1", 1, 0));
+        assertEquals(1L, evaluate("y == 0 || x / y > 1", 1, 0));
+        assertEquals(5L, evaluate("if(y, x / y, 5)", 1, 0));
+        assertEquals(1L, evaluate("x && y", 7, 3));
+    }
+
+    @Test
+    public void testSetVariables() {
+        Map<String, Long> variables = new HashMap<>();
+        variables.put("x", 40L);
+        variables.put("y", 2L);
+        assertEquals(42L, build("x + y").setVariables(variables).evaluate());
+    }
+
+    @Test
+    public void testIntegerValuesAreCopied() {
+        Expression e = new ExpressionBuilder("x + y").variables("x", "y").build().setVariable("x", 3).setVariable("y", 0.5);
+        LongExpression l = new LongExpression(e);
+        try {
+            l.evaluate();
+            fail();
+        } catch (IllegalArgumentException expected) {
+            /* y is not an integer */
+        }
+        assertEquals(4L, l.setVariable("y", 1).evaluate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFractionalNumber() {
+        build("x * 0.5");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedFunction() {
+        build("sqrt(x)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCustomFunction() {
+        new ExpressionBuilder("twice(x)").variables("x").function(new OneArgumentFunction("twice") {
+            @Override
+            public double apply(double arg) {
+                return 2 * arg;
+            }
+        }).buildLong();
+    }
+}
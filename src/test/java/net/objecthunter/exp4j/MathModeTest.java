@@ -0,0 +1,247 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.ApproximateMath;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.MathMode;
+import net.objecthunter.exp4j.operator.Operator;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MathModeTest {
+
+    private static final int SAMPLES = 200000;
+
+    private static void assertRelative(double expected, double actual, double maxError) {
+        assertTrue(expected + " != " + actual, Math.abs(actual - expected) <= maxError * Math.abs(expected));
+    }
+
+    @Test
+    public void testExpError() {
+        Random rnd = new Random(1);
+        for (int i = 0; i < SAMPLES; i++) {
+            double x = (rnd.nextDouble() * 2 - 1) * 708;
+            assertRelative(StrictMath.exp(x), ApproximateMath.exp(x), 2e-11);
+        }
+        assertEquals(1d, ApproximateMath.exp(0), 0d);
+        assertEquals(Double.POSITIVE_INFINITY, ApproximateMath.exp(710), 0d);
+        assertEquals(0d, ApproximateMath.exp(Double.NEGATIVE_INFINITY), 0d);
+        assertEquals(Math.exp(-740), ApproximateMath.exp(-740), 0d);
+        assertTrue(Double.isNaN(ApproximateMath.exp(Double.NaN)));
+    }
+
+    @Test
+    public void testLogError() {
+        Random rnd = new Random(2);
+        for (int i = 0; i < SAMPLES; i++) {
+            double x = Math.exp((rnd.nextDouble() * 2 - 1) * 700);
+            double log = StrictMath.log(x);
+            assertEquals(log, ApproximateMath.log(x), 1e-15 * Math.max(1, Math.abs(log)));
+            double log10 = StrictMath.log10(x);
+            assertEquals(log10, ApproximateMath.log10(x), 1e-15 * Math.max(1, Math.abs(log10)));
+            double y = 0.5 + rnd.nextDouble();
+            assertEquals(StrictMath.log(y), ApproximateMath.log(y), 1e-15);
+        }
+        assertEquals(0d, ApproximateMath.log(1), 0d);
+        assertEquals(10d, ApproximateMath.log2(1024), 1e-12);
+        assertEquals(Math.log(Double.MIN_VALUE), ApproximateMath.log(Double.MIN_VALUE), 0d);
+        assertEquals(Double.NEGATIVE_INFINITY, ApproximateMath.log(0), 0d);
+        assertTrue(Double.isNaN(ApproximateMath.log(-1)));
+    }
+
+    @Test
+    public void testTrigonometricError() {
+        Random rnd = new Random(3);
+        for (int i = 0; i < SAMPLES; i++) {
+            double x = (rnd.nextDouble() * 2 - 1) * (i % 2 == 0 ? 10 : 1e5);
+            assertEquals(StrictMath.sin(x), ApproximateMath.sin(x), 1e-12);
+            assertEquals(StrictMath.cos(x), ApproximateMath.cos(x), 1e-12);
+            if (Math.abs(StrictMath.cos(x)) > 1e-5) {
+                assertRelative(StrictMath.tan(x), ApproximateMath.tan(x), 1e-12);
+            }
+        }
+        assertEquals(Math.sin(1e10), ApproximateMath.sin(1e10), 0d);
+        assertTrue(Double.isNaN(ApproximateMath.cos(Double.POSITIVE_INFINITY)));
+    }
+
+    @Test
+    public void testPowError() {
+        Random rnd = new Random(4);
+        for (int i = 0; i < SAMPLES; i++) {
+            double x = rnd.nextDouble() * 100;
+            double y = (rnd.nextDouble() * 2 - 1) * 100;
+            if (Math.abs(y * Math.log(x)) <= 708) {
+                assertRelative(StrictMath.pow(x, y), ApproximateMath.pow(x, y), 3e-11);
+            }
+            /* near sqrt(2) the error of log is largest and the exponent multiplies it by up to 2000 */
+            x = Math.sqrt(2) + (rnd.nextDouble() * 2 - 1) * 1e-3;
+            y = (rnd.nextDouble() * 2 - 1) * 708 / Math.log(x);
+            assertRelative(StrictMath.pow(x, y), ApproximateMath.pow(x, y), 3e-11);
+        }
+        assertRelative(StrictMath.pow(1.4142, 2019.83), ApproximateMath.pow(1.4142, 2019.83), 3e-11);
+        assertRelative(StrictMath.pow(1.41400930, -2013.35), ApproximateMath.pow(1.41400930, -2013.35), 3e-11);
+        assertEquals(-8d, ApproximateMath.pow(-2, 3), 0d);
+        assertEquals(1d, ApproximateMath.pow(0, 0), 0d);
+        assertEquals(0d, ApproximateMath.pow(0, 2), 0d);
+    }
+
+    @Test
+    public void testStrictModeUsesStrictMath() {
+        Expression e = new ExpressionBuilder("sin(x) + exp(x) * log(x) ^ x - pow(x, 0.3)")
+                .variable("x")
+                .mathMode(MathMode.STRICT)
+                .build();
+        Random rnd = new Random(5);
+        for (int i = 0; i < 1000; i++) {
+            double x = rnd.nextDouble() * 10 + 1;
+            double expected = StrictMath.sin(x) + StrictMath.exp(x) * StrictMath.pow(StrictMath.log(x), x)
+                    - StrictMath.pow(x, 0.3);
+            assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(e.setVariable("x", x).evaluate()));
+        }
+    }
+
+    @Test
+    public void testFastMode() {
+        Expression e = new ExpressionBuilder("sin(x) * cos(x) + exp(-x) * 2^x + log10(x)")
+                .variable("x")
+                .mathMode(MathMode.FAST)
+                .build();
+        Random rnd = new Random(6);
+        for (int i = 0; i < 1000; i++) {
+            double x = rnd.nextDouble() * 10 + 0.1;
+            double expected = Math.sin(x) * Math.cos(x) + Math.exp(-x) * Math.pow(2, x) + Math.log10(x);
+            assertEquals(expected, e.setVariable("x", x).evaluate(), 1e-10);
+        }
+    }
+
+    @Test
+    public void testDefaultModeUsesBuiltins() {
+        ExpressionBuilder builder = new ExpressionBuilder("exp(x) + x^0.5").variable("x");
+        Expression fast = builder.mathMode(MathMode.FAST).build();
+        Expression builtin = builder.mathMode(MathMode.DEFAULT).build();
+        assertEquals(Math.exp(0.7) + Math.pow(0.7, 0.5), builtin.setVariable("x", 0.7).evaluate(), 0d);
+        assertEquals(builtin.evaluate(), fast.setVariable("x", 0.7).evaluate(), 1e-12);
+        assertTrue(MathMode.DEFAULT.getFunctions().isEmpty());
+        assertNull(MathMode.DEFAULT.getPowerOperator());
+    }
+
+    @Test
+    public void testPrecedenceOfPowerOperator() {
+        Expression e = new ExpressionBuilder("-2^2 + 2^3^2")
+                .mathMode(MathMode.STRICT)
+                .build();
+        assertEquals(-4d + 512d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testCustomPowerOperatorIsKept() {
+        Operator power = new Operator("^", 2, false, Operator.PRECEDENCE_POWER) {
+            @Override
+            public double apply(double... args) {
+                return args[0] * args[1];
+            }
+        };
+        Expression e = new ExpressionBuilder("3^4")
+                .operator(power)
+                .mathMode(MathMode.FAST)
+                .build();
+        assertEquals(12d, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testExactBuildsIgnoreMathMode() {
+        for (MathMode mode : MathMode.values()) {
+            assertEquals(1024L, new ExpressionBuilder("2^10").mathMode(mode).buildLong().evaluate());
+            assertEquals(0, new BigDecimal("1024.00").compareTo(
+                    new ExpressionBuilder("2^10").mathMode(mode).buildDecimal(2, RoundingMode.HALF_EVEN).evaluate()));
+            assertEquals(-1d, new ExpressionBuilder("i^2").mathMode(mode).buildComplex().evaluate()[0], 0d);
+            assertEquals(Math.sin(1), new ExpressionBuilder("sin(1)").mathMode(mode).buildDoubleDouble().evaluate(),
+                    0d);
+        }
+    }
+
+    @Test
+    public void testFunctionsNotAllowedStayUnavailable() {
+        Expression e = new ExpressionBuilder("sin(x)")
+                .variable("x")
+                .mathMode(MathMode.FAST)
+                .build();
+        assertEquals(Math.sin(0.5), e.setVariable("x", 0.5).evaluate(), 1e-12);
+        try {
+            new ExpressionBuilder("exp(x)")
+                    .variable("x")
+                    .allowOnly(Functions.SIN)
+                    .mathMode(MathMode.FAST)
+                    .build();
+            fail("exp must not be available");
+        } catch (IllegalArgumentException expected) {
+            // exp is neither allowed nor replaced
+        }
+    }
+
+    @Test
+    public void testCotangentDivisionByZero() {
+        Function cot = MathMode.FAST.getFunctions().get("cot");
+        assertEquals(1d / Math.tan(1), Functions.apply(cot, 1), 1e-12);
+        try {
+            Functions.apply(cot, 0);
+            fail("cot(0) must fail");
+        } catch (ArithmeticException expected) {
+            assertEquals("Division by zero in cotangent!", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testAutomaticDifferentiation() {
+        for (MathMode mode : MathMode.values()) {
+            Expression e = new ExpressionBuilder("sin(x) * exp(y) + x^y + log2(x) - cot(y)")
+                    .variables("x", "y")
+                    .mathMode(mode)
+                    .build();
+            Bindings bindings = e.bindings();
+            bindings.set("x", 1.3).set("y", 0.7);
+            double[] gradient = new double[2];
+            double value = e.gradient(bindings, gradient);
+            double x = 1.3, y = 0.7;
+            assertEquals(Math.sin(x) * Math.exp(y) + Math.pow(x, y) + Math.log(x) / Math.log(2) - 1 / Math.tan(y),
+                    value, 1e-10);
+            assertEquals(Math.cos(x) * Math.exp(y) + y * Math.pow(x, y - 1) + 1 / (x * Math.log(2)),
+                    gradient[0], 1e-9);
+            double cot = 1 / Math.tan(y);
+            assertEquals(Math.sin(x) * Math.exp(y) + Math.pow(x, y) * Math.log(x) + 1 + cot * cot,
+                    gradient[1], 1e-9);
+        }
+    }
+
+    @Test
+    public void testVariantsOnlyReplaceBuiltinNames() {
+        for (MathMode mode : MathMode.values()) {
+            for (Function f : mode.getFunctions().values()) {
+                assertTrue(Functions.isBuiltinFunction(f.getName()));
+            }
+        }
+    }
+}
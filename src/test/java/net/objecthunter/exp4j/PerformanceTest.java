@@ -15,19 +15,52 @@
 */
 package net.objecthunter.exp4j;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.Formatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.function.BinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 
+import net.objecthunter.exp4j.function.ApproximateMath;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.LinearCombination;
+import net.objecthunter.exp4j.function.MathMode;
+import net.objecthunter.exp4j.function.TwoArgumentFunction;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.optimizer.ChebyshevApproximation;
+import net.objecthunter.exp4j.optimizer.LinearCombinationDetection;
+import net.objecthunter.exp4j.optimizer.PolynomialEvaluation;
+import net.objecthunter.exp4j.optimizer.Reassociation;
+import org.junit.Assume;
 import org.junit.Test;
 
+import static org.junit.Assert.assertTrue;
+
 public class PerformanceTest {
 
     private static final long BENCH_TIME = 2;
     private static final String EXPRESSION = "log(x) - y * (sqrt(x^cos(y)))";
 
+    /* apart from testBenches every benchmark takes seconds, they only run with -Dexp4j.benchmarks=true */
+    private static final String BENCHMARKS_PROPERTY = "exp4j.benchmarks";
+
+    private static void assumeBenchmarks() {
+        Assume.assumeTrue("Set -D" + BENCHMARKS_PROPERTY + "=true to run the benchmarks",
+                Boolean.getBoolean(BENCHMARKS_PROPERTY));
+    }
+
     @Test
     public void testBenches() throws Exception {
         StringBuffer sb = new StringBuffer();
@@ -57,6 +90,1003 @@ public class PerformanceTest {
         System.out.print(sb.toString());
     }
 
+    @Test
+    public void testLoadBenches() throws Exception {
+        assumeBenchmarks();
+        final int numFormulas = 20000;
+        final String[] formulas = new String[numFormulas];
+        Random rnd = new Random(42);
+        for (int i = 0; i < numFormulas; i++) {
+            formulas[i] = "log(x) - y * (sqrt(x^cos(y))) + " + rnd.nextInt(1000) + " * avg(x, y, " + i + ")";
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String formula : formulas) {
+            new ExpressionBuilder(formula).variables("x", "y").build().writeTo(out);
+        }
+        final byte[] data = bytes.toByteArray();
+        final FunctionRegistry registry = new FunctionRegistry();
+
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "Loading", "Expressions per Second", "Percentage of build()");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        long start = System.nanoTime();
+        int built = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            for (String formula : formulas) {
+                new ExpressionBuilder(formula).variables("x", "y").build();
+            }
+            built += numFormulas;
+        }
+        double buildRate = built / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "ExpressionBuilder", buildRate, 100f);
+
+        start = System.nanoTime();
+        int read = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            for (int i = 0; i < numFormulas; i++) {
+                Expression.readFrom(in, registry);
+            }
+            read += numFormulas;
+        }
+        double readRate = read / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "Expression.readFrom", readRate, readRate * 100 / buildRate);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("%d bytes for %d expressions%n", data.length, numFormulas);
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testIncrementalBenches() throws Exception {
+        assumeBenchmarks();
+        final int numVariables = 30;
+        final String[] names = new String[numVariables];
+        StringBuilder formula = new StringBuilder();
+        for (int i = 0; i < numVariables; i++) {
+            names[i] = "v" + i;
+            if (i > 0) {
+                formula.append(" + ");
+            }
+            formula.append("sin(v").append(i).append(") * log(v").append(i).append(" + ").append(i + 1)
+                    .append(") / sqrt(v").append(i).append("^2 + 1)");
+        }
+        final Expression expression = new ExpressionBuilder(formula.toString()).variables(names).build();
+        final IncrementalExpression incremental = new IncrementalExpression(expression);
+        for (String name : names) {
+            expression.setVariable(name, 1d);
+            incremental.setVariable(name, 1d);
+        }
+        Random rnd = new Random(7);
+
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "Single variable update", "Evaluations per Second", "Percentage of evaluate()");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        long start = System.nanoTime();
+        int count = 0;
+        double val = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            expression.setVariable(names[rnd.nextInt(numVariables)], rnd.nextDouble());
+            val = expression.evaluate();
+            count++;
+        }
+        double fullRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "Expression", fullRate, 100f);
+
+        start = System.nanoTime();
+        count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            incremental.setVariable(names[rnd.nextInt(numVariables)], rnd.nextDouble());
+            val = incremental.evaluate();
+            count++;
+        }
+        double incRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "IncrementalExpression", incRate, incRate * 100 / fullRate);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testExpressionSetBenches() throws Exception {
+        assumeBenchmarks();
+        final int numVariables = 50;
+        final int numExpressions = 300;
+        final String[] names = new String[numVariables];
+        for (int i = 0; i < numVariables; i++) {
+            names[i] = "v" + i;
+        }
+        Random rnd = new Random(5);
+        final List<Expression> expressions = new ArrayList<>();
+        for (int e = 0; e < numExpressions; e++) {
+            String a = names[rnd.nextInt(numVariables)];
+            String b = names[rnd.nextInt(numVariables)];
+            String c = names[rnd.nextInt(10)];
+            expressions.add(new ExpressionBuilder("log(" + c + " + 1) * sqrt(" + c + "^2 + 1) + " + a + " / (" + b
+                    + "^2 + 1) - " + e).variables(names).build());
+        }
+        final ExpressionSet set = new ExpressionSet(expressions);
+        final double[] results = new double[numExpressions];
+        final double[] record = new double[numVariables];
+
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "300 expressions", "Records per Second", "Percentage of evaluate()");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        long start = System.nanoTime();
+        int count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            for (int i = 0; i < numVariables; i++) {
+                record[i] = rnd.nextDouble();
+            }
+            for (Expression expression : expressions) {
+                for (int i = 0; i < numVariables; i++) {
+                    expression.setVariable(names[i], record[i]);
+                }
+                results[0] = expression.evaluate();
+            }
+            count++;
+        }
+        double singleRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "Expression", singleRate, 100f);
+
+        start = System.nanoTime();
+        count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            for (int i = 0; i < numVariables; i++) {
+                set.setVariable(names[i], rnd.nextDouble());
+            }
+            set.evaluate(results);
+            count++;
+        }
+        double setRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "ExpressionSet", setRate, setRate * 100 / singleRate);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testDerivativeBenches() throws Exception {
+        assumeBenchmarks();
+        final String[] names = {"s", "k", "r", "t", "v"};
+        final Expression expression = new ExpressionBuilder("s * exp(-r * t) * log(s / k + 1) + v * sqrt(t) * cos(k / s)")
+                .variables(names)
+                .build();
+        final DualExpression dual = new DualExpression(expression, names);
+        final double[] derivatives = new double[names.length];
+        final double h = 1e-6;
+        Random rnd = new Random(9);
+
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "Five derivatives", "Evaluations per Second", "Percentage of diffs");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        long start = System.nanoTime();
+        int count = 0;
+        double val = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            for (String name : names) {
+                expression.setVariable(name, 1 + rnd.nextDouble());
+            }
+            val = expression.evaluate();
+            for (int i = 0; i < names.length; i++) {
+                double x = expression.getVariableValues().get(names[i]);
+                double upper = expression.setVariable(names[i], x + h).evaluate();
+                double lower = expression.setVariable(names[i], x - h).evaluate();
+                expression.setVariable(names[i], x);
+                derivatives[i] = (upper - lower) / (2 * h);
+            }
+            count++;
+        }
+        double diffRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "Finite differences", diffRate, 100f);
+
+        start = System.nanoTime();
+        count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            for (String name : names) {
+                dual.setVariable(name, 1 + rnd.nextDouble());
+            }
+            val = dual.evaluate(derivatives);
+            count++;
+        }
+        double dualRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "DualExpression", dualRate, dualRate * 100 / diffRate);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testGradientBenches() throws Exception {
+        assumeBenchmarks();
+        final int numVariables = 1000;
+        final String[] names = new String[numVariables];
+        StringBuilder formula = new StringBuilder("0");
+        for (int i = 0; i < numVariables; i++) {
+            names[i] = "p" + i;
+            formula.append(" + (p").append(i).append(" * ").append(i % 7 + 1).append(" - log(").append(i + 2)
+                    .append("))^2");
+        }
+        final Expression expression = new ExpressionBuilder(formula.toString()).variables(names).build();
+        final Bindings bindings = expression.bindings();
+        final double[] gradient = new double[numVariables];
+        Random rnd = new Random(3);
+        for (int i = 0; i < numVariables; i++) {
+            bindings.set(i, rnd.nextDouble());
+        }
+
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "1000 variables", "Evaluations per Second", "Percentage of evaluate()");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        long start = System.nanoTime();
+        int count = 0;
+        double val = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            bindings.set(rnd.nextInt(numVariables), rnd.nextDouble());
+            val = expression.evaluate(bindings);
+            count++;
+        }
+        double evalRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "evaluate(Bindings)", evalRate, 100f);
+
+        start = System.nanoTime();
+        count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            bindings.set(rnd.nextInt(numVariables), rnd.nextDouble());
+            val = expression.gradient(bindings, gradient);
+            count++;
+        }
+        double gradientRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "gradient", gradientRate, gradientRate * 100 / evalRate);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testSymbolicDerivativeBenches() throws Exception {
+        assumeBenchmarks();
+        final Expression expression = new ExpressionBuilder("x * exp(-0.5 * x) * log(x + 1) + sqrt(x) * cos(x / 3) - 2")
+                .variables("x")
+                .build();
+        final DualExpression dual = new DualExpression(expression, "x");
+        final Expression derivative = expression.derivative("x");
+        final Bindings bindings = expression.bindings();
+        final double[] derivatives = new double[1];
+        Random rnd = new Random(10);
+
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "Newton step", "Evaluations per Second", "Percentage of dual");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        long start = System.nanoTime();
+        int count = 0;
+        double val = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            double x = 1 + rnd.nextDouble();
+            val = x - dual.setVariable("x", x).evaluate(derivatives) / derivatives[0];
+            count++;
+        }
+        double dualRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "DualExpression", dualRate, 100f);
+
+        start = System.nanoTime();
+        count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            double x = 1 + rnd.nextDouble();
+            bindings.set(0, x);
+            val = x - expression.evaluate(bindings) / derivative.evaluate(bindings);
+            count++;
+        }
+        double symbolicRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "Symbolic derivative", symbolicRate,
+                symbolicRate * 100 / dualRate);
+
+        /* the function and its derivative share most of their subexpressions */
+        final ExpressionSet set = new ExpressionSet(expression, derivative);
+        final double[] results = new double[2];
+        start = System.nanoTime();
+        count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            double x = 1 + rnd.nextDouble();
+            set.setVariable("x", x).evaluate(results);
+            val = x - results[0] / results[1];
+            count++;
+        }
+        double setRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "ExpressionSet", setRate, setRate * 100 / dualRate);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testFloatBatchBenches() throws Exception {
+        assumeBenchmarks();
+        final int rows = 4 * 1024 * 1024;
+        final Expression expression = new ExpressionBuilder("(x - 0.5) * y + x * x * 0.25 - y / 3")
+                .variables("x", "y")
+                .build();
+        final double[][] doubles = new double[2][rows];
+        final float[][] floats = new float[2][rows];
+        Random rnd = new Random(11);
+        for (int c = 0; c < 2; c++) {
+            for (int i = 0; i < rows; i++) {
+                floats[c][i] = rnd.nextFloat();
+                doubles[c][i] = floats[c][i];
+            }
+        }
+        final Bindings bindings = expression.bindings();
+        final FloatExpression batch = new FloatExpression(expression, "x", "y");
+        final double[] doubleResults = new double[rows];
+        final float[] floatResults = new float[rows];
+
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "4M rows", "Rows per Second", "Percentage of Bindings");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        long start = System.nanoTime();
+        long count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            for (int i = 0; i < rows; i++) {
+                bindings.set(0, doubles[0][i]);
+                bindings.set(1, doubles[1][i]);
+                doubleResults[i] = expression.evaluate(bindings);
+            }
+            count += rows;
+        }
+        double bindingsRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "Bindings per row", bindingsRate, 100f);
+
+        start = System.nanoTime();
+        count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            batch.evaluate(floats, floatResults);
+            count += rows;
+        }
+        double floatRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "FloatExpression", floatRate, floatRate * 100 / bindingsRate);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testLongBenches() throws Exception {
+        assumeBenchmarks();
+        final String formula = "(x * 31 + y) % 1024 + (x / 7) * 3 - y";
+        final Expression expression = new ExpressionBuilder(formula)
+                .variables("x", "y")
+                .build();
+        final Bindings bindings = expression.bindings();
+        final LongExpression checked = new ExpressionBuilder(formula).variables("x", "y").buildLong();
+        final LongExpression wrapping = new ExpressionBuilder(formula).variables("x", "y")
+                .buildLong(LongExpression.Overflow.WRAP);
+
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "Integer arithmetic", "Evaluations per Second", "Percentage of Bindings");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        long start = System.nanoTime();
+        long count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            bindings.set(0, count & 0xffff);
+            bindings.set(1, count & 0xff);
+            expression.evaluate(bindings);
+            count++;
+        }
+        double bindingsRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "Bindings", bindingsRate, 100f);
+
+        final LongExpression[] modes = {checked, wrapping};
+        final String[] names = {"LongExpression checked", "LongExpression wrap"};
+        for (int m = 0; m < modes.length; m++) {
+            start = System.nanoTime();
+            count = 0;
+            while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                modes[m].setVariable("x", count & 0xffff);
+                modes[m].setVariable("y", count & 0xff);
+                modes[m].evaluate();
+                count++;
+            }
+            double rate = count / ((System.nanoTime() - start) / 1e9);
+            fmt.format("| %-22s | %25.2f | %22.2f %% |%n", names[m], rate, rate * 100 / bindingsRate);
+        }
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testDecimalBenches() throws Exception {
+        assumeBenchmarks();
+        final String formula = "x * y * (1 - 0.15) + x * 0.07 / 12";
+        final Expression expression = new ExpressionBuilder(formula)
+                .variables("x", "y")
+                .build();
+        final Bindings bindings = expression.bindings();
+        final DecimalExpression decimal = new ExpressionBuilder(formula)
+                .variables("x", "y")
+                .buildDecimal(4, RoundingMode.HALF_EVEN);
+        /* the usual workaround, every operation is a function converting its arguments to BigDecimal */
+        final Expression functions = new ExpressionBuilder("add(mul(mul(x, y), sub(1, 0.15)), div(mul(x, 0.07), 12))")
+                .variables("x", "y")
+                .functions(decimalFunction("add", BigDecimal::add), decimalFunction("sub", BigDecimal::subtract),
+                        decimalFunction("mul", BigDecimal::multiply),
+                        decimalFunction("div", (a, b) -> a.divide(b, 4, RoundingMode.HALF_EVEN)))
+                .build();
+        final BigDecimal discount = BigDecimal.ONE.subtract(new BigDecimal("0.15"));
+        final BigDecimal rate = new BigDecimal("0.07");
+        final BigDecimal months = new BigDecimal(12);
+        long sink = 0;
+
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "Decimal arithmetic", "Evaluations per Second", "Percentage of Bindings");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        long start = System.nanoTime();
+        long count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            bindings.set(0, (count & 0xffff) / 100d);
+            bindings.set(1, count & 0xff);
+            expression.evaluate(bindings);
+            count++;
+        }
+        double bindingsRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "Bindings (double)", bindingsRate, 100f);
+
+        start = System.nanoTime();
+        count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            functions.setVariable("x", (count & 0xffff) / 100d);
+            functions.setVariable("y", count & 0xff);
+            sink += (long) functions.evaluate();
+            count++;
+        }
+        double functionsRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "BigDecimal functions", functionsRate, functionsRate * 100 / bindingsRate);
+
+        start = System.nanoTime();
+        count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            final BigDecimal x = BigDecimal.valueOf(count & 0xffff, 2);
+            final BigDecimal y = BigDecimal.valueOf(count & 0xff);
+            /* use the result, otherwise the JIT drops most of the allocations */
+            sink += x.multiply(y).setScale(4, RoundingMode.HALF_EVEN).multiply(discount).setScale(4, RoundingMode.HALF_EVEN)
+                    .add(x.multiply(rate).setScale(4, RoundingMode.HALF_EVEN).divide(months, 4, RoundingMode.HALF_EVEN))
+                    .unscaledValue().longValue();
+            count++;
+        }
+        double bigDecimalRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "BigDecimal in Java", bigDecimalRate, bigDecimalRate * 100 / bindingsRate);
+
+        start = System.nanoTime();
+        count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            decimal.setUnscaledVariable("x", (count & 0xffff) * 100);
+            decimal.setUnscaledVariable("y", (count & 0xff) * 10000);
+            sink += decimal.evaluateUnscaled();
+            count++;
+        }
+        double decimalRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "DecimalExpression", decimalRate, decimalRate * 100 / bindingsRate);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+        assertTrue(sink != 0);
+    }
+
+    private static Function decimalFunction(String name, BinaryOperator<BigDecimal> operation) {
+        return new TwoArgumentFunction(name) {
+            @Override
+            public double apply(double arg1, double arg2) {
+                return operation.apply(BigDecimal.valueOf(arg1), BigDecimal.valueOf(arg2))
+                        .setScale(4, RoundingMode.HALF_EVEN).doubleValue();
+            }
+        };
+    }
+
+    @Test
+    public void testComplexBenches() throws Exception {
+        assumeBenchmarks();
+        final int rows = 1024 * 1024;
+        final Expression real = new ExpressionBuilder("zr * zr - zi * zi + cr")
+                .variables("zr", "zi", "cr", "ci")
+                .build();
+        final Expression imaginary = new ExpressionBuilder("2 * zr * zi + ci")
+                .variables("zr", "zi", "cr", "ci")
+                .build();
+        final ComplexExpression complex = new ExpressionBuilder("z * z + c")
+                .variables("z", "c")
+                .buildComplex("z", "c");
+        final double[][] re = new double[2][rows];
+        final double[][] im = new double[2][rows];
+        Random rnd = new Random(13);
+        for (int c = 0; c < 2; c++) {
+            for (int i = 0; i < rows; i++) {
+                re[c][i] = rnd.nextDouble() * 2 - 1;
+                im[c][i] = rnd.nextDouble() * 2 - 1;
+            }
+        }
+        final Bindings realBindings = real.bindings();
+        final Bindings imaginaryBindings = imaginary.bindings();
+        final double[] resultRe = new double[rows];
+        final double[] resultIm = new double[rows];
+
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "1M complex rows", "Rows per Second", "Percentage of two exps");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        long start = System.nanoTime();
+        long count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            for (int i = 0; i < rows; i++) {
+                realBindings.set(0, re[0][i]).set(1, im[0][i]).set(2, re[1][i]);
+                imaginaryBindings.set(0, re[0][i]).set(1, im[0][i]).set(2, im[1][i]);
+                resultRe[i] = real.evaluate(realBindings);
+                resultIm[i] = imaginary.evaluate(imaginaryBindings);
+            }
+            count += rows;
+        }
+        double pairRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "Two real expressions", pairRate, 100f);
+
+        start = System.nanoTime();
+        count = 0;
+        while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+            complex.evaluate(re, im, resultRe, resultIm);
+            count += rows;
+        }
+        double complexRate = count / ((System.nanoTime() - start) / 1e9);
+        fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "ComplexExpression", complexRate, complexRate * 100 / pairRate);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testDoubleDoubleBenches() throws Exception {
+        assumeBenchmarks();
+        final String[] formulas = {"x * x * 0.5 - y / 3 + x * y", "exp(x) * sin(y) + log(x + 1)"};
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "Double-double", "Evaluations per Second", "Percentage of Bindings");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        for (String formula : formulas) {
+            final Expression expression = new ExpressionBuilder(formula)
+                    .variables("x", "y")
+                    .build();
+            final Bindings bindings = expression.bindings();
+            final DoubleDoubleExpression dd = new DoubleDoubleExpression(expression);
+            final Random rnd = new Random(17);
+            long start = System.nanoTime();
+            long count = 0;
+            while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                bindings.set(0, rnd.nextDouble());
+                bindings.set(1, rnd.nextDouble());
+                expression.evaluate(bindings);
+                count++;
+            }
+            double bindingsRate = count / ((System.nanoTime() - start) / 1e9);
+            start = System.nanoTime();
+            count = 0;
+            while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                dd.setVariable("x", rnd.nextDouble());
+                dd.setVariable("y", rnd.nextDouble());
+                dd.evaluate();
+                count++;
+            }
+            double ddRate = count / ((System.nanoTime() - start) / 1e9);
+            final String label = formula.startsWith("exp") ? "exp, sin, log" : "arithmetic";
+            fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "double " + label, bindingsRate, 100f);
+            fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "dd " + label, ddRate, ddRate * 100 / bindingsRate);
+        }
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testMathModeBenches() throws Exception {
+        assumeBenchmarks();
+        final String[] names = {"exp", "log", "sin", "pow"};
+        final DoubleUnaryOperator[][] kernels = {
+                {Math::exp, StrictMath::exp, ApproximateMath::exp},
+                {Math::log, StrictMath::log, ApproximateMath::log},
+                {Math::sin, StrictMath::sin, ApproximateMath::sin},
+                {x -> Math.pow(x, 1.7), x -> StrictMath.pow(x, 1.7), x -> ApproximateMath.pow(x, 1.7)}};
+        final String[] implementations = {"Math", "StrictMath", "ApproximateMath"};
+        final double[] arguments = new double[4096];
+        final double[] results = new double[arguments.length];
+        final Random rnd = new Random(23);
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = rnd.nextDouble() * 20 + 0.5;
+        }
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+--------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s | %-12s |%n", "Math mode", "Evaluations per Second", "Percentage of Math", "Max. error");
+        fmt.format("+------------------------+---------------------------+--------------------------+--------------+%n");
+        for (int f = 0; f < names.length; f++) {
+            double mathRate = 0;
+            for (int k = 0; k < implementations.length; k++) {
+                final DoubleUnaryOperator kernel = kernels[f][k];
+                long start = System.nanoTime();
+                long count = 0;
+                while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                    for (int i = 0; i < arguments.length; i++) {
+                        results[i] = kernel.applyAsDouble(arguments[i]);
+                    }
+                    count += arguments.length;
+                }
+                double rate = count / ((System.nanoTime() - start) / 1e9);
+                if (k == 0) {
+                    mathRate = rate;
+                }
+                double error = 0;
+                for (int i = 0; i < arguments.length; i++) {
+                    final double exact = kernels[f][1].applyAsDouble(arguments[i]);
+                    error = Math.max(error, Math.abs(results[i] - exact) / Math.max(1d, Math.abs(exact)));
+                }
+                fmt.format("| %-22s | %25.2f | %22.2f %% | %12.3e |%n", names[f] + " " + implementations[k], rate,
+                        rate * 100 / mathRate, error);
+            }
+        }
+        final String formula = "sin(x) * exp(-y) + log(x + 1) + x^y";
+        double defaultRate = 0;
+        for (MathMode mode : new MathMode[]{MathMode.DEFAULT, MathMode.STRICT, MathMode.FAST}) {
+            final Expression expression = new ExpressionBuilder(formula)
+                    .variables("x", "y")
+                    .mathMode(mode)
+                    .build();
+            final Bindings bindings = expression.bindings();
+            long start = System.nanoTime();
+            long count = 0;
+            while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                bindings.set(0, rnd.nextDouble() * 10);
+                bindings.set(1, rnd.nextDouble());
+                expression.evaluate(bindings);
+                count++;
+            }
+            double rate = count / ((System.nanoTime() - start) / 1e9);
+            if (mode == MathMode.DEFAULT) {
+                defaultRate = rate;
+            }
+            fmt.format("| %-22s | %25.2f | %22.2f %% | %12s |%n", "Expression " + mode, rate, rate * 100 / defaultRate, "");
+        }
+        fmt.format("+------------------------+---------------------------+--------------------------+--------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testChebyshevBenches() throws Exception {
+        assumeBenchmarks();
+        final String[] formulas = {"log(1 + exp(3 * x)) / 3", "atan(sinh(x)) * cos(x / 2)^2"};
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "Chebyshev", "Evaluations per Second", "Percentage of exact");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        for (int f = 0; f < formulas.length; f++) {
+            double exactRate = 0;
+            for (int k = 0; k < 2; k++) {
+                final ExpressionBuilder builder = new ExpressionBuilder(formulas[f]).variables("x");
+                if (k == 1) {
+                    builder.pass(new ChebyshevApproximation("x", -5, 5, 1e-10));
+                }
+                final Expression expression = builder.build();
+                final Bindings bindings = expression.bindings();
+                final Random rnd = new Random(29);
+                long start = System.nanoTime();
+                long count = 0;
+                while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                    bindings.set(0, rnd.nextDouble() * 10 - 5);
+                    expression.evaluate(bindings);
+                    count++;
+                }
+                double rate = count / ((System.nanoTime() - start) / 1e9);
+                if (k == 0) {
+                    exactRate = rate;
+                }
+                fmt.format("| %-22s | %25.2f | %22.2f %% |%n", "formula " + (f + 1) + (k == 0 ? " exact" : " Chebyshev"),
+                        rate, rate * 100 / exactRate);
+            }
+        }
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testPolynomialBenches() throws Exception {
+        assumeBenchmarks();
+        final StringBuilder formula = new StringBuilder("0.5");
+        for (int k = 1; k <= 12; k++) {
+            formula.append(k % 2 == 0 ? " + " : " - ").append(1d / (k + 1)).append(" * x^").append(k);
+        }
+        final String[] labels = {"Original", "Horner", "Estrin"};
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "Degree 12 polynomial", "Evaluations per Second", "Percentage of Original");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        double originalRate = 0;
+        for (int k = 0; k < labels.length; k++) {
+            final ExpressionBuilder builder = new ExpressionBuilder(formula.toString()).variables("x");
+            if (k > 0) {
+                builder.pass(new PolynomialEvaluation(k == 1 ? PolynomialEvaluation.Scheme.HORNER
+                        : PolynomialEvaluation.Scheme.ESTRIN));
+            }
+            final Expression expression = builder.build();
+            final Bindings bindings = expression.bindings();
+            final Random rnd = new Random(31);
+            long start = System.nanoTime();
+            long count = 0;
+            while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                bindings.set(0, rnd.nextDouble());
+                expression.evaluate(bindings);
+                count++;
+            }
+            double rate = count / ((System.nanoTime() - start) / 1e9);
+            if (k == 0) {
+                originalRate = rate;
+            }
+            fmt.format("| %-22s | %25.2f | %22.2f %% |%n", labels[k], rate, rate * 100 / originalRate);
+        }
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testLinearCombinationBenches() throws Exception {
+        assumeBenchmarks();
+        final int n = 5000;
+        final String[] variables = new String[n];
+        final StringBuilder formula = new StringBuilder("0.5");
+        final Random weights = new Random(17);
+        for (int i = 0; i < n; i++) {
+            variables[i] = "f" + i;
+            formula.append(" + ").append(weights.nextDouble()).append(" * f").append(i);
+        }
+        final String[] labels = {"Original", "Packed", "Matrix-vector batch"};
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "5000 term linear model", "Evaluations per Second", "Percentage of Original");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        double originalRate = 0;
+        for (int k = 0; k < labels.length; k++) {
+            final ExpressionBuilder builder = new ExpressionBuilder(formula.toString()).variables(variables);
+            if (k > 0) {
+                builder.pass(new LinearCombinationDetection());
+            }
+            final Expression expression = builder.build();
+            final Bindings bindings = expression.bindings();
+            final Random rnd = new Random(31);
+            for (int i = 0; i < n; i++) {
+                bindings.set(i, rnd.nextDouble());
+            }
+            final LinearCombination dot = k == 2 ? (LinearCombination) ((FunctionNode) expression.toTree()).getFunction() : null;
+            final double[][] columns = new double[k == 2 ? n : 0][256];
+            for (double[] column : columns) {
+                for (int r = 0; r < column.length; r++) {
+                    column[r] = rnd.nextDouble();
+                }
+            }
+            final double[] results = new double[256];
+            long start = System.nanoTime();
+            long count = 0;
+            while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                if (dot != null) {
+                    dot.apply(columns, results);
+                    count += results.length;
+                } else {
+                    bindings.set((int) (count % n), rnd.nextDouble());
+                    expression.evaluate(bindings);
+                    count++;
+                }
+            }
+            double rate = count / ((System.nanoTime() - start) / 1e9);
+            if (k == 0) {
+                originalRate = rate;
+            }
+            fmt.format("| %-22s | %25.2f | %22.2f %% |%n", labels[k], rate, rate * 100 / originalRate);
+        }
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testReassociationBenches() throws Exception {
+        assumeBenchmarks();
+        final int n = 64;
+        final String[] variables = new String[n];
+        final StringBuilder formula = new StringBuilder("x0");
+        variables[0] = "x0";
+        for (int i = 1; i < n; i++) {
+            variables[i] = "x" + i;
+            formula.append(i % 4 == 0 ? " - x" : " + x").append(i);
+        }
+        final String[] labels = {"Original", "Pairwise", "Compensated"};
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "64 term sum", "Evaluations per Second", "Percentage of Original");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        double originalRate = 0;
+        for (int k = 0; k < labels.length; k++) {
+            final ExpressionBuilder builder = new ExpressionBuilder(formula.toString()).variables(variables);
+            if (k > 0) {
+                builder.pass(new Reassociation(k == 1 ? Reassociation.Summation.PAIRWISE
+                        : Reassociation.Summation.COMPENSATED));
+            }
+            final Expression expression = builder.build();
+            final Bindings bindings = expression.bindings();
+            final Random rnd = new Random(31);
+            for (int i = 0; i < n; i++) {
+                bindings.set(i, rnd.nextDouble());
+            }
+            long start = System.nanoTime();
+            long count = 0;
+            while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                bindings.set((int) (count % n), rnd.nextDouble());
+                expression.evaluate(bindings);
+                count++;
+            }
+            double rate = count / ((System.nanoTime() - start) / 1e9);
+            if (k == 0) {
+                originalRate = rate;
+            }
+            fmt.format("| %-22s | %25.2f | %22.2f %% |%n", labels[k], rate, rate * 100 / originalRate);
+        }
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testFusedMultiplyAddBenches() throws Exception {
+        assumeBenchmarks();
+        final String formula = "(((((0.1*x - 0.2)*x + 0.3)*x - 0.4)*x + 0.5)*x - 0.6)*x + a*b + c*d - e*f";
+        final String[] variables = {"x", "a", "b", "c", "d", "e", "f"};
+        final String[] labels = {"Separate", "Fused multiply add"};
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "Multiply add patterns", "Evaluations per Second", "Percentage of Separate");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        double originalRate = 0;
+        for (int k = 0; k < labels.length; k++) {
+            final Expression expression = new ExpressionBuilder(formula).variables(variables)
+                    .fusedMultiplyAdd(k == 1)
+                    .build();
+            final Bindings bindings = expression.bindings();
+            final Random rnd = new Random(31);
+            for (int i = 0; i < variables.length; i++) {
+                bindings.set(i, rnd.nextDouble());
+            }
+            long start = System.nanoTime();
+            long count = 0;
+            while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                bindings.set(0, rnd.nextDouble());
+                expression.evaluate(bindings);
+                count++;
+            }
+            double rate = count / ((System.nanoTime() - start) / 1e9);
+            if (k == 0) {
+                originalRate = rate;
+            }
+            fmt.format("| %-22s | %25.2f | %22.2f %% |%n", labels[k], rate, rate * 100 / originalRate);
+        }
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testSpecializationBenches() throws Exception {
+        assumeBenchmarks();
+        final StringBuilder formula = new StringBuilder("notional * exp(-r * t) * S + (p0 * p1");
+        final String[] variables = new String[22];
+        variables[0] = "S";
+        variables[1] = "t";
+        variables[2] = "notional";
+        variables[3] = "r";
+        for (int i = 0; i < 18; i++) {
+            variables[4 + i] = "p" + i;
+            if (i > 1 && i % 2 == 0) {
+                formula.append(" + p").append(i).append(" * p").append(i + 1);
+            }
+        }
+        formula.append(") * sqrt(S) - log(p0 + p5) / t + sin(p2) * cos(p3) * S^2");
+        final Map<String, Double> fixed = new HashMap<>();
+        final Random params = new Random(17);
+        for (int i = 2; i < variables.length; i++) {
+            fixed.put(variables[i], params.nextDouble() + 0.5);
+        }
+        final String[] labels = {"Original", "Specialized"};
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "20 fixed, 2 per tick", "Evaluations per Second", "Percentage of Original");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        double originalRate = 0;
+        for (int k = 0; k < labels.length; k++) {
+            Expression expression = new ExpressionBuilder(formula.toString()).variables(variables).build();
+            if (k == 1) {
+                expression = expression.specialize(fixed);
+            }
+            final Bindings bindings = expression.bindings();
+            for (int i = 0; i < bindings.size(); i++) {
+                final Double value = fixed.get(bindings.getName(i));
+                if (value != null) {
+                    bindings.set(i, value);
+                }
+            }
+            final int s = bindings.indexOf("S");
+            final int t = bindings.indexOf("t");
+            final Random rnd = new Random(31);
+            long start = System.nanoTime();
+            long count = 0;
+            while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                bindings.set(s, rnd.nextDouble() * 100 + 1);
+                bindings.set(t, rnd.nextDouble() + 0.1);
+                expression.evaluate(bindings);
+                count++;
+            }
+            double rate = count / ((System.nanoTime() - start) / 1e9);
+            if (k == 0) {
+                originalRate = rate;
+            }
+            fmt.format("| %-22s | %25.2f | %22.2f %% |%n", labels[k], rate, rate * 100 / originalRate);
+        }
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
+    @Test
+    public void testAdaptiveSpecializationBenches() throws Exception {
+        assumeBenchmarks();
+        final String formula = "notional * exp(-r * t) * S + (k1 * k2 + sin(k3)) * sqrt(S) - log(k1 + k4) / t"
+                + " + cos(k5) * k6 ^ 2 * S";
+        final String[] parameters = {"notional", "r", "k1", "k2", "k3", "k4", "k5", "k6"};
+        final String[] labels = {"Parameters changing", "Parameters fixed"};
+        StringBuffer sb = new StringBuffer();
+        Formatter fmt = new Formatter(sb);
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        fmt.format("| %-22s | %-25s | %-24s |%n", "Runtime specialization", "Evaluations per Second", "Percentage of Changing");
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        double originalRate = 0;
+        for (int k = 0; k < labels.length; k++) {
+            final Expression expression = new ExpressionBuilder(formula).variables(parameters).variables("S", "t")
+                    .build();
+            final Random rnd = new Random(31);
+            long start = System.nanoTime();
+            long count = 0;
+            while (System.nanoTime() - start < BENCH_TIME * 1000000000L) {
+                /* a service setting all the variables on every call, the parameters alternate or stay the same */
+                final double parameter = k == 0 ? 0.5 + (count & 1) : 0.5;
+                for (String name : parameters) {
+                    expression.setVariable(name, parameter);
+                }
+                expression.setVariable("S", rnd.nextDouble() * 100 + 1);
+                expression.setVariable("t", rnd.nextDouble() + 0.1);
+                expression.evaluate();
+                count++;
+            }
+            double rate = count / ((System.nanoTime() - start) / 1e9);
+            if (k == 0) {
+                originalRate = rate;
+            }
+            fmt.format("| %-22s | %25.2f | %22.2f %% |%n", labels[k], rate, rate * 100 / originalRate);
+        }
+        fmt.format("+------------------------+---------------------------+--------------------------+%n");
+        System.out.print(sb.toString());
+    }
+
     private int benchDouble() {
         final Expression expression = new ExpressionBuilder(EXPRESSION)
                 .variables("x", "y")
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class SymbolicDerivativeTest {
+
+    /**
+     * Compare the symbolic derivatives of an expression to the ones computed by {@link DualExpression}
+     */
+    private static void assertDerivatives(String formula, double x, double y) {
+        Expression e = new ExpressionBuilder(formula).variables("x", "y").build();
+        DualExpression dual = new DualExpression(e, "x", "y").setVariable("x", x).setVariable("y", y);
+        double[] derivatives = new double[2];
+        dual.evaluate(derivatives);
+        double dx = e.derivative("x").setVariable("x", x).setVariable("y", y).evaluate();
+        double dy = e.derivative("y").setVariable("x", x).setVariable("y", y).evaluate();
+        assertEquals(formula + " d/dx", derivatives[0], dx, 1e-12 * Math.max(1, Math.abs(dx)));
+        assertEquals(formula + " d/dy", derivatives[1], dy, 1e-12 * Math.max(1, Math.abs(dy)));
+    }
+
+    private static String derivative(String formula, String variable) {
+        return new ExpressionBuilder(formula).variables("x", "y").build().derivative(variable).toTree().toString();
+    }
+
+    @Test
+    public void testOperators() {
+        assertDerivatives("x + y", 1.5, 2);
+        assertDerivatives("x - y", 1.5, 2);
+        assertDerivatives("x * y", 1.5, 2);
+        assertDerivatives("x / y", 1.5, 2);
+        assertDerivatives("x % y", 5.5, 2);
+        assertDerivatives("x % y", -5.5, 2);
+        assertDerivatives("x ^ y", 1.5, 2);
+        assertDerivatives("-x * +y", 1.5, 2);
+        assertDerivatives("x ^ 3", -1.5, 2);
+        assertDerivatives("(x < y) * x + (x || y)", 1.5, 2);
+    }
+
+    @Test
+    public void testFunctions() {
+        Random rnd = new Random(3);
+        for (String name : Functions.ALL.keySet()) {
+            Function function = Functions.ALL.get(name);
+            String formula;
+            if (name.equals("if")) {
+                formula = "if(x - 0.5, x * y, y)";
+            } else if (function.getNumberOfArguments() == 2) {
+                formula = name + "(x, y)";
+            } else if (name.equals("avg")) {
+                formula = "avg(x, y, x * y)";
+            } else {
+                formula = name + "(x * y)";
+            }
+            for (int i = 0; i < 5; i++) {
+                assertDerivatives(formula, 0.1 + rnd.nextDouble() * 0.4, 0.55 + rnd.nextDouble() * 0.4);
+            }
+        }
+    }
+
+    @Test
+    public void testChainRule() {
+        assertDerivatives("sin(x)^2 * exp(-y) + log(x * y + 1) / sqrt(x^2 + y^2)", 0.7, 1.3);
+        assertDerivatives("if(x > y && y > 0, x^y, cos(x) * y)", 2.5, 1.5);
+        assertDerivatives("if(x > y && y > 0, x^y, cos(x) * y)", 0.5, 1.5);
+    }
+
+    @Test
+    public void testSimplified() {
+        assertEquals("((6.0 * x) - 2.0)", derivative("3x^2 - 2x + 1", "x"));
+        assertEquals("0.0", derivative("3x^2 - 2x + 1", "y"));
+        assertEquals("(2.0 * y)", derivative("x * y * 2", "x"));
+        assertEquals("-(sin(x))", derivative("cos(x) + y", "x"));
+        assertEquals("(-(sin(x)) * y)", derivative("cos(x) * y", "x"));
+    }
+
+    @Test
+    public void testSecondDerivative() {
+        Expression e = new ExpressionBuilder("x^4 + sin(x)").variables("x").build();
+        Expression second = e.derivative("x").derivative("x");
+        double x = 0.8;
+        assertEquals(12 * x * x - Math.sin(x), second.setVariable("x", x).evaluate(), 1e-12);
+    }
+
+    @Test
+    public void testVariableValuesAreShared() {
+        Expression e = new ExpressionBuilder("2 pi r").variables("r").withPi().build();
+        assertEquals(2 * Math.PI, e.derivative("r").evaluate(), 0d);
+    }
+
+    @Test
+    public void testConditionalStaysLazy() {
+        Expression d = new ExpressionBuilder("if(x != 0, 1 / x, 0)").variables("x").build().derivative("x");
+        assertEquals(0d, d.setVariable("x", 0).evaluate(), 0d);
+        assertEquals(-0.25, d.setVariable("x", 2).evaluate(), 0d);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Expression d = new ExpressionBuilder("x * exp(x)").variables("x").build().derivative("x");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        d.writeTo(new DataOutputStream(bytes));
+        Expression read = Expression.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                new FunctionRegistry());
+        assertEquals(2 * Math.E, read.setVariable("x", 1).evaluate(), 1e-15);
+    }
+
+    @Test
+    public void testCustomFunctionOfConstants() {
+        Function f = new OneArgumentFunction("f") {
+            @Override
+            public double apply(double x) {
+                return x * x;
+            }
+        };
+        Expression e = new ExpressionBuilder("f(y) * x").variables("x", "y").function(f).build();
+        assertEquals(9d, e.derivative("x").setVariable("y", 3).evaluate(), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCustomFunctionOfVariable() {
+        Function f = new OneArgumentFunction("f") {
+            @Override
+            public double apply(double x) {
+                return x * x;
+            }
+        };
+        new ExpressionBuilder("f(x) * y").variables("x", "y").function(f).build().derivative("x");
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.codegen;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@Formula(name = "GeneratedPolynomial", expression = "3x^2 - 2x + 1", variables = "x")
+@Formula(name = "GeneratedMixed",
+        expression = "log(x) - y * (sqrt(x^cos(y))) + avg(x, y, 2) % 3 - -signum(x - y) + log2(y) / cot(x)",
+        variables = {"x", "y"})
+@Formula(name = "GeneratedCircle", expression = "2 pi r", variables = {"pi", "r"})
+@Formula(name = "GeneratedDivision", expression = "1 / x", variables = "x")
+@Formula(name = "GeneratedConditional", expression = "if(x != 0 && y / x >= 1, 1 / x, -1) + (x < y || 1 / x > 2) * 10",
+        variables = {"x", "y"})
+@Formula(name = "GeneratedFused", expression = "x*x - 1", variables = "x", fusedMultiplyAdd = true)
+public class FormulaProcessorTest {
+
+    @Test
+    public void testPolynomial() {
+        CompiledExpression e = new GeneratedPolynomial();
+        assertEquals(Collections.singletonList("x"), e.getVariableNames());
+        assertEquals("3x^2 - 2x + 1", e.getExpression());
+        assertEquals(22d, e.evaluate(3), 0d);
+        assertEquals(22d, GeneratedPolynomial.compute(3), 0d);
+    }
+
+    @Test
+    public void testSameResultsAsInterpreter() {
+        CompiledExpression compiled = new GeneratedMixed();
+        Expression interpreted = new ExpressionBuilder(GeneratedMixed.EXPRESSION)
+                .variables("x", "y")
+                .build();
+        Random rnd = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            double x = rnd.nextDouble() * 4;
+            double y = rnd.nextDouble() * 4 - 1;
+            interpreted.setVariable("x", x).setVariable("y", y);
+            assertEquals(Double.doubleToLongBits(interpreted.evaluate()),
+                    Double.doubleToLongBits(compiled.evaluate(x, y)));
+        }
+    }
+
+    @Test
+    public void testConstantsAreInlined() {
+        CompiledExpression e = new GeneratedCircle();
+        assertEquals(Collections.singletonList("r"), e.getVariableNames());
+        Map<String, Double> variables = new HashMap<>();
+        variables.put("r", 0.5);
+        assertEquals(Math.PI, e.evaluate(variables), 0d);
+    }
+
+    @Test
+    public void testConditionalsAreLazy() {
+        CompiledExpression compiled = new GeneratedConditional();
+        Expression interpreted = new ExpressionBuilder(GeneratedConditional.EXPRESSION)
+                .variables("x", "y")
+                .build();
+        double[] xs = {0, 0.25, 1, 2, -1};
+        double[] ys = {0, 1, -3, 2};
+        for (double x : xs) {
+            for (double y : ys) {
+                if (x == 0 && y <= 0) {
+                    /* the right operand of the || is evaluated and divides by zero */
+                    continue;
+                }
+                interpreted.setVariable("x", x).setVariable("y", y);
+                assertEquals(interpreted.evaluate(), compiled.evaluate(x, y), 0d);
+            }
+        }
+        assertEquals(9d, compiled.evaluate(0, 1), 0d);
+    }
+
+    @Test
+    public void testFusedMultiplyAdd() {
+        double x = 1 + Math.scalb(1d, -30);
+        Expression interpreted = new ExpressionBuilder(GeneratedFused.EXPRESSION)
+                .variables("x")
+                .fusedMultiplyAdd(true)
+                .build()
+                .setVariable("x", x);
+        assertEquals(Math.fma(x, x, -1), new GeneratedFused().evaluate(x), 0d);
+        assertEquals(interpreted.evaluate(), new GeneratedFused().evaluate(x), 0d);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() {
+        new GeneratedDivision().evaluate(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongNumberOfValues() {
+        new GeneratedPolynomial().evaluate(1, 2);
+    }
+
+    @Test
+    public void testInvalidFormulaIsCompileError() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, null);
+        File out = Files.createTempDirectory("exp4j-codegen").toFile();
+        files.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(out));
+        files.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(out));
+        JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///test/Invalid.java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return "package test;\n"
+                        + "@net.objecthunter.exp4j.codegen.Formula(name = \"Broken\", expression = \"2 * (x + \", variables = \"x\")\n"
+                        + "@net.objecthunter.exp4j.codegen.Formula(name = \"Unknown\", expression = \"2 * y\", variables = \"x\")\n"
+                        + "public class Invalid {}\n";
+            }
+        };
+        JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics,
+                Arrays.asList("-classpath", System.getProperty("java.class.path")), null, Collections.singletonList(source));
+        task.setProcessors(Collections.singletonList(new FormulaProcessor()));
+        assertFalse(task.call());
+        int errors = 0;
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                assertTrue(diagnostic.getMessage(null).startsWith("Invalid formula"));
+                errors++;
+            }
+        }
+        assertEquals(2, errors);
+    }
+}
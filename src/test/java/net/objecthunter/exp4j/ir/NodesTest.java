@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.ir;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operators;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class NodesTest {
+
+    @Test
+    public void testToTree() {
+        Node tree = new ExpressionBuilder("2 * sin(x) - avg(1, 2, y)")
+                .variables("x", "y")
+                .build()
+                .toTree();
+        assertTrue(tree instanceof OperatorNode);
+        OperatorNode minus = (OperatorNode) tree;
+        assertEquals("-", minus.getOperator().getSymbol());
+        FunctionNode avg = (FunctionNode) minus.getOperand(1);
+        assertEquals("avg", avg.getFunction().getName());
+        assertEquals(3, avg.getArguments().size());
+        assertEquals("((2.0 * sin(x)) - avg(1.0, 2.0, y))", tree.toString());
+    }
+
+    @Test
+    public void testExpressionFromTree() {
+        Node tree = new OperatorNode(Operators.getBuiltinOperator('+', 2),
+                new FunctionNode(Functions.ALL.get("avg"), new NumberNode(1), new NumberNode(2), new VariableNode("x")),
+                new OperatorNode(Operators.getBuiltinOperator('-', 1), new VariableNode("y")));
+        Expression e = new Expression(tree)
+                .setVariable("x", 6)
+                .setVariable("y", 1);
+        assertEquals(2d, e.evaluate(), 0d);
+        assertEquals(tree, e.toTree());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Expression e = new ExpressionBuilder("3^-x*log(y)/2+max(x,y)")
+                .function(new net.objecthunter.exp4j.function.DynamicArgumentFunction("max", 1, 10) {
+                    @Override
+                    public double apply(double... args) {
+                        double max = args[0];
+                        for (double arg : args) {
+                            max = Math.max(max, arg);
+                        }
+                        return max;
+                    }
+                })
+                .variables("x", "y")
+                .build()
+                .setVariable("x", 1.5)
+                .setVariable("y", 4);
+        Expression copy = new Expression(e.toTree())
+                .setVariable("x", 1.5)
+                .setVariable("y", 4);
+        assertEquals(e.evaluate(), copy.evaluate(), 0d);
+    }
+
+    @Test
+    public void testStructuralEquality() {
+        Node a = new ExpressionBuilder("x*(y+1)").variables("x", "y").build().toTree();
+        Node b = new ExpressionBuilder("x * (y + 1)").variables("x", "y").build().toTree();
+        Node c = new ExpressionBuilder("x * (y + 2)").variables("x", "y").build().toTree();
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, c);
+    }
+
+    @Test
+    public void testVisitor() {
+        final Set<String> names = new HashSet<>();
+        new ExpressionBuilder("a + sin(b) * c")
+                .variables("a", "b", "c")
+                .build()
+                .toTree()
+                .accept(new NodeVisitor<Void>() {
+                    @Override
+                    public Void visit(NumberNode node) {
+                        return null;
+                    }
+
+                    @Override
+                    public Void visit(VariableNode node) {
+                        names.add(node.getName());
+                        return null;
+                    }
+
+                    @Override
+                    public Void visit(OperatorNode node) {
+                        for (Node child : node.getChildren()) {
+                            child.accept(this);
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public Void visit(FunctionNode node) {
+                        for (Node child : node.getChildren()) {
+                            child.accept(this);
+                        }
+                        return null;
+                    }
+                });
+        assertEquals(3, names.size());
+        assertTrue(names.contains("b"));
+    }
+
+    @Test
+    public void testTransformerPass() {
+        /* replace every sin(x) with x */
+        NodeTransformer smallAngle = new NodeTransformer() {
+            @Override
+            public Node visit(FunctionNode node) {
+                if (node.getFunction() == Functions.ALL.get("sin")) {
+                    return node.getArguments().get(0).accept(this);
+                }
+                return super.visit(node);
+            }
+        };
+        Expression e = new ExpressionBuilder("2 * sin(sin(x))")
+                .variables("x")
+                .pass(smallAngle)
+                .build()
+                .setVariable("x", 0.25);
+        assertEquals(0.5, e.evaluate(), 0d);
+    }
+
+    @Test
+    public void testTransformerKeepsUnchangedNodes() {
+        Node tree = new ExpressionBuilder("x * (y + 1)").variables("x", "y").build().toTree();
+        assertSame(tree, new NodeTransformer() { }.transform(tree));
+    }
+
+    @Test
+    public void testDeepTree() {
+        StringBuilder sb = new StringBuilder("x");
+        for (int i = 0; i < 20000; i++) {
+            sb.append("+x");
+        }
+        Expression e = new ExpressionBuilder(sb.toString()).variables("x").build();
+        Expression copy = new Expression(e.toTree()).setVariable("x", 1);
+        assertEquals(20001d, copy.evaluate(), 0d);
+    }
+
+    @Test
+    public void testDeepTreeTransformation() {
+        StringBuilder sb = new StringBuilder("2*x");
+        for (int i = 0; i < 20000; i++) {
+            sb.append("+2*x");
+        }
+        Node tree = new ExpressionBuilder(sb.toString()).variables("x").build().toTree();
+        assertSame(tree, new NodeTransformer() { }.transform(tree));
+        /* replace every 2 with 3 */
+        Node tripled = new NodeTransformer() {
+            @Override
+            public Node visit(NumberNode node) {
+                return node.getValue() == 2d ? new NumberNode(3d) : node;
+            }
+        }.transform(tree);
+        assertEquals(60003d, new Expression(tripled).setVariable("x", 1).evaluate(), 0d);
+        assertEquals(tree, new Expression(tree).toTree());
+        assertFalse(tree.equals(tripled));
+        Expression derivative = new Expression(tree).derivative("x");
+        assertEquals(40002d, derivative.setVariable("x", 1).evaluate(), 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidOperandCount() {
+        new OperatorNode(Operators.getBuiltinOperator('*', 2), new NumberNode(1));
+    }
+}
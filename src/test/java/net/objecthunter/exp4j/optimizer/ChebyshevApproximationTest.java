@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.Interval;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.ir.VariableNode;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChebyshevApproximationTest {
+
+    private static boolean isApproximation(Node node) {
+        return node instanceof FunctionNode && ((FunctionNode) node).getFunction().getName().equals("chebyshev");
+    }
+
+    @Test
+    public void testSoftplus() {
+        Expression exact = new ExpressionBuilder("log(1 + exp(3 * x)) / 3").variables("x").build();
+        Expression approximated = new ExpressionBuilder("log(1 + exp(3 * x)) / 3").variables("x")
+                .pass(new ChebyshevApproximation("x", -5, 5, 1e-10))
+                .build();
+        Node root = approximated.toTree();
+        assertTrue(isApproximation(root));
+        assertEquals("x", ((VariableNode) ((FunctionNode) root).getArguments().get(0)).getName());
+        Random rnd = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            double x = rnd.nextDouble() * 10 - 5;
+            assertEquals(exact.setVariable("x", x).evaluate(), approximated.setVariable("x", x).evaluate(), 2e-10);
+        }
+        assertEquals(exact.setVariable("x", 5).evaluate(), approximated.setVariable("x", 5).evaluate(), 1e-10);
+        assertEquals(exact.setVariable("x", -5).evaluate(), approximated.setVariable("x", -5).evaluate(), 1e-10);
+    }
+
+    @Test
+    public void testOnlySingleVariableSubexpressions() {
+        Map<String, Interval> domains = new HashMap<>();
+        domains.put("x", Interval.of(0, 2));
+        domains.put("y", Interval.of(1, 3));
+        Expression e = new ExpressionBuilder("sin(x) * y + exp(-y^2) * sqrt(x)").variables("x", "y")
+                .pass(new ChebyshevApproximation(domains, 1e-12))
+                .build();
+        OperatorNode sum = (OperatorNode) e.toTree();
+        OperatorNode left = (OperatorNode) sum.getOperand(0);
+        OperatorNode right = (OperatorNode) sum.getOperand(1);
+        assertTrue(isApproximation(left.getOperand(0)));
+        assertTrue(left.getOperand(1) instanceof VariableNode);
+        assertTrue(isApproximation(right.getOperand(0)));
+        /* sqrt has an infinite derivative at 0 and is left alone */
+        assertTrue(right.getOperand(1) instanceof FunctionNode);
+        assertEquals("sqrt", ((FunctionNode) right.getOperand(1)).getFunction().getName());
+        e.setVariable("x", 1.3).setVariable("y", 2.1);
+        assertEquals(Math.sin(1.3) * 2.1 + Math.exp(-2.1 * 2.1) * Math.sqrt(1.3), e.evaluate(), 1e-11);
+    }
+
+    @Test
+    public void testCustomCurveFunction() {
+        Function curve = new OneArgumentFunction("curve") {
+            @Override
+            public double apply(double x) {
+                double sum = 0;
+                for (int k = 1; k <= 50; k++) {
+                    sum += Math.sin(k * x) / (k * k * k);
+                }
+                return sum;
+            }
+        };
+        Expression exact = new ExpressionBuilder("curve(x) + 1").variables("x").function(curve).build();
+        Expression approximated = new ExpressionBuilder("curve(x) + 1").variables("x").function(curve)
+                .pass(new ChebyshevApproximation("x", 0, 1, 1e-9))
+                .build();
+        assertTrue(isApproximation(approximated.toTree()));
+        for (double x = 0; x <= 1; x += 0.001) {
+            assertEquals(exact.setVariable("x", x).evaluate(), approximated.setVariable("x", x).evaluate(), 2e-9);
+        }
+    }
+
+    @Test
+    public void testImpureFunctionsAreKept() {
+        Function noisy = new OneArgumentFunction("noisy") {
+            @Override
+            public double apply(double x) {
+                return Math.exp(x);
+            }
+
+            @Override
+            public boolean isPure() {
+                return false;
+            }
+        };
+        Expression e = new ExpressionBuilder("noisy(x) * exp(x)").variables("x").function(noisy)
+                .pass(new ChebyshevApproximation("x", 0, 1, 1e-9))
+                .build();
+        OperatorNode product = (OperatorNode) e.toTree();
+        assertSame(noisy, ((FunctionNode) product.getOperand(0)).getFunction());
+        assertTrue(isApproximation(product.getOperand(1)));
+    }
+
+    @Test
+    public void testCheapAndUnboundedSubexpressionsAreKept() {
+        Expression e = new ExpressionBuilder("(2 * x + 1) * y + exp(z)").variables("x", "y", "z")
+                .pass(new ChebyshevApproximation("x", 0, 1, 1e-9))
+                .build();
+        Expression original = new ExpressionBuilder("(2 * x + 1) * y + exp(z)").variables("x", "y", "z").build();
+        assertEquals(original.toTree(), e.toTree());
+    }
+
+    @Test
+    public void testFailingSubexpressionsAreKept() {
+        Expression e = new ExpressionBuilder("1 / sin(x)").variables("x")
+                .pass(new ChebyshevApproximation("x", -1, 1, 1e-9))
+                .build();
+        assertTrue(!isApproximation(e.toTree()));
+        assertTrue(isApproximation(((OperatorNode) e.toTree()).getOperand(1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutsideOfDomain() {
+        Expression e = new ExpressionBuilder("exp(x)").variables("x")
+                .pass(new ChebyshevApproximation("x", 0, 1, 1e-9))
+                .build();
+        e.setVariable("x", 1.5).evaluate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidErrorBound() {
+        new ChebyshevApproximation("x", 0, 1, 0);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.Interval;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.operator.Operators;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class DivisionCheckEliminationTest {
+
+    private static Node root(Expression e) {
+        return e.toTree();
+    }
+
+    @Test
+    public void testNonzeroDivisor() {
+        Expression e = new ExpressionBuilder("x / (x^2 + 1)").variables("x").pass(new DivisionCheckElimination()).build();
+        assertSame(Operators.getUncheckedDivision(), ((OperatorNode) root(e)).getOperator());
+        assertEquals(0.5, e.setVariable("x", 1).evaluate(), 0d);
+    }
+
+    @Test
+    public void testPossiblyZeroDivisor() {
+        Expression e = new ExpressionBuilder("x / (y - 1)").variables("x", "y").pass(new DivisionCheckElimination()).build();
+        assertSame(Operators.getBuiltinOperator('/', 2), ((OperatorNode) root(e)).getOperator());
+    }
+
+    @Test
+    public void testVariableRanges() {
+        Expression e = new ExpressionBuilder("x / (y - 1)").variables("x", "y")
+                .pass(new DivisionCheckElimination(Collections.singletonMap("y", Interval.of(2, 3))))
+                .build();
+        assertSame(Operators.getUncheckedDivision(), ((OperatorNode) root(e)).getOperator());
+        assertEquals(3d, e.setVariable("x", 3).setVariable("y", 2).evaluate(), 0d);
+        assertEquals(Double.POSITIVE_INFINITY, e.setVariable("y", 1).evaluate(), 0d);
+    }
+
+    @Test
+    public void testGuardedDivision() {
+        Expression e = new ExpressionBuilder("if(x > 1, 1 / x, 0)").variables("x")
+                .pass(new DivisionCheckElimination(Collections.singletonMap("x", Interval.of(-5, 5))))
+                .build();
+        OperatorNode division = (OperatorNode) root(e).getChildren().get(1);
+        assertSame(Operators.getBuiltinOperator('/', 2), division.getOperator());
+        e = new ExpressionBuilder("if(x > 1, 1 / x, 0)").variables("x")
+                .pass(new DivisionCheckElimination(Collections.singletonMap("x", Interval.of(2, 5))))
+                .build();
+        division = (OperatorNode) root(e).getChildren().get(1);
+        assertSame(Operators.getUncheckedDivision(), division.getOperator());
+        assertEquals(0.5, e.setVariable("x", 2).evaluate(), 0d);
+    }
+
+    @Test
+    public void testZeroTimesUnbounded() {
+        /* x * 0 is NaN for an infinite x, and NaN == 0 is false */
+        Expression e = new ExpressionBuilder("1 / ((x * 0) == 0)").variables("x").pass(new DivisionCheckElimination()).build();
+        assertSame(Operators.getBuiltinOperator('/', 2), ((OperatorNode) root(e)).getOperator());
+        assertDivisionByZero(e.setVariable("x", Double.POSITIVE_INFINITY));
+        e = new ExpressionBuilder("1 / ((sqrt(x) * 0) >= 0)").variables("x").pass(new DivisionCheckElimination()).build();
+        assertSame(Operators.getBuiltinOperator('/', 2), ((OperatorNode) root(e)).getOperator());
+        assertDivisionByZero(e.setVariable("x", -1));
+    }
+
+    private static void assertDivisionByZero(Expression e) {
+        try {
+            e.evaluate();
+            fail("Division by zero not detected");
+        } catch (ArithmeticException ex) {
+            assertEquals("Division by zero!", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testDerivativeOfUncheckedDivision() {
+        Expression e = new ExpressionBuilder("1 / exp(x)").variables("x").pass(new DivisionCheckElimination()).build();
+        assertEquals(-1d, e.derivative("x").setVariable("x", 0).evaluate(), 1e-15);
+    }
+
+    @Test
+    public void testDeepExpression() {
+        StringBuilder sb = new StringBuilder("1/x");
+        for (int i = 0; i < 20000; i++) {
+            sb.append("+1/(x^2+1)");
+        }
+        Expression e = new ExpressionBuilder(sb.toString()).variables("x").pass(new DivisionCheckElimination()).build();
+        assertEquals(10001d, e.setVariable("x", 1).evaluate(), 0d);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.Bindings;
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.FloatExpression;
+import net.objecthunter.exp4j.function.FusedMultiplyAdd;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import net.objecthunter.exp4j.ir.VariableNode;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FmaContractionTest {
+
+    /* x*x - 1 rounds x*x to 1 + 2^-29 before subtracting, the fused result keeps the 2^-60 */
+    private static final double X = 1 + Math.scalb(1d, -30);
+
+    private static boolean isFma(Node node) {
+        return node instanceof FunctionNode && ((FunctionNode) node).getFunction() instanceof FusedMultiplyAdd;
+    }
+
+    private static Expression build(String formula, String... variables) {
+        return new ExpressionBuilder(formula).variables(variables).fusedMultiplyAdd(true).build();
+    }
+
+    @Test
+    public void testPatterns() {
+        String[] formulas = {"a*b + c", "c + a*b", "a*b - c", "c - a*b"};
+        for (String formula : formulas) {
+            Expression fused = build(formula, "a", "b", "c");
+            assertTrue(formula, isFma(fused.toTree()));
+            fused.setVariable("a", 3).setVariable("b", -2).setVariable("c", 0.5);
+            Expression separate = new ExpressionBuilder(formula).variables("a", "b", "c").build()
+                    .setVariable("a", 3).setVariable("b", -2).setVariable("c", 0.5);
+            assertEquals(separate.evaluate(), fused.evaluate(), 0d);
+        }
+        FunctionNode subtracted = (FunctionNode) build("c - a*b", "a", "b", "c").toTree();
+        assertTrue(subtracted.getArguments().get(0) instanceof OperatorNode);
+        assertEquals(new VariableNode("c"), subtracted.getArguments().get(2));
+    }
+
+    @Test
+    public void testSingleRounding() {
+        Expression separate = new ExpressionBuilder("x*x - 1").variables("x").build().setVariable("x", X);
+        Expression fused = build("x*x - 1", "x").setVariable("x", X);
+        double exact = Math.fma(X, X, -1);
+        assertEquals(Math.scalb(1d, -29), separate.evaluate(), 0d);
+        assertEquals(Math.scalb(1d, -29) + Math.scalb(1d, -60), exact, 0d);
+        assertEquals(exact, fused.evaluate(), 0d);
+        assertEquals(exact, fused.evaluate(fused.bindings()), 0d);
+    }
+
+    @Test
+    public void testOffByDefault() {
+        Expression original = new ExpressionBuilder("2*x + 1 - x*y").variables("x", "y").build();
+        Expression unfused = new ExpressionBuilder("2*x + 1 - x*y").variables("x", "y").fusedMultiplyAdd(false).build();
+        assertTrue(original.toTree() instanceof OperatorNode);
+        assertEquals(original.toTree(), unfused.toTree());
+    }
+
+    @Test
+    public void testHornerChain() {
+        String formula = "((0.5*x + 1.5)*x - 2)*x + 0.25";
+        Expression separate = new ExpressionBuilder(formula).variables("x").build();
+        Expression fused = build(formula, "x");
+        Node tree = fused.toTree();
+        assertTrue(isFma(tree));
+        assertTrue(isFma(((FunctionNode) tree).getArguments().get(0).getChildren().get(0)));
+        Random rnd = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            double x = rnd.nextDouble() * 4 - 2;
+            assertEquals(separate.setVariable("x", x).evaluate(), fused.setVariable("x", x).evaluate(), 1e-14);
+        }
+    }
+
+    @Test
+    public void testGradient() {
+        Expression fused = build("x*y + sin(x) - 3*y", "x", "y");
+        Bindings bindings = fused.bindings().set("x", 0.5).set("y", 2);
+        double[] gradient = new double[2];
+        assertEquals(1 + Math.sin(0.5) - 6, fused.gradient(bindings, gradient), 1e-15);
+        assertEquals(2 + Math.cos(0.5), gradient[bindings.indexOf("x")], 1e-15);
+        assertEquals(0.5 - 3, gradient[bindings.indexOf("y")], 1e-15);
+    }
+
+    @Test
+    public void testFloatExpression() {
+        FloatExpression batch = new FloatExpression(build("x*y - z", "x", "y", "z"), "x", "y", "z");
+        float x = 1 + Math.scalb(1f, -13);
+        float[] results = new float[3];
+        batch.evaluate(new float[][]{{x, 2, 3}, {x, 0.5f, 4}, {1, 1, 1}}, results);
+        assertEquals(Math.fma(x, x, -1f), results[0], 0f);
+        assertEquals(0d, results[1], 0f);
+        assertEquals(11d, results[2], 0f);
+    }
+
+    @Test
+    public void testExactEvaluatorsAreNotContracted() {
+        assertEquals(7L, new ExpressionBuilder("2*3 + 1").fusedMultiplyAdd(true).buildLong().evaluate());
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.Bindings;
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.FloatExpression;
+import net.objecthunter.exp4j.function.LinearCombination;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LinearCombinationDetectionTest {
+
+    private static boolean isDot(Node node) {
+        return node instanceof FunctionNode && ((FunctionNode) node).getFunction() instanceof LinearCombination;
+    }
+
+    private static Expression build(String formula, String... variables) {
+        return new ExpressionBuilder(formula).variables(variables).pass(new LinearCombinationDetection()).build();
+    }
+
+    @Test
+    public void testLargeSum() {
+        int n = 500;
+        String[] variables = new String[n];
+        StringBuilder formula = new StringBuilder("0.25");
+        Random rnd = new Random(1);
+        double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            variables[i] = "f" + i;
+            weights[i] = rnd.nextDouble() * 2 - 1;
+            formula.append(i % 3 == 0 ? " - " : " + ").append(Math.abs(weights[i])).append(" * f").append(i);
+            weights[i] = i % 3 == 0 ? -Math.abs(weights[i]) : Math.abs(weights[i]);
+        }
+        Expression exact = new ExpressionBuilder(formula.toString()).variables(variables).build();
+        Expression packed = build(formula.toString(), variables);
+        Node tree = packed.toTree();
+        assertTrue(isDot(tree));
+        assertEquals(n, ((FunctionNode) tree).getArguments().size());
+
+        Bindings bindings = packed.bindings();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < n; i++) {
+                double value = rnd.nextDouble();
+                exact.setVariable(variables[i], value);
+                packed.setVariable(variables[i], value);
+                bindings.set(variables[i], value);
+            }
+            double expected = exact.evaluate();
+            assertEquals(expected, packed.evaluate(), 1e-12);
+            assertEquals(expected, packed.evaluate(bindings), 1e-12);
+        }
+    }
+
+    @Test
+    public void testNonLinearTermsAreKept() {
+        String formula = "3*x - sin(y) + 2*(y - x/4) + x*y - 1 + z/2";
+        Expression exact = new ExpressionBuilder(formula).variables("x", "y", "z").build();
+        Expression packed = build(formula, "x", "y", "z");
+        Node tree = packed.toTree();
+        assertTrue(tree instanceof OperatorNode);
+        Random rnd = new Random(2);
+        for (int i = 0; i < 100; i++) {
+            double x = rnd.nextDouble() * 4 - 2;
+            double y = rnd.nextDouble() * 4 - 2;
+            double z = rnd.nextDouble() * 4 - 2;
+            exact.setVariable("x", x).setVariable("y", y).setVariable("z", z);
+            packed.setVariable("x", x).setVariable("y", y).setVariable("z", z);
+            assertEquals(exact.evaluate(), packed.evaluate(), 1e-12);
+            assertEquals(exact.evaluate(), packed.evaluate(packed.bindings()), 1e-12);
+        }
+    }
+
+    @Test
+    public void testNestedSumsArePacked() {
+        Expression packed = build("sin(2*x + 3*y - 1) * (x - y)", "x", "y");
+        OperatorNode tree = (OperatorNode) packed.toTree();
+        assertTrue(isDot(((FunctionNode) tree.getOperand(0)).getArguments().get(0)));
+        assertTrue(isDot(tree.getOperand(1)));
+        packed.setVariable("x", 0.5).setVariable("y", 0.25);
+        assertEquals(Math.sin(0.75) * 0.25, packed.evaluate(), 1e-15);
+    }
+
+    @Test
+    public void testSingleTermsAreKept() {
+        Expression original = new ExpressionBuilder("2*x + y*y - 1").variables("x", "y").build();
+        Expression rewritten = build("2*x + y*y - 1", "x", "y");
+        assertEquals(original.toTree(), rewritten.toTree());
+    }
+
+    @Test
+    public void testCancellingWeights() {
+        Expression packed = build("x + 2*y - x - 2*y + 3", "x", "y");
+        assertEquals(3d, packed.evaluate(), 0d);
+    }
+
+    @Test
+    public void testGradient() {
+        Expression packed = build("3*x - 2*y + x/2 + sin(x)", "x", "y");
+        Bindings bindings = packed.bindings().set("x", 0.5).set("y", 2);
+        double[] gradient = new double[2];
+        assertEquals(3.5 * 0.5 - 4 + Math.sin(0.5), packed.gradient(bindings, gradient), 1e-15);
+        assertEquals(3.5 + Math.cos(0.5), gradient[0], 1e-15);
+        assertEquals(-2d, gradient[1], 0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsetVariable() {
+        Expression packed = build("3*x - 2*y + 1", "x", "y");
+        packed.evaluate(packed.bindings().set("x", 1));
+    }
+
+    @Test
+    public void testMatrixVectorProduct() {
+        LinearCombination dot = new LinearCombination(new double[]{1, -2, 0.5}, 3);
+        double[][] columns = new double[3][2500];
+        double[] expected = new double[2500];
+        Random rnd = new Random(3);
+        for (int r = 0; r < expected.length; r++) {
+            for (int c = 0; c < 3; c++) {
+                columns[c][r] = rnd.nextDouble();
+            }
+            expected[r] = dot.apply(columns[0][r], columns[1][r], columns[2][r]);
+        }
+        double[] results = new double[2500];
+        dot.apply(columns, results);
+        assertArrayEquals(expected, results, 1e-15);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMatrixVectorProductWrongColumns() {
+        new LinearCombination(new double[]{1, 2}, 0).apply(new double[1][4], new double[4]);
+    }
+
+    @Test
+    public void testFloatExpression() {
+        Expression packed = build("1 + 2*x - 3*y + z/4 + x*z", "x", "y", "z");
+        packed.setVariable("z", 2);
+        FloatExpression batch = new FloatExpression(packed, "x", "y");
+        float[][] columns = new float[2][3000];
+        Random rnd = new Random(4);
+        for (int r = 0; r < 3000; r++) {
+            columns[0][r] = rnd.nextFloat();
+            columns[1][r] = rnd.nextFloat();
+        }
+        float[] results = new float[3000];
+        batch.evaluate(columns, results);
+        for (int r = 0; r < 3000; r++) {
+            double x = columns[0][r];
+            double y = columns[1][r];
+            assertEquals(1.5 + 4 * x - 3 * y, results[r], 1e-5);
+        }
+    }
+}
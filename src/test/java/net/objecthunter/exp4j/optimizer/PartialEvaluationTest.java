@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.OneArgumentFunction;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.NumberNode;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PartialEvaluationTest {
+
+    private static int size(Node node) {
+        int size = 1;
+        for (Node child : node.getChildren()) {
+            size += size(child);
+        }
+        return size;
+    }
+
+    @Test
+    public void testParametersAreFolded() {
+        StringBuilder formula = new StringBuilder("notional * exp(-r * t) * S + (p0*p1");
+        String[] variables = new String[22];
+        variables[0] = "S";
+        variables[1] = "t";
+        variables[2] = "notional";
+        variables[3] = "r";
+        for (int i = 0; i < 18; i++) {
+            variables[4 + i] = "p" + i;
+            if (i > 1 && i % 2 == 0) {
+                formula.append(" + p").append(i).append("*p").append(i + 1);
+            }
+        }
+        formula.append(") * sqrt(S) - log(p0 + p5) / t");
+        Expression e = new ExpressionBuilder(formula.toString()).variables(variables).build();
+        Map<String, Double> fixed = new HashMap<>();
+        Random rnd = new Random(1);
+        for (int i = 2; i < variables.length; i++) {
+            fixed.put(variables[i], rnd.nextDouble() + 0.5);
+        }
+        Expression specialized = e.specialize(fixed);
+        assertEquals(new HashSet<>(Arrays.asList("S", "t")), specialized.getVariableNames());
+        assertEquals(17, size(specialized.toTree()));
+
+        e.setVariables(fixed);
+        for (int i = 0; i < 100; i++) {
+            double s = rnd.nextDouble() * 100 + 1;
+            double t = rnd.nextDouble() + 0.1;
+            double expected = e.setVariable("S", s).setVariable("t", t).evaluate();
+            double actual = specialized.setVariable("S", s).setVariable("t", t).evaluate();
+            assertEquals(expected, actual, 1e-12 * Math.abs(expected));
+        }
+    }
+
+    @Test
+    public void testConditionIsFolded() {
+        Expression e = new ExpressionBuilder("if(mode > 0, S * k, S / k)").variables("mode", "S", "k").build();
+        Map<String, Double> fixed = new HashMap<>();
+        fixed.put("mode", 1d);
+        fixed.put("k", 2d);
+        Node tree = e.specialize(fixed).toTree();
+        assertTrue(tree instanceof OperatorNode);
+        assertEquals(6d, e.specialize(fixed).setVariable("S", 3).evaluate(), 0d);
+    }
+
+    @Test
+    public void testPureCustomFunctionsAreFolded() {
+        Function square = new OneArgumentFunction("square") {
+            @Override
+            public double apply(double x) {
+                return x * x;
+            }
+        };
+        Function noisy = new OneArgumentFunction("noisy") {
+            @Override
+            public double apply(double x) {
+                return x;
+            }
+
+            @Override
+            public boolean isPure() {
+                return false;
+            }
+        };
+        Expression e = new ExpressionBuilder("square(a) * x + noisy(a)").variables("a", "x").functions(square, noisy)
+                .build();
+        Map<String, Double> fixed = new HashMap<>();
+        fixed.put("a", 3d);
+        OperatorNode sum = (OperatorNode) e.specialize(fixed).toTree();
+        assertEquals(new NumberNode(9), sum.getOperand(0).getChildren().get(0));
+        assertSame(noisy, ((FunctionNode) sum.getOperand(1)).getFunction());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testFailuresAreKept() {
+        Expression e = new ExpressionBuilder("x / (a - 1)").variables("x", "a").build();
+        Expression specialized = e.specialize(Collections.singletonMap("a", 1d));
+        assertEquals(new HashSet<>(Arrays.asList("x")), specialized.getVariableNames());
+        specialized.setVariable("x", 1).evaluate();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testFailingFactorOfZeroIsKept() {
+        Expression e = new ExpressionBuilder("(y / 0) * 0 + x").variables("x", "y").build();
+        e.specialize(Collections.singletonMap("x", 1d)).setVariable("y", 1).evaluate();
+    }
+
+    @Test
+    public void testNaNTimesZero() {
+        Expression e = new ExpressionBuilder("x * y + y ^ x").variables("x", "y").build();
+        Expression specialized = e.specialize(Collections.singletonMap("x", 0d));
+        assertTrue(Double.isNaN(specialized.setVariable("y", Double.NaN).evaluate()));
+        assertEquals(1d, specialized.setVariable("y", 2).evaluate(), 0d);
+    }
+
+    @Test
+    public void testUnknownNamesAreIgnored() {
+        Expression e = new ExpressionBuilder("2 * x").variables("x").build();
+        Map<String, Double> fixed = new HashMap<>();
+        fixed.put("y", 1d);
+        assertEquals(e.toTree(), e.specialize(fixed).toTree());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValue() {
+        Map<String, Double> fixed = new HashMap<>();
+        fixed.put("x", null);
+        new PartialEvaluation(fixed);
+    }
+
+    @Test
+    public void testAsPass() {
+        Map<String, Double> fixed = new HashMap<>();
+        fixed.put("a", 2d);
+        fixed.put("b", 3d);
+        Expression e = new ExpressionBuilder("a * b * x + a ^ b").variables("a", "b", "x")
+                .pass(new PartialEvaluation(fixed))
+                .build();
+        assertEquals(new HashSet<>(Arrays.asList("x")), e.getVariableNames());
+        assertEquals(14d, e.setVariable("x", 1).evaluate(), 0d);
+    }
+}
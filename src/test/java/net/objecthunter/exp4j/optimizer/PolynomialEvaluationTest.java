@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.Bindings;
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import net.objecthunter.exp4j.ir.OperatorNode;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PolynomialEvaluationTest {
+
+    private static final String DEGREE_12 = "0.5 + 1.25*x - 0.75*x^2 + 0.1*x^3 - 2*x^4 + 0.3*x^5 + 1e-1*x^6 - 0.02*x^7"
+            + " + 0.004*x^8 - 3e-4*x^9 + 2e-5*x^10 - 1e-6*x^11 + 3e-8*x^12";
+
+    private static boolean isCall(Node node, String name) {
+        return node instanceof FunctionNode && ((FunctionNode) node).getFunction().getName().equals(name);
+    }
+
+    private static Expression build(String formula, PolynomialEvaluation pass, String... variables) {
+        return new ExpressionBuilder(formula).variables(variables).pass(pass).build();
+    }
+
+    @Test
+    public void testDegree12Polynomial() {
+        for (PolynomialEvaluation.Scheme scheme : PolynomialEvaluation.Scheme.values()) {
+            Expression exact = new ExpressionBuilder(DEGREE_12).variables("x").build();
+            Expression rewritten = build(DEGREE_12, new PolynomialEvaluation(scheme), "x");
+            assertTrue(isCall(rewritten.toTree(), "polynomial"));
+            Random rnd = new Random(1);
+            for (int i = 0; i < 1000; i++) {
+                double x = rnd.nextDouble() * 6 - 3;
+                double expected = exact.setVariable("x", x).evaluate();
+                assertEquals(expected, rewritten.setVariable("x", x).evaluate(), 1e-12 * Math.max(1, Math.abs(expected)));
+            }
+        }
+    }
+
+    @Test
+    public void testEstrinMatchesHorner() {
+        Random rnd = new Random(2);
+        for (int degree = 1; degree <= 9; degree++) {
+            StringBuilder formula = new StringBuilder("1");
+            for (int k = 1; k <= degree; k++) {
+                formula.append(" + ").append(k + 1).append(" * x^").append(k);
+            }
+            Expression horner = build(formula.toString(), new PolynomialEvaluation(), "x");
+            Expression estrin = build(formula.toString(), new PolynomialEvaluation(PolynomialEvaluation.Scheme.ESTRIN), "x");
+            for (int i = 0; i < 100; i++) {
+                double x = rnd.nextDouble() * 2 - 1;
+                double expected = 1;
+                for (int k = 1; k <= degree; k++) {
+                    expected += (k + 1) * Math.pow(x, k);
+                }
+                assertEquals(expected, horner.setVariable("x", x).evaluate(), 1e-12);
+                assertEquals(expected, estrin.setVariable("x", x).evaluate(), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testExpansion() {
+        Expression e = build("(x + 1)^3 - x*(x^2 + 3*x) - 3*x / 2", new PolynomialEvaluation(), "x");
+        assertTrue(isCall(e.toTree(), "polynomial"));
+        assertEquals(1 + 3 * 2.5 - 1.5 * 2.5, e.setVariable("x", 2.5).evaluate(), 1e-12);
+    }
+
+    @Test
+    public void testRationalFunction() {
+        Expression e = build("(x^2 - 1) / (2x^3 + x + 1)", new PolynomialEvaluation(), "x");
+        assertTrue(isCall(e.toTree(), "rational"));
+        assertEquals((0.7 * 0.7 - 1) / (2 * 0.7 * 0.7 * 0.7 + 0.7 + 1), e.setVariable("x", 0.7).evaluate(), 1e-15);
+        assertEquals(1d / 4, build("1 / (x^2 + 3)", new PolynomialEvaluation(), "x")
+                .setVariable("x", 1).evaluate(), 0d);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testRationalDivisionByZero() {
+        build("x / (x^2 - 4)", new PolynomialEvaluation(), "x").setVariable("x", 2).evaluate();
+    }
+
+    @Test
+    public void testNestedPolynomials() {
+        Expression e = build("sin(x^2 + 2x) * y + (y^2 + 1) * x", new PolynomialEvaluation(), "x", "y");
+        OperatorNode sum = (OperatorNode) e.toTree();
+        OperatorNode product = (OperatorNode) sum.getOperand(0);
+        assertTrue(isCall(((FunctionNode) product.getOperand(0)).getArguments().get(0), "polynomial"));
+        assertTrue(isCall(((OperatorNode) sum.getOperand(1)).getOperand(0), "polynomial"));
+        e.setVariable("x", 0.3).setVariable("y", 1.7);
+        assertEquals(Math.sin(0.09 + 0.6) * 1.7 + (1.7 * 1.7 + 1) * 0.3, e.evaluate(), 1e-15);
+    }
+
+    @Test
+    public void testNonPolynomialsAreKept() {
+        String[] formulas = {"x^-1 + x", "x^0.5 + x", "x^y", "2 * x + y", "x / (y + 1)", "x / 0", "1 + 2"};
+        for (String formula : formulas) {
+            Expression original = new ExpressionBuilder(formula).variables("x", "y").build();
+            assertEquals(formula, original.toTree(), build(formula, new PolynomialEvaluation(), "x", "y").toTree());
+        }
+    }
+
+    @Test
+    public void testGradient() {
+        Expression e = build("(x^3 - 2x) / (x^2 + 1)", new PolynomialEvaluation(), "x");
+        Bindings bindings = e.bindings().set("x", 1.5);
+        double[] gradient = new double[1];
+        e.gradient(bindings, gradient);
+        double x = 1.5;
+        double expected = ((3 * x * x - 2) * (x * x + 1) - (x * x * x - 2 * x) * 2 * x) / Math.pow(x * x + 1, 2);
+        assertEquals(expected, gradient[0], 1e-12);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.Bindings;
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import net.objecthunter.exp4j.function.MathMode;
+import net.objecthunter.exp4j.ir.FunctionNode;
+import net.objecthunter.exp4j.ir.Node;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReassociationTest {
+
+    private static int height(Node node) {
+        int height = 0;
+        for (Node child : node.getChildren()) {
+            height = Math.max(height, height(child));
+        }
+        return height + 1;
+    }
+
+    private static Expression build(String formula, Reassociation pass, String... variables) {
+        return new ExpressionBuilder(formula).variables(variables).pass(pass).build();
+    }
+
+    private static String chain(int n, String... operators) {
+        StringBuilder formula = new StringBuilder("x0");
+        for (int i = 1; i < n; i++) {
+            formula.append(' ').append(operators[i % operators.length]).append(" x").append(i);
+        }
+        return formula.toString();
+    }
+
+    private static String[] names(int n) {
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = "x" + i;
+        }
+        return names;
+    }
+
+    @Test
+    public void testBalancedSum() {
+        Expression balanced = build(chain(1024, "+"), new Reassociation(), names(1024));
+        assertEquals(11, height(balanced.toTree()));
+    }
+
+    @Test
+    public void testBalancedProduct() {
+        Expression balanced = build(chain(16, "*"), new Reassociation(), names(16));
+        assertEquals(5, height(balanced.toTree()));
+    }
+
+    @Test
+    public void testMixedSigns() {
+        String formula = "-(x0 - x1) - (x2 + x3 - x4) + x5 - (x6 * x7 * x8 * x9) - x10 + sin(x11 - x12 + x13)";
+        String[] names = names(14);
+        Expression exact = new ExpressionBuilder(formula).variables(names).build();
+        Expression[] rewritten = {
+                build(formula, new Reassociation(), names),
+                build(formula, new Reassociation(Reassociation.Summation.COMPENSATED), names)
+        };
+        Random rnd = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            for (String name : names) {
+                double value = rnd.nextDouble() * 4 - 2;
+                exact.setVariable(name, value);
+                rewritten[0].setVariable(name, value);
+                rewritten[1].setVariable(name, value);
+            }
+            double expected = exact.evaluate();
+            assertEquals(expected, rewritten[0].evaluate(), 1e-13);
+            assertEquals(expected, rewritten[1].evaluate(), 1e-13);
+        }
+    }
+
+    @Test
+    public void testAllNegatedTerms() {
+        Expression balanced = build("-x - y - z - w", new Reassociation(), "x", "y", "z", "w");
+        balanced.setVariable("x", 1).setVariable("y", 2).setVariable("z", 3).setVariable("w", 4);
+        assertEquals(-10d, balanced.evaluate(), 0d);
+    }
+
+    @Test
+    public void testShortChainsAreKept() {
+        Expression original = new ExpressionBuilder("(x + y) * z - 1").variables("x", "y", "z").build();
+        Expression rewritten = build("(x + y) * z - 1", new Reassociation(), "x", "y", "z");
+        assertEquals(original.toTree(), rewritten.toTree());
+    }
+
+    @Test
+    public void testAccuracy() {
+        StringBuilder formula = new StringBuilder("1");
+        for (int i = 0; i < 1000; i++) {
+            formula.append(" + x");
+        }
+        Expression ordered = new ExpressionBuilder(formula.toString()).variables("x").build();
+        Expression pairwise = build(formula.toString(), new Reassociation(), "x");
+        Expression compensated = build(formula.toString(), new Reassociation(Reassociation.Summation.COMPENSATED), "x");
+        double exact = 1 + 1000 * 1e-16;
+        assertEquals(1d, ordered.setVariable("x", 1e-16).evaluate(), 0d);
+        assertEquals(exact, pairwise.setVariable("x", 1e-16).evaluate(), 1e-15);
+        assertEquals(exact, compensated.setVariable("x", 1e-16).evaluate(), 0d);
+    }
+
+    @Test
+    public void testCompensatedOverflow() {
+        Expression compensated = build("x + 1 - y + 2", new Reassociation(Reassociation.Summation.COMPENSATED), "x", "y");
+        assertTrue(compensated.toTree() instanceof FunctionNode);
+        assertEquals(Double.POSITIVE_INFINITY, compensated.setVariable("x", Double.POSITIVE_INFINITY)
+                .setVariable("y", 1).evaluate(), 0d);
+        assertEquals(Double.POSITIVE_INFINITY, compensated.setVariable("x", Double.MAX_VALUE)
+                .setVariable("y", -Double.MAX_VALUE).evaluate(), 0d);
+    }
+
+    @Test
+    public void testGradient() {
+        for (Reassociation.Summation summation : Reassociation.Summation.values()) {
+            Expression e = build("x*y*x*2 - y + x - 3", new Reassociation(summation), "x", "y");
+            Bindings bindings = e.bindings().set("x", 1.5).set("y", -2);
+            double[] gradient = new double[2];
+            assertEquals(-9 + 2 + 1.5 - 3, e.gradient(bindings, gradient), 1e-15);
+            assertEquals(4 * 1.5 * -2 + 1, gradient[bindings.indexOf("x")], 1e-15);
+            assertEquals(2 * 1.5 * 1.5 - 1, gradient[bindings.indexOf("y")], 1e-15);
+        }
+    }
+
+    @Test
+    public void testDeepChain() {
+        Expression balanced = build(chain(20000, "+", "-"), new Reassociation(), names(20000));
+        assertTrue(height(balanced.toTree()) <= 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStrictModeKeepsOrder() {
+        new ExpressionBuilder("x + y + z").variables("x", "y", "z").mathMode(MathMode.STRICT)
+                .pass(new Reassociation()).build();
+    }
+}
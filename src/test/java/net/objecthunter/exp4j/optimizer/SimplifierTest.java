@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Frank Asseg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.objecthunter.exp4j.optimizer;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SimplifierTest {
+
+    private static String simplify(String formula) {
+        return new ExpressionBuilder(formula).variables("x", "y").pass(new Simplifier()).build().toTree().toString();
+    }
+
+    @Test
+    public void testConstantFolding() {
+        assertEquals("(x + 4.0)", simplify("x + 2 * 2"));
+        assertEquals("x", simplify("x * (3 > 2 && 1)"));
+        assertEquals("1.0", simplify("sin(0) + pow(2, 0)"));
+        assertEquals("x", simplify("if(2 - 2, y, x)"));
+    }
+
+    @Test
+    public void testIdentities() {
+        assertEquals("x", simplify("x + 0"));
+        assertEquals("x", simplify("0 + x * 1"));
+        assertEquals("-(x)", simplify("0 - x"));
+        assertEquals("x", simplify("--x"));
+        assertEquals("0.0", simplify("y * 0"));
+        assertEquals("x", simplify("x ^ 1 / 1"));
+        assertEquals("1.0", simplify("y ^ 0"));
+        assertEquals("(x - y)", simplify("x + -y"));
+        assertEquals("(6.0 * x)", simplify("2 * (x * 3)"));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZeroIsKept() {
+        Expression e = new ExpressionBuilder("x + 1 / 0").variables("x").pass(new Simplifier()).build();
+        e.setVariable("x", 1).evaluate();
+    }
+}